@@ -0,0 +1,64 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.AutomationRules;
+import org.kp.chirkova.SimulationEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Тик дома из 10k устройств с ruleCount правилами автоматизации: половина - "в HH:MM задать цель",
+//половина - "в окне времени каждые несколько тиков проверить порог". Правила стоят в колесе таймеров,
+//поэтому тик проверяет только наступившие, и его стоимость почти не зависит от числа правил
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class AutomationBenchmark {
+    private static final int DEVICE_COUNT = 10_000;
+
+    @Param({"0", "1000", "50000"})
+    public int ruleCount;
+
+    private SimulationEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = Populations.mixedHouse(DEVICE_COUNT, 42);
+        engine.activateScenario(engine.getScenarios()[1]);
+        AutomationRules rules = engine.getAutomation();
+        Random random = new Random(7);
+        for (int r = 0; r < ruleCount; r++) {
+            // Устройства одного вида: Populations чередует термостат, свет, камеру
+            int device = random.nextInt(DEVICE_COUNT / 3) * 3;
+            double time = random.nextInt(240) / 10.0;
+            if (r % 2 == 0) {
+                rules.setTargetAt(time, new int[] {device}, 18.0 + random.nextInt(60) / 10.0);
+            } else {
+                rules.setTargetWhen(time, (time + 3.0) % 24.0, 5 + random.nextInt(20), new int[] {device},
+                    true, 19.0, 21.0);
+            }
+        }
+        engine.runTicks(10);
+    }
+
+    @Benchmark
+    public long tick() {
+        engine.tick();
+        return engine.getTickCount();
+    }
+}
@@ -0,0 +1,64 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.DeviceStore;
+import org.kp.chirkova.SimulationEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Тик симуляции: тиков в секунду для домов из 10, 10k и 1M устройств.
+//tick - полный шаг движка (активное множество, энергия сценариев),
+//fullScan - линейный проход по всем устройствам без учета активного множества,
+//fastForwardDay - перемотка суток (240 тиков) по событиям
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class DeviceTickBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int deviceCount;
+
+    private SimulationEngine engine;
+    private DeviceStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = Populations.mixedHouse(deviceCount, 42);
+        engine.activateScenario(engine.getScenarios()[1]);
+        store = engine.getStore();
+        // Выходим из переходного процесса включения, чтобы мерить установившийся режим
+        engine.runTicks(300);
+    }
+
+    @Benchmark
+    public double tick() {
+        engine.tick();
+        return engine.getCurrentPower();
+    }
+
+    @Benchmark
+    public double fullScan() {
+        store.tickRange(0, store.size());
+        return store.getPowerConsumption(0);
+    }
+
+    @Benchmark
+    public double fastForwardDay() {
+        engine.fastForward(240);
+        return engine.getCurrentPower();
+    }
+}
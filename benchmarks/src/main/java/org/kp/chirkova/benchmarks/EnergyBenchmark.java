@@ -0,0 +1,52 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.Scenario;
+import org.kp.chirkova.SimulationEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Учет энергии: чтение накопленной энергии и текущей мощности дома и всех сценариев.
+//Итоги ведутся журналом энергии по изменениям, поэтому чтение не зависит от числа устройств
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class EnergyBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int deviceCount;
+
+    private SimulationEngine engine;
+    private Scenario[] scenarios;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = Populations.mixedHouse(deviceCount, 42);
+        engine.activateScenario(engine.getScenarios()[1]);
+        engine.runTicks(10);
+        scenarios = engine.getScenarios();
+    }
+
+    @Benchmark
+    public double readTotals() {
+        double total = engine.getTotalEnergy() + engine.getCurrentPower();
+        for (Scenario scenario : scenarios) {
+            total += scenario.getTotalEnergyConsumed() + scenario.getCurrentPower();
+        }
+        return total;
+    }
+}
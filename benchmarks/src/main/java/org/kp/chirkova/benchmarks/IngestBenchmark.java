@@ -0,0 +1,88 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.SimulationEngine;
+import org.kp.chirkova.TelemetryIngest;
+import org.kp.chirkova.TelemetryReplay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+//Прием двоичных кадров показаний (TelemetryIngest) в дом из deviceCount устройств, один поток.
+//Кадры заранее записаны генератором TelemetryReplay и читаются из памяти, поэтому замер - это разбор
+//в колонки хранилища плюс копирование пачек в прямой буфер (как из сокета). Результат - кадры в секунду
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class IngestBenchmark {
+    private static final int FRAME_COUNT = 1_000_000;
+
+    @Param({"10000", "1000000"})
+    public int deviceCount;
+
+    private ByteBuffer frames;
+    private TelemetryIngest ingest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimulationEngine source = Populations.mixedHouse(deviceCount, 42);
+        source.activateScenario(source.getScenarios()[1]);
+        frames = ByteBuffer.allocateDirect(FRAME_COUNT * TelemetryIngest.FRAME_BYTES);
+        new TelemetryReplay(source, (FRAME_COUNT + deviceCount - 1) / deviceCount).read(frames);
+        frames.flip();
+        ingest = new TelemetryIngest(Populations.mixedHouse(deviceCount, 42).getStore());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAME_COUNT)
+    public long ingest() throws IOException {
+        return ingest.ingestAll(new MemoryChannel(frames.duplicate()));
+    }
+
+    //Канал, отдающий байты буфера
+    private static final class MemoryChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+
+        MemoryChannel(ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(dst.remaining(), source.remaining());
+            dst.put(source.slice(source.position(), count));
+            source.position(source.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
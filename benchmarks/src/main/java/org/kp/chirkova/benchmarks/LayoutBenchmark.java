@@ -0,0 +1,66 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.DeviceStore;
+import org.kp.chirkova.LayoutFile;
+import org.kp.chirkova.SimulationEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+//Загрузка раскладки кампуса из deviceCount устройств (LayoutFile) из текстового и двоичного файла.
+//Файл пишется один раз во временный каталог из дома Populations.floorPlan, каждое пятое устройство
+//с именем и в одном из двух сценариев; замер - полная загрузка до готового движка. Результат - мс на загрузку
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class LayoutBenchmark {
+    @Param({"10000", "500000"})
+    public int deviceCount;
+
+    @Param({"TEXT", "BINARY"})
+    public LayoutFile.Format format;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DeviceStore store = Populations.floorPlan(deviceCount, 42).getStore();
+        file = Files.createTempFile("chirkova-campus", ".layout");
+        try (LayoutFile.Writer writer = LayoutFile.create(file, format)) {
+            writer.scenario("Ночь", 19, 25).scenario("День", 22, 75).expectDevices(deviceCount);
+            for (int i = 0; i < deviceCount; i++) {
+                writer.device(store.getKind(i), store.getX(i), store.getY(i), store.getTargetValue(i),
+                    i % 2 == 0 ? 1 : 2, i % 5 == 0 ? "Устройство " + i : null);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public SimulationEngine load() throws IOException {
+        return LayoutFile.load(file);
+    }
+}
@@ -0,0 +1,54 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.DeviceStore;
+import org.kp.chirkova.Scenario;
+import org.kp.chirkova.SimulationEngine;
+
+import java.util.Random;
+
+//Синтетические дома для бенчмарков: смесь термостатов, света и камер с воспроизводимыми параметрами
+
+final class Populations {
+    // Ширина и высота плана дома (как у Canvas в view.fxml)
+    static final double WIDTH = 800;
+    static final double HEIGHT = 500;
+    // Шаг между устройствами на большом плане (как в доме по умолчанию: значки с подписями не перекрываются)
+    static final double DEVICE_SPACING = 150;
+
+    private Populations() {
+    }
+
+    //Создает дом из deviceCount устройств: треть термостатов, треть света, треть камер, 80% включены
+    static SimulationEngine mixedHouse(int deviceCount, long seed) {
+        // Устройства раскладываются по сетке, покрывающей весь план
+        int columns = columns(deviceCount);
+        return house(deviceCount, seed, columns, WIDTH / columns);
+    }
+
+    //Тот же дом, но план растет с числом устройств: сетка с шагом DEVICE_SPACING и пропорциями холста
+    static SimulationEngine floorPlan(int deviceCount, long seed) {
+        return house(deviceCount, seed, columns(deviceCount), DEVICE_SPACING);
+    }
+
+    private static int columns(int deviceCount) {
+        return (int) Math.ceil(Math.sqrt(deviceCount * WIDTH / HEIGHT));
+    }
+
+    private static SimulationEngine house(int deviceCount, long seed, int columns, double cell) {
+        Random random = new Random(seed);
+        DeviceStore store = new DeviceStore(deviceCount);
+        for (int i = 0; i < deviceCount; i++) {
+            double x = (i % columns + 0.5) * cell;
+            double y = (i / columns + 0.5) * cell;
+            switch (i % 3) {
+                case 0 -> store.addThermostat(null, x, y, 18.0 + random.nextInt(80) / 10.0);
+                case 1 -> store.addLight(null, x, y, random.nextInt(101));
+                default -> store.addCamera(null, x, y, 100.0);
+            }
+            if (random.nextInt(5) != 0) {
+                store.setOn(i, true);
+            }
+        }
+        return new SimulationEngine(store, Scenario.createKnownScenarios(store));
+    }
+}
@@ -0,0 +1,115 @@
+package org.kp.chirkova.benchmarks;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import org.kp.chirkova.FramePublisher;
+import org.kp.chirkova.HouseFrame;
+import org.kp.chirkova.HouseRenderer;
+import org.kp.chirkova.SimulationEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+//Отрисовка кадра (Controller.draw) на внеэкранный Canvas, не подключенный к окну.
+//Мерится запись команд в GraphicsContext - та работа, которую делает поток JavaFX на каждом импульсе:
+//полный кадр, кадр без изменений (большинство импульсов между тиками) и кадр после тика
+//(с публикацией нового кадра состояния, как в SimulationLoop).
+//План растет с числом устройств (Populations.floorPlan). view: natural - натуральная величина,
+//в кадре только угол плана; fit - весь план на холсте (для больших домов это тепловая карта).
+//Без дисплея запускать с Monocle: -Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class RenderBenchmark {
+    // Время кадра не должно зависеть от числа устройств: за экраном они отсекаются,
+    // а при мелком масштабе сводятся в тепловую карту
+    @Param({"10", "10000", "1000000"})
+    public int deviceCount;
+
+    @Param({"natural", "fit"})
+    public String view;
+
+    private SimulationEngine engine;
+    private FramePublisher frames;
+    private HouseFrame frame;
+    private GraphicsContext gc;
+    private HouseRenderer renderer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        startToolkit();
+        engine = Populations.floorPlan(deviceCount, 42);
+        engine.activateScenario(engine.getScenarios()[1]);
+        engine.runTicks(10);
+        frames = new FramePublisher();
+        frames.publish(engine);
+        frame = frames.take();
+        Canvas canvas = new Canvas(Populations.WIDTH, Populations.HEIGHT);
+        gc = canvas.getGraphicsContext2D();
+        renderer = new HouseRenderer(gc);
+        if (view.equals("fit")) {
+            renderer.fitToPlan(engine.getStore());
+        }
+        // Спрайты растрируются только в потоке JavaFX
+        CountDownLatch prepared = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            renderer.prepareSprites();
+            prepared.countDown();
+        });
+        prepared.await();
+        renderer.update(frame);
+    }
+
+    @Benchmark
+    public GraphicsContext draw() {
+        // Очистка всего холста сбрасывает накопленный буфер команд, иначе он рос бы без ограничений
+        gc.clearRect(0, 0, Populations.WIDTH, Populations.HEIGHT);
+        renderer.draw(frame);
+        return gc;
+    }
+
+    @Benchmark
+    public GraphicsContext updateIdle() {
+        renderer.update(frame);
+        return gc;
+    }
+
+    @Benchmark
+    public GraphicsContext updateAfterTick() {
+        // Включает стоимость самого тика; очистка сбрасывает буфер команд, как в draw()
+        gc.clearRect(0, 0, Populations.WIDTH, Populations.HEIGHT);
+        engine.tick();
+        frames.publish(engine);
+        frame = frames.take();
+        renderer.update(frame);
+        return gc;
+    }
+
+    private static void startToolkit() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException e) {
+            // Toolkit уже запущен в этой JVM
+            started.countDown();
+        }
+        started.await();
+    }
+}
@@ -0,0 +1,60 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.Scenario;
+import org.kp.chirkova.SimulationEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Активация сценария: переключение всего дома между "Ночь" и "День" и повторная активация
+//примененного сценария (активация пишет только отличия, поэтому стоит лишь проверки)
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class ScenarioBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int deviceCount;
+
+    private SimulationEngine engine;
+    private Scenario night;
+    private Scenario day;
+    private boolean nightNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = Populations.mixedHouse(deviceCount, 42);
+        night = engine.getScenarios()[0];
+        day = engine.getScenarios()[1];
+    }
+
+    @Benchmark
+    public Scenario activate() {
+        // Чередуем сценарии, чтобы каждая активация действительно меняла цели
+        Scenario scenario = nightNext ? night : day;
+        nightNext = !nightNext;
+        engine.activateScenario(scenario);
+        return scenario;
+    }
+
+    @Benchmark
+    public Scenario activateApplied() {
+        // Повторная активация уже примененного сценария: ни одно устройство не меняется
+        engine.activateScenario(day);
+        return day;
+    }
+}
@@ -0,0 +1,70 @@
+package org.kp.chirkova.benchmarks;
+
+import org.kp.chirkova.DeviceStore;
+import org.kp.chirkova.Scenario;
+import org.kp.chirkova.SimulationEngine;
+import org.kp.chirkova.TickScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Тик здания из zoneCount помещений тепловой модели (ThermalModel): термостаты по сетке плана с шагом
+//Populations.DEVICE_SPACING, у каждого свое помещение, стены с соседями по сетке (включая диагональных),
+//каждый второй термостат греет до 21°C. Тик в одном потоке - шаг модели последовательный.
+//Результат - мкс на тик (модель и термостаты вместе)
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ThermalBenchmark {
+    @Param({"1000", "10000"})
+    public int zoneCount;
+
+    private SimulationEngine engine;
+    private TickScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DeviceStore store = new DeviceStore(zoneCount);
+        int columns = (int) Math.ceil(Math.sqrt(zoneCount));
+        for (int i = 0; i < zoneCount; i++) {
+            store.addThermostat(null, (i % columns + 0.5) * Populations.DEVICE_SPACING,
+                (i / columns + 0.5) * Populations.DEVICE_SPACING, 21.0);
+            if (i % 2 == 0) {
+                store.setOn(i, true);
+            }
+        }
+        engine = new SimulationEngine(store, new Scenario[0]);
+        scheduler = new TickScheduler(1, TickScheduler.DEFAULT_CHUNK_SIZE);
+        engine.setScheduler(scheduler);
+        engine.getThermalModel().addRoomsForThermostats(Populations.DEVICE_SPACING + 10);
+        // Сутки на установление температур
+        engine.runTicks(240);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Benchmark
+    public long tick() {
+        engine.tick();
+        return engine.getTickCount();
+    }
+}
@@ -1,8 +1,16 @@
 module org.kp.chirkova {
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.jfr;
 
 
     opens org.kp.chirkova to javafx.fxml;
     exports org.kp.chirkova;
-}
\ No newline at end of file
+
+    // Виды устройств: встроенные и подключаемые другими модулями
+    uses org.kp.chirkova.DeviceKind;
+    provides org.kp.chirkova.DeviceKind with
+        org.kp.chirkova.Thermostat,
+        org.kp.chirkova.Light,
+        org.kp.chirkova.SecurityCamera;
+}
@@ -0,0 +1,306 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Правила автоматизации по времени суток: "в 22:00 активировать Ночь", "с 06:00 до 12:00 каждые
+//5 тиков: если в гостиной ниже 18°C, поставить 21°C". Срок следующей проверки каждого правила
+//стоит в колесе таймеров (TimingWheel) по тикам, поэтому тик проверяет только наступившие правила.
+//Время суток переводится в тики тем же шагом часов, что и у движка (SimulationEngine.nextTimeOfDay)
+
+public class AutomationRules {
+    // Время суток на тике считается наступившим с таким допуском (часы копят ошибку округления)
+    private static final double TIME_EPSILON = 1e-9;
+    // Больше тиков, чем в двух сутках, до любого времени суток не бывает
+    private static final int MAX_TICKS_UNTIL = (int) Math.ceil(2 * 24.0 / SimulationEngine.TIME_STEP_HOURS) + 4;
+
+    // Условие правила
+    private static final byte ALWAYS = 0;
+    private static final byte BELOW = 1;
+    private static final byte ABOVE = 2;
+
+    private final SimulationEngine engine;
+    private final DeviceStore store;
+    private TimingWheel wheel;
+
+    // Правила (колонки по номеру правила; номера удаленных правил используются повторно)
+    private int ruleCount;
+    private boolean[] used = new boolean[16];
+    private double[] fromTime = new double[16];
+    private double[] untilTime = new double[16];
+    private long[] every = new long[16];
+    private byte[] condition = new byte[16];
+    private int[][] conditionDevices = new int[16][];
+    private double[] threshold = new double[16];
+    private Scenario[] scenarios = new Scenario[16];
+    private int[][] targetDevices = new int[16][];
+    private double[] targets = new double[16];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int activeRules;
+
+    // Сколько раз правила выполнили действие
+    private long firedCount;
+
+    // Время суток на ближайших тиках после времени upcomingFrom (upcoming[k] - через k тиков).
+    // Правила одного тика переставляются от одного и того же времени, поэтому пересчет редкий
+    private final double[] upcoming = new double[MAX_TICKS_UNTIL + 1];
+    private double upcomingFrom = Double.NaN;
+    // Номера тиков, на которых часы переходят через полночь (2 раза за MAX_TICKS_UNTIL тиков)
+    private int firstWrap;
+    private int secondWrap;
+
+    AutomationRules(SimulationEngine engine, DeviceStore store, long startTick) {
+        this.engine = engine;
+        this.store = store;
+        this.wheel = new TimingWheel(startTick);
+    }
+
+    //Каждый день в timeOfDay активирует сценарий
+    public int activateAt(double timeOfDay, Scenario scenario) {
+        if (scenario == null) {
+            throw new IllegalArgumentException("Не задан сценарий правила");
+        }
+        int id = add(timeOfDay, Double.NaN, 0, ALWAYS, null, 0.0);
+        scenarios[id] = scenario;
+        arm(id);
+        return id;
+    }
+
+    //Каждый день в timeOfDay включает устройства и задает им целевое значение
+    public int setTargetAt(double timeOfDay, int[] devices, double target) {
+        checkDevices(devices);
+        int id = add(timeOfDay, Double.NaN, 0, ALWAYS, null, 0.0);
+        targetDevices[id] = devices.clone();
+        targets[id] = target;
+        arm(id);
+        return id;
+    }
+
+    //С fromTime до untilTime каждые checkTicks тиков: если текущее значение хотя бы одного из устройств
+    //ниже (below) или выше порога, включает эти устройства и задает им целевое значение
+    public int setTargetWhen(double fromTime, double untilTime, long checkTicks, int[] devices,
+                             boolean below, double threshold, double target) {
+        checkTime(untilTime);
+        checkDevices(devices);
+        if (checkTicks < 1) {
+            throw new IllegalArgumentException("Период проверки правила должен быть не меньше тика: " + checkTicks);
+        }
+        int id = add(fromTime, untilTime, checkTicks, below ? BELOW : ABOVE, devices.clone(), threshold);
+        targetDevices[id] = conditionDevices[id];
+        targets[id] = target;
+        arm(id);
+        return id;
+    }
+
+    //Удаляет правило
+    public void remove(int id) {
+        if (id < 0 || id >= ruleCount || !used[id]) {
+            throw new IllegalArgumentException("Нет правила с номером " + id);
+        }
+        wheel.cancel(id);
+        used[id] = false;
+        scenarios[id] = null;
+        conditionDevices[id] = null;
+        targetDevices[id] = null;
+        freeIds[freeCount++] = id;
+        activeRules--;
+    }
+
+    //Число правил
+    public int size() {
+        return activeRules;
+    }
+
+    //Сколько раз правила выполнили действие
+    public long getFiredCount() {
+        return firedCount;
+    }
+
+    //Тик следующей проверки какого-либо правила (Long.MAX_VALUE - правил нет)
+    public long nextDueTick() {
+        return wheel.nextDeadline();
+    }
+
+    //Проверяет правила, срок которых наступил на тике now (timeOfDay - время суток этого тика).
+    //Правила выполняются по возрастанию номера: при конфликте последним пишет более позднее правило
+    void tick(long now, double timeOfDay) {
+        int count = wheel.advance(now);
+        if (count == 0) {
+            return;
+        }
+        int[] due = wheel.getDue();
+        Arrays.sort(due, 0, count);
+        for (int k = 0; k < count; k++) {
+            int id = due[k];
+            if (!used[id]) {
+                continue;
+            }
+            boolean repeating = every[id] > 0;
+            if (!repeating || inWindow(id, timeOfDay)) {
+                if (conditionHolds(id)) {
+                    fire(id);
+                }
+            }
+            // Следующая проверка: через период внутри окна, иначе - в следующее начало окна
+            if (repeating && inWindow(id, timeOfDay)) {
+                wheel.schedule(id, now + every[id]);
+            } else {
+                wheel.schedule(id, now + ticksUntil(timeOfDay, fromTime[id]));
+            }
+        }
+    }
+
+    //Часы движения переставлены (восстановление из снимка): сроки правил считаются заново
+    void clockReset(long tick) {
+        wheel = new TimingWheel(tick);
+        for (int id = 0; id < ruleCount; id++) {
+            if (used[id]) {
+                arm(id);
+            }
+        }
+    }
+
+    private int add(double from, double until, long period, byte test, int[] devices, double limit) {
+        checkTime(from);
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (ruleCount == used.length) {
+                grow(ruleCount * 2);
+            }
+            id = ruleCount++;
+        }
+        used[id] = true;
+        fromTime[id] = from;
+        untilTime[id] = until;
+        every[id] = period;
+        condition[id] = test;
+        conditionDevices[id] = devices;
+        threshold[id] = limit;
+        activeRules++;
+        return id;
+    }
+
+    //Ставит первую проверку правила: сразу, если повторяющееся правило уже в своем окне, иначе - в начало окна
+    private void arm(int id) {
+        long now = engine.getTickCount();
+        double timeOfDay = engine.getGlobalTimeOfDay();
+        if (every[id] > 0 && inWindow(id, timeOfDay)) {
+            wheel.schedule(id, now + 1);
+        } else {
+            wheel.schedule(id, now + ticksUntil(timeOfDay, fromTime[id]));
+        }
+    }
+
+    private void fire(int id) {
+        firedCount++;
+        if (scenarios[id] != null) {
+            engine.activateScenario(scenarios[id]);
+        } else {
+            store.setOnAll(targetDevices[id], true);
+            store.setTargetValueAll(targetDevices[id], targets[id]);
+        }
+    }
+
+    private boolean conditionHolds(int id) {
+        if (condition[id] == ALWAYS) {
+            return true;
+        }
+        double[] values = store.currentValue;
+        for (int i : conditionDevices[id]) {
+            if (condition[id] == BELOW ? values[i] < threshold[id] : values[i] > threshold[id]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Попадает ли время суток в окно правила [from, until) (окно может переходить через полночь)
+    private boolean inWindow(int id, double timeOfDay) {
+        double from = fromTime[id] - TIME_EPSILON;
+        double until = untilTime[id] - TIME_EPSILON;
+        return from <= until
+            ? timeOfDay >= from && timeOfDay < until
+            : timeOfDay >= from || timeOfDay < until;
+    }
+
+    //Число тиков от времени суток timeOfDay до первого тика, на котором наступает время target
+    private int ticksUntil(double timeOfDay, double target) {
+        if (Double.doubleToLongBits(timeOfDay) != Double.doubleToLongBits(upcomingFrom)) {
+            fillUpcoming(timeOfDay);
+        }
+        double edge = target - TIME_EPSILON;
+        // До полуночи время растет: первый тик не раньше edge ищется двоичным поиском
+        if (timeOfDay < edge) {
+            int k = firstAtLeast(1, firstWrap, edge);
+            return k < firstWrap ? k : firstWrap;
+        }
+        // Иначе - после полуночи (переход через полночь сам наступает, если edge почти 0)
+        if (edge <= upcoming[firstWrap]) {
+            return firstWrap;
+        }
+        int k = firstAtLeast(firstWrap + 1, secondWrap, edge);
+        return k < secondWrap ? k : secondWrap;
+    }
+
+    private void fillUpcoming(double timeOfDay) {
+        upcomingFrom = timeOfDay;
+        upcoming[0] = timeOfDay;
+        firstWrap = MAX_TICKS_UNTIL;
+        secondWrap = MAX_TICKS_UNTIL;
+        for (int k = 1; k <= MAX_TICKS_UNTIL; k++) {
+            upcoming[k] = SimulationEngine.nextTimeOfDay(upcoming[k - 1]);
+            if (upcoming[k] < upcoming[k - 1]) {
+                if (firstWrap == MAX_TICKS_UNTIL) {
+                    firstWrap = k;
+                } else if (secondWrap == MAX_TICKS_UNTIL) {
+                    secondWrap = k;
+                }
+            }
+        }
+    }
+
+    //Первый индекс из [from, to), где upcoming не меньше edge (upcoming там возрастает), иначе to
+    private int firstAtLeast(int from, int to, double edge) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (upcoming[middle] >= edge) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private void checkDevices(int[] devices) {
+        for (int i : devices) {
+            if (i < 0 || i >= store.size()) {
+                throw new IllegalArgumentException("Нет устройства с индексом " + i);
+            }
+        }
+    }
+
+    private static void checkTime(double timeOfDay) {
+        if (!(timeOfDay >= 0.0 && timeOfDay < 24.0)) {
+            throw new IllegalArgumentException("Время суток должно быть от 0 до 24 часов: " + timeOfDay);
+        }
+    }
+
+    private void grow(int capacity) {
+        used = Arrays.copyOf(used, capacity);
+        fromTime = Arrays.copyOf(fromTime, capacity);
+        untilTime = Arrays.copyOf(untilTime, capacity);
+        every = Arrays.copyOf(every, capacity);
+        condition = Arrays.copyOf(condition, capacity);
+        conditionDevices = Arrays.copyOf(conditionDevices, capacity);
+        threshold = Arrays.copyOf(threshold, capacity);
+        scenarios = Arrays.copyOf(scenarios, capacity);
+        targetDevices = Arrays.copyOf(targetDevices, capacity);
+        targets = Arrays.copyOf(targets, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+}
@@ -1,60 +1,90 @@
 package org.kp.chirkova;
 
 import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.MouseEvent;
-import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Optional;
 
-//Контроллер для управления умным домом
+//Контроллер для управления умным домом. Движок тикает в своем потоке (SimulationLoop), интерфейс
+//рисует последний опубликованный кадр и меняет дом только задачами цикла и командами устройствам
 
 public class Controller {
+    // Файл снимка состояния дома и период сохранения (20 тиков = 10 секунд в реальном времени)
+    private static final Path SNAPSHOT_PATH = Path.of(System.getProperty("user.home"), "chirkova-house.snapshot");
+    private static final long SNAPSHOT_INTERVAL_TICKS = 20;
+
+    // Свойство с темпом симуляции: во сколько раз быстрее реального времени (по умолчанию 1)
+    private static final String SPEED_PROPERTY = "chirkova.speed";
+    // Свойство с путем к файлу раскладки (LayoutFile): дом загружается из него, а не из снимка
+    private static final String LAYOUT_PROPERTY = "chirkova.layout";
+
+    // Изменение масштаба за одно деление колеса мыши
+    private static final double ZOOM_STEP = 1.1;
+    private static final double SCROLL_NOTCH = 40;
+    // Радиус попадания кликом в устройство на плане
+    private static final double DEVICE_HIT_RADIUS = 60;
+
     @FXML
     private Canvas canvas;
 
+    @FXML
+    private Pane canvasPane;
+
     @FXML
     private Label statusLabel;
 
     @FXML
     private Label energyLabel;
+
+    @FXML
+    private HBox scenarioBox;
     
-    private GraphicsContext gc;
-    private SmartDevice[] devices;
-    private Scenario[] scenarios;
+    private HouseRenderer renderer;
+    // Движок симуляции: устройства, сценарии и часы (меняется только в потоке цикла)
+    private SimulationEngine engine;
+    private SimulationLoop loop;
+    // Кадры состояния от движка и кадр, показанный на экране
+    private FramePublisher frames;
+    private HouseFrame shownFrame;
+    // Метрики тика и отрисовки (доступны во время работы через engine.getMetrics())
+    private final EngineMetrics metrics = new EngineMetrics();
     private AnimationTimer animationTimer;
-    private long lastUpdateTime = 0;
-    private long lastMouseMoveTime = 0;
-    
-    // Глобальное время суток
-    private double globalTimeOfDay = 0.0;
-    
-    // Сценарии
-    private Scenario activeScenario; // Текущий активный сценарий
+    // Последняя точка перетаскивания плана
+    private double dragX;
+    private double dragY;
 
     //Инициализация контроллера
     @FXML
     public void initialize() {
-        gc = canvas.getGraphicsContext2D();
+        renderer = new HouseRenderer(canvas.getGraphicsContext2D());
+        // Холст занимает все место, отведенное ему в окне
+        canvas.widthProperty().bind(canvasPane.widthProperty());
+        canvas.heightProperty().bind(canvasPane.heightProperty());
         
-        // Создаем устройства
-        devices = new SmartDevice[] {
-            new SecurityCamera("Камера Входная Дверь", 100, 250, 100.0), // Левая камера
-            new Thermostat("Гостиная Термостат", 300, 150, 17.0),
-            new Thermostat("Спальня Термостат", 300, 350, 17.0),
-            new Light("Гостиная Свет", 500, 150, 0.0),
-            new Light("Спальня Свет", 500, 350, 0.0),
-            new SecurityCamera("Камера Задняя Дверь", 700, 250, 100.0) // Правая камера
-        };
-
-        // Создаем сценарии используя статический метод
-        scenarios = Scenario.createKnownScenarios(devices);
-        activeScenario = null; // по умолчанию нет активного сценария
+        // Восстанавливаем дом из снимка прошлого запуска, иначе создаем движок с устройствами
+        // и сценариями дома (по умолчанию нет активного сценария)
+        engine = restoreOrCreateHouse();
+        double speed = simulationSpeed();
+        // Снимки пишутся раз в 10 секунд реального времени при любом темпе
+        engine.setCheckpoint(new SnapshotFile(SNAPSHOT_PATH),
+            Math.max(SNAPSHOT_INTERVAL_TICKS, Math.round(SNAPSHOT_INTERVAL_TICKS * speed)));
+        engine.setMetrics(metrics);
+        frames = new FramePublisher();
+        loop = new SimulationLoop(engine, frames, speed);
+        loop.setFailureHandler(this::onSimulationFailure);
+        addScenarioButtons();
         
         // Добавляем обработчик кликов на Canvas
         canvas.addEventHandler(MouseEvent.MOUSE_CLICKED, this::onCanvasClick);
@@ -62,372 +92,226 @@ public class Controller {
         // Добавляем обработчик движения мыши для камер
         canvas.addEventHandler(MouseEvent.MOUSE_MOVED, this::onCanvasMouseMove);
         canvas.addEventHandler(MouseEvent.MOUSE_EXITED, this::onCanvasMouseExit);
+
+        // Перетаскивание двигает план, колесо мыши меняет масштаб
+        canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, this::onCanvasPress);
+        canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::onCanvasDrag);
+        canvas.addEventHandler(ScrollEvent.SCROLL, this::onCanvasScroll);
         
-        // Запускаем анимацию
+        // Запускаем движок и анимацию
+        loop.start();
         startAnimation();
     }
 
-    //Обработчик движения мыши на Canvas - активирует камеры в зависимости от позиции
-    private void onCanvasMouseMove(MouseEvent event) {
-        lastMouseMoveTime = System.nanoTime();
-        double mouseX = event.getX();
-        double middleX = canvas.getWidth() / 2.0;
-        boolean mouseInLeftZone = mouseX < middleX;
-        
-        for (SmartDevice device : devices) {
-            if (device instanceof SecurityCamera camera) {
-                boolean isLeftCamera = camera.getX() < middleX;
-                camera.setMouseMovingInZone(isLeftCamera == mouseInLeftZone);
+    //Темп симуляции из свойства chirkova.speed (неверное значение - реальное время)
+    private double simulationSpeed() {
+        String value = System.getProperty(SPEED_PROPERTY, "1");
+        try {
+            double speed = Double.parseDouble(value);
+            if (speed > 0 && !Double.isInfinite(speed)) {
+                return speed;
             }
+        } catch (NumberFormatException e) {
+            // Ниже - как для любого неверного значения
         }
+        statusLabel.setText("Неверный темп симуляции " + value + ", используется реальное время");
+        return 1;
     }
 
-     //Обработчик выхода мыши за пределы Canvas - останавливает камеры
-    private void onCanvasMouseExit(MouseEvent event) {
-        for (SmartDevice device : devices) {
-            if (device instanceof SecurityCamera camera) {
-                camera.setMouseMovingInZone(false);
-            }
+    //Исключение тика или задачи (в потоке движка)
+    private void onSimulationFailure(RuntimeException e) {
+        if (e instanceof UncheckedIOException io) {
+            // Тик уже выполнен, не удалось только сохранить снимок - дальше работаем без снимков
+            engine.setCheckpoint(null, 0);
+            Platform.runLater(() -> statusLabel.setText("Снимки отключены: " + io.getCause().getMessage()));
+            return;
         }
+        Platform.runLater(() -> statusLabel.setText("Симуляция остановлена: " + e.getMessage()));
+        throw e;
     }
 
-    //Обработчик клика на Canvas для ручного управления устройствами
-    private void onCanvasClick(MouseEvent event) {
-        double mouseX = event.getX();
-        double mouseY = event.getY();
-        
-        // Проверяем, кликнули ли на какое-то устройство
-        for (SmartDevice device : devices) {
-            double dx = mouseX - device.getX();
-            double dy = mouseY - device.getY();
-            double distance = Math.sqrt(dx * dx + dy * dy);
-            
-            // Если клик в пределах устройства (радиус ~60 пикселей)
-            if (distance < 60) {
-                boolean wasOn = device.isOn();
-                
-                // Если устройство включено - выключаем его
-                if (wasOn) {
-                    device.setOn(false);
-                    statusLabel.setText("Выключено: " + device.getName());
-                } else {
-                    // Если устройство выключено - включаем с запросом параметров
-                    if (device instanceof Thermostat) {
-                        showTemperatureInputDialog((Thermostat) device);
-                    } else if (device instanceof Light) {
-                        showLightInputDialog((Light) device);
-                    } else {
-                        // Для других устройств (камеры) просто включаем
-                        device.setOn(true);
-                        statusLabel.setText("Включено: " + device.getName());
-                    }
-                }
-                
-                // Сбрасываем активный сценарий при ручном управлении
-                activeScenario = null;
-                break;
+    private SimulationEngine restoreOrCreateHouse() {
+        String layout = System.getProperty(LAYOUT_PROPERTY);
+        if (layout != null) {
+            try {
+                SimulationEngine loaded = LayoutFile.load(Path.of(layout));
+                statusLabel.setText("Раскладка загружена: " + loaded.getStore().size() + " устройств");
+                return loaded;
+            } catch (IOException e) {
+                statusLabel.setText("Раскладка не загружена: " + e.getMessage());
+            }
+        } else if (SnapshotFile.exists(SNAPSHOT_PATH)) {
+            try {
+                SimulationEngine restored = SnapshotFile.restore(SNAPSHOT_PATH);
+                statusLabel.setText("Состояние восстановлено из снимка");
+                return restored;
+            } catch (IOException e) {
+                statusLabel.setText("Снимок не загружен: " + e.getMessage());
             }
         }
+        return SimulationEngine.createDefaultHouse();
     }
 
-     //Запускает анимационный цикл
-    private void startAnimation() {
-        animationTimer = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                // Обновляем устройства каждые 500мс
-                if (now - lastUpdateTime >= 500_000_000) {
-                    updateDevices();
-                    lastUpdateTime = now;
-                }
-                draw();
-            }
-        };
-        animationTimer.start();
+    //Обработчик движения мыши на Canvas - активирует камеры, в зону которых попал курсор
+    private void onCanvasMouseMove(MouseEvent event) {
+        Viewport viewport = renderer.getViewport();
+        double x = viewport.toWorldX(event.getX());
+        double y = viewport.toWorldY(event.getY());
+        loop.execute(() -> engine.reportMotion(x, y));
     }
 
-     //Обновляет состояние всех устройств
-    private void updateDevices() {
-        // Обновляем глобальное время суток
-        globalTimeOfDay += 0.1; // 0.1 часа за обновление
-        if (globalTimeOfDay > 24.0) globalTimeOfDay = 0.0;
-        
-        // Проверяем, было ли движение мыши недавно (в течение последних 500мс)
-        long currentTime = System.nanoTime();
-        if (lastMouseMoveTime > 0 && (currentTime - lastMouseMoveTime) > 500_000_000) {
-            for (SmartDevice device : devices) {
-                if (device instanceof SecurityCamera camera) {
-                    camera.setMouseMovingInZone(false);
-                }
-            }
-        }
-        
-        // Обновляем устройства
-        for (SmartDevice device : devices) {
-            // Передаем глобальное время в устройства света
-            if (device instanceof Light) {
-                ((Light) device).setGlobalTimeOfDay(globalTimeOfDay);
-            }
-            device.updateCurrentValue();
-            device.analyzeAndAdjust();
-        }
-        
-        // Обновляем энергопотребление сценариев и собираем статистику
-        double totalEnergy = 0.0;
-        double currentPower = 0.0;
-        for (Scenario scenario : scenarios) {
-            scenario.updateEnergyConsumption();
-            totalEnergy += scenario.getTotalEnergyConsumed();
-            currentPower += scenario.getCurrentPower();
-        }
-        
-        // Обновляем информацию об энергопотреблении
-        energyLabel.setText(String.format("Общая энергия: %.2f кВт*ч | Текущая мощность: %.2f кВт*ч",
-            totalEnergy, currentPower / 1000.0));
+    private void onCanvasPress(MouseEvent event) {
+        dragX = event.getX();
+        dragY = event.getY();
     }
 
-     //Отрисовывает все устройства на Canvas
-    private void draw() {
-        // Очищаем canvas
-        gc.setFill(Color.LIGHTGRAY);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        
-        // Рисуем заголовок
-        gc.setFill(Color.BLUE);
-        gc.setFont(new Font("Arial", 18));
-        gc.fillText("Система управления умным домом", 10, 25);
-        // Рисуем время суток
-        drawTimeOfDay();
-        // Рисуем каждое устройство
-        for (SmartDevice device : devices) {
-            drawDevice(device);
-        }
-        // Рисуем информацию о сценариях
-        drawScenariosInfo();
+    //Перетаскивание плана мышью
+    private void onCanvasDrag(MouseEvent event) {
+        renderer.getViewport().pan(event.getX() - dragX, event.getY() - dragY);
+        dragX = event.getX();
+        dragY = event.getY();
     }
 
-     //Отрисовывает одно устройство
-    private void drawDevice(SmartDevice device) {
-        double x = device.getX();
-        double y = device.getY();
-        
-        // Определяем, включено ли устройство и активно ли оно
-        boolean isOn = device.isOn();
-        boolean active = device.getPowerConsumption() > 0; // Активно, если потребляет энергию
-        
-        // Рисуем фон устройства (круг)
-        Color bgColor = isOn ? Color.WHITE : Color.LIGHTGRAY;
-        gc.setFill(bgColor);
-        gc.fillOval(x - 50, y - 50, 100, 100);
-        
-        // Рамка устройства
-        gc.setStroke(isOn ? Color.BLACK : Color.GRAY);
-        gc.setLineWidth(isOn ? 3 : 2);
-        gc.strokeOval(x - 50, y - 50, 100, 100);
-        
-        // Рисуем иконку устройства в зависимости от типа
-        if (device instanceof Thermostat) {
-            drawThermostatIcon(x, y, active);
-        } else if (device instanceof Light light) {
-            drawLightIcon(x, y, light.getCurrentValue() / 100.0, active);
-        } else if (device instanceof SecurityCamera) {
-            drawCameraIcon(x, y, device.getCurrentValue() == 100.0);
-        }
-        
-        // Индикатор включения/выключения
-        gc.setFill(isOn ? (active ? Color.GREEN : Color.ORANGE) : Color.DARKGRAY);
-        gc.fillOval(x - 55, y - 55, 15, 15);
-        gc.setStroke(Color.BLACK);
-        gc.setLineWidth(1);
-        gc.strokeOval(x - 55, y - 55, 15, 15);
-        
-        // Текст с именем устройства
-        gc.setFill(Color.BLACK);
-        gc.setFont(new Font("Arial", 11));
-        String[] nameParts = device.getName().split(" ");
-        gc.fillText(nameParts[0], x - 30, y + 65);
-        if (nameParts.length > 1) {
-            gc.fillText(nameParts[1], x - 30, y + 78);
-        }
-        
-        // Текущее значение
-        String valueText = device instanceof Thermostat
-            ? String.format("%.1f°C", device.getCurrentValue())
-            : String.format("%.0f%%", device.getCurrentValue());
-        gc.setFont(new Font("Arial", 12));
-        gc.setFill(Color.BLUE);
-        gc.fillText(valueText, x - 20, y - 60);
-        
-        // Мощность
-        gc.setFill(Color.RED);
-        gc.setFont(new Font("Arial", 14));
-        gc.fillText(String.format("%.0fВт", device.getPowerConsumption()), x - 20, y + 95);
+    //Масштаб колесом мыши относительно точки под курсором
+    private void onCanvasScroll(ScrollEvent event) {
+        double factor = Math.pow(ZOOM_STEP, event.getDeltaY() / SCROLL_NOTCH);
+        renderer.getViewport().zoomAt(factor, event.getX(), event.getY());
     }
 
-     //Рисует иконку термостата
-    private void drawThermostatIcon(double x, double y, boolean active) {
-        // Корпус термостата
-        gc.setFill(active ? Color.RED : Color.LIGHTBLUE);
-        gc.fillRoundRect(x - 25, y - 20, 50, 40, 10, 10);
-        gc.setStroke(Color.BLACK);
-        gc.setLineWidth(2);
-        gc.strokeRoundRect(x - 25, y - 20, 50, 40, 10, 10);
-        
-        // Дисплей с температурой
-        gc.setFill(Color.WHITE);
-        gc.fillRect(x - 20, y - 15, 40, 15);
-        gc.setFill(Color.BLACK);
-        gc.setFont(new Font("Arial", 10));
-        gc.fillText("TEMP", x - 15, y - 3);
+     //Обработчик выхода мыши за пределы Canvas - останавливает камеры
+    private void onCanvasMouseExit(MouseEvent event) {
+        loop.execute(engine::clearMotion);
     }
 
-     //Рисует иконку лампы
-    private void drawLightIcon(double x, double y, double brightness, boolean active) {
-        // Лампа (круг)
-        Color lampColor = Color.color(1.0, 1.0, 0.3, brightness);
-        gc.setFill(lampColor);
-        gc.fillOval(x - 20, y - 20, 40, 40);
-        gc.setStroke(Color.BLACK);
-        gc.setLineWidth(2);
-        gc.strokeOval(x - 20, y - 20, 40, 40);
+    //Обработчик клика на Canvas для ручного управления устройствами
+    private void onCanvasClick(MouseEvent event) {
+        // Клик в конце перетаскивания плана устройства не переключает
+        if (!event.isStillSincePress()) {
+            return;
+        }
+        // Точка клика на плане дома
+        double mouseX = renderer.getViewport().toWorldX(event.getX());
+        double mouseY = renderer.getViewport().toWorldY(event.getY());
         
-        // Цоколь лампы
-        gc.setFill(Color.GRAY);
-        gc.fillRect(x - 10, y + 15, 20, 10);
-        gc.setStroke(Color.BLACK);
-        gc.strokeRect(x - 10, y + 15, 20, 10);
-    }
+        // Проверяем, кликнули ли на какое-то устройство: ближайшее в пределах радиуса по индексу плана
+        // (расположение устройств не меняется, пока дом работает, поэтому индекс читается из потока JavaFX)
+        DeviceStore store = engine.getStore();
+        int index = store.getSpatialIndex().nearest(mouseX, mouseY, DEVICE_HIT_RADIUS);
+        // Состояние устройства - каким его видит пользователь, то есть из показанного кадра
+        HouseFrame frame = shownFrame;
+        if (index < 0 || frame == null || index >= frame.size()) {
+            return;
+        }
+        String name = store.getName(index);
 
-     //Рисует иконку камеры
-    private void drawCameraIcon(double x, double y, boolean recording) {
-        // Корпус камеры
-        gc.setFill(recording ? Color.ORANGE : Color.DARKGRAY);
-        gc.fillRect(x - 25, y - 15, 50, 30);
-        gc.setStroke(Color.BLACK);
-        gc.setLineWidth(2);
-        gc.strokeRect(x - 25, y - 15, 50, 30);
-        
-        // Объектив камеры
-        gc.setFill(Color.BLACK);
-        gc.fillOval(x - 15, y - 10, 30, 20);
-        gc.setFill(Color.DARKBLUE);
-        gc.fillOval(x - 10, y - 5, 20, 10);
+        // Если устройство включено - выключаем его
+        if (frame.isOn(index)) {
+            engine.getCommands().setOn(index, false);
+            statusLabel.setText("Выключено: " + name);
+        } else {
+            // Если устройство выключено - включаем с запросом параметров, если их задает вид устройства
+            DeviceKind kind = store.getDeviceKind(index);
+            DeviceKind.ValueInput input = kind.valueInput();
+            if (input != null) {
+                showValueInputDialog(index, name, frame.getTargetValue(index), kind, input);
+            } else {
+                // Для других устройств (камеры) просто включаем
+                engine.getCommands().setOn(index, true);
+                statusLabel.setText("Включено: " + name);
+            }
+        }
 
+        // Сбрасываем активный сценарий при ручном управлении
+        loop.execute(() -> engine.setActiveScenario(null));
     }
 
-     //Отрисовывает информацию о сценариях и текущем потреблении
-    private void drawScenariosInfo() {
-        gc.setFill(Color.BLACK);
-        gc.setFont(new Font("Arial", 12));
-        gc.fillText("Активный сценарий:", 10, canvas.getHeight() - 70);
-
-        if (activeScenario != null) {
-            gc.setFill(Color.BLUE);
-            gc.fillText(activeScenario.getName(), 10, canvas.getHeight() - 55);
-        } else {
-            gc.setFill(Color.GRAY);
-            gc.fillText("Нет активного сценария", 10, canvas.getHeight() - 55);
-        }
+     //Запускает анимационный цикл
+    private void startAnimation() {
+        animationTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                // Последний кадр движка; кадры, опубликованные между импульсами, не показываются
+                HouseFrame frame = frames.take();
+                if (frame == null) {
+                    return;
+                }
+                if (frame != shownFrame) {
+                    shownFrame = frame;
+                    energyLabel.setText(String.format("Общая энергия: %.2f кВт*ч | Текущая мощность: %.2f кВт*ч",
+                        frame.getTotalEnergy(), frame.getCurrentPower() / 1000.0));
+                }
+                long started = System.nanoTime();
+                draw(frame);
+                metrics.recordFrame(now, FramePublisher.DEFAULT_INTERVAL.toNanos(), System.nanoTime() - started, frame.getTick());
+            }
+        };
+        animationTimer.start();
     }
 
-    //Отрисовывает время суток на экране
-    private void drawTimeOfDay() {
-        int hours = (int) globalTimeOfDay;
-        int minutes = (int) ((globalTimeOfDay - hours) * 60);
-        
-        gc.setFill(Color.BLACK);
-        gc.setFont(new Font("Arial", 14));
-        String timeText = String.format("Время суток: %02d:%02d", hours, minutes);
-        gc.fillText(timeText, canvas.getWidth() - 200, 25);
-        
-        // Определяем период суток
-        String period;
-        if (globalTimeOfDay >= 6.0 && globalTimeOfDay < 12.0) {
-            period = "Утро";
-        } else if (globalTimeOfDay >= 12.0 && globalTimeOfDay < 18.0) {
-            period = "День";
-        } else if (globalTimeOfDay >= 18.0 && globalTimeOfDay < 22.0) {
-            period = "Вечер";
-        } else {
-            period = "Ночь";
-        }
-        gc.setFont(new Font("Arial", 12));
-        gc.fillText("Период: " + period, canvas.getWidth() - 200, 45);
+     //Отрисовывает все устройства на Canvas
+    private void draw(HouseFrame frame) {
+        // Пока кадр не сменился, состояние не меняется, поэтому большинство импульсов ничего не рисуют
+        renderer.update(frame);
     }
 
-     //Показывает диалог ввода температуры и активирует термостат
-    private void showTemperatureInputDialog(Thermostat thermostat) {
+     //Показывает диалог ввода целевого значения (температуры, уровня освещения) и включает устройство
+    private void showValueInputDialog(int index, String name, double targetValue, DeviceKind kind,
+                                      DeviceKind.ValueInput input) {
         try {
-            TextInputDialog dialog = new TextInputDialog(String.format("%.1f", thermostat.getTargetValue()));
-            dialog.setTitle("Настройка температуры");
-            dialog.setHeaderText("Введите желаемую температуру");
-            dialog.setContentText("Температура (макс. 30°C):");
-            
+            TextInputDialog dialog = new TextInputDialog(String.format(input.inputFormat(), targetValue));
+            dialog.setTitle(input.title());
+            dialog.setHeaderText(input.header());
+            dialog.setContentText(input.prompt());
+
             Optional<String> result = dialog.showAndWait();
             if (result.isPresent() && !result.get().trim().isEmpty()) {
                 try {
-                    String input = result.get().trim().replace(",", ".");
-                    double value = Double.parseDouble(input);
-                    double temperature = Math.max(0, Math.min(value, 30.0));
-                    thermostat.setTargetValue(temperature);
-                    thermostat.setOn(true);
-                    thermostat.analyzeAndAdjust();
-                    statusLabel.setText("Включено: " + thermostat.getName() + " - " +
-                            String.format("%.1f°C", thermostat.getTargetValue()));
+                    String text = result.get().trim().replace(",", ".");
+                    double value = Math.max(0, Math.min(Double.parseDouble(text), input.max()));
+                    loop.execute(() -> {
+                        SmartDevice device = engine.getStore().view(index);
+                        device.setTargetValue(value);
+                        device.setOn(true);
+                        device.analyzeAndAdjust();
+                    });
+                    statusLabel.setText("Включено: " + name + " - " + String.format(kind.valueFormat(), value));
                 } catch (NumberFormatException e) {
-                    statusLabel.setText("Ошибка: неверный формат температуры");
+                    statusLabel.setText(input.formatError());
                 }
             }
         } catch (Exception e) {
-            statusLabel.setText("Ошибка при открытии диалога температуры");
+            statusLabel.setText("Ошибка при открытии диалога: " + input.title());
         }
     }
 
-     //Показывает диалог ввода уровня освещения и активирует свет
-    private void showLightInputDialog(Light light) {
-        TextInputDialog dialog = new TextInputDialog(String.format("%.0f", light.getTargetValue()));
-        dialog.setTitle("Настройка освещения");
-        dialog.setHeaderText("Введите желаемый уровень освещения");
-        dialog.setContentText("Уровень освещения (макс. 100%):");
-        
-        Optional<String> result = dialog.showAndWait();
-        if (result.isPresent() && !result.get().trim().isEmpty()) {
-            try {
-                String input = result.get().trim().replace(",", ".");
-                double value = Double.parseDouble(input);
-                double lightLevel = Math.max(0, Math.min(value, 100.0));
-                light.setTargetValue(lightLevel);
-                light.setOn(true);
-                light.analyzeAndAdjust();
-                statusLabel.setText("Включено: " + light.getName() + " - " + String.format("%.0f%%", light.getTargetValue()));
-            } catch (NumberFormatException e) {
-                statusLabel.setText("Ошибка: неверный формат уровня освещения");
-            }
+    //Добавляет по кнопке на каждый сценарий дома (у дома из раскладки их может быть сколько угодно)
+    private void addScenarioButtons() {
+        Scenario[] scenarios = engine.getScenarios();
+        for (int s = 0; s < scenarios.length; s++) {
+            Scenario scenario = scenarios[s];
+            String name = scenario.getName() != null ? scenario.getName() : String.valueOf(s + 1);
+            Button button = new Button("Активировать сценарий " + name);
+            button.setOnAction(event -> onScenarioClick(scenario, name));
+            scenarioBox.getChildren().add(s, button);
         }
     }
 
-    @FXML
-    protected void onNightScenarioClick() {
-        activeScenario = scenarios[0];
-        activeScenario.activate();
-        statusLabel.setText("Сценарий Ночь Активен");
+    private void onScenarioClick(Scenario scenario, String name) {
+        loop.execute(() -> engine.activateScenario(scenario));
+        statusLabel.setText("Сценарий " + name + " Активен");
     }
 
+    //Показывает весь план дома на холсте
     @FXML
-    protected void onDayScenarioClick() {
-        activeScenario = scenarios[1];
-        activeScenario.activate();
-        statusLabel.setText("Сценарий День Активен");
+    protected void onFitPlanClick() {
+        renderer.fitToPlan(engine.getStore());
     }
 
     //Сбрасывает все устройства
     @FXML
     protected void onResetClick() {
         // Выключаем все устройства
-        for (SmartDevice device : devices) {
-            device.setOn(false);
-        }
-        activeScenario = null;
+        loop.execute(engine::reset);
         statusLabel.setText("Система Сброшена");
     }
 }
\ No newline at end of file
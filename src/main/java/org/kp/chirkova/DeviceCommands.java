@@ -0,0 +1,187 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+//Команды устройствам из любых потоков (обработчики REST, автоматизация, шлюзы). DeviceStore не
+//потокобезопасен и меняется только потоком движка, поэтому другие потоки не трогают его колонки,
+//а кладут команды в очередь без блокировок: несколько производителей добавляют узлы в стек
+//через CAS, а тик движка забирает весь стек одной операцией и применяет пачкой.
+//В пачке команды одного устройства объединяются: по каждому полю (вкл, цель, движение) действует
+//последняя, и хранилище меняется не больше одного раза на устройство и поле. Производитель
+//никогда не ждет ни тик, ни отрисовку
+
+public class DeviceCommands {
+    // Поле устройства, которое меняет команда
+    private static final byte SET_ON = 0;
+    private static final byte SET_TARGET = 1;
+    private static final byte SET_MOTION = 2;
+
+    // Объединенное значение вкл/выкл и движения по устройству (KEEP - команд не было)
+    private static final byte KEEP = 0;
+    private static final byte OFF = 1;
+    private static final byte ON = 2;
+
+    // Вершина стека команд (последняя добавленная)
+    private final AtomicReference<Command> top = new AtomicReference<>();
+
+    private final LongAdder submitted = new LongAdder();
+
+    // Дальше - только поток движка: объединение команд пачки по устройствам
+    private byte[] pendingOn = new byte[0];
+    private byte[] pendingMotion = new byte[0];
+    private double[] pendingTarget = new double[0];
+    private boolean[] touched = new boolean[0];
+    private int[] touchedList = new int[0];
+
+    private long drained;
+    private long changes;
+    private long rejected;
+
+    //Включает или выключает устройство
+    public void setOn(int device, boolean on) {
+        push(device, SET_ON, on ? 1.0 : 0.0);
+    }
+
+    //Устанавливает целевое значение устройства
+    public void setTargetValue(int device, double value) {
+        if (Double.isNaN(value)) {
+            throw new IllegalArgumentException("Целевое значение должно быть числом");
+        }
+        push(device, SET_TARGET, value);
+    }
+
+    //Устанавливает флаг движения в зоне камеры
+    public void setMotion(int camera, boolean motion) {
+        push(camera, SET_MOTION, motion ? 1.0 : 0.0);
+    }
+
+    private void push(int device, byte field, double value) {
+        if (device < 0) {
+            throw new IllegalArgumentException("Нет устройства с индексом " + device);
+        }
+        Command command = new Command(device, field, value);
+        Command current;
+        do {
+            current = top.get();
+            command.next = current;
+        } while (!top.compareAndSet(current, command));
+        submitted.increment();
+    }
+
+    //Есть ли команды, еще не примененные тиком
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+
+    //Забирает все накопленные команды и применяет их к хранилищу (только в потоке движка).
+    //Возвращает число забранных команд
+    int drain(DeviceStore store) {
+        Command stack = top.getAndSet(null);
+        if (stack == null) {
+            return 0;
+        }
+        ensureCapacity(store.size());
+        // Стек хранит команды от последней к первой: переворачиваем, чтобы последняя команда перезаписывала
+        Command first = null;
+        while (stack != null) {
+            Command next = stack.next;
+            stack.next = first;
+            first = stack;
+            stack = next;
+        }
+
+        int count = 0;
+        int touchedCount = 0;
+        int n = store.size();
+        for (Command c = first; c != null; c = c.next) {
+            count++;
+            int i = c.device;
+            if (i >= n) {
+                rejected++;
+                continue;
+            }
+            if (!touched[i]) {
+                touched[i] = true;
+                touchedList[touchedCount++] = i;
+            }
+            switch (c.field) {
+                case SET_ON -> pendingOn[i] = c.value != 0.0 ? ON : OFF;
+                case SET_TARGET -> pendingTarget[i] = c.value;
+                default -> pendingMotion[i] = c.value != 0.0 ? ON : OFF;
+            }
+        }
+
+        // Каждое устройство меняется один раз; совпадающие с текущим состоянием значения не трогают его
+        for (int k = 0; k < touchedCount; k++) {
+            int i = touchedList[k];
+            if (!Double.isNaN(pendingTarget[i]) && store.targetValue[i] != pendingTarget[i]) {
+                store.setTargetValue(i, pendingTarget[i]);
+                changes++;
+            }
+            if (pendingOn[i] != KEEP && store.on[i] != (pendingOn[i] == ON)) {
+                store.setOn(i, pendingOn[i] == ON);
+                changes++;
+            }
+            if (pendingMotion[i] != KEEP && store.motion[i] != (pendingMotion[i] == ON)) {
+                store.setMotion(i, pendingMotion[i] == ON);
+                changes++;
+            }
+            touched[i] = false;
+            pendingOn[i] = KEEP;
+            pendingMotion[i] = KEEP;
+            pendingTarget[i] = Double.NaN;
+        }
+        drained += count;
+        return count;
+    }
+
+    //Число команд, отправленных всеми потоками
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    //Число команд, забранных тиком (остальные еще в очереди)
+    public long getDrainedCount() {
+        return drained;
+    }
+
+    //Сколько раз команды действительно изменили хранилище (остальные объединены или повторяли состояние)
+    public long getChangeCount() {
+        return changes;
+    }
+
+    //Число команд несуществующим устройствам
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    private void ensureCapacity(int n) {
+        if (touched.length >= n) {
+            return;
+        }
+        int old = touched.length;
+        int capacity = Math.max(n, old * 2);
+        pendingOn = Arrays.copyOf(pendingOn, capacity);
+        pendingMotion = Arrays.copyOf(pendingMotion, capacity);
+        pendingTarget = Arrays.copyOf(pendingTarget, capacity);
+        Arrays.fill(pendingTarget, old, capacity, Double.NaN);
+        touched = Arrays.copyOf(touched, capacity);
+        touchedList = Arrays.copyOf(touchedList, capacity);
+    }
+
+    //Узел стека: поля команды неизменяемы, next пишется до публикации через CAS
+    private static final class Command {
+        final int device;
+        final byte field;
+        final double value;
+        Command next;
+
+        Command(int device, byte field, double value) {
+            this.device = device;
+            this.field = field;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.kp.chirkova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Шлюз к настоящим контроллерам устройств по TCP. Каждое подключенное устройство хранилища связано
+//с удаленным устройством отдельным соединением, которое обслуживает свой виртуальный поток: он опрашивает
+//устройство раз в pollInterval и передает ему команды. Поток платформы на устройство не нужен, поэтому
+//из одной JVM держатся десятки тысяч соединений.
+//Протокол - строки UTF-8, запрос - ответ:
+//  DEVICE <номер>  -> OK <вид>          - выбор устройства после подключения (вид - DeviceKind.name())
+//  GET             -> STATE <вкл 0|1> <текущее> <целевое> <мощность>
+//  ON | OFF        -> OK
+//  TARGET <число>  -> OK
+//Ошибка - ERR <сообщение>. Каждый запрос ждет ответа не дольше requestTimeout; после тайм-аута или
+//ошибки соединение закрывается и устанавливается заново с растущей паузой. Строки читаются и пишутся
+//через один маленький буфер на соединение (Lines), без BufferedReader и кодировщиков по 8 КБ.
+//Показания попадают в хранилище только в applyReadings() - в потоке движка, между опросами
+//устройство досчитывается локальной моделью своего вида
+
+public class DeviceGateway implements AutoCloseable {
+    static final String HELLO = "DEVICE";
+    static final String GET = "GET";
+    static final String ON = "ON";
+    static final String OFF = "OFF";
+    static final String TARGET = "TARGET";
+    static final String OK = "OK";
+    static final String STATE = "STATE";
+    static final String ERR = "ERR";
+
+    // Пауза перед повторным подключением растет вдвое до этого предела
+    private static final long MAX_RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final DeviceStore store;
+    private final int timeoutMillis;
+    private final long pollNanos;
+    private final ExecutorService threads = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("gateway-", 0).factory());
+
+    // Соединения в порядке подключения и по индексу устройства (меняет только поток движка)
+    private final List<Link> links = new ArrayList<>();
+    private Link[] byDevice = new Link[0];
+    private volatile boolean closed;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public DeviceGateway(DeviceStore store, Duration requestTimeout, Duration pollInterval) {
+        if (requestTimeout.isNegative() || requestTimeout.isZero() || requestTimeout.toMillis() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Неверный тайм-аут запроса: " + requestTimeout);
+        }
+        if (pollInterval.isNegative() || pollInterval.isZero()) {
+            throw new IllegalArgumentException("Период опроса должен быть положительным: " + pollInterval);
+        }
+        this.store = store;
+        this.timeoutMillis = (int) Math.max(1, requestTimeout.toMillis());
+        this.pollNanos = pollInterval.toNanos();
+    }
+
+    //Связывает устройство хранилища device с устройством remoteId контроллера по адресу address
+    //и запускает его соединение
+    public void attach(int device, InetSocketAddress address, int remoteId) {
+        if (closed) {
+            throw new IllegalStateException("Шлюз закрыт");
+        }
+        if (device < 0 || device >= store.size()) {
+            throw new IllegalArgumentException("Нет устройства с индексом " + device);
+        }
+        if (find(device) != null) {
+            throw new IllegalArgumentException("Устройство " + device + " уже подключено к шлюзу");
+        }
+        if (byDevice.length <= device) {
+            byDevice = Arrays.copyOf(byDevice, Math.max(device + 1, store.size()));
+        }
+        Link link = new Link(device, address, remoteId);
+        links.add(link);
+        byDevice[device] = link;
+        threads.execute(() -> serve(link));
+    }
+
+    //Отправляет устройству команду включения или выключения
+    public CompletableFuture<Void> setOn(int device, boolean on) {
+        return send(device, on ? ON : OFF);
+    }
+
+    //Отправляет устройству новое целевое значение
+    public CompletableFuture<Void> setTargetValue(int device, double value) {
+        return send(device, TARGET + " " + value);
+    }
+
+    private CompletableFuture<Void> send(int device, String request) {
+        Link link = find(device);
+        if (link == null) {
+            throw new IllegalArgumentException("Устройство " + device + " не подключено к шлюзу");
+        }
+        Command command = new Command(request);
+        link.commands.add(command);
+        if (closed) {
+            command.result.completeExceptionally(new IOException("Шлюз закрыт"));
+        }
+        return command.result;
+    }
+
+    //Переносит в хранилище показания, полученные с прошлого вызова (вызывается в потоке движка).
+    //Возвращает число обновленных устройств
+    public int applyReadings() {
+        int applied = 0;
+        for (Link link : links) {
+            boolean on;
+            double current;
+            double target;
+            double power;
+            synchronized (link) {
+                if (!link.fresh) {
+                    continue;
+                }
+                link.fresh = false;
+                on = link.on;
+                current = link.current;
+                target = link.target;
+                power = link.power;
+            }
+            int i = link.device;
+            if (store.on[i] != on) {
+                store.setOn(i, on);
+            }
+            store.setTargetValue(i, target);
+            store.currentValue[i] = current;
+            store.ledger.powerChanged(i, store.powerConsumption[i], power);
+            store.powerConsumption[i] = power;
+            store.wake(i);
+            applied++;
+        }
+        return applied;
+    }
+
+    //Есть ли сейчас соединение с устройством
+    public boolean isConnected(int device) {
+        Link link = find(device);
+        return link != null && link.connected;
+    }
+
+    //Число устройств, с которыми сейчас есть соединение
+    public int getConnectedCount() {
+        int count = 0;
+        for (Link link : links) {
+            if (link.connected) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getAttachedCount() {
+        return links.size();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    //Число разорванных соединений и неудачных подключений (включая тайм-ауты)
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    //Закрывает все соединения и дожидается завершения их потоков
+    @Override
+    public void close() {
+        closed = true;
+        for (Link link : links) {
+            link.closeSocket();
+        }
+        threads.shutdownNow();
+        threads.close();
+        for (Link link : links) {
+            failCommands(link, new IOException("Шлюз закрыт"));
+        }
+    }
+
+    private Link find(int device) {
+        return device >= 0 && device < byDevice.length ? byDevice[device] : null;
+    }
+
+    //Цикл соединения одного устройства (в своем виртуальном потоке)
+    private void serve(Link link) {
+        long reconnectDelay = pollNanos;
+        // Первые опросы устройств разнесены по периоду, чтобы не приходить к контроллеру разом
+        long phase = Math.floorMod(link.device * 0x9E3779B97F4A7C15L, pollNanos);
+        if (!pause(phase)) {
+            return;
+        }
+        while (!closed) {
+            // Команда, ответ на которую еще не получен (при обрыве соединения завершается с ошибкой)
+            Command inFlight = null;
+            try (Socket socket = new Socket()) {
+                link.socket = socket;
+                if (closed) {
+                    return;
+                }
+                socket.connect(link.address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                Lines lines = new Lines(socket.getInputStream(), socket.getOutputStream());
+                String hello = request(lines, HELLO + " " + link.remoteId);
+                if (!hello.startsWith(OK)) {
+                    throw new IOException("Устройство " + link.remoteId + " отклонило подключение: " + hello);
+                }
+                link.connected = true;
+                reconnectDelay = pollNanos;
+                long nextPoll = System.nanoTime();
+                while (!closed) {
+                    inFlight = link.commands.poll(Math.max(0, nextPoll - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (inFlight != null) {
+                        String response = request(lines, inFlight.request);
+                        if (response.startsWith(OK)) {
+                            inFlight.result.complete(null);
+                        } else {
+                            inFlight.result.completeExceptionally(new IOException("Устройство " + link.remoteId + ": " + response));
+                        }
+                        inFlight = null;
+                        continue;
+                    }
+                    publish(link, request(lines, GET));
+                    nextPoll += pollNanos;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (inFlight != null) {
+                    inFlight.result.completeExceptionally(e);
+                }
+                if (closed) {
+                    return;
+                }
+                if (e instanceof SocketTimeoutException) {
+                    timeouts.incrementAndGet();
+                }
+                failures.incrementAndGet();
+                // Неотправленные команды не ждут восстановления соединения
+                failCommands(link, e);
+            } finally {
+                link.connected = false;
+                link.socket = null;
+            }
+            if (!pause(reconnectDelay)) {
+                return;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_NANOS);
+        }
+    }
+
+    private String request(Lines lines, String line) throws IOException {
+        requests.incrementAndGet();
+        lines.write(line);
+        String response = lines.read();
+        if (response == null) {
+            throw new IOException("Соединение закрыто устройством");
+        }
+        return response;
+    }
+
+    //Разбирает ответ STATE и публикует показания для applyReadings()
+    private static void publish(Link link, String response) throws IOException {
+        String[] words = response.split(" ");
+        if (words.length != 5 || !words[0].equals(STATE)) {
+            throw new IOException("Неверный ответ устройства " + link.remoteId + ": " + response);
+        }
+        try {
+            boolean on = words[1].equals("1");
+            double current = Double.parseDouble(words[2]);
+            double target = Double.parseDouble(words[3]);
+            double power = Double.parseDouble(words[4]);
+            synchronized (link) {
+                link.on = on;
+                link.current = current;
+                link.target = target;
+                link.power = power;
+                link.fresh = true;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Неверный ответ устройства " + link.remoteId + ": " + response, e);
+        }
+    }
+
+    private static void failCommands(Link link, IOException cause) {
+        for (Command command; (command = link.commands.poll()) != null; ) {
+            command.result.completeExceptionally(cause);
+        }
+    }
+
+    private boolean pause(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return !closed;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    //Соединение устройства: адрес, очередь команд и последние полученные показания
+    private static final class Link {
+        final int device;
+        final InetSocketAddress address;
+        final int remoteId;
+        final LinkedBlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+        volatile boolean connected;
+        volatile Socket socket;
+
+        // Показания последнего опроса (под монитором соединения); fresh - еще не перенесены в хранилище
+        boolean on;
+        double current;
+        double target;
+        double power;
+        boolean fresh;
+
+        Link(int device, InetSocketAddress address, int remoteId) {
+            this.device = device;
+            this.address = address;
+            this.remoteId = remoteId;
+        }
+
+        void closeSocket() {
+            Socket open = socket;
+            if (open != null) {
+                try {
+                    open.close();
+                } catch (IOException ignored) {
+                    // Соединение и так закрывается
+                }
+            }
+        }
+    }
+
+    //Строки протокола поверх потоков сокета. Строки короткие, поэтому буфер чтения - BUFFER_SIZE байт
+    //(растет только для длинной строки, до MAX_LINE), а строка уходит в сокет одной записью без буфера
+    static final class Lines {
+        static final int BUFFER_SIZE = 256;
+        // Предел длины строки: устройство без перевода строки не должно съесть память шлюза
+        static final int MAX_LINE = 64 * 1024;
+
+        private final InputStream in;
+        private final OutputStream out;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        // Непрочитанные байты - buffer[start, end)
+        private int start;
+        private int end;
+
+        Lines(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        //Возвращает следующую строку без перевода строки (null - поток закончился)
+        String read() throws IOException {
+            int scanned = start;
+            while (true) {
+                for (int i = scanned; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        int length = i > start && buffer[i - 1] == '\r' ? i - 1 - start : i - start;
+                        String line = new String(buffer, start, length, StandardCharsets.UTF_8);
+                        start = i + 1;
+                        return line;
+                    }
+                }
+                // Перевода строки нет: недочитанная строка сдвигается в начало буфера, буфер растет при нужде
+                scanned = end - start;
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, scanned);
+                    start = 0;
+                    end = scanned;
+                }
+                if (end == buffer.length) {
+                    if (buffer.length >= MAX_LINE) {
+                        throw new IOException("Слишком длинная строка протокола: больше " + MAX_LINE + " байт");
+                    }
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    if (end == start) {
+                        return null;
+                    }
+                    String line = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+                    start = end;
+                    return line;
+                }
+                end += read;
+            }
+        }
+
+        void write(String line) throws IOException {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            byte[] packet = Arrays.copyOf(bytes, bytes.length + 1);
+            packet[bytes.length] = '\n';
+            out.write(packet);
+        }
+    }
+
+    private static final class Command {
+        final String request;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Command(String request) {
+            this.request = request;
+        }
+    }
+}
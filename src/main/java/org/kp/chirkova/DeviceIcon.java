@@ -0,0 +1,17 @@
+package org.kp.chirkova;
+
+import javafx.scene.canvas.GraphicsContext;
+
+//Иконка вида устройства на плане. Иконка принимает конечное число состояний: HouseRenderer растрирует
+//каждое состояние в спрайт один раз, а рисует примитивами только при увеличении плана
+
+public interface DeviceIcon {
+    //Число различных состояний иконки
+    int states();
+
+    //Состояние иконки устройства i в кадре (от 0 до states() - 1)
+    int state(HouseFrame frame, int i);
+
+    //Рисует иконку в состоянии state с центром в (x, y)
+    void draw(GraphicsContext g, double x, double y, int state);
+}
@@ -0,0 +1,52 @@
+package org.kp.chirkova;
+
+//Вид устройства (service provider): все, что отличает термостат от лампы, собрано в одной реализации -
+//шаг тика над колонками DeviceStore, представление, иконка на плане, диалог включения и слово в файлах
+//сценариев. Встроенные виды - Thermostat, Light и SecurityCamera; новые (жалюзи, розетки, котлы)
+//подключаются через provides org.kp.chirkova.DeviceKind в module-info и получают номер в DeviceKinds.
+//Тик группирует устройства по видам и вызывает tick() один раз на группу, поэтому цикл по устройствам
+//внутри tick() видит одну реализацию и не платит за диспетчеризацию на каждом устройстве
+
+public interface DeviceKind {
+    //Слово вида в файлах сценариев ("thermostat", "light", ...), уникальное среди видов
+    String name();
+
+    //Название вида для имени устройства по умолчанию ("Термостат 12")
+    String title();
+
+    //Показание нового устройства до первого тика
+    double initialValue();
+
+    //Новое легковесное представление устройства i
+    SmartDevice view(DeviceStore store, int i);
+
+    //Шаг тика устройств devices[from..to) этого вида: обновление показаний и корректировка мощности.
+    //Реализация - свой цикл по своим ядрам (не через updateCurrentValue/analyzeAndAdjust интерфейса)
+    void tick(DeviceStore store, int[] devices, int from, int to);
+
+    //Обновляет текущее значение устройства i (имитация внешних факторов)
+    void updateCurrentValue(DeviceStore store, int i);
+
+    //Анализирует показания устройства i и корректирует его мощность
+    void analyzeAndAdjust(DeviceStore store, int i);
+
+    //Время суток изменилось: вид будит свои устройства, которые от него зависят
+    default void timeOfDayChanged(DeviceStore store, double previous, double current) {
+    }
+
+    //Формат текущего значения на плане и в строке состояния ("%.1f°C")
+    String valueFormat();
+
+    //Иконка на плане дома (создается только интерфейсом: без дисплея классы JavaFX не загружаются)
+    DeviceIcon icon();
+
+    //Диалог ввода целевого значения при включении (null - устройство просто включается)
+    default ValueInput valueInput() {
+        return null;
+    }
+
+    //Тексты и пределы диалога ввода целевого значения
+    record ValueInput(String title, String header, String prompt, double max,
+                      String inputFormat, String formatError) {
+    }
+}
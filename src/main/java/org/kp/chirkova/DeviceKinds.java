@@ -0,0 +1,83 @@
+package org.kp.chirkova;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ServiceLoader;
+
+//Реестр видов устройств: номер вида - значение колонки DeviceStore.kind.
+//Встроенные виды всегда занимают номера KIND_THERMOSTAT, KIND_LIGHT, KIND_CAMERA (и без module-info,
+//при запуске с classpath); подключенные через ServiceLoader виды идут за ними по алфавиту имен,
+//поэтому номера не зависят от порядка обнаружения провайдеров. Установка или удаление вида сдвигает
+//номера подключенных видов, поэтому файлы (снимки, двоичные раскладки) хранят таблицу имен видов
+//и переводят номера по ней при чтении
+
+public final class DeviceKinds {
+    // Число встроенных видов (их номера совпадают с константами DeviceStore)
+    static final int BUILT_IN_COUNT = 3;
+
+    private static final DeviceKind[] KINDS = load();
+
+    private DeviceKinds() {
+    }
+
+    private static DeviceKind[] load() {
+        List<DeviceKind> kinds = new ArrayList<>(List.of(Thermostat.KIND, Light.KIND, SecurityCamera.KIND));
+        List<DeviceKind> plugins = new ArrayList<>();
+        for (DeviceKind kind : ServiceLoader.load(DeviceKind.class)) {
+            if (find(kinds, kind.name()) == null && find(plugins, kind.name()) == null) {
+                plugins.add(kind);
+            }
+        }
+        plugins.sort(Comparator.comparing(DeviceKind::name));
+        kinds.addAll(plugins);
+        if (kinds.size() > Byte.MAX_VALUE) {
+            throw new IllegalStateException("Слишком много видов устройств: " + kinds.size());
+        }
+        return kinds.toArray(new DeviceKind[0]);
+    }
+
+    private static DeviceKind find(List<DeviceKind> kinds, String name) {
+        for (DeviceKind kind : kinds) {
+            if (kind.name().equals(name)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    //Число известных видов
+    public static int count() {
+        return KINDS.length;
+    }
+
+    //Вид с номером id
+    public static DeviceKind get(int id) {
+        return KINDS[id];
+    }
+
+    //Номер вида (-1 - вид не зарегистрирован)
+    public static byte idOf(DeviceKind kind) {
+        for (byte id = 0; id < KINDS.length; id++) {
+            if (KINDS[id] == kind) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    //Номер вида по слову из файла сценария (-1 - нет такого вида)
+    public static byte idOf(String name) {
+        for (byte id = 0; id < KINDS.length; id++) {
+            if (KINDS[id].name().equals(name)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    //Вид встроенный: для него EventSimulator знает поведение между событиями
+    static boolean isBuiltIn(int id) {
+        return id < BUILT_IN_COUNT;
+    }
+}
@@ -0,0 +1,467 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Колоночное хранилище состояния устройств (structure-of-arrays).
+//Каждое поле устройства хранится в отдельном примитивном массиве, устройство - это индекс.
+//Объекты SmartDevice являются лишь легковесными представлениями над этими массивами.
+//Хранилище также ведет активное множество: устройства в устойчивом состоянии из него выпадают
+//и возвращаются только при изменении входов (включение, цель, движение, дневной свет).
+//Хранилище не потокобезопасно: его меняет только поток движка, остальные - через DeviceCommands
+
+public class DeviceStore {
+    // Встроенные виды устройств (колонка kind - номер вида в DeviceKinds)
+    public static final byte KIND_THERMOSTAT = 0;
+    public static final byte KIND_LIGHT = 1;
+    public static final byte KIND_CAMERA = 2;
+
+    // Число видов, включая подключенные через ServiceLoader
+    static final int KIND_COUNT = DeviceKinds.count();
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Количество устройств в хранилище
+    int size;
+
+    // Колонки состояния (доступны ядрам устройств напрямую)
+    byte[] kind;
+    boolean[] on;
+    double[] currentValue;
+    double[] targetValue;
+    double[] powerConsumption;
+    double[] x;
+    double[] y;
+
+    // Флаг движения в зоне камеры (используется только камерами)
+    boolean[] motion;
+
+    // Имена устройств (null - имя формируется по виду и индексу)
+    String[] names;
+
+    // Глобальное время суток, общее для всех устройств света
+    double timeOfDay;
+
+    // Активное множество: флаг по устройству и список индексов (без повторов)
+    boolean[] active;
+    int[] activeList;
+    int activeCount;
+
+    // Журнал энергии и мощности, обновляется при каждом изменении мощности устройства
+    final EnergyLedger ledger;
+
+    // Пространственный индекс по координатам x, y (поиск устройства у точки, отсечение при отрисовке)
+    final SpatialIndex spatialIndex;
+
+    // Помещения и стены, из которых термостаты берут температуру (пустая - термостаты сами по себе)
+    final ThermalModel thermal;
+    // Растет при добавлении и переносе устройств (по нему сбрасываются кэши, зависящие от расстановки)
+    private int layoutVersion;
+
+    // Индексы устройств по видам
+    private final int[][] byKind = new int[KIND_COUNT][];
+    private final int[] kindCount = new int[KIND_COUNT];
+
+    // Колонки расстановки (kind, x, y, names, индексы по видам) общие с копией состояния (copyState):
+    // перед первым изменением расстановки хранилище забирает себе их копию
+    private boolean layoutShared;
+
+    public DeviceStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DeviceStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        kind = new byte[capacity];
+        on = new boolean[capacity];
+        currentValue = new double[capacity];
+        targetValue = new double[capacity];
+        powerConsumption = new double[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        motion = new boolean[capacity];
+        names = new String[capacity];
+        active = new boolean[capacity];
+        activeList = new int[capacity];
+        ledger = new EnergyLedger(this, capacity);
+        spatialIndex = new SpatialIndex(this, capacity);
+        thermal = new ThermalModel(this);
+        for (int k = 0; k < KIND_COUNT; k++) {
+            byKind[k] = new int[DEFAULT_CAPACITY];
+        }
+    }
+
+    //Копия состояния source для прогона вперед (см. copyState)
+    private DeviceStore(DeviceStore source) {
+        // Копии базового состояния прогноза снимаются параллельно - его флаг уже выставлен и не пишется
+        if (!source.layoutShared) {
+            source.layoutShared = true;
+        }
+        layoutShared = true;
+        size = source.size;
+        kind = source.kind;
+        x = source.x;
+        y = source.y;
+        names = source.names;
+        for (int k = 0; k < KIND_COUNT; k++) {
+            byKind[k] = source.byKind[k];
+            kindCount[k] = source.kindCount[k];
+        }
+        int capacity = kind.length;
+        on = Arrays.copyOf(source.on, capacity);
+        currentValue = Arrays.copyOf(source.currentValue, capacity);
+        targetValue = Arrays.copyOf(source.targetValue, capacity);
+        powerConsumption = Arrays.copyOf(source.powerConsumption, capacity);
+        motion = Arrays.copyOf(source.motion, capacity);
+        active = Arrays.copyOf(source.active, capacity);
+        activeList = Arrays.copyOf(source.activeList, capacity);
+        activeCount = source.activeCount;
+        timeOfDay = source.timeOfDay;
+        layoutVersion = source.layoutVersion;
+        ledger = new EnergyLedger(this, capacity);
+        ledger.restart();
+        spatialIndex = new SpatialIndex(this, 1);
+        thermal = source.thermal.copyFor(this);
+    }
+
+    //Добавляет термостат и возвращает его индекс
+    public int addThermostat(String name, double x, double y, double targetTemperature) {
+        return add(KIND_THERMOSTAT, name, x, y, targetTemperature, Thermostat.BASE_TEMPERATURE);
+    }
+
+    //Добавляет устройство света и возвращает его индекс
+    public int addLight(String name, double x, double y, double targetLightLevel) {
+        return add(KIND_LIGHT, name, x, y, targetLightLevel, 0.0);
+    }
+
+    //Добавляет камеру безопасности и возвращает ее индекс (0 = ожидание, 100 = запись)
+    public int addCamera(String name, double x, double y, double targetSensitivity) {
+        return add(KIND_CAMERA, name, x, y, targetSensitivity, 0.0);
+    }
+
+    //Добавляет устройство вида deviceKind (например, подключенного через ServiceLoader) и возвращает его индекс
+    public int addDevice(DeviceKind deviceKind, String name, double x, double y, double target) {
+        byte id = DeviceKinds.idOf(deviceKind);
+        if (id < 0) {
+            throw new IllegalArgumentException("Вид устройства не зарегистрирован: " + deviceKind.name());
+        }
+        return add(id, name, x, y, target, deviceKind.initialValue());
+    }
+
+    private int add(byte deviceKind, String name, double posX, double posY, double target, double current) {
+        unshareLayout();
+        if (size == kind.length) {
+            grow(size * 2);
+        }
+        int i = size++;
+        kind[i] = deviceKind;
+        on[i] = false; // По умолчанию устройство выключено
+        currentValue[i] = current;
+        targetValue[i] = target;
+        powerConsumption[i] = 0.0;
+        x[i] = posX;
+        y[i] = posY;
+        motion[i] = false;
+        names[i] = name;
+        if (kindCount[deviceKind] == byKind[deviceKind].length) {
+            byKind[deviceKind] = Arrays.copyOf(byKind[deviceKind], kindCount[deviceKind] * 2);
+        }
+        byKind[deviceKind][kindCount[deviceKind]++] = i;
+        ledger.deviceAdded(i);
+        spatialIndex.deviceAdded(i);
+        layoutVersion++;
+        wake(i); // Новое устройство должно пройти хотя бы один тик
+        return i;
+    }
+
+    //Копия состояния устройств для прогона вперед (ScenarioForecast): колонки состояния (вкл., показания,
+    //цели, мощность, движение, активное множество) копируются, а колонки расстановки остаются общими,
+    //пока одно из хранилищ не добавит или не перенесет устройство. У копии свой журнал энергии (учет
+    //начинается с момента копии), свои температуры помещений и нет пространственного индекса - устройства
+    //в нее не добавляются
+    DeviceStore copyState() {
+        return new DeviceStore(this);
+    }
+
+    //Забирает себе копию общих с копией состояния колонок расстановки перед их изменением
+    private void unshareLayout() {
+        if (layoutShared) {
+            kind = kind.clone();
+            x = x.clone();
+            y = y.clone();
+            names = names.clone();
+            for (int k = 0; k < KIND_COUNT; k++) {
+                byKind[k] = byKind[k].clone();
+            }
+            layoutShared = false;
+        }
+    }
+
+    //Готовит колонки к записи capacity устройств при загрузке (см. restored); при нехватке места емкость
+    //растет не меньше чем вдвое
+    void reserve(int capacity) {
+        if (capacity > kind.length) {
+            grow(Math.max(capacity, kind.length * 2));
+        }
+    }
+
+    private void grow(int capacity) {
+        kind = Arrays.copyOf(kind, capacity);
+        on = Arrays.copyOf(on, capacity);
+        currentValue = Arrays.copyOf(currentValue, capacity);
+        targetValue = Arrays.copyOf(targetValue, capacity);
+        powerConsumption = Arrays.copyOf(powerConsumption, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        motion = Arrays.copyOf(motion, capacity);
+        names = Arrays.copyOf(names, capacity);
+        active = Arrays.copyOf(active, capacity);
+        activeList = Arrays.copyOf(activeList, capacity);
+        ledger.grow(capacity);
+        spatialIndex.grow(capacity);
+    }
+
+    //Завершает загрузку колонок из снимка: count устройств уже записаны в колонки,
+    //индексы по видам, пространственный индекс и активное множество строятся заново
+    void restored(int count) {
+        unshareLayout();
+        size = count;
+        spatialIndex.rebuild(count);
+        layoutVersion++;
+        Arrays.fill(kindCount, 0);
+        for (int i = 0; i < count; i++) {
+            byte deviceKind = kind[i];
+            if (kindCount[deviceKind] == byKind[deviceKind].length) {
+                byKind[deviceKind] = Arrays.copyOf(byKind[deviceKind], kindCount[deviceKind] * 2);
+            }
+            byKind[deviceKind][kindCount[deviceKind]++] = i;
+        }
+        Arrays.fill(active, false);
+        activeCount = 0;
+        // Следующий тик сам отсеет устройства в устойчивом состоянии
+        wakeAll();
+    }
+
+    //Возвращает устройство в активное множество (если его там еще нет)
+    public void wake(int i) {
+        if (!active[i]) {
+            active[i] = true;
+            activeList[activeCount++] = i;
+        }
+    }
+
+    //Возвращает в активное множество все устройства
+    public void wakeAll() {
+        for (int i = 0; i < size; i++) {
+            wake(i);
+        }
+    }
+
+    //Выполняет шаг одного устройства: обновление показаний и корректировка мощности
+    void step(int i) {
+        DeviceKind deviceKind = DeviceKinds.get(kind[i]);
+        deviceKind.updateCurrentValue(this, i);
+        deviceKind.analyzeAndAdjust(this, i);
+    }
+
+    //Выполняет шаг для всех устройств с индексами [from, to) (без учета активного множества).
+    //Устройства идут группами по видам: списки вида упорядочены по индексу, поэтому границы
+    //диапазона в каждом находятся двоичным поиском
+    public void tickRange(int from, int to) {
+        for (int k = 0; k < KIND_COUNT; k++) {
+            int low = Arrays.binarySearch(byKind[k], 0, kindCount[k], from);
+            int high = Arrays.binarySearch(byKind[k], 0, kindCount[k], to);
+            low = low < 0 ? -low - 1 : low;
+            high = high < 0 ? -high - 1 : high;
+            if (low < high) {
+                DeviceKinds.get(k).tick(this, byKind[k], low, high);
+            }
+        }
+    }
+
+    //Возвращает суммарную мощность устройств с индексами [from, to)
+    public double sumPower(int from, int to) {
+        double[] power = powerConsumption;
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += power[i];
+        }
+        return sum;
+    }
+
+    //Обновляет текущее значение одного устройства (имитация внешних факторов)
+    public void updateCurrentValue(int i) {
+        DeviceKinds.get(kind[i]).updateCurrentValue(this, i);
+    }
+
+    //Анализирует показания одного устройства и корректирует его мощность
+    public void analyzeAndAdjust(int i) {
+        double oldPower = powerConsumption[i];
+        DeviceKinds.get(kind[i]).analyzeAndAdjust(this, i);
+        ledger.powerChanged(i, oldPower, powerConsumption[i]);
+        wake(i);
+    }
+
+    //Возвращает новое легковесное представление устройства
+    public SmartDevice view(int i) {
+        return DeviceKinds.get(kind[i]).view(this, i);
+    }
+
+    // Геттеры и сеттеры по индексу устройства
+    public int size() {
+        return size;
+    }
+
+    public byte getKind(int i) {
+        return kind[i];
+    }
+
+    public boolean isOn(int i) {
+        return on[i];
+    }
+
+     //Включает или выключает устройство
+    public void setOn(int i, boolean value) {
+        on[i] = value;
+        if (!value) {
+            ledger.powerChanged(i, powerConsumption[i], 0.0);
+            powerConsumption[i] = 0.0;
+        }
+        wake(i);
+    }
+
+    //Включает или выключает устройства из списка, не трогая те, что уже в нужном состоянии.
+    //Возвращает число измененных устройств
+    public int setOnAll(int[] indices, boolean value) {
+        int changed = 0;
+        for (int i : indices) {
+            if (on[i] != value) {
+                setOn(i, value);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    //Устанавливает целевое значение устройствам из списка (совпадающие не трогает).
+    //Возвращает число измененных устройств
+    public int setTargetValueAll(int[] indices, double value) {
+        int changed = 0;
+        for (int i : indices) {
+            if (targetValue[i] != value) {
+                targetValue[i] = value;
+                wake(i);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    public double getCurrentValue(int i) {
+        return currentValue[i];
+    }
+
+    public double getTargetValue(int i) {
+        return targetValue[i];
+    }
+
+    public void setTargetValue(int i, double value) {
+        if (targetValue[i] != value) {
+            targetValue[i] = value;
+            wake(i);
+        }
+    }
+
+    public double getPowerConsumption(int i) {
+        return powerConsumption[i];
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    //Переносит устройство в точку плана (posX, posY)
+    public void setPosition(int i, double posX, double posY) {
+        unshareLayout();
+        x[i] = posX;
+        y[i] = posY;
+        spatialIndex.deviceMoved(i);
+        layoutVersion++;
+    }
+
+    public int getLayoutVersion() {
+        return layoutVersion;
+    }
+
+    public String getName(int i) {
+        String name = names[i];
+        if (name != null) {
+            return name;
+        }
+        return DeviceKinds.get(kind[i]).title() + " " + i;
+    }
+
+    public boolean isMotion(int i) {
+        return motion[i];
+    }
+
+    public void setMotion(int i, boolean value) {
+        if (motion[i] != value) {
+            motion[i] = value;
+            wake(i);
+        }
+    }
+
+    public double getTimeOfDay() {
+        return timeOfDay;
+    }
+
+    //Устанавливает время суток; виды будят устройства, которые от него зависят (например, выключенный свет)
+    public void setTimeOfDay(double timeOfDay) {
+        double previous = this.timeOfDay;
+        this.timeOfDay = timeOfDay;
+        for (int k = 0; k < KIND_COUNT; k++) {
+            DeviceKinds.get(k).timeOfDayChanged(this, previous, timeOfDay);
+        }
+    }
+
+    //Возвращает вид устройства i
+    public DeviceKind getDeviceKind(int i) {
+        return DeviceKinds.get(kind[i]);
+    }
+
+    //Возвращает количество устройств в активном множестве
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public boolean isActive(int i) {
+        return active[i];
+    }
+
+    //Возвращает суммарную мощность всех устройств (Вт)
+    public double getTotalPower() {
+        return ledger.getTotalPower();
+    }
+
+    public EnergyLedger getLedger() {
+        return ledger;
+    }
+
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    //Возвращает количество устройств заданного вида
+    public int getKindCount(byte deviceKind) {
+        return kindCount[deviceKind];
+    }
+
+    //Возвращает индекс k-го устройства заданного вида
+    public int getKindMember(byte deviceKind, int k) {
+        return byKind[deviceKind][k];
+    }
+}
@@ -0,0 +1,243 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Журнал энергии: накопленная энергия каждого устройства и текущая мощность дома и сценариев.
+//Обновляется только при изменении мощности устройства, поэтому итоги читаются за O(1):
+//энергия = зафиксированная энергия + текущая мощность * число тиков с момента фиксации.
+//Энергия хранится в Вт * тик и переводится в отчетные единицы так же, как раньше в Scenario (/3600).
+//Суммы по дому и сценариям ведутся с компенсацией (Ноймайер), чтобы итоги не "уплывали"
+
+public class EnergyLedger {
+    // Перевод Вт * тик в отчетные единицы энергии
+    static final double ENERGY_UNIT = 3600.0;
+
+    private final DeviceStore store;
+
+    // Состояние журнала доступно снимку (SnapshotFile) напрямую
+
+    // Последний завершенный тик; изменения мощности вступают в силу с тика now + 1
+    long now;
+
+    // Энергия устройства, зафиксированная по тик settledThrough включительно (Вт * тик)
+    double[] deviceEnergy;
+    long[] settledThrough;
+
+    // Итоги: индекс 0 - дом, 1.. - сценарии. Сумма + компенсация для мощности и энергии
+    double[] power = new double[1];
+    double[] powerCompensation = new double[1];
+    double[] energy = new double[1];
+    double[] energyCompensation = new double[1];
+    long[] totalSettledThrough = new long[1];
+
+    // Наибольшая мощность дома после тиков с начала учета или сброса (Вт)
+    private double peakPower;
+
+    // Сценарии устройства в формате CSR: scenarioIds[scenarioStart[i] .. scenarioStart[i + 1])
+    private int[] scenarioStart;
+    private int[] scenarioIds = new int[0];
+
+    EnergyLedger(DeviceStore store, int capacity) {
+        this.store = store;
+        deviceEnergy = new double[capacity];
+        settledThrough = new long[capacity];
+        scenarioStart = new int[capacity + 1];
+    }
+
+    void grow(int capacity) {
+        deviceEnergy = Arrays.copyOf(deviceEnergy, capacity);
+        settledThrough = Arrays.copyOf(settledThrough, capacity);
+        scenarioStart = Arrays.copyOf(scenarioStart, capacity + 1);
+    }
+
+    //Начинает учет дома с нуля при уже выставленных мощностях устройств (копия состояния хранилища)
+    void restart() {
+        peakPower = 0.0;
+        power[0] = 0.0;
+        powerCompensation[0] = 0.0;
+        double[] devicePower = store.powerConsumption;
+        for (int i = 0; i < store.size(); i++) {
+            add(power, powerCompensation, 0, devicePower[i]);
+        }
+    }
+
+    //Регистрирует новое устройство: его энергия считается с текущего момента
+    void deviceAdded(int i) {
+        deviceEnergy[i] = 0.0;
+        settledThrough[i] = now;
+        // Новое устройство не входит в уже зарегистрированные сценарии
+        scenarioStart[i + 1] = scenarioStart[i];
+    }
+
+    //Регистрирует сценарии: строит принадлежность устройств и начальные мощности сценариев
+    void registerScenarios(Scenario[] scenarios) {
+        int n = store.size();
+        int totals = scenarios.length + 1;
+        power = Arrays.copyOf(power, totals);
+        powerCompensation = Arrays.copyOf(powerCompensation, totals);
+        energy = Arrays.copyOf(energy, totals);
+        energyCompensation = Arrays.copyOf(energyCompensation, totals);
+        totalSettledThrough = Arrays.copyOf(totalSettledThrough, totals);
+
+        int[] counts = new int[n + 1];
+        for (Scenario scenario : scenarios) {
+            for (int i : scenario.getMembers()) {
+                counts[i + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            counts[i + 1] += counts[i];
+        }
+        scenarioStart = Arrays.copyOf(counts, deviceEnergy.length + 1);
+        scenarioIds = new int[counts[n]];
+        for (int s = 0; s < scenarios.length; s++) {
+            int id = s + 1;
+            scenarios[s].attach(this, id);
+            power[id] = 0.0;
+            powerCompensation[id] = 0.0;
+            energy[id] = 0.0;
+            energyCompensation[id] = 0.0;
+            totalSettledThrough[id] = now;
+            for (int i : scenarios[s].getMembers()) {
+                scenarioIds[counts[i]++] = id;
+                add(power, powerCompensation, id, store.powerConsumption[i]);
+            }
+        }
+    }
+
+    //Мощность устройства i изменилась с oldPower на newPower (вступает в силу с тика now + 1)
+    void powerChanged(int i, double oldPower, double newPower) {
+        if (oldPower == newPower) {
+            return;
+        }
+        // Фиксируем энергию по старой мощности до текущего тика
+        deviceEnergy[i] += oldPower * (now - settledThrough[i]);
+        settledThrough[i] = now;
+
+        double delta = newPower - oldPower;
+        changeTotal(0, delta);
+        for (int k = scenarioStart[i], end = scenarioStart[i + 1]; k < end; k++) {
+            changeTotal(scenarioIds[k], delta);
+        }
+    }
+
+    private void changeTotal(int t, double delta) {
+        settleTotal(t);
+        add(power, powerCompensation, t, delta);
+    }
+
+    private void settleTotal(int t) {
+        long ticks = now - totalSettledThrough[t];
+        if (ticks > 0) {
+            add(energy, energyCompensation, t, (power[t] + powerCompensation[t]) * ticks);
+            totalSettledThrough[t] = now;
+        }
+    }
+
+    //Завершает тик: мощности учитываются в энергии еще одного тика
+    void advance() {
+        now++;
+        peakPower = Math.max(peakPower, getTotalPower());
+    }
+
+    //Фиксирует энергию всех устройств и итогов по текущий тик (перед перемоткой,
+    //пока в хранилище еще мощности до нее)
+    void settleAll() {
+        for (int i = 0, n = store.size(); i < n; i++) {
+            deviceEnergy[i] += store.powerConsumption[i] * (now - settledThrough[i]);
+            settledThrough[i] = now;
+        }
+        for (int t = 0; t < power.length; t++) {
+            settleTotal(t);
+        }
+    }
+
+    //Учитывает перемотку на ticks тиков после settleAll(): forwardedEnergy - энергия устройств
+    //за перемотку (Вт * тик), forwardedPeak - пиковая мощность за нее; мощности берутся из хранилища
+    //на конечный момент
+    void fastForwarded(double[] forwardedEnergy, long ticks, double forwardedPeak) {
+        peakPower = Math.max(peakPower, forwardedPeak);
+        now += ticks;
+        for (int i = 0, n = store.size(); i < n; i++) {
+            double e = forwardedEnergy[i];
+            deviceEnergy[i] += e;
+            settledThrough[i] = now;
+            add(energy, energyCompensation, 0, e);
+            for (int k = scenarioStart[i], end = scenarioStart[i + 1]; k < end; k++) {
+                add(energy, energyCompensation, scenarioIds[k], e);
+            }
+        }
+        recomputePower();
+    }
+
+    //Пересчитывает мощности дома и сценариев по хранилищу с нуля
+    private void recomputePower() {
+        Arrays.fill(power, 0.0);
+        Arrays.fill(powerCompensation, 0.0);
+        for (int i = 0, n = store.size(); i < n; i++) {
+            double p = store.powerConsumption[i];
+            add(power, powerCompensation, 0, p);
+            for (int k = scenarioStart[i], end = scenarioStart[i + 1]; k < end; k++) {
+                add(power, powerCompensation, scenarioIds[k], p);
+            }
+        }
+        Arrays.fill(totalSettledThrough, now);
+    }
+
+    //Компенсированное сложение (Ноймайер): sum[t] + compensation[t] - точная сумма
+    private static void add(double[] sum, double[] compensation, int t, double value) {
+        double s = sum[t];
+        double result = s + value;
+        if (Math.abs(s) >= Math.abs(value)) {
+            compensation[t] += (s - result) + value;
+        } else {
+            compensation[t] += (value - result) + s;
+        }
+        sum[t] = result;
+    }
+
+    private double totalEnergy(int t) {
+        double settled = energy[t] + energyCompensation[t];
+        return (settled + (power[t] + powerCompensation[t]) * (now - totalSettledThrough[t])) / ENERGY_UNIT;
+    }
+
+    //Возвращает накопленную энергию устройства i
+    public double getDeviceEnergy(int i) {
+        return (deviceEnergy[i] + store.powerConsumption[i] * (now - settledThrough[i])) / ENERGY_UNIT;
+    }
+
+    //Возвращает текущую мощность дома (Вт), каждое устройство учтено один раз
+    public double getTotalPower() {
+        return power[0] + powerCompensation[0];
+    }
+
+    //Возвращает наибольшую мощность дома после тиков с начала учета или с resetPeakPower() (Вт)
+    public double getPeakPower() {
+        return peakPower;
+    }
+
+    //Начинает поиск пиковой мощности заново с текущей мощности
+    public void resetPeakPower() {
+        peakPower = getTotalPower();
+    }
+
+    //Возвращает накопленную энергию дома, каждое устройство учтено один раз
+    public double getTotalEnergy() {
+        return totalEnergy(0);
+    }
+
+    //Возвращает текущую мощность сценария с номером id (Вт)
+    public double getScenarioPower(int id) {
+        return power[id] + powerCompensation[id];
+    }
+
+    //Возвращает накопленную энергию устройств сценария с номером id
+    public double getScenarioEnergy(int id) {
+        return totalEnergy(id);
+    }
+
+    //Возвращает последний завершенный тик
+    public long getNow() {
+        return now;
+    }
+}
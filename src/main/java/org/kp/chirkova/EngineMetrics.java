@@ -0,0 +1,192 @@
+package org.kp.chirkova;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Метрики движка и отрисовки: гистограммы длительности тика и кадра, стоимость тика по видам устройств,
+//число активных устройств, пропущенные тики (цикл отстал от темпа) и опоздавшие импульсы анимации.
+//Запись не выделяет памяти: счетчики и гистограммы - массивы атомарных long. События JFR
+//(org.kp.chirkova.Tick, org.kp.chirkova.Frame) создаются, только пока их пишет запись JFR.
+//Читать метрики можно из любого потока во время работы; writeText() выгружает их в текстовом
+//формате Prometheus
+
+public class EngineMetrics {
+    // Импульс анимации, пришедший позже полутора интервалов, считается опоздавшим
+    private static final double LATE_PULSE_FACTOR = 1.5;
+
+    private static final EventType TICK_EVENT = EventType.getEventType(TickEvent.class);
+    private static final EventType FRAME_EVENT = EventType.getEventType(FrameEvent.class);
+
+    private final LatencyHistogram tickTime = new LatencyHistogram();
+    private final LatencyHistogram frameTime = new LatencyHistogram();
+
+    // Время шага и число шагнувших устройств по номеру вида (блоки тика пишут из разных потоков)
+    private final AtomicLongArray kindNanos = new AtomicLongArray(DeviceKinds.count());
+    private final AtomicLongArray kindDevices = new AtomicLongArray(DeviceKinds.count());
+
+    private volatile int activeDevices;
+    private final AtomicLong activeDeviceTicks = new AtomicLong();
+    private final AtomicLong missedTicks = new AtomicLong();
+    private final AtomicLong latePulses = new AtomicLong();
+
+    // Только поток отрисовки: время прошлого импульса (0 - импульсов не было)
+    private long lastPulse;
+
+    //Записывает тик номер tick длительностью nanos, обработавший activeDevices устройств (в потоке движка)
+    public void recordTick(long tick, long nanos, int activeDevices) {
+        tickTime.record(nanos);
+        this.activeDevices = activeDevices;
+        activeDeviceTicks.addAndGet(activeDevices);
+        if (TICK_EVENT.isEnabled()) {
+            TickEvent event = new TickEvent();
+            event.tick = tick;
+            event.tickTime = nanos;
+            event.activeDevices = activeDevices;
+            event.commit();
+        }
+    }
+
+    //Добавляет стоимость шага группы устройств вида kind (из любого потока тика)
+    public void recordKind(int kind, long nanos, int devices) {
+        kindNanos.addAndGet(kind, nanos);
+        kindDevices.addAndGet(kind, devices);
+    }
+
+    //Учитывает тики, которые цикл пропустил, не успевая за темпом
+    public void recordMissedTicks(long ticks) {
+        missedTicks.addAndGet(ticks);
+    }
+
+    //Записывает кадр: импульс анимации в момент pulse (нс) с ожидаемым интервалом interval и время
+    //отрисовки nanos (в потоке отрисовки). Пропущенные импульсы считаются по промежутку с прошлого
+    public void recordFrame(long pulse, long interval, long nanos, long tick) {
+        if (lastPulse != 0 && pulse - lastPulse > interval * LATE_PULSE_FACTOR) {
+            latePulses.addAndGet(Math.max(1, Math.round((pulse - lastPulse) / (double) interval) - 1));
+        }
+        lastPulse = pulse;
+        frameTime.record(nanos);
+        if (FRAME_EVENT.isEnabled()) {
+            FrameEvent event = new FrameEvent();
+            event.tick = tick;
+            event.frameTime = nanos;
+            event.commit();
+        }
+    }
+
+    //Длительность тика, нс
+    public LatencyHistogram getTickTime() {
+        return tickTime;
+    }
+
+    //Длительность отрисовки кадра, нс
+    public LatencyHistogram getFrameTime() {
+        return frameTime;
+    }
+
+    //Суммарное время шага устройств вида, нс
+    public long getKindNanos(int kind) {
+        return kindNanos.get(kind);
+    }
+
+    //Суммарное число шагов устройств вида
+    public long getKindDevices(int kind) {
+        return kindDevices.get(kind);
+    }
+
+    //Число устройств, обработанных последним тиком
+    public int getActiveDevices() {
+        return activeDevices;
+    }
+
+    //Среднее число устройств, обработанных тиком
+    public double getMeanActiveDevices() {
+        long ticks = tickTime.getCount();
+        return ticks == 0 ? 0 : activeDeviceTicks.get() / (double) ticks;
+    }
+
+    public long getMissedTicks() {
+        return missedTicks.get();
+    }
+
+    public long getLatePulses() {
+        return latePulses.get();
+    }
+
+    //Выгружает метрики в текстовом формате Prometheus (время - в секундах)
+    public void writeText(Appendable out) throws IOException {
+        writeSummary(out, "chirkova_tick_seconds", "Длительность тика движка", tickTime);
+        writeSummary(out, "chirkova_frame_seconds", "Длительность отрисовки кадра", frameTime);
+
+        out.append("# HELP chirkova_kind_step_seconds_total Время шага устройств по видам\n");
+        out.append("# TYPE chirkova_kind_step_seconds_total counter\n");
+        for (int k = 0; k < kindNanos.length(); k++) {
+            out.append(String.format(Locale.ROOT, "chirkova_kind_step_seconds_total{kind=\"%s\"} %.9f%n",
+                DeviceKinds.get(k).name(), kindNanos.get(k) / 1e9));
+        }
+        out.append("# HELP chirkova_kind_steps_total Шаги устройств по видам\n");
+        out.append("# TYPE chirkova_kind_steps_total counter\n");
+        for (int k = 0; k < kindDevices.length(); k++) {
+            out.append(String.format(Locale.ROOT, "chirkova_kind_steps_total{kind=\"%s\"} %d%n",
+                DeviceKinds.get(k).name(), kindDevices.get(k)));
+        }
+
+        writeValue(out, "chirkova_active_devices", "gauge", "Устройства, обработанные последним тиком", activeDevices);
+        writeValue(out, "chirkova_missed_ticks_total", "counter", "Тики, пропущенные из-за отставания от темпа", getMissedTicks());
+        writeValue(out, "chirkova_late_pulses_total", "counter", "Пропущенные импульсы анимации", getLatePulses());
+    }
+
+    private static void writeSummary(Appendable out, String name, String help, LatencyHistogram histogram) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999, 1.0}) {
+            out.append(String.format(Locale.ROOT, "%s{quantile=\"%s\"} %.9f%n", name, quantile,
+                histogram.getValueAtPercentile(quantile * 100) / 1e9));
+        }
+        out.append(String.format(Locale.ROOT, "%s_sum %.9f%n", name, histogram.getSum() / 1e9));
+        out.append(String.format(Locale.ROOT, "%s_count %d%n", name, histogram.getCount()));
+    }
+
+    private static void writeValue(Appendable out, String name, String type, String help, long value) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    @Name("org.kp.chirkova.Tick")
+    @Label("Тик движка")
+    @Category("Chirkova")
+    static final class TickEvent extends Event {
+        @Label("Тик")
+        long tick;
+
+        @Label("Длительность тика")
+        @Timespan(Timespan.NANOSECONDS)
+        long tickTime;
+
+        @Label("Активные устройства")
+        @Description("Устройства, обработанные тиком")
+        int activeDevices;
+    }
+
+    @Name("org.kp.chirkova.Frame")
+    @Label("Кадр интерфейса")
+    @Category("Chirkova")
+    static final class FrameEvent extends Event {
+        @Label("Тик кадра")
+        long tick;
+
+        @Label("Длительность отрисовки")
+        @Timespan(Timespan.NANOSECONDS)
+        long frameTime;
+    }
+}
@@ -0,0 +1,87 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Очередь событий устройств с приоритетом по тику (двоичная куча на примитивных массивах).
+//При равных тиках первым извлекается устройство с меньшим индексом, поэтому порядок детерминирован
+
+public class EventQueue {
+    private long[] ticks = new long[16];
+    private int[] devices = new int[16];
+    private int size;
+
+    //Добавляет событие устройства device на тике tick
+    public void add(long tick, int device) {
+        if (size == ticks.length) {
+            ticks = Arrays.copyOf(ticks, size * 2);
+            devices = Arrays.copyOf(devices, size * 2);
+        }
+        int k = size++;
+        // Просеивание вверх
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (!less(tick, device, ticks[parent], devices[parent])) {
+                break;
+            }
+            ticks[k] = ticks[parent];
+            devices[k] = devices[parent];
+            k = parent;
+        }
+        ticks[k] = tick;
+        devices[k] = device;
+    }
+
+    //Возвращает тик ближайшего события (очередь не должна быть пустой)
+    public long peekTick() {
+        return ticks[0];
+    }
+
+    //Возвращает устройство ближайшего события (очередь не должна быть пустой)
+    public int peekDevice() {
+        return devices[0];
+    }
+
+    //Удаляет ближайшее событие и возвращает его устройство
+    public int poll() {
+        int result = devices[0];
+        int last = --size;
+        long tick = ticks[last];
+        int device = devices[last];
+        // Просеивание вниз последнего элемента с вершины
+        int k = 0;
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && less(ticks[child + 1], devices[child + 1], ticks[child], devices[child])) {
+                child++;
+            }
+            if (!less(ticks[child], devices[child], tick, device)) {
+                break;
+            }
+            ticks[k] = ticks[child];
+            devices[k] = devices[child];
+            k = child;
+        }
+        ticks[k] = tick;
+        devices[k] = device;
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private static boolean less(long tickA, int deviceA, long tickB, int deviceB) {
+        return tickA < tickB || (tickA == tickB && deviceA < deviceB);
+    }
+}
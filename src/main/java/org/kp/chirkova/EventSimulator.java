@@ -0,0 +1,233 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Дискретно-событийная перемотка симуляции.
+//Вместо шага всех устройств на каждом тике для каждого устройства хранится тик следующего
+//"интересного" события в очереди с приоритетом, и часы перескакивают сразу к нему:
+// - устройства в устойчивом состоянии событий не имеют, их энергия = мощность * число тиков;
+// - термостат между событиями движется линейно (постоянная мощность, постоянный шаг на сетке
+//   Thermostat.GRID), поэтому длина участка находится поиском, а значение - в замкнутой форме;
+// - выключенный свет просто повторяет дневной свет и получает значение на конечный момент;
+// - остальные переходные процессы (разгон света, камеры) шагаются точно по одному тику;
+// - устройства подключенных видов (DeviceKind) шагаются каждый тик: их поведение между событиями
+//   неизвестно (например, может зависеть от времени суток).
+//Конечное состояние устройств совпадает с пошаговым тиком, энергия - с точностью до порядка суммирования
+
+public class EventSimulator {
+    private final DeviceStore store;
+    private final EventQueue queue = new EventQueue();
+
+    // Энергия устройств за последнюю перемотку (Вт * тик)
+    private double[] deviceEnergy = new double[0];
+
+    // Количество точных шагов устройств за последнюю перемотку
+    private long processedEvents;
+
+    // Наибольшая суммарная мощность после тиков последней перемотки (Вт)
+    private double peakPower;
+
+    public EventSimulator(DeviceStore store) {
+        this.store = store;
+    }
+
+    //Перематывает хранилище на ticks тиков вперед от времени суток timeOfDay.
+    //Возвращает время суток после последнего тика
+    public double run(double timeOfDay, long ticks) {
+        int n = store.size();
+        if (deviceEnergy.length < n) {
+            deviceEnergy = new double[n];
+        }
+        Arrays.fill(deviceEnergy, 0, n, 0.0);
+        processedEvents = 0;
+        peakPower = 0.0;
+        if (ticks <= 0) {
+            return timeOfDay;
+        }
+        ClockTable clock = new ClockTable(timeOfDay);
+
+        // Суммарная мощность меняется только на событиях, а они идут по порядку тиков: пик ведется на лету
+        double totalPower = 0.0;
+        double peak = Double.NEGATIVE_INFINITY;
+        long currentTick = 0;
+
+        // Начальные события: первый тик для активных устройств
+        queue.clear();
+        for (int i = 0; i < n; i++) {
+            totalPower += store.powerConsumption[i];
+            if (store.kind[i] == DeviceStore.KIND_LIGHT && !store.on[i]) {
+                continue; // Следует за дневным светом, мощность 0
+            }
+            if (store.active[i] || !DeviceKinds.isBuiltIn(store.kind[i])) {
+                queue.add(1, i);
+            } else {
+                deviceEnergy[i] = store.powerConsumption[i] * ticks;
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            long tick = queue.peekTick();
+            int i = queue.poll();
+            double oldValue = store.currentValue[i];
+            double oldPower = store.powerConsumption[i];
+            if (tick > currentTick) {
+                // Тики currentTick .. tick - 1 закончились с текущей суммарной мощностью
+                if (tick > 1) {
+                    peak = Math.max(peak, totalPower);
+                }
+                currentTick = tick;
+            }
+
+            // Точный шаг устройства на тике tick
+            store.timeOfDay = clock.at(tick);
+            store.step(i);
+            deviceEnergy[i] += store.powerConsumption[i];
+            totalPower += store.powerConsumption[i] - oldPower;
+            processedEvents++;
+
+            if (store.kind[i] == DeviceStore.KIND_THERMOSTAT) {
+                scheduleThermostat(i, tick, ticks);
+            } else if (store.currentValue[i] == oldValue && store.powerConsumption[i] == oldPower
+                    && DeviceKinds.isBuiltIn(store.kind[i])) {
+                // Шаг ничего не изменил - дальше мощность постоянна
+                deviceEnergy[i] += store.powerConsumption[i] * (ticks - tick);
+            } else if (tick < ticks) {
+                queue.add(tick + 1, i);
+            }
+        }
+
+        peakPower = Math.max(peak, totalPower);
+
+        // Выключенный свет принимает значение дневного света на конечный момент
+        double endTime = clock.at(ticks);
+        double dayLight = Light.calculateDayLight(endTime);
+        for (int k = 0, count = store.getKindCount(DeviceStore.KIND_LIGHT); k < count; k++) {
+            int i = store.getKindMember(DeviceStore.KIND_LIGHT, k);
+            if (!store.on[i]) {
+                store.currentValue[i] = dayLight;
+            }
+        }
+        store.timeOfDay = endTime;
+        // Следующий обычный тик сам отсеет устройства в устойчивом состоянии
+        store.wakeAll();
+        return endTime;
+    }
+
+    //Планирует следующее событие термостата i после точного шага на тике tick
+    private void scheduleThermostat(int i, long tick, long endTick) {
+        if (tick >= endTick) {
+            return;
+        }
+        boolean on = store.on[i];
+        double target = store.targetValue[i];
+        double value = store.currentValue[i];
+        double power = store.powerConsumption[i];
+
+        // Каким будет следующий тик
+        double updated = Thermostat.updatedValue(on, value, target);
+        double nextValue = Thermostat.analyzedValue(on, updated, target, power);
+        double nextPower = Thermostat.analyzedPower(on, updated, target, power);
+        if (nextValue == value && nextPower == power) {
+            // Устойчивое состояние до конца перемотки
+            deviceEnergy[i] += power * (endTick - tick);
+            return;
+        }
+
+        long base = (long) Math.rint(value * Thermostat.GRID);
+        long step = (long) Math.rint((nextValue - value) * Thermostat.GRID);
+        if (nextPower != power || base / Thermostat.GRID != value || step == 0) {
+            // Переход между участками (или значение вне сетки) - шагаем точно
+            queue.add(tick + 1, i);
+            return;
+        }
+
+        // Линейный участок: ищем, сколько тиков подряд он сохраняется (галоп + двоичный поиск)
+        long maxLength = endTick - tick;
+        long low = 1; // Первый тик участка уже проверен выше
+        long high = 2;
+        while (high <= maxLength && staysOnSegment(on, target, power, base, step, high)) {
+            low = high;
+            high *= 2;
+        }
+        high = Math.min(high, maxLength + 1);
+        while (high - low > 1) {
+            long middle = (low + high) >>> 1;
+            if (staysOnSegment(on, target, power, base, step, middle)) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+
+        // Значение в замкнутой форме на конце участка; шаг после участка - снова точный
+        store.currentValue[i] = (base + low * step) / Thermostat.GRID;
+        deviceEnergy[i] += power * low;
+        if (tick + low < endTick) {
+            queue.add(tick + low + 1, i);
+        }
+    }
+
+    //Проверяет, что j-й тик участка (от значения base + (j - 1) * step) дает base + j * step при той же мощности
+    private static boolean staysOnSegment(boolean on, double target, double power, long base, long step, long j) {
+        double value = (base + (j - 1) * step) / Thermostat.GRID;
+        double updated = Thermostat.updatedValue(on, value, target);
+        return Thermostat.analyzedPower(on, updated, target, power) == power
+            && Thermostat.analyzedValue(on, updated, target, power) == (base + j * step) / Thermostat.GRID;
+    }
+
+    //Возвращает энергию устройств за последнюю перемотку (Вт * тик, индекс = устройство)
+    public double[] getDeviceEnergy() {
+        return deviceEnergy;
+    }
+
+    //Возвращает наибольшую суммарную мощность устройств после тиков последней перемотки (Вт)
+    public double getPeakPower() {
+        return peakPower;
+    }
+
+    //Возвращает количество точных шагов устройств за последнюю перемотку
+    public long getProcessedEvents() {
+        return processedEvents;
+    }
+
+    //Время суток через k тиков: до первого перехода через полночь - таблица prefix,
+    //дальше последовательность периодична (начинается с 0.0) - таблица cycle
+    private static final class ClockTable {
+        private final double[] prefix;
+        private final double[] cycle;
+
+        ClockTable(double start) {
+            prefix = sequenceUntilWrap(start);
+            cycle = new double[sequenceUntilWrap(0.0).length];
+            double time = 0.0;
+            for (int k = 0; k < cycle.length; k++) {
+                cycle[k] = time;
+                time = SimulationEngine.nextTimeOfDay(time);
+            }
+        }
+
+        //Значения времени после 1, 2, ... тиков до первого 0.0 включительно
+        private static double[] sequenceUntilWrap(double start) {
+            int length = 0;
+            double time = start;
+            do {
+                time = SimulationEngine.nextTimeOfDay(time);
+                length++;
+            } while (time != 0.0);
+            double[] result = new double[length];
+            time = start;
+            for (int k = 0; k < length; k++) {
+                time = SimulationEngine.nextTimeOfDay(time);
+                result[k] = time;
+            }
+            return result;
+        }
+
+        double at(long k) {
+            if (k <= prefix.length) {
+                return prefix[(int) (k - 1)];
+            }
+            return cycle[(int) ((k - prefix.length) % cycle.length)];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.kp.chirkova;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+//Передача кадров HouseFrame от движка к интерфейсу. Движок публикует кадр не чаще minInterval,
+//интерфейс забирает самый свежий кадр, когда готов рисовать. Кадр, который не успели забрать,
+//заменяется новым: промежуточные кадры отбрасываются, а не копятся в очереди.
+//В обороте три кадра - последний опубликованный, кадр у потребителя и запасной у движка, - поэтому
+//в установившемся режиме публикация не выделяет память. Обмен кадрами идет без блокировок.
+//Публикует один поток (движка), забирает тоже один (например, поток JavaFX)
+
+public class FramePublisher {
+    // По умолчанию не чаще 60 кадров в секунду
+    public static final Duration DEFAULT_INTERVAL = Duration.ofNanos(1_000_000_000L / 60);
+
+    private final long intervalNanos;
+
+    // Последний опубликованный и еще не забранный кадр
+    private final AtomicReference<HouseFrame> latest = new AtomicReference<>();
+    // Кадр, который потребитель вернул в оборот
+    private final AtomicReference<HouseFrame> released = new AtomicReference<>();
+
+    // Только поток движка: запасной кадр и время последней публикации
+    private HouseFrame spare;
+    private long lastPublishNanos;
+    private boolean publishedOnce;
+    private volatile long publishedCount;
+    private volatile long droppedCount;
+
+    // Только поток потребителя: кадр, который он сейчас держит
+    private HouseFrame current;
+
+    public FramePublisher() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    public FramePublisher(Duration minInterval) {
+        if (minInterval.isNegative()) {
+            throw new IllegalArgumentException("Интервал кадров не может быть отрицательным: " + minInterval);
+        }
+        this.intervalNanos = minInterval.toNanos();
+    }
+
+    //Публикует кадр, если с прошлой публикации прошло не меньше minInterval (в потоке движка).
+    //Возвращает, опубликован ли кадр
+    public boolean publishIfDue(SimulationEngine engine) {
+        long now = System.nanoTime();
+        if (publishedOnce && now - lastPublishNanos < intervalNanos) {
+            return false;
+        }
+        publish(engine, now);
+        return true;
+    }
+
+    //Публикует кадр независимо от интервала (в потоке движка)
+    public void publish(SimulationEngine engine) {
+        publish(engine, System.nanoTime());
+    }
+
+    private void publish(SimulationEngine engine, long now) {
+        HouseFrame frame = spare != null ? spare : released.getAndSet(null);
+        if (frame == null || !frame.fits(engine)) {
+            // Первые кадры или дом вырос: кадр по размеру хранилища
+            frame = new HouseFrame(engine.getStore(), engine.getStore().size());
+        }
+        frame.fill(engine);
+        // Незабранный кадр не показывается никогда и становится запасным
+        spare = latest.getAndSet(frame);
+        if (spare != null) {
+            droppedCount++;
+        }
+        publishedCount++;
+        lastPublishNanos = now;
+        publishedOnce = true;
+    }
+
+    //Самый свежий кадр (в потоке потребителя). Если нового кадра нет, возвращает прошлый; null - кадров
+    //еще не было. Прошлый кадр при получении нового возвращается движку, поэтому держать можно только
+    //последний полученный кадр
+    public HouseFrame take() {
+        HouseFrame frame = latest.getAndSet(null);
+        if (frame == null) {
+            return current;
+        }
+        if (current != null) {
+            released.set(current);
+        }
+        current = frame;
+        return frame;
+    }
+
+    //Минимальный интервал между кадрами, нс
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    //Число опубликованных кадров
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    //Число кадров, замененных новыми до того, как их забрали
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
@@ -0,0 +1,130 @@
+package org.kp.chirkova;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+//Пакетный запуск симуляции без дисплея: несколько домов, заданное число тиков.
+//Аргументы: [количество тиков] [количество домов] [режим: tick - по тикам, events - перемотка по событиям,
+//shards - все дома разом кварталом (Neighborhood) на всех ядрах, с пятеркой самых затратных домов,
+//forecast - после тиков первого дома прогноз на сутки по каждому его сценарию (ScenarioForecast)].
+//С -Dchirkova.metrics=true после итогов печатает метрики тиков всех домов в формате Prometheus,
+//с -Dchirkova.layout=<файл> дома загружаются из файла раскладки (LayoutFile) вместо стандартного дома,
+//с -Dchirkova.thermal=<расстояние> у каждого термостата свое помещение тепловой модели (ThermalModel),
+//а помещения с термостатами не дальше заданного расстояния по каждой оси разделены стеной,
+//с -Dchirkova.telemetry=true первый дом пишет историю показаний (TelemetryStore; при перемотке - только
+//на тиках событий) и в конце печатает энергию по сохраненной истории и занятую ею память
+
+public class HeadlessRunner {
+
+    public static void main(String[] args) throws IOException {
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 240;
+        int houses = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        boolean events = args.length > 2 && args[2].equals("events");
+        boolean shards = args.length > 2 && args[2].equals("shards");
+        boolean forecast = args.length > 2 && args[2].equals("forecast");
+        // Гистограммы метрик пишет один поток, поэтому в квартале метрики не собираются
+        EngineMetrics metrics = Boolean.getBoolean("chirkova.metrics") && !shards ? new EngineMetrics() : null;
+        String layout = System.getProperty("chirkova.layout");
+        boolean telemetry = Boolean.getBoolean("chirkova.telemetry") && !shards;
+
+        long start = System.nanoTime();
+        double totalEnergy = 0.0;
+        double totalPower = 0.0;
+        // Самые затратные дома квартала и их энергия
+        int[] top = new int[0];
+        double[] topEnergy = new double[0];
+        if (shards) {
+            SimulationEngine[] homes = new SimulationEngine[houses];
+            for (int i = 0; i < houses; i++) {
+                homes[i] = createHouse(layout, null);
+            }
+            try (Neighborhood neighborhood = new Neighborhood(homes, Runtime.getRuntime().availableProcessors())) {
+                neighborhood.runTicks(ticks);
+                totalEnergy = neighborhood.getTotalEnergy();
+                totalPower = neighborhood.getTotalPower();
+                top = neighborhood.topByEnergy(5);
+                topEnergy = new double[top.length];
+                for (int i = 0; i < top.length; i++) {
+                    topEnergy[i] = neighborhood.getHomeEnergy(top[i]);
+                }
+            }
+        }
+        SimulationEngine first = null;
+        for (int i = 0; i < houses && !shards; i++) {
+            SimulationEngine engine = createHouse(layout, metrics);
+            if (i == 0 && telemetry) {
+                engine.setTelemetry(new TelemetryStore(engine.getStore()));
+            }
+            if (events) {
+                engine.fastForward(ticks);
+            } else {
+                engine.runTicks(ticks);
+            }
+            totalEnergy += engine.getTotalEnergy();
+            totalPower += engine.getCurrentPower();
+            if (i == 0) {
+                first = engine;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Домов: %d, тиков: %d, время: %.3f с%n", houses, ticks, seconds);
+        System.out.printf("Общая энергия: %.2f кВт*ч | Текущая мощность: %.2f кВт%n",
+            totalEnergy, totalPower / 1000.0);
+        for (int i = 0; i < top.length; i++) {
+            System.out.printf("Дом %d: %.2f кВт*ч%n", top[i], topEnergy[i]);
+        }
+        if (forecast && first != null) {
+            printForecast(first);
+        }
+        if (telemetry && first != null) {
+            printTelemetry(first.getTelemetry(), first.getStore().size());
+        }
+        if (metrics != null) {
+            metrics.writeText(System.out);
+        }
+    }
+
+    //Энергия первого дома по истории показаний за все хранимые тики
+    private static void printTelemetry(TelemetryStore telemetry, int devices) {
+        long from = telemetry.getOldestTick();
+        long to = telemetry.getLastTick();
+        double energy = 0.0;
+        for (int i = 0; i < devices; i++) {
+            energy += telemetry.getEnergy(i, from, to);
+        }
+        System.out.printf("Телеметрия первого дома: тики %d..%d, %.2f кВт*ч | Память: %d КБ%n",
+            from, to, energy, telemetry.getRetainedBytes() / 1024);
+    }
+
+    //Прогноз на сутки для каждого сценария дома и для дома без смены сценария
+    private static void printForecast(SimulationEngine engine) {
+        Scenario[] scenarios = engine.getScenarios();
+        Scenario[] candidates = Arrays.copyOf(scenarios, scenarios.length + 1);
+        long start = System.nanoTime();
+        ScenarioForecast.Outcome[] outcomes = ScenarioForecast.capture(engine).run(candidates);
+        System.out.printf("Прогноз на сутки (%.3f с):%n", (System.nanoTime() - start) / 1e9);
+        for (ScenarioForecast.Outcome outcome : outcomes) {
+            String name = outcome.getScenarioName() != null ? outcome.getScenarioName() : "Без изменений";
+            System.out.printf("%s: %.2f кВт*ч (10%%: %.2f, 90%%: %.2f) | Пик: %.2f кВт%n", name,
+                outcome.getMeanEnergy(), outcome.getEnergyPercentile(10), outcome.getEnergyPercentile(90),
+                outcome.getPeakPower() / 1000.0);
+        }
+    }
+
+    //Дом из раскладки (или стандартный), живущий по дневному сценарию (в раскладке - по второму, если он есть)
+    private static SimulationEngine createHouse(String layout, EngineMetrics metrics) throws IOException {
+        SimulationEngine engine = layout != null ? LayoutFile.load(Path.of(layout)) : SimulationEngine.createDefaultHouse();
+        engine.setMetrics(metrics);
+        String thermal = System.getProperty("chirkova.thermal");
+        if (thermal != null) {
+            engine.getThermalModel().addRoomsForThermostats(Double.parseDouble(thermal));
+        }
+        Scenario[] scenarios = engine.getScenarios();
+        if (scenarios.length > 0) {
+            engine.activateScenario(scenarios[Math.min(1, scenarios.length - 1)]);
+        }
+        return engine;
+    }
+}
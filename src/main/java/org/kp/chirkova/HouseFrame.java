@@ -0,0 +1,115 @@
+package org.kp.chirkova;
+
+//Кадр состояния дома для интерфейса: показания устройств, суммы энергии и часы на момент одного тика.
+//Движок заполняет кадр в своем потоке между тиками, поэтому значения кадра согласованы между собой,
+//а поток JavaFX рисует из кадра, не трогая изменяемые колонки хранилища. Показания хранятся во float:
+//для отображения точности хватает, а кадр почти вдвое меньше. Расположение, виды и имена устройств
+//не копируются - пока дом работает, они не меняются и берутся из хранилища (getStore()).
+//Полученный через FramePublisher кадр не меняется, пока его держит потребитель
+
+public final class HouseFrame {
+    private final DeviceStore store;
+
+    // Показания по индексу устройства (длина колонок - не меньше size)
+    final boolean[] on;
+    final float[] currentValue;
+    final float[] targetValue;
+    final float[] power;
+    int size;
+
+    long tick;
+    double timeOfDay;
+    double totalEnergy;
+    double currentPower;
+    Scenario activeScenario;
+
+    HouseFrame(DeviceStore store, int capacity) {
+        this.store = store;
+        this.on = new boolean[capacity];
+        this.currentValue = new float[capacity];
+        this.targetValue = new float[capacity];
+        this.power = new float[capacity];
+    }
+
+    //Снимает кадр с движка (вызывается в потоке движка)
+    public static HouseFrame capture(SimulationEngine engine) {
+        HouseFrame frame = new HouseFrame(engine.getStore(), engine.getStore().size());
+        frame.fill(engine);
+        return frame;
+    }
+
+    //Подходит ли кадр для повторного заполнения состоянием движка
+    boolean fits(SimulationEngine engine) {
+        return store == engine.getStore() && on.length >= store.size();
+    }
+
+    //Копирует в кадр текущее состояние движка
+    void fill(SimulationEngine engine) {
+        DeviceStore s = store;
+        int n = s.size;
+        System.arraycopy(s.on, 0, on, 0, n);
+        double[] value = s.currentValue;
+        double[] target = s.targetValue;
+        double[] watts = s.powerConsumption;
+        for (int i = 0; i < n; i++) {
+            currentValue[i] = (float) value[i];
+            targetValue[i] = (float) target[i];
+            power[i] = (float) watts[i];
+        }
+        size = n;
+        tick = engine.getTickCount();
+        timeOfDay = engine.getGlobalTimeOfDay();
+        totalEnergy = engine.getTotalEnergy();
+        currentPower = engine.getCurrentPower();
+        activeScenario = engine.getActiveScenario();
+    }
+
+    //Хранилище дома: расположение, виды и имена устройств
+    public DeviceStore getStore() {
+        return store;
+    }
+
+    //Число устройств в кадре (устройства, добавленные после снятия кадра, в него не входят)
+    public int size() {
+        return size;
+    }
+
+    public boolean isOn(int i) {
+        return on[i];
+    }
+
+    public double getCurrentValue(int i) {
+        return currentValue[i];
+    }
+
+    public double getTargetValue(int i) {
+        return targetValue[i];
+    }
+
+    public double getPower(int i) {
+        return power[i];
+    }
+
+    //Тик, после которого снят кадр
+    public long getTick() {
+        return tick;
+    }
+
+    public double getTimeOfDay() {
+        return timeOfDay;
+    }
+
+    //Накопленная энергия дома, кВт*ч
+    public double getTotalEnergy() {
+        return totalEnergy;
+    }
+
+    //Текущая мощность дома, Вт
+    public double getCurrentPower() {
+        return currentPower;
+    }
+
+    public Scenario getActiveScenario() {
+        return activeScenario;
+    }
+}
@@ -0,0 +1,674 @@
+package org.kp.chirkova;
+
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.stage.Window;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+//Отрисовка плана дома на Canvas. Не привязана к окну: может рисовать и на внеэкранный Canvas.
+//Два режима: draw() рисует кадр целиком, update() перерисовывает только области, которые
+//изменились с прошлого кадра (устройства с новым состоянием, время суток, активный сценарий).
+//Шрифты общие, рамки и иконки устройств растрируются в спрайты по состояниям; иконку и формат
+//значения дает вид устройства (DeviceKind), поэтому новые виды рисуются без правок отрисовки.
+//Рисует из кадра HouseFrame, а не из хранилища, поэтому движок может тикать в своем потоке.
+//План рисуется через Viewport (перенос и масштаб); устройства вне экрана пропускаются,
+//при мелком масштабе подписи не рисуются, а еще мельче вместо устройств - тепловая карта
+
+public class HouseRenderer {
+    // Общие шрифты (раньше создавались заново для каждого устройства на каждом кадре)
+    private static final Font TITLE_FONT = new Font("Arial", 18);
+    private static final Font ICON_FONT = new Font("Arial", 10);
+    private static final Font NAME_FONT = new Font("Arial", 11);
+    private static final Font VALUE_FONT = new Font("Arial", 12);
+    private static final Font POWER_FONT = new Font("Arial", 14);
+    private static final Font INFO_FONT = new Font("Arial", 12);
+    private static final Font TIME_FONT = new Font("Arial", 14);
+
+    // Область устройства относительно его центра: круг, индикатор и подписи
+    private static final double DEVICE_LEFT = 60;
+    private static final double DEVICE_TOP = 75;
+    private static final double DEVICE_RIGHT = 90;
+    private static final double DEVICE_BOTTOM = 100;
+
+    // Уровни детализации: ниже DETAIL_SCALE подписи не читаются и не рисуются, ниже HEATMAP_SCALE
+    // устройства не рисуются по отдельности - только плитки тепловой карты по площади экрана
+    private static final double DETAIL_SCALE = 0.6;
+    private static final double HEATMAP_SCALE = 0.2;
+    private static final double HEAT_TILE = 24;
+    private static final Color[] HEAT_COLORS = new Color[32];
+
+    // Перерисовка по областям выгоднее полной, пока изменилась небольшая часть устройств
+    private static final double FULL_REDRAW_FRACTION = 0.25;
+    private static final long MAX_OVERLAP_CHECKS = 1_000_000;
+
+    // Уровни яркости лампы в спрайтах (как у 8-битного альфа-канала)
+    private static final int LIGHT_LEVELS = 256;
+
+    // Рамка устройства: выключено, включено без потребления, включено с потреблением
+    private static final int FRAME_OFF = 0;
+    private static final int FRAME_IDLE = 1;
+    private static final int FRAME_ACTIVE = 2;
+
+    static {
+        // От бледно-желтого (устройства без потребления) к красному (наибольшая мощность на экране)
+        for (int k = 0; k < HEAT_COLORS.length; k++) {
+            HEAT_COLORS[k] = Color.LIGHTYELLOW.interpolate(Color.RED, k / (double) (HEAT_COLORS.length - 1));
+        }
+    }
+
+    private final GraphicsContext gc;
+    private final Canvas canvas;
+    private final Viewport viewport;
+
+    // Спрайты по состояниям (null - еще не растрирован; растрируются только в потоке JavaFX)
+    private final Image[] frameSprites = new Image[3];
+    // Иконки видов устройств и их спрайты по номеру вида и состоянию иконки
+    private final DeviceIcon[] icons = new DeviceIcon[DeviceKinds.count()];
+    private final Image[][] iconSprites = new Image[DeviceKinds.count()][];
+    private Canvas spriteCanvas;
+    private double spriteScale;
+
+    // Рисуем ли текущий кадр в потоке JavaFX (только там можно растрировать новые спрайты)
+    private boolean onFxThread;
+    // Спрайты растрированы в натуральную величину: при увеличении рисуем примитивами, чтобы не было размытия
+    private boolean spritesSharp;
+
+    // Устройства, попавшие в перерисовываемую область (из пространственного индекса)
+    private int[] visible = new int[0];
+
+    // Суммы по плиткам тепловой карты (строки плиток сверху вниз)
+    private int[] heatCount = new int[0];
+    private double[] heatPower = new double[0];
+
+    // Подписи устройств, разбитые на слова (имена не меняются)
+    private String[][] nameParts = new String[0][];
+
+    // Состояние, нарисованное на прошлом кадре
+    private boolean valid;
+    private DeviceStore drawnStore;
+    private int drawnCount;
+    private double drawnWidth;
+    private double drawnHeight;
+    private long drawnViewport;
+    private boolean[] drawnOn = new boolean[0];
+    private float[] drawnValue = new float[0];
+    private float[] drawnPower = new float[0];
+    private double drawnTime;
+    private Scenario drawnScenario;
+    private int[] dirty = new int[0];
+
+    public HouseRenderer(GraphicsContext gc) {
+        this(gc, new Viewport());
+    }
+
+    public HouseRenderer(GraphicsContext gc, Viewport viewport) {
+        this.gc = gc;
+        this.canvas = gc.getCanvas();
+        this.viewport = viewport;
+        for (int k = 0; k < icons.length; k++) {
+            icons[k] = DeviceKinds.get(k).icon();
+            iconSprites[k] = new Image[icons[k].states()];
+        }
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    //Настраивает область просмотра так, чтобы все устройства (с подписями) поместились на холст
+    public void fitToPlan(DeviceStore store) {
+        int n = store.size();
+        if (n == 0) {
+            viewport.reset();
+            return;
+        }
+        double left = Double.POSITIVE_INFINITY;
+        double top = Double.POSITIVE_INFINITY;
+        double right = Double.NEGATIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            left = Math.min(left, store.x[i]);
+            right = Math.max(right, store.x[i]);
+            top = Math.min(top, store.y[i]);
+            bottom = Math.max(bottom, store.y[i]);
+        }
+        viewport.fit(left - DEVICE_LEFT, top - DEVICE_TOP, right + DEVICE_RIGHT, bottom + DEVICE_BOTTOM,
+                canvas.getWidth(), canvas.getHeight());
+    }
+
+     //Отрисовывает кадр состояния дома на Canvas
+    public void draw(HouseFrame frame) {
+        startFrame(frame.getStore());
+        // Очищаем canvas
+        gc.setFill(Color.LIGHTGRAY);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        drawTitle();
+        // Рисуем время суток
+        drawTimeOfDay(frame.getTimeOfDay());
+        // Рисуем видимые устройства
+        drawPlan(frame, 0, 0, canvas.getWidth(), canvas.getHeight());
+        // Рисуем информацию о сценариях
+        drawScenariosInfo(frame.getActiveScenario());
+    }
+
+    //Перерисовывает только то, что изменилось с прошлого вызова update().
+    //Первый кадр, смена размера холста, области просмотра или числа устройств - полная перерисовка
+    public void update(HouseFrame frame) {
+        DeviceStore store = frame.getStore();
+        int n = frame.size();
+        startFrame(store);
+        if (!valid || n != drawnCount || canvas.getWidth() != drawnWidth || canvas.getHeight() != drawnHeight
+                || viewport.getVersion() != drawnViewport) {
+            redrawAll(frame);
+            return;
+        }
+
+        int dirtyCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (frame.on[i] != drawnOn[i] || frame.currentValue[i] != drawnValue[i]
+                    || frame.power[i] != drawnPower[i]) {
+                dirty[dirtyCount++] = i;
+            }
+        }
+        boolean timeDirty = frame.getTimeOfDay() != drawnTime;
+        boolean scenarioDirty = frame.getActiveScenario() != drawnScenario;
+        if (dirtyCount > n * FULL_REDRAW_FRACTION || (long) dirtyCount * n > MAX_OVERLAP_CHECKS
+                || (dirtyCount > 0 && viewport.getScale() < HEATMAP_SCALE)) {
+            // Тепловая карта зависит от всех устройств сразу, а ее стоимость не зависит от их числа
+            redrawAll(frame);
+            return;
+        }
+
+        double scale = viewport.getScale();
+        for (int k = 0; k < dirtyCount; k++) {
+            int i = dirty[k];
+            // Область устройства на экране, расширенная до целых пикселей
+            double left = Math.floor(viewport.toScreenX(store.x[i] - DEVICE_LEFT));
+            double top = Math.floor(viewport.toScreenY(store.y[i] - DEVICE_TOP));
+            double right = Math.ceil(left + (DEVICE_LEFT + DEVICE_RIGHT) * scale) + 1;
+            double bottom = Math.ceil(top + (DEVICE_TOP + DEVICE_BOTTOM) * scale) + 1;
+            // Устройство за пределами экрана не перерисовываем, но запоминаем его новое состояние
+            if (intersects(left, top, right - left, bottom - top, 0, 0, canvas.getWidth(), canvas.getHeight())) {
+                repaint(frame, left, top, right - left, bottom - top);
+            }
+            remember(frame, i);
+        }
+        if (timeDirty) {
+            repaint(frame, canvas.getWidth() - 205, 8, 205, 44);
+            drawnTime = frame.getTimeOfDay();
+        }
+        if (scenarioDirty) {
+            repaint(frame, 0, canvas.getHeight() - 85, 260, 35);
+            drawnScenario = frame.getActiveScenario();
+        }
+    }
+
+    //Требует полной перерисовки на следующем update() (например, после изменения окна)
+    public void invalidate() {
+        valid = false;
+    }
+
+    private void startFrame(DeviceStore store) {
+        onFxThread = Platform.isFxApplicationThread();
+        if (onFxThread) {
+            prepareBaseSprites();
+        }
+        if (store != drawnStore) {
+            // Другой дом: подписи и нарисованное состояние относятся к старому
+            nameParts = new String[0][];
+            drawnStore = store;
+            valid = false;
+        }
+    }
+
+    private void redrawAll(HouseFrame frame) {
+        int n = frame.size();
+        if (drawnOn.length < n) {
+            drawnOn = new boolean[n];
+            drawnValue = new float[n];
+            drawnPower = new float[n];
+            dirty = new int[n];
+        }
+        draw(frame);
+        for (int i = 0; i < n; i++) {
+            remember(frame, i);
+        }
+        drawnCount = n;
+        drawnWidth = canvas.getWidth();
+        drawnHeight = canvas.getHeight();
+        drawnViewport = viewport.getVersion();
+        drawnTime = frame.getTimeOfDay();
+        drawnScenario = frame.getActiveScenario();
+        valid = true;
+    }
+
+    private void remember(HouseFrame frame, int i) {
+        drawnOn[i] = frame.on[i];
+        drawnValue[i] = frame.currentValue[i];
+        drawnPower[i] = frame.power[i];
+    }
+
+    //Перерисовывает прямоугольник: фон и все, что с ним пересекается, в порядке полного кадра
+    private void repaint(HouseFrame frame, double left, double top, double width, double height) {
+        gc.save();
+        gc.beginPath();
+        gc.rect(left, top, width, height);
+        gc.clip();
+        gc.setFill(Color.LIGHTGRAY);
+        gc.fillRect(left, top, width, height);
+        if (intersects(left, top, width, height, 0, 0, 320, 32)) {
+            drawTitle();
+        }
+        if (intersects(left, top, width, height, canvas.getWidth() - 205, 8, 205, 44)) {
+            drawTimeOfDay(frame.getTimeOfDay());
+        }
+        drawPlan(frame, left, top, width, height);
+        if (intersects(left, top, width, height, 0, canvas.getHeight() - 85, 260, 35)) {
+            drawScenariosInfo(frame.getActiveScenario());
+        }
+        gc.restore();
+    }
+
+    //Рисует устройства, пересекающие прямоугольник экрана, с детализацией по масштабу
+    private void drawPlan(HouseFrame frame, double left, double top, double width, double height) {
+        DeviceStore store = frame.getStore();
+        double scale = viewport.getScale();
+        if (scale < HEATMAP_SCALE) {
+            // Плитки вне прямоугольника отсекает клип (при частичной перерисовке)
+            drawHeatmap(frame);
+            return;
+        }
+        // Прямоугольник в координатах плана
+        double planLeft = viewport.toWorldX(left);
+        double planTop = viewport.toWorldY(top);
+        double planWidth = width / scale;
+        double planHeight = height / scale;
+        boolean details = scale >= DETAIL_SCALE;
+        spritesSharp = scale <= 1.0;
+
+        // Устройства, чья область пересекает прямоугольник; рисуем по возрастанию индекса, как в полном кадре
+        int count = collectVisible(store, planLeft - DEVICE_RIGHT, planTop - DEVICE_BOTTOM,
+                planLeft + planWidth + DEVICE_LEFT, planTop + planHeight + DEVICE_TOP);
+        Arrays.sort(visible, 0, count);
+
+        gc.save();
+        gc.scale(scale, scale);
+        gc.translate(-viewport.getOriginX(), -viewport.getOriginY());
+        for (int k = 0; k < count; k++) {
+            int i = visible[k];
+            double x = store.x[i];
+            double y = store.y[i];
+            // Устройства, добавленные после снятия кадра, в нем еще не показаны
+            if (i < frame.size() && intersects(planLeft, planTop, planWidth, planHeight, x - DEVICE_LEFT, y - DEVICE_TOP,
+                    DEVICE_LEFT + DEVICE_RIGHT, DEVICE_TOP + DEVICE_BOTTOM)) {
+                drawDevice(frame, i, details);
+            }
+        }
+        gc.restore();
+    }
+
+    //Собирает в visible устройства, центры которых лежат в прямоугольнике плана
+    private int collectVisible(DeviceStore store, double left, double top, double right, double bottom) {
+        if (visible.length < store.size()) {
+            visible = new int[store.size()];
+        }
+        return store.getSpatialIndex().collect(left, top, right, bottom, visible);
+    }
+
+    //Рисует тепловую карту: экран делится на плитки, цвет плитки - суммарная мощность ее устройств
+    //относительно самой нагруженной плитки. Число фигур ограничено числом плиток, а не устройств
+    private void drawHeatmap(HouseFrame frame) {
+        DeviceStore store = frame.getStore();
+        int columns = (int) Math.ceil(canvas.getWidth() / HEAT_TILE);
+        int rows = (int) Math.ceil(canvas.getHeight() / HEAT_TILE);
+        int tiles = columns * rows;
+        if (heatCount.length < tiles) {
+            heatCount = new int[tiles];
+            heatPower = new double[tiles];
+        }
+        Arrays.fill(heatCount, 0, tiles, 0);
+        Arrays.fill(heatPower, 0, tiles, 0.0);
+
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        int count = collectVisible(store, viewport.toWorldX(0), viewport.toWorldY(0),
+                viewport.toWorldX(width), viewport.toWorldY(height));
+        for (int k = 0; k < count; k++) {
+            int i = visible[k];
+            double sx = viewport.toScreenX(store.x[i]);
+            double sy = viewport.toScreenY(store.y[i]);
+            if (i >= frame.size() || sx < 0 || sy < 0 || sx >= width || sy >= height) {
+                continue;
+            }
+            int tile = (int) (sy / HEAT_TILE) * columns + (int) (sx / HEAT_TILE);
+            heatCount[tile]++;
+            heatPower[tile] += frame.power[i];
+        }
+
+        double maxPower = 0;
+        for (int t = 0; t < tiles; t++) {
+            maxPower = Math.max(maxPower, heatPower[t]);
+        }
+        int top = HEAT_COLORS.length - 1;
+        for (int t = 0; t < tiles; t++) {
+            if (heatCount[t] == 0) {
+                continue;
+            }
+            int level = maxPower > 0 ? (int) Math.round(heatPower[t] / maxPower * top) : 0;
+            gc.setFill(HEAT_COLORS[level]);
+            gc.fillRect((t % columns) * HEAT_TILE, (t / columns) * HEAT_TILE, HEAT_TILE - 1, HEAT_TILE - 1);
+        }
+    }
+
+    private static boolean intersects(double ax, double ay, double aw, double ah,
+                                      double bx, double by, double bw, double bh) {
+        return ax < bx + bw && bx < ax + aw && ay < by + bh && by < ay + ah;
+    }
+
+    private void drawTitle() {
+        // Рисуем заголовок
+        gc.setFill(Color.BLUE);
+        gc.setFont(TITLE_FONT);
+        gc.fillText("Система управления умным домом", 10, 25);
+    }
+
+     //Отрисовывает одно устройство (details - с подписями имени, значения и мощности)
+    private void drawDevice(HouseFrame frame, int i, boolean details) {
+        DeviceStore store = frame.getStore();
+        double x = store.x[i];
+        double y = store.y[i];
+        byte kind = store.kind[i];
+        double value = frame.currentValue[i];
+        double power = frame.power[i];
+
+        // Определяем, включено ли устройство и активно ли оно
+        boolean isOn = frame.on[i];
+        boolean active = power > 0; // Активно, если потребляет энергию
+
+        // Фон, рамка и индикатор включения - спрайт по состоянию, иначе рисуем примитивами
+        int border = isOn ? (active ? FRAME_ACTIVE : FRAME_IDLE) : FRAME_OFF;
+        if (spritesSharp && frameSprites[border] != null) {
+            drawSprite(frameSprites[border], x, y);
+        } else {
+            drawFrame(gc, x, y, border);
+        }
+
+        // Иконка вида устройства: спрайт состояния (растрируется при первом показе), иначе примитивами
+        DeviceIcon icon = icons[kind];
+        int state = icon.state(frame, i);
+        Image sprite = spritesSharp ? iconSprites[kind][state] : null;
+        if (spritesSharp && sprite == null && spriteCanvas != null && onFxThread) {
+            sprite = iconSprites[kind][state] = iconSprite(icon, state);
+        }
+        if (sprite != null) {
+            drawSprite(sprite, x, y);
+        } else {
+            icon.draw(gc, x, y, state);
+        }
+
+        if (!details) {
+            return;
+        }
+
+        // Текст с именем устройства
+        gc.setFill(Color.BLACK);
+        gc.setFont(NAME_FONT);
+        String[] parts = nameParts(store, i);
+        gc.fillText(parts[0], x - 30, y + 65);
+        if (parts.length > 1) {
+            gc.fillText(parts[1], x - 30, y + 78);
+        }
+
+        // Текущее значение
+        String valueText = String.format(DeviceKinds.get(kind).valueFormat(), value);
+        gc.setFont(VALUE_FONT);
+        gc.setFill(Color.BLUE);
+        gc.fillText(valueText, x - 20, y - 60);
+
+        // Мощность
+        gc.setFill(Color.RED);
+        gc.setFont(POWER_FONT);
+        gc.fillText(String.format("%.0fВт", power), x - 20, y + 95);
+    }
+
+    private String[] nameParts(DeviceStore store, int i) {
+        if (nameParts.length <= i) {
+            nameParts = Arrays.copyOf(nameParts, Math.max(i + 1, store.size()));
+        }
+        if (nameParts[i] == null) {
+            nameParts[i] = store.getName(i).split(" ");
+        }
+        return nameParts[i];
+    }
+
+    private void drawSprite(Image sprite, double x, double y) {
+        double width = sprite.getWidth() / spriteScale;
+        double height = sprite.getHeight() / spriteScale;
+        gc.drawImage(sprite, x - width / 2, y - height / 2, width, height);
+    }
+
+    //Растрирует все спрайты, включая все состояния иконок (например, уровни яркости ламп). Вызывается
+    //в потоке JavaFX; после этого draw()/update() можно вызывать и из другого потока для внеэкранного Canvas
+    public void prepareSprites() {
+        prepareBaseSprites();
+        for (int k = 0; k < icons.length; k++) {
+            for (int state = 0; state < iconSprites[k].length; state++) {
+                if (iconSprites[k][state] == null) {
+                    iconSprites[k][state] = iconSprite(icons[k], state);
+                }
+            }
+        }
+    }
+
+    //Растрирует рамки; спрайты иконок создаются по мере надобности
+    private void prepareBaseSprites() {
+        if (spriteCanvas != null) {
+            return;
+        }
+        Window window = canvas.getScene() != null ? canvas.getScene().getWindow() : null;
+        spriteScale = window != null ? window.getOutputScaleX() : 1.0;
+        spriteCanvas = new Canvas();
+        for (int frame = FRAME_OFF; frame <= FRAME_ACTIVE; frame++) {
+            int state = frame;
+            frameSprites[frame] = sprite(56, g -> drawFrame(g, 0, 0, state));
+        }
+    }
+
+    private Image iconSprite(DeviceIcon icon, int state) {
+        return sprite(27, g -> icon.draw(g, 0, 0, state));
+    }
+
+    //Рисует painter в квадрат со стороной 2 * half вокруг точки (0, 0) и снимает его в изображение
+    private Image sprite(double half, Consumer<GraphicsContext> painter) {
+        spriteCanvas.setWidth(2 * half * spriteScale);
+        spriteCanvas.setHeight(2 * half * spriteScale);
+        GraphicsContext g = spriteCanvas.getGraphicsContext2D();
+        g.clearRect(0, 0, spriteCanvas.getWidth(), spriteCanvas.getHeight());
+        g.save();
+        g.scale(spriteScale, spriteScale);
+        g.translate(half, half);
+        painter.accept(g);
+        g.restore();
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return spriteCanvas.snapshot(parameters, null);
+    }
+
+    private static int lightLevel(double brightness) {
+        return (int) Math.round(Math.max(0.0, Math.min(1.0, brightness)) * (LIGHT_LEVELS - 1));
+    }
+
+    //Рисует фон устройства, рамку и индикатор включения
+    private static void drawFrame(GraphicsContext g, double x, double y, int frame) {
+        boolean isOn = frame != FRAME_OFF;
+        // Рисуем фон устройства (круг)
+        Color bgColor = isOn ? Color.WHITE : Color.LIGHTGRAY;
+        g.setFill(bgColor);
+        g.fillOval(x - 50, y - 50, 100, 100);
+
+        // Рамка устройства
+        g.setStroke(isOn ? Color.BLACK : Color.GRAY);
+        g.setLineWidth(isOn ? 3 : 2);
+        g.strokeOval(x - 50, y - 50, 100, 100);
+
+        // Индикатор включения/выключения (с иконкой не пересекается)
+        g.setFill(isOn ? (frame == FRAME_ACTIVE ? Color.GREEN : Color.ORANGE) : Color.DARKGRAY);
+        g.fillOval(x - 55, y - 55, 15, 15);
+        g.setStroke(Color.BLACK);
+        g.setLineWidth(1);
+        g.strokeOval(x - 55, y - 55, 15, 15);
+    }
+
+     //Рисует иконку термостата
+    private static void drawThermostatIcon(GraphicsContext g, double x, double y, boolean active) {
+        // Корпус термостата
+        g.setFill(active ? Color.RED : Color.LIGHTBLUE);
+        g.fillRoundRect(x - 25, y - 20, 50, 40, 10, 10);
+        g.setStroke(Color.BLACK);
+        g.setLineWidth(2);
+        g.strokeRoundRect(x - 25, y - 20, 50, 40, 10, 10);
+
+        // Дисплей с температурой
+        g.setFill(Color.WHITE);
+        g.fillRect(x - 20, y - 15, 40, 15);
+        g.setFill(Color.BLACK);
+        g.setFont(ICON_FONT);
+        g.fillText("TEMP", x - 15, y - 3);
+    }
+
+     //Рисует иконку лампы
+    private static void drawLightIcon(GraphicsContext g, double x, double y, double brightness) {
+        // Лампа (круг)
+        Color lampColor = Color.color(1.0, 1.0, 0.3, brightness);
+        g.setFill(lampColor);
+        g.fillOval(x - 20, y - 20, 40, 40);
+        g.setStroke(Color.BLACK);
+        g.setLineWidth(2);
+        g.strokeOval(x - 20, y - 20, 40, 40);
+
+        // Цоколь лампы
+        g.setFill(Color.GRAY);
+        g.fillRect(x - 10, y + 15, 20, 10);
+        g.setStroke(Color.BLACK);
+        g.strokeRect(x - 10, y + 15, 20, 10);
+    }
+
+     //Рисует иконку камеры
+    private static void drawCameraIcon(GraphicsContext g, double x, double y, boolean recording) {
+        // Корпус камеры
+        g.setFill(recording ? Color.ORANGE : Color.DARKGRAY);
+        g.fillRect(x - 25, y - 15, 50, 30);
+        g.setStroke(Color.BLACK);
+        g.setLineWidth(2);
+        g.strokeRect(x - 25, y - 15, 50, 30);
+
+        // Объектив камеры
+        g.setFill(Color.BLACK);
+        g.fillOval(x - 15, y - 10, 30, 20);
+        g.setFill(Color.DARKBLUE);
+        g.fillOval(x - 10, y - 5, 20, 10);
+
+    }
+
+     //Отрисовывает информацию о сценариях и текущем потреблении
+    private void drawScenariosInfo(Scenario activeScenario) {
+        gc.setFill(Color.BLACK);
+        gc.setFont(INFO_FONT);
+        gc.fillText("Активный сценарий:", 10, canvas.getHeight() - 70);
+
+        if (activeScenario != null) {
+            gc.setFill(Color.BLUE);
+            gc.fillText(activeScenario.getName(), 10, canvas.getHeight() - 55);
+        } else {
+            gc.setFill(Color.GRAY);
+            gc.fillText("Нет активного сценария", 10, canvas.getHeight() - 55);
+        }
+    }
+
+    //Отрисовывает время суток на экране
+    private void drawTimeOfDay(double globalTimeOfDay) {
+        int hours = (int) globalTimeOfDay;
+        int minutes = (int) ((globalTimeOfDay - hours) * 60);
+
+        gc.setFill(Color.BLACK);
+        gc.setFont(TIME_FONT);
+        String timeText = String.format("Время суток: %02d:%02d", hours, minutes);
+        gc.fillText(timeText, canvas.getWidth() - 200, 25);
+
+        // Определяем период суток
+        String period;
+        if (globalTimeOfDay >= 6.0 && globalTimeOfDay < 12.0) {
+            period = "Утро";
+        } else if (globalTimeOfDay >= 12.0 && globalTimeOfDay < 18.0) {
+            period = "День";
+        } else if (globalTimeOfDay >= 18.0 && globalTimeOfDay < 22.0) {
+            period = "Вечер";
+        } else {
+            period = "Ночь";
+        }
+        gc.setFont(INFO_FONT);
+        gc.fillText("Период: " + period, canvas.getWidth() - 200, 45);
+    }
+
+    //Иконка термостата: нагревает или нет
+    static final class ThermostatIcon implements DeviceIcon {
+        @Override
+        public int states() {
+            return 2;
+        }
+
+        @Override
+        public int state(HouseFrame frame, int i) {
+            return frame.getPower(i) > 0 ? 1 : 0;
+        }
+
+        @Override
+        public void draw(GraphicsContext g, double x, double y, int state) {
+            drawThermostatIcon(g, x, y, state == 1);
+        }
+    }
+
+    //Иконка лампы: уровни яркости
+    static final class LightIcon implements DeviceIcon {
+        @Override
+        public int states() {
+            return LIGHT_LEVELS;
+        }
+
+        @Override
+        public int state(HouseFrame frame, int i) {
+            return lightLevel(frame.getCurrentValue(i) / 100.0);
+        }
+
+        @Override
+        public void draw(GraphicsContext g, double x, double y, int state) {
+            drawLightIcon(g, x, y, state / (double) (LIGHT_LEVELS - 1));
+        }
+    }
+
+    //Иконка камеры: запись или ожидание
+    static final class CameraIcon implements DeviceIcon {
+        @Override
+        public int states() {
+            return 2;
+        }
+
+        @Override
+        public int state(HouseFrame frame, int i) {
+            return frame.getCurrentValue(i) == SecurityCamera.RECORDING ? 1 : 0;
+        }
+
+        @Override
+        public void draw(GraphicsContext g, double x, double y, int state) {
+            drawCameraIcon(g, x, y, state == 1);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.kp.chirkova;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Гистограмма длительностей (нс) в духе HdrHistogram: логарифмические интервалы, каждый поделен на 128
+//линейных ячеек, поэтому любое значение хранится с относительной ошибкой не больше 1/128 (меньше 1%)
+//во всем диапазоне long. Значения до 256 нс хранятся точно. Запись - одно приращение ячейки без
+//выделения памяти и без блокировок; записывает один поток, читать (процентили, среднее) можно из любого
+
+public class LatencyHistogram {
+    // Линейных ячеек в каждом логарифмическом интервале
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Значения меньше 2 * SUB_COUNT лежат в ячейках с номером, равным значению
+    private static final int EXACT = 2 * SUB_COUNT;
+    private static final int BUCKETS = EXACT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    // Число записей, сумма, наибольшее значение: [0], [1], [2]
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    //Записывает значение (отрицательное считается нулем). Только из одного потока
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = bucketOf(value);
+        counts.setRelease(bucket, counts.getPlain(bucket) + 1);
+        totals.setRelease(1, totals.getPlain(1) + value);
+        if (value > totals.getPlain(2)) {
+            totals.setRelease(2, value);
+        }
+        // Счетчик пишется последним: читатель не видит записей без их значений
+        totals.setRelease(0, totals.getPlain(0) + 1);
+    }
+
+    //Число записанных значений
+    public long getCount() {
+        return totals.getAcquire(0);
+    }
+
+    //Среднее значение (0 - записей нет)
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : totals.getAcquire(1) / (double) count;
+    }
+
+    //Сумма записанных значений
+    public long getSum() {
+        return totals.getAcquire(1);
+    }
+
+    //Наибольшее записанное значение
+    public long getMax() {
+        return totals.getAcquire(2);
+    }
+
+    //Значение, не больше которого percentile процентов записей (верхняя граница ячейки, но не больше max)
+    public long getValueAtPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Процентиль должен быть от 0 до 100: " + percentile);
+        }
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            count += counts.getAcquire(b);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.getAcquire(b);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(b), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    //Обнуляет гистограмму (из потока, который пишет)
+    public void reset() {
+        totals.setRelease(0, 0);
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.setRelease(b, 0);
+        }
+        totals.setRelease(1, 0);
+        totals.setRelease(2, 0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        // Сдвиг, после которого в значении остается SUB_BITS + 1 значащих бит
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return EXACT + (shift - 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    static long highestInBucket(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int shift = (bucket - EXACT) / SUB_COUNT + 1;
+        long mantissa = (bucket - EXACT) % SUB_COUNT + SUB_COUNT;
+        long high = ((mantissa + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high;
+    }
+}
@@ -0,0 +1,731 @@
+package org.kp.chirkova;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+//Раскладка дома в файле: устройства (вид, положение на плане, начальная цель, имя) и сценарии, в которые
+//они входят. Два вида файла с одинаковым содержимым. Текстовый (UTF-8, строка на запись, # - комментарий):
+//  devices 500000                          - сколько устройств ожидать (необязательно, для выделения памяти)
+//  scenario Ночь 19 25                     - сценарий: имя (одно слово), цель термостатов, цель света
+//  light 500 150 0 Ночь,День Гостиная Свет - устройство: вид, x, y, цель, сценарии через запятую
+//                                            (- если нет), имя до конца строки (необязательно)
+//Двоичный (little-endian): заголовок с таблицами видов и сценариев, затем записи устройств
+//  вид (байт) | x, y, цель (double) | сценарии (битовая маска, байт на 8 сценариев) | длина имени
+//  (ushort, 0xFFFF - имени нет) | имя в UTF-8.
+//Заголовки идут до первого устройства. Файл читается потоком кусками по CHUNK_BYTES: поток чтения только
+//режет куски по границам записей, разбор кусков идет параллельно в ForkJoinPool, а разобранные куски
+//копируются прямо в колонки DeviceStore в порядке файла - индексы устройств совпадают с порядком записей.
+//Одновременно в работе лишь несколько кусков, поэтому пиковая память близка к размеру загруженного дома.
+//Без строк scenario дом получает известные сценарии (Scenario.createKnownScenarios)
+
+public class LayoutFile {
+    static final int MAGIC = 0x43484C31; // "CHL1"
+    static final int VERSION = 1;
+
+    // Размер куска чтения и разбора
+    static final int CHUNK_BYTES = 1 << 20;
+    // Сценарии устройства хранятся битовой маской в long
+    public static final int MAX_SCENARIOS = 64;
+
+    // Поля двоичного заголовка: магическое число, версия, число устройств, видов и сценариев
+    private static final int HEADER_COUNT = 8;
+    private static final int HEADER_BYTES = 20;
+    // Запись устройства без маски сценариев и имени: вид и три double
+    private static final int RECORD_FIXED = 1 + 3 * Double.BYTES;
+    private static final int NO_NAME = 0xFFFF;
+
+    //Вид файла раскладки
+    public enum Format {
+        TEXT,
+        BINARY
+    }
+
+    //Загружает дом из файла раскладки (вид файла определяется по содержимому)
+    public static SimulationEngine load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return load(channel, path.toString());
+        }
+    }
+
+    //Загружает дом из канала с раскладкой; source - название источника для сообщений об ошибках
+    public static SimulationEngine load(ReadableByteChannel channel, String source) throws IOException {
+        return new Loader(channel, source).load();
+    }
+
+    //Открывает файл для записи раскладки (устройства пишутся по одному, см. Writer)
+    public static Writer create(Path path, Format format) throws IOException {
+        return new Writer(path, format);
+    }
+
+    //Загрузка одного файла: поток чтения режет куски и раздает их на разбор, затем в порядке файла
+    //переносит результаты в хранилище
+    private static final class Loader {
+        private final ReadableByteChannel channel;
+        private final String source;
+        private final ForkJoinPool pool = ForkJoinPool.commonPool();
+        // Больше кусков в работе не держим: память, а не скорость разбора, здесь ограничение
+        private final int maxInFlight = Math.max(2, 2 * ForkJoinPool.getCommonPoolParallelism());
+        private final ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+
+        // Буфер чтения: необработанные байты лежат в [start, end)
+        private byte[] data = new byte[CHUNK_BYTES];
+        private int start;
+        private int end;
+        private boolean eof;
+
+        // Сценарии из заголовка
+        private final List<String> scenarioNames = new ArrayList<>();
+        private final List<double[]> scenarioTargets = new ArrayList<>();
+        private final Map<String, Integer> scenarioIds = new HashMap<>();
+        // Двоичный файл: номер вида в DeviceKinds по номеру в таблице файла и длина маски сценариев
+        private byte[] kindIds;
+        private int maskBytes;
+
+        private final DeviceStore store = new DeviceStore();
+        private int count;
+        // Сценарии загруженных устройств (только если в файле есть сценарии)
+        private long[] membership = new long[0];
+        private final double[] initialValues = new double[DeviceKinds.count()];
+
+        Loader(ReadableByteChannel channel, String source) {
+            this.channel = channel;
+            this.source = source;
+            for (int k = 0; k < initialValues.length; k++) {
+                initialValues[k] = DeviceKinds.get(k).initialValue();
+            }
+        }
+
+        SimulationEngine load() throws IOException {
+            fill();
+            if (end - start >= Integer.BYTES && ByteBuffer.wrap(data, start, end - start)
+                    .order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC) {
+                loadBinary();
+            } else {
+                loadText();
+            }
+            while (!pending.isEmpty()) {
+                append(await(pending.poll()));
+            }
+            store.restored(count);
+            return new SimulationEngine(store, scenarios());
+        }
+
+        //Текст: заголовки читаются по порядку, дальше куски целых строк разбираются параллельно
+        private void loadText() throws IOException {
+            int line = readTextHeader();
+            while (start < end || !eof) {
+                int cut = end;
+                if (!eof) {
+                    cut = lastIndexOf(data, start, end, (byte) '\n') + 1;
+                    if (cut == 0) {
+                        // Строка длиннее буфера - читаем дальше в больший буфер
+                        fill();
+                        continue;
+                    }
+                }
+                int lines = 0;
+                for (int p = start; p < cut; p++) {
+                    if (data[p] == '\n') {
+                        lines++;
+                    }
+                }
+                if (cut > start && data[cut - 1] != '\n') {
+                    lines++;
+                }
+                byte[] chunk = Arrays.copyOfRange(data, start, cut);
+                int firstLine = line;
+                int lineCount = lines;
+                dispatch(() -> parseText(chunk, firstLine, lineCount), eof && cut == end);
+                line += lines;
+                start = cut;
+                fill();
+            }
+        }
+
+        //Читает строки заголовка до первого устройства и возвращает номер строки, с которой начинаются устройства
+        private int readTextHeader() throws IOException {
+            int line = 1;
+            int expected = -1;
+            while (true) {
+                int newline = indexOf(data, start, end, (byte) '\n');
+                if (newline < 0 && !eof) {
+                    fill();
+                    continue;
+                }
+                int lineEnd = newline < 0 ? end : newline;
+                String text = new String(data, start, lineEnd - start, StandardCharsets.UTF_8).strip();
+                String[] words = text.split("\\s+");
+                if (text.isEmpty() || text.startsWith("#")) {
+                    // Пустые строки и комментарии пропускаются
+                } else if (words[0].equals("devices") && words.length == 2) {
+                    expected = (int) number(words[1], line);
+                    if (expected < 0) {
+                        throw error(line, "неверное число устройств: " + words[1]);
+                    }
+                } else if (words[0].equals("scenario") && words.length == 4) {
+                    addScenario(words[1], number(words[2], line), number(words[3], line), line);
+                } else {
+                    // Первое устройство: заголовок закончился
+                    store.reserve(Math.max(expected, 1));
+                    return line;
+                }
+                if (newline < 0) {
+                    start = end;
+                    store.reserve(Math.max(expected, 1));
+                    return line + 1;
+                }
+                start = newline + 1;
+                line++;
+            }
+        }
+
+        //Двоичный файл: заголовок, затем куски целых записей разбираются параллельно
+        private void loadBinary() throws IOException {
+            need(HEADER_BYTES);
+            ByteBuffer header = ByteBuffer.wrap(data, start, end - start).order(ByteOrder.LITTLE_ENDIAN);
+            int version = header.getInt(start + 4);
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия раскладки " + source + ": " + version);
+            }
+            int devices = header.getInt(start + HEADER_COUNT);
+            int kinds = header.getInt(start + 12);
+            int scenarios = header.getInt(start + 16);
+            if (devices < 0 || kinds < 0 || kinds > Byte.MAX_VALUE || scenarios < 0 || scenarios > MAX_SCENARIOS) {
+                throw new IOException("Файл раскладки поврежден: " + source);
+            }
+            start += HEADER_BYTES;
+            kindIds = new byte[kinds];
+            for (int k = 0; k < kinds; k++) {
+                String word = readString();
+                kindIds[k] = DeviceKinds.idOf(word);
+                if (kindIds[k] < 0) {
+                    throw new IOException("Раскладка " + source + " содержит неизвестный вид устройств: " + word);
+                }
+            }
+            for (int s = 0; s < scenarios; s++) {
+                String name = readString();
+                need(2 * Double.BYTES);
+                ByteBuffer targets = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+                addScenario(name, targets.getDouble(start), targets.getDouble(start + Double.BYTES), 0);
+                start += 2 * Double.BYTES;
+            }
+            maskBytes = (scenarios + 7) / 8;
+            store.reserve(Math.max(devices, 1));
+
+            int fixed = RECORD_FIXED + maskBytes;
+            int loaded = 0;
+            while (true) {
+                // Граница последней целой записи в буфере
+                ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+                int cut = start;
+                int records = 0;
+                while (cut + fixed + 2 <= end) {
+                    int length = buffer.getShort(cut + fixed) & 0xFFFF;
+                    int next = cut + fixed + 2 + (length == NO_NAME ? 0 : length);
+                    if (next > end) {
+                        break;
+                    }
+                    cut = next;
+                    records++;
+                }
+                if (records > 0) {
+                    byte[] chunk = Arrays.copyOfRange(data, start, cut);
+                    int chunkRecords = records;
+                    dispatch(() -> parseBinary(chunk, chunkRecords), eof && cut == end);
+                    loaded += records;
+                    start = cut;
+                }
+                if (eof && records == 0) {
+                    break;
+                }
+                fill();
+            }
+            if (start < end || loaded != devices) {
+                throw new IOException("Файл раскладки обрезан: " + source + " (устройств " + loaded + " из " + devices + ")");
+            }
+        }
+
+        private void addScenario(String name, double thermostatTarget, double lightTarget, int line) throws IOException {
+            if (scenarioIds.containsKey(name)) {
+                throw error(line, "сценарий " + name + " уже описан");
+            }
+            if (scenarioNames.size() == MAX_SCENARIOS) {
+                throw error(line, "больше " + MAX_SCENARIOS + " сценариев");
+            }
+            scenarioIds.put(name, scenarioNames.size());
+            scenarioNames.add(name);
+            scenarioTargets.add(new double[] {thermostatTarget, lightTarget});
+        }
+
+        //Разбирает кусок в своем потоке, если он последний и других нет (маленький файл), иначе отдает в пул
+        private void dispatch(ChunkParser parser, boolean last) throws IOException {
+            if (last && pending.isEmpty()) {
+                append(parser.parse());
+                return;
+            }
+            while (pending.size() >= maxInFlight) {
+                append(await(pending.poll()));
+            }
+            pending.add(pool.submit(parser::parse));
+        }
+
+        private Block await(Future<Block> future) throws IOException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                // Пул оборачивает проверяемые исключения разбора - ищем исходную ошибку раскладки
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException io) {
+                        throw io;
+                    }
+                }
+                throw new IOException("Не удалось разобрать раскладку " + source, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Загрузка раскладки прервана: " + source, e);
+            }
+        }
+
+        //Копирует разобранный кусок в колонки хранилища вслед за уже загруженными устройствами
+        private void append(Block block) {
+            int n = block.count;
+            store.reserve(count + n);
+            System.arraycopy(block.kind, 0, store.kind, count, n);
+            System.arraycopy(block.x, 0, store.x, count, n);
+            System.arraycopy(block.y, 0, store.y, count, n);
+            System.arraycopy(block.target, 0, store.targetValue, count, n);
+            System.arraycopy(block.names, 0, store.names, count, n);
+            double[] current = store.currentValue;
+            for (int k = 0; k < n; k++) {
+                current[count + k] = initialValues[block.kind[k]];
+            }
+            if (!scenarioNames.isEmpty()) {
+                if (membership.length < count + n) {
+                    membership = Arrays.copyOf(membership, Math.max(count + n, store.kind.length));
+                }
+                System.arraycopy(block.scenarios, 0, membership, count, n);
+            }
+            count += n;
+        }
+
+        private Scenario[] scenarios() {
+            if (scenarioNames.isEmpty()) {
+                return Scenario.createKnownScenarios(store);
+            }
+            Scenario[] scenarios = new Scenario[scenarioNames.size()];
+            for (int s = 0; s < scenarios.length; s++) {
+                long bit = 1L << s;
+                int members = 0;
+                for (int i = 0; i < count; i++) {
+                    if ((membership[i] & bit) != 0) {
+                        members++;
+                    }
+                }
+                int[] list = new int[members];
+                members = 0;
+                for (int i = 0; i < count; i++) {
+                    if ((membership[i] & bit) != 0) {
+                        list[members++] = i;
+                    }
+                }
+                double[] targets = scenarioTargets.get(s);
+                scenarios[s] = new Scenario(scenarioNames.get(s), targets[0], targets[1], store, list);
+            }
+            return scenarios;
+        }
+
+        //Разбирает строки устройств куска (в потоке пула)
+        private Block parseText(byte[] chunk, int firstLine, int lines) throws IOException {
+            Block block = new Block(lines);
+            String text = new String(chunk, StandardCharsets.UTF_8);
+            int line = firstLine;
+            for (int from = 0, length = text.length(); from < length; line++) {
+                int to = text.indexOf('\n', from);
+                if (to < 0) {
+                    to = length;
+                }
+                parseDevice(text, from, to, line, block);
+                from = to + 1;
+            }
+            return block;
+        }
+
+        //Строка устройства: вид x y цель сценарии [имя]
+        private void parseDevice(String text, int from, int to, int line, Block block) throws IOException {
+            int p = skipSpaces(text, from, to);
+            if (p == to || text.charAt(p) == '#') {
+                return;
+            }
+            // Слова строки: [начало, конец) для вида, x, y, цели и сценариев
+            int[] bounds = new int[10];
+            byte kind = -1;
+            for (int w = 0; w < 5; w++) {
+                if (p == to) {
+                    throw error(line, "ожидается <вид> <x> <y> <цель> <сценарии> [имя]");
+                }
+                int q = p;
+                while (q < to && !Character.isWhitespace(text.charAt(q))) {
+                    q++;
+                }
+                bounds[2 * w] = p;
+                bounds[2 * w + 1] = q;
+                if (w == 0) {
+                    String word = text.substring(p, q);
+                    kind = DeviceKinds.idOf(word);
+                    if (kind < 0) {
+                        throw error(line, word.equals("scenario") || word.equals("devices")
+                            ? "заголовок " + word + " должен идти до устройств"
+                            : "неизвестный вид устройств: " + word);
+                    }
+                }
+                p = skipSpaces(text, q, to);
+            }
+            int k = block.count;
+            block.kind[k] = kind;
+            block.x[k] = number(text.substring(bounds[2], bounds[3]), line);
+            block.y[k] = number(text.substring(bounds[4], bounds[5]), line);
+            block.target[k] = number(text.substring(bounds[6], bounds[7]), line);
+            block.scenarios[k] = membership(text.substring(bounds[8], bounds[9]), line);
+            int nameEnd = to;
+            while (nameEnd > p && Character.isWhitespace(text.charAt(nameEnd - 1))) {
+                nameEnd--;
+            }
+            block.names[k] = p < nameEnd ? text.substring(p, nameEnd) : null;
+            block.count++;
+        }
+
+        private long membership(String list, int line) throws IOException {
+            if (list.equals("-")) {
+                return 0;
+            }
+            long mask = 0;
+            for (String name : list.split(",")) {
+                Integer id = scenarioIds.get(name);
+                if (id == null) {
+                    throw error(line, "сценарий " + name + " не описан в заголовке");
+                }
+                mask |= 1L << id;
+            }
+            return mask;
+        }
+
+        //Разбирает записи устройств двоичного куска (в потоке пула)
+        private Block parseBinary(byte[] chunk, int records) throws IOException {
+            Block block = new Block(records);
+            ByteBuffer buffer = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+            int p = 0;
+            for (int k = 0; k < records; k++) {
+                int kind = buffer.get(p);
+                if (kind < 0 || kind >= kindIds.length) {
+                    throw new IOException("Файл раскладки поврежден: " + source + " (вид " + kind + ")");
+                }
+                block.kind[k] = kindIds[kind];
+                block.x[k] = buffer.getDouble(p + 1);
+                block.y[k] = buffer.getDouble(p + 1 + Double.BYTES);
+                block.target[k] = buffer.getDouble(p + 1 + 2 * Double.BYTES);
+                p += RECORD_FIXED;
+                long mask = 0;
+                for (int b = 0; b < maskBytes; b++) {
+                    mask |= (buffer.get(p + b) & 0xFFL) << (8 * b);
+                }
+                if (maskBytes < 8 && mask >>> scenarioNames.size() != 0) {
+                    throw new IOException("Файл раскладки поврежден: " + source + " (сценарии устройства)");
+                }
+                block.scenarios[k] = mask;
+                p += maskBytes;
+                int length = buffer.getShort(p) & 0xFFFF;
+                p += 2;
+                if (length != NO_NAME) {
+                    block.names[k] = new String(chunk, p, length, StandardCharsets.UTF_8);
+                    p += length;
+                }
+            }
+            block.count = records;
+            return block;
+        }
+
+        //Строка двоичного заголовка: длина (ushort) и байты UTF-8
+        private String readString() throws IOException {
+            need(2);
+            int length = (data[start] & 0xFF) | (data[start + 1] & 0xFF) << 8;
+            need(2 + length);
+            String value = new String(data, start + 2, length, StandardCharsets.UTF_8);
+            start += 2 + length;
+            return value;
+        }
+
+        //Дочитывает буфер, пока в нем не будет n необработанных байт
+        private void need(int n) throws IOException {
+            while (end - start < n) {
+                if (eof) {
+                    throw new IOException("Файл раскладки обрезан: " + source);
+                }
+                fill();
+            }
+        }
+
+        //Сдвигает необработанные байты в начало буфера и дочитывает его до конца (или до конца канала).
+        //Полный буфер без места увеличивается вдвое
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(data, start, data, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            if (end == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, end, data.length - end);
+            while (!eof && buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    eof = true;
+                }
+            }
+            end = buffer.position();
+        }
+
+        private double number(String word, int line) throws IOException {
+            try {
+                return Double.parseDouble(word.replace(',', '.'));
+            } catch (NumberFormatException e) {
+                throw error(line, "неверное число: " + word);
+            }
+        }
+
+        private IOException error(int line, String message) {
+            return new IOException("Ошибка в раскладке " + source + ", строка " + line + ": " + message);
+        }
+    }
+
+    //Разбор куска в пуле (Callable с IOException)
+    private interface ChunkParser {
+        Block parse() throws IOException;
+    }
+
+    //Устройства одного куска в колонках, в порядке файла
+    private static final class Block {
+        int count;
+        final byte[] kind;
+        final double[] x;
+        final double[] y;
+        final double[] target;
+        final long[] scenarios;
+        final String[] names;
+
+        Block(int capacity) {
+            kind = new byte[capacity];
+            x = new double[capacity];
+            y = new double[capacity];
+            target = new double[capacity];
+            scenarios = new long[capacity];
+            names = new String[capacity];
+        }
+    }
+
+    //Запись раскладки: сначала сценарии (и для текста - ожидаемое число устройств), затем устройства по одному
+    public static final class Writer implements AutoCloseable {
+        private final Format format;
+        private final List<String> scenarioNames = new ArrayList<>();
+        private final List<double[]> scenarioTargets = new ArrayList<>();
+        private int expectedDevices = -1;
+        private boolean headerWritten;
+        private int count;
+
+        // Текст пишется через BufferedWriter, двоичный файл - через канал и буфер
+        private final BufferedWriter text;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final StringBuilder line = new StringBuilder();
+
+        private Writer(Path path, Format format) throws IOException {
+            this.format = format;
+            if (format == Format.TEXT) {
+                text = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                channel = null;
+                buffer = null;
+            } else {
+                text = null;
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                buffer = ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        //Добавляет сценарий (до первого устройства); имя - одно слово без запятых
+        public Writer scenario(String name, double thermostatTarget, double lightTarget) {
+            if (headerWritten) {
+                throw new IllegalStateException("Сценарии записываются до устройств");
+            }
+            if (name.isEmpty() || name.chars().anyMatch(c -> c == ',' || Character.isWhitespace(c))
+                    || name.equals("-") || scenarioNames.contains(name)) {
+                throw new IllegalArgumentException("Неверное имя сценария: '" + name + "'");
+            }
+            if (scenarioNames.size() == MAX_SCENARIOS) {
+                throw new IllegalArgumentException("В раскладке не больше " + MAX_SCENARIOS + " сценариев");
+            }
+            scenarioNames.add(name);
+            scenarioTargets.add(new double[] {thermostatTarget, lightTarget});
+            return this;
+        }
+
+        //Сообщает читателю, сколько будет устройств (до первого устройства; для текстового файла)
+        public Writer expectDevices(int devices) {
+            if (headerWritten) {
+                throw new IllegalStateException("Число устройств записывается до устройств");
+            }
+            expectedDevices = devices;
+            return this;
+        }
+
+        //Записывает устройство; scenarios - битовая маска номеров сценариев в порядке scenario()
+        public void device(byte kind, double x, double y, double target, long scenarios, String name) throws IOException {
+            if (kind < 0 || kind >= DeviceKinds.count()) {
+                throw new IllegalArgumentException("Нет вида устройства с номером " + kind);
+            }
+            if (scenarioNames.size() < MAX_SCENARIOS && scenarios >>> scenarioNames.size() != 0) {
+                throw new IllegalArgumentException("Устройство входит в неописанный сценарий: " + Long.toBinaryString(scenarios));
+            }
+            if (name != null && (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0)) {
+                throw new IllegalArgumentException("Имя устройства не может содержать перевод строки");
+            }
+            writeHeader();
+            if (format == Format.TEXT) {
+                line.setLength(0);
+                line.append(DeviceKinds.get(kind).name()).append(' ').append(x).append(' ').append(y)
+                    .append(' ').append(target).append(' ');
+                if (scenarios == 0) {
+                    line.append('-');
+                }
+                for (int s = 0, listed = 0; s < scenarioNames.size(); s++) {
+                    if ((scenarios & 1L << s) != 0) {
+                        line.append(listed++ > 0 ? "," : "").append(scenarioNames.get(s));
+                    }
+                }
+                if (name != null && !name.isBlank()) {
+                    line.append(' ').append(name.strip());
+                }
+                line.append('\n');
+                text.append(line);
+            } else {
+                byte[] encoded = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+                if (encoded != null && encoded.length >= NO_NAME) {
+                    throw new IllegalArgumentException("Слишком длинное имя устройства: " + encoded.length + " байт");
+                }
+                int maskBytes = (scenarioNames.size() + 7) / 8;
+                int length = RECORD_FIXED + maskBytes + 2 + (encoded == null ? 0 : encoded.length);
+                if (buffer.remaining() < length) {
+                    flush();
+                }
+                buffer.put(kind).putDouble(x).putDouble(y).putDouble(target);
+                for (int b = 0; b < maskBytes; b++) {
+                    buffer.put((byte) (scenarios >>> (8 * b)));
+                }
+                buffer.putShort((short) (encoded == null ? NO_NAME : encoded.length));
+                if (encoded != null) {
+                    buffer.put(encoded);
+                }
+            }
+            count++;
+        }
+
+        private void writeHeader() throws IOException {
+            if (headerWritten) {
+                return;
+            }
+            headerWritten = true;
+            if (format == Format.TEXT) {
+                if (expectedDevices >= 0) {
+                    text.append("devices ").append(Integer.toString(expectedDevices)).append('\n');
+                }
+                for (int s = 0; s < scenarioNames.size(); s++) {
+                    double[] targets = scenarioTargets.get(s);
+                    text.append("scenario ").append(scenarioNames.get(s)).append(' ')
+                        .append(Double.toString(targets[0])).append(' ').append(Double.toString(targets[1])).append('\n');
+                }
+                return;
+            }
+            // Число устройств в заголовке переписывается при закрытии
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(DeviceKinds.count()).putInt(scenarioNames.size());
+            for (int k = 0; k < DeviceKinds.count(); k++) {
+                putString(DeviceKinds.get(k).name());
+            }
+            for (int s = 0; s < scenarioNames.size(); s++) {
+                putString(scenarioNames.get(s));
+                buffer.putDouble(scenarioTargets.get(s)[0]).putDouble(scenarioTargets.get(s)[1]);
+            }
+        }
+
+        private void putString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) encoded.length).put(encoded);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        //Число записанных устройств
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeHeader();
+            if (format == Format.TEXT) {
+                text.close();
+                return;
+            }
+            try (channel) {
+                flush();
+                channel.write(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, count), HEADER_COUNT);
+            }
+        }
+    }
+
+    private static int skipSpaces(String text, int from, int to) {
+        while (from < to && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int p = from; p < to; p++) {
+            if (data[p] == value) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] data, int from, int to, byte value) {
+        for (int p = to - 1; p >= from; p--) {
+            if (data[p] == value) {
+                return p;
+            }
+        }
+        return -1;
+    }
+}
@@ -5,64 +5,157 @@ package org.kp.chirkova;
 
 public class Light extends SmartDevice {
     // Скорость изменения уровня света
-    private static final double LIGHT_CHANGE_RATE = 2.0;
-    
-    // Глобальное время суток (устанавливается из контроллера)
-    private double globalTimeOfDay = 0.0;
-
-    public Light(String name, double x, double y, double targetLightLevel) {
-        super(name, x, y, targetLightLevel);
-        setCurrentValue(0.0);
+    static final double LIGHT_CHANGE_RATE = 2.0;
+
+    // Порог для точного достижения целевого значения
+    static final double THRESHOLD = 0.1;
+
+    // Вид устройства (реестр DeviceKinds)
+    static final DeviceKind KIND = new Kind();
+
+    Light(DeviceStore store, int index) {
+        super(store, index);
+    }
+
+    //Провайдер вида для ServiceLoader (provides DeviceKind with Light в module-info)
+    public static DeviceKind provider() {
+        return KIND;
     }
 
-     //Устанавливает глобальное время суток (вызывается из контроллера)
+    //Устанавливает глобальное время суток (общее для всех устройств хранилища); через хранилище,
+    //чтобы виды разбудили устройства, которые следуют за временем суток
     public void setGlobalTimeOfDay(double timeOfDay) {
-        this.globalTimeOfDay = timeOfDay;
+        store.setTimeOfDay(timeOfDay);
     }
 
-    @Override
-    protected void adjustValue() {
-        // Направляем уровень света к целевому значению (вызывается только когда isOn=true)
-        if (getCurrentValue() < targetValue) {
-            setCurrentValue(Math.min(getCurrentValue() + LIGHT_CHANGE_RATE, targetValue));
-        } else if (getCurrentValue() > targetValue) {
-            setCurrentValue(Math.max(getCurrentValue() - LIGHT_CHANGE_RATE, targetValue));
+    //Анализирует уровень света устройства i и корректирует мощность
+    static void analyzeAndAdjust(DeviceStore s, int i) {
+        if (!s.on[i]) {
+            s.powerConsumption[i] = 0.0;
+            return;
+        }
+        double difference = Math.abs(s.currentValue[i] - s.targetValue[i]);
+        // Мощность считается по уровню до корректировки
+        s.powerConsumption[i] = maxPower(s.currentValue[i]);
+        if (difference > THRESHOLD) {
+            adjustValue(s, i);
         }
+        // Иначе достигли целевого значения - поддерживаем уровень
     }
 
-    @Override
-    protected double getThreshold() {
-        return 0.1; // Порог для точного достижения целевого значения
+    //Направляет уровень света к целевому значению (вызывается только когда isOn=true)
+    private static void adjustValue(DeviceStore s, int i) {
+        double current = s.currentValue[i];
+        double target = s.targetValue[i];
+        if (current < target) {
+            s.currentValue[i] = Math.min(current + LIGHT_CHANGE_RATE, target);
+        } else if (current > target) {
+            s.currentValue[i] = Math.max(current - LIGHT_CHANGE_RATE, target);
+        }
     }
 
-    @Override
-    protected double getMaxPower() {
-        // Потребление пропорционально уровню освещенности (вызывается только когда isOn=true)
-        return 100.0 * (getCurrentValue() / 100.0);
+    //Потребление пропорционально уровню освещенности
+    static double maxPower(double lightLevel) {
+        return 100.0 * (lightLevel / 100.0);
     }
 
-    @Override
-    protected void updateCurrentValue() {
-        if (!isOn) {
-            setCurrentValue(calculateDayLight());
+    //Обновляет уровень света устройства i с учетом естественного освещения
+    static void updateCurrentValue(DeviceStore s, int i) {
+        if (!s.on[i]) {
+            s.currentValue[i] = calculateDayLight(s.timeOfDay);
             return;
         }
-        
+
         // Если устройство включено, но еще не достигло целевого значения
-        double difference = Math.abs(getCurrentValue() - targetValue);
-        if (difference > getThreshold()) {
-            double dayLight = calculateDayLight();
-            if (dayLight > getCurrentValue() && dayLight <= targetValue) {
-                setCurrentValue(dayLight);
+        double current = s.currentValue[i];
+        double target = s.targetValue[i];
+        if (Math.abs(current - target) > THRESHOLD) {
+            double dayLight = calculateDayLight(s.timeOfDay);
+            if (dayLight > current && dayLight <= target) {
+                s.currentValue[i] = dayLight;
             }
         }
     }
-    
+
     //Вычисляет естественную освещенность в зависимости от времени суток
-    private double calculateDayLight() {
+    static double calculateDayLight(double globalTimeOfDay) {
         if (globalTimeOfDay >= 6.0 && globalTimeOfDay <= 18.0) {
             return 30.0 + 20.0 * Math.sin((globalTimeOfDay - 6.0) / 12.0 * Math.PI);
         }
         return 0.0;
     }
-}
\ No newline at end of file
+
+    private static final class Kind implements DeviceKind {
+        private static final ValueInput INPUT = new ValueInput("Настройка освещения",
+            "Введите желаемый уровень освещения", "Уровень освещения (макс. 100%):", 100.0,
+            "%.0f", "Ошибка: неверный формат уровня освещения");
+
+        @Override
+        public String name() {
+            return "light";
+        }
+
+        @Override
+        public String title() {
+            return "Свет";
+        }
+
+        @Override
+        public double initialValue() {
+            return 0.0;
+        }
+
+        @Override
+        public SmartDevice view(DeviceStore store, int i) {
+            return new Light(store, i);
+        }
+
+        @Override
+        public void tick(DeviceStore store, int[] devices, int from, int to) {
+            for (int k = from; k < to; k++) {
+                int i = devices[k];
+                Light.updateCurrentValue(store, i);
+                Light.analyzeAndAdjust(store, i);
+            }
+        }
+
+        @Override
+        public void updateCurrentValue(DeviceStore store, int i) {
+            Light.updateCurrentValue(store, i);
+        }
+
+        @Override
+        public void analyzeAndAdjust(DeviceStore store, int i) {
+            Light.analyzeAndAdjust(store, i);
+        }
+
+        //Если изменился дневной свет, будит выключенные устройства света (они повторяют дневной свет)
+        @Override
+        public void timeOfDayChanged(DeviceStore store, double previous, double current) {
+            if (calculateDayLight(current) == calculateDayLight(previous)) {
+                return;
+            }
+            for (int k = 0, n = store.getKindCount(DeviceStore.KIND_LIGHT); k < n; k++) {
+                int i = store.getKindMember(DeviceStore.KIND_LIGHT, k);
+                if (!store.on[i]) {
+                    store.wake(i);
+                }
+            }
+        }
+
+        @Override
+        public String valueFormat() {
+            return "%.0f%%";
+        }
+
+        @Override
+        public DeviceIcon icon() {
+            return new HouseRenderer.LightIcon();
+        }
+
+        @Override
+        public ValueInput valueInput() {
+            return INPUT;
+        }
+    }
+}
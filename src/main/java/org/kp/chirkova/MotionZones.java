@@ -0,0 +1,289 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Зоны обнаружения движения камер. Каждой камере можно задать многоугольник на плане дома и время
+//удержания движения; камера без своей зоны реагирует на движение в своей половине плана
+//(слева или справа от DEFAULT_BORDER_X), как раньше.
+//Движение только запоминается (последняя точка), а зоны проверяются не чаще одного раза за тик.
+//Окончание движения - по очереди таймеров: тик никогда не обходит все камеры, чтобы снять флаги
+
+public class MotionZones {
+    // Граница левой и правой зон по умолчанию (середина плана дома по умолчанию)
+    public static final double DEFAULT_BORDER_X = 400;
+
+    // Удержание по умолчанию: движение видно тику после отчета и снимается на следующем
+    public static final long DEFAULT_HOLD_TICKS = 1;
+
+    private static final int NONE = -1;
+
+    private final DeviceStore store;
+
+    // Настроенные зоны (колонки по номеру зоны): камера, вершины и ограничивающий прямоугольник
+    private int zoneCount;
+    private int[] zoneCamera = new int[4];
+    private double[][] zoneXs = new double[4][];
+    private double[][] zoneYs = new double[4][];
+    private double[] zoneLeft = new double[4];
+    private double[] zoneTop = new double[4];
+    private double[] zoneRight = new double[4];
+    private double[] zoneBottom = new double[4];
+
+    // По индексу устройства: номер зоны камеры (NONE - зона по умолчанию), удержание движения
+    // и тик, на котором движение закончится (NONE - движения нет)
+    private int[] zoneOf = new int[0];
+    private long[] holdTicks = new long[0];
+    private long[] expiresAt = new long[0];
+
+    // Таймеры окончания движения. Событие устарело, если expiresAt камеры с тех пор сдвинулся
+    private final EventQueue expiries = new EventQueue();
+
+    // Последняя точка движения с прошлой проверки зон
+    private boolean pending;
+    private double pendingX;
+    private double pendingY;
+
+    MotionZones(DeviceStore store) {
+        this.store = store;
+    }
+
+    //Задает камере зону-многоугольник (вершины по порядку обхода) и удержание движения в тиках
+    public void setZone(int camera, double[] xs, double[] ys, long hold) {
+        checkCamera(camera);
+        if (xs.length != ys.length || xs.length < 3) {
+            throw new IllegalArgumentException("Зона должна быть многоугольником не менее чем из 3 вершин");
+        }
+        if (hold < 1) {
+            throw new IllegalArgumentException("Удержание движения должно быть не меньше одного тика: " + hold);
+        }
+        ensureCapacity();
+        int zone = zoneOf[camera];
+        if (zone == NONE) {
+            if (zoneCount == zoneCamera.length) {
+                growZones(zoneCount * 2);
+            }
+            zone = zoneCount++;
+            zoneOf[camera] = zone;
+        }
+        zoneCamera[zone] = camera;
+        zoneXs[zone] = xs.clone();
+        zoneYs[zone] = ys.clone();
+        double left = Double.POSITIVE_INFINITY;
+        double top = Double.POSITIVE_INFINITY;
+        double right = Double.NEGATIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < xs.length; v++) {
+            left = Math.min(left, xs[v]);
+            right = Math.max(right, xs[v]);
+            top = Math.min(top, ys[v]);
+            bottom = Math.max(bottom, ys[v]);
+        }
+        zoneLeft[zone] = left;
+        zoneTop[zone] = top;
+        zoneRight[zone] = right;
+        zoneBottom[zone] = bottom;
+        holdTicks[camera] = hold;
+    }
+
+    //Возвращает камере зону по умолчанию (половина плана) и удержание по умолчанию
+    public void clearZone(int camera) {
+        checkCamera(camera);
+        ensureCapacity();
+        int zone = zoneOf[camera];
+        holdTicks[camera] = DEFAULT_HOLD_TICKS;
+        if (zone == NONE) {
+            return;
+        }
+        // Последняя зона переезжает на место удаленной
+        int last = --zoneCount;
+        if (zone != last) {
+            zoneCamera[zone] = zoneCamera[last];
+            zoneXs[zone] = zoneXs[last];
+            zoneYs[zone] = zoneYs[last];
+            zoneLeft[zone] = zoneLeft[last];
+            zoneTop[zone] = zoneTop[last];
+            zoneRight[zone] = zoneRight[last];
+            zoneBottom[zone] = zoneBottom[last];
+            zoneOf[zoneCamera[zone]] = zone;
+        }
+        zoneXs[last] = null;
+        zoneYs[last] = null;
+        zoneOf[camera] = NONE;
+    }
+
+    public boolean hasZone(int camera) {
+        return camera < zoneOf.length && zoneOf[camera] != NONE;
+    }
+
+    public long getHoldTicks(int camera) {
+        return camera < holdTicks.length ? holdTicks[camera] : DEFAULT_HOLD_TICKS;
+    }
+
+    //Проверяет, лежит ли точка плана в зоне камеры
+    public boolean contains(int camera, double px, double py) {
+        if (!hasZone(camera)) {
+            return (store.x[camera] < DEFAULT_BORDER_X) == (px < DEFAULT_BORDER_X);
+        }
+        int zone = zoneOf[camera];
+        return px >= zoneLeft[zone] && px <= zoneRight[zone] && py >= zoneTop[zone] && py <= zoneBottom[zone]
+                && insidePolygon(zoneXs[zone], zoneYs[zone], px, py);
+    }
+
+    //Запоминает движение в точке; зоны проверит следующий тик (повторные отчеты до него заменяют точку)
+    void report(double px, double py) {
+        pending = true;
+        pendingX = px;
+        pendingY = py;
+    }
+
+    //Проверяет зоны по последней точке движения и снимает истекшие движения. Возвращает true,
+    //если движение попало хотя бы в одну зону
+    boolean tick(long now) {
+        boolean detected = false;
+        if (pending) {
+            pending = false;
+            detected = evaluate(now, pendingX, pendingY);
+        }
+        while (!expiries.isEmpty() && expiries.peekTick() <= now) {
+            long tick = expiries.peekTick();
+            int camera = expiries.poll();
+            // Камера могла снова увидеть движение после постановки этого таймера
+            if (expiresAt[camera] == tick) {
+                expiresAt[camera] = NONE;
+                store.setMotion(camera, false);
+            }
+        }
+        return detected;
+    }
+
+    //Снимает движение со всех камер сразу (например, курсор покинул план дома)
+    void clear() {
+        pending = false;
+        expiries.clear();
+        for (int k = 0, n = store.getKindCount(DeviceStore.KIND_CAMERA); k < n; k++) {
+            int camera = store.getKindMember(DeviceStore.KIND_CAMERA, k);
+            store.setMotion(camera, false);
+            if (camera < expiresAt.length) {
+                expiresAt[camera] = NONE;
+            }
+        }
+    }
+
+    //Нет ни непроверенного движения, ни камер, у которых движение еще не закончилось
+    boolean isIdle() {
+        return !pending && expiries.isEmpty();
+    }
+
+    //Переносит зоны и удержания камер из source (дом с той же расстановкой, например копия состояния).
+    //Таймеры ставятся заново: движение, которое уже идет, держится полное удержание от тика now
+    void copySettings(MotionZones source, long now) {
+        zoneCount = source.zoneCount;
+        zoneCamera = source.zoneCamera.clone();
+        zoneXs = source.zoneXs.clone();
+        zoneYs = source.zoneYs.clone();
+        zoneLeft = source.zoneLeft.clone();
+        zoneTop = source.zoneTop.clone();
+        zoneRight = source.zoneRight.clone();
+        zoneBottom = source.zoneBottom.clone();
+        zoneOf = source.zoneOf.clone();
+        holdTicks = source.holdTicks.clone();
+        expiresAt = new long[zoneOf.length];
+        pending = false;
+        restored(now);
+    }
+
+    //Ставит таймеры камерам, у которых в загруженном снимке есть движение, замеченное на тике motionTick
+    void restored(long motionTick) {
+        ensureCapacity();
+        expiries.clear();
+        Arrays.fill(expiresAt, NONE);
+        for (int k = 0, n = store.getKindCount(DeviceStore.KIND_CAMERA); k < n; k++) {
+            int camera = store.getKindMember(DeviceStore.KIND_CAMERA, k);
+            if (store.motion[camera]) {
+                schedule(camera, Math.max(motionTick, 0) + holdTicks[camera]);
+            }
+        }
+    }
+
+    private boolean evaluate(long now, double px, double py) {
+        ensureCapacity();
+        boolean detected = false;
+        // Настроенные зоны: сначала прямоугольник, многоугольник - только для попавших в него
+        for (int zone = 0; zone < zoneCount; zone++) {
+            if (px >= zoneLeft[zone] && px <= zoneRight[zone] && py >= zoneTop[zone] && py <= zoneBottom[zone]
+                    && insidePolygon(zoneXs[zone], zoneYs[zone], px, py)) {
+                detect(zoneCamera[zone], now);
+                detected = true;
+            }
+        }
+        // Камеры без своей зоны - половина плана
+        int cameras = store.getKindCount(DeviceStore.KIND_CAMERA);
+        if (cameras > zoneCount) {
+            boolean leftZone = px < DEFAULT_BORDER_X;
+            for (int k = 0; k < cameras; k++) {
+                int camera = store.getKindMember(DeviceStore.KIND_CAMERA, k);
+                if (zoneOf[camera] == NONE && (store.x[camera] < DEFAULT_BORDER_X) == leftZone) {
+                    detect(camera, now);
+                    detected = true;
+                }
+            }
+        }
+        return detected;
+    }
+
+    private void detect(int camera, long now) {
+        store.setMotion(camera, true);
+        schedule(camera, now + holdTicks[camera]);
+    }
+
+    private void schedule(int camera, long tick) {
+        if (expiresAt[camera] != tick) {
+            expiresAt[camera] = tick;
+            expiries.add(tick, camera);
+        }
+    }
+
+    //Правило четности: луч из точки вправо пересекает границу нечетное число раз
+    private static boolean insidePolygon(double[] xs, double[] ys, double px, double py) {
+        boolean inside = false;
+        for (int v = 0, u = xs.length - 1; v < xs.length; u = v++) {
+            if ((ys[v] > py) != (ys[u] > py)
+                    && px < (xs[u] - xs[v]) * (py - ys[v]) / (ys[u] - ys[v]) + xs[v]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private void checkCamera(int camera) {
+        if (camera < 0 || camera >= store.size() || store.kind[camera] != DeviceStore.KIND_CAMERA) {
+            throw new IllegalArgumentException("Устройство " + camera + " не является камерой");
+        }
+    }
+
+    //Колонки по устройствам растут вместе с хранилищем (новые камеры - с зоной по умолчанию)
+    private void ensureCapacity() {
+        int n = store.size();
+        if (zoneOf.length >= n) {
+            return;
+        }
+        int old = zoneOf.length;
+        int capacity = Math.max(n, old * 2);
+        zoneOf = Arrays.copyOf(zoneOf, capacity);
+        holdTicks = Arrays.copyOf(holdTicks, capacity);
+        expiresAt = Arrays.copyOf(expiresAt, capacity);
+        Arrays.fill(zoneOf, old, capacity, NONE);
+        Arrays.fill(holdTicks, old, capacity, DEFAULT_HOLD_TICKS);
+        Arrays.fill(expiresAt, old, capacity, NONE);
+    }
+
+    private void growZones(int capacity) {
+        zoneCamera = Arrays.copyOf(zoneCamera, capacity);
+        zoneXs = Arrays.copyOf(zoneXs, capacity);
+        zoneYs = Arrays.copyOf(zoneYs, capacity);
+        zoneLeft = Arrays.copyOf(zoneLeft, capacity);
+        zoneTop = Arrays.copyOf(zoneTop, capacity);
+        zoneRight = Arrays.copyOf(zoneRight, capacity);
+        zoneBottom = Arrays.copyOf(zoneBottom, capacity);
+    }
+}
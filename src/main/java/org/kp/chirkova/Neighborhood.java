@@ -0,0 +1,271 @@
+package org.kp.chirkova;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Квартал из многих домов для планирования нагрузки на сеть. Каждый дом - отдельный движок со своими
+//устройствами, сценариями и часами (смещение часов задается setGlobalTimeOfDay до запуска). Дома
+//независимы, поэтому делятся на сегменты: рабочий поток w всегда тикает одни и те же дома подряд
+//[w * homes / workers, (w + 1) * homes / workers), и их состояние остается в кэше этого ядра.
+//Итоги сети (мощность и энергия) хранятся полосами: у каждого рабочего своя полоса на отдельной
+//кэш-линии, пишет ее только он, а чтение суммирует полосы - общих счетчиков, за которые потоки
+//боролись бы, нет. Итоги можно читать из любого потока во время работы; значения по домам
+//(getHomeEnergy, topByEnergy) - из потока, вызывающего runTicks, между запусками
+
+public class Neighborhood implements AutoCloseable {
+    // Полоса рабочего: [0] - мощность (Вт), [1] - энергия (кВт*ч) его домов, биты double.
+    // Шаг 16 long (128 байт) разводит полосы по разным парам кэш-линий
+    private static final int STRIPE = 16;
+
+    private final SimulationEngine[] homes;
+    private final int workerCount;
+    private final Thread[] workers;
+    private final AtomicLongArray stripes;
+
+    // Мощность и энергия домов после последнего шага (пишет рабочий поток дома)
+    private final double[] homePower;
+    private final double[] homeEnergy;
+
+    // Старт и окончание шага: все рабочие и вызывающий поток
+    private final Phaser phaser;
+    // Задание шага: число тиков и режим (пишется до старта шага)
+    private volatile long stepTicks;
+    private volatile boolean stepEvents;
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+
+    //Квартал из домов homes, которые тикают workers рабочих потоков
+    public Neighborhood(SimulationEngine[] homes, int workers) {
+        if (homes.length == 0) {
+            throw new IllegalArgumentException("В квартале должен быть хотя бы один дом");
+        }
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Число рабочих потоков должно быть положительным: " + workers);
+        }
+        this.homes = homes.clone();
+        this.workerCount = Math.min(workers, homes.length);
+        this.homePower = new double[homes.length];
+        this.homeEnergy = new double[homes.length];
+        this.stripes = new AtomicLongArray(workerCount * STRIPE);
+        this.phaser = new Phaser(workerCount + 1);
+        this.workers = new Thread[workerCount];
+        for (int w = 0; w < workerCount; w++) {
+            int from = firstHome(w);
+            int to = firstHome(w + 1);
+            // Итоги известны сразу, до первого шага
+            publish(w, from, to);
+            int worker = w;
+            this.workers[w] = Thread.ofPlatform().name("home-shard-" + w).daemon().start(() -> work(worker, from, to));
+        }
+    }
+
+    private int firstHome(int worker) {
+        return (int) ((long) worker * homes.length / workerCount);
+    }
+
+    //Выполняет ticks тиков во всех домах и возвращает управление, когда все сегменты закончили
+    public void runTicks(long ticks) {
+        step(ticks, false);
+    }
+
+    //Перематывает все дома на ticks тиков в дискретно-событийном режиме (см. SimulationEngine.fastForward)
+    public void fastForward(long ticks) {
+        step(ticks, true);
+    }
+
+    private void step(long ticks, boolean events) {
+        if (ticks < 0) {
+            throw new IllegalArgumentException("Число тиков не может быть отрицательным: " + ticks);
+        }
+        if (closed) {
+            throw new IllegalStateException("Квартал закрыт");
+        }
+        stepTicks = ticks;
+        stepEvents = events;
+        phaser.arriveAndAwaitAdvance();
+        phaser.arriveAndAwaitAdvance();
+        RuntimeException error = failure;
+        if (error != null) {
+            failure = null;
+            throw error;
+        }
+    }
+
+    //Рабочий поток worker: ждет старта шага, тикает свои дома [from, to) и публикует их итоги
+    private void work(int worker, int from, int to) {
+        while (true) {
+            phaser.arriveAndAwaitAdvance();
+            if (closed) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+            try {
+                if (stepEvents) {
+                    for (int h = from; h < to; h++) {
+                        homes[h].fastForward(stepTicks);
+                    }
+                    publish(worker, from, to);
+                } else {
+                    // Тик за тиком по всем домам сегмента: итоги сети растут равномерно во время шага
+                    for (long t = 0; t < stepTicks; t++) {
+                        for (int h = from; h < to; h++) {
+                            homes[h].tick();
+                        }
+                        publish(worker, from, to);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    //Переносит мощность и энергию домов сегмента в их ячейки и полосу рабочего
+    private void publish(int worker, int from, int to) {
+        double power = 0;
+        double energy = 0;
+        for (int h = from; h < to; h++) {
+            homePower[h] = homes[h].getCurrentPower();
+            homeEnergy[h] = homes[h].getTotalEnergy();
+            power += homePower[h];
+            energy += homeEnergy[h];
+        }
+        stripes.setRelease(worker * STRIPE, Double.doubleToRawLongBits(power));
+        stripes.setRelease(worker * STRIPE + 1, Double.doubleToRawLongBits(energy));
+    }
+
+    //Текущая мощность всех домов квартала (Вт)
+    public double getTotalPower() {
+        return sum(0);
+    }
+
+    //Энергия, накопленная всеми домами квартала (кВт*ч)
+    public double getTotalEnergy() {
+        return sum(1);
+    }
+
+    private double sum(int field) {
+        double total = 0;
+        for (int w = 0; w < workerCount; w++) {
+            total += Double.longBitsToDouble(stripes.getAcquire(w * STRIPE + field));
+        }
+        return total;
+    }
+
+    //Номера n домов с наибольшей накопленной энергией, по убыванию
+    public int[] topByEnergy(int n) {
+        return top(homeEnergy, n);
+    }
+
+    //Номера n домов с наибольшей текущей мощностью, по убыванию
+    public int[] topByPower(int n) {
+        return top(homePower, n);
+    }
+
+    //Отбор наибольших через min-кучу из n номеров: O(домов * log n); при равенстве выше меньший номер
+    private static int[] top(double[] values, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Число домов не может быть отрицательным: " + n);
+        }
+        n = Math.min(n, values.length);
+        int[] heap = new int[n];
+        int size = 0;
+        for (int h = 0; h < values.length; h++) {
+            if (size < n) {
+                heap[size] = h;
+                siftUp(heap, size++, values);
+            } else if (n > 0 && before(h, heap[0], values)) {
+                heap[0] = h;
+                siftDown(heap, n, values);
+            }
+        }
+        // Корень кучи - наименьший из отобранных: снимаем его в конец
+        for (int end = n - 1; end > 0; end--) {
+            int root = heap[0];
+            heap[0] = heap[end];
+            heap[end] = root;
+            siftDown(heap, end, values);
+        }
+        return heap;
+    }
+
+    //Дом a стоит в списке выше дома b
+    private static boolean before(int a, int b, double[] values) {
+        return values[a] > values[b] || values[a] == values[b] && a < b;
+    }
+
+    private static void siftUp(int[] heap, int k, double[] values) {
+        int h = heap[k];
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (!before(heap[parent], h, values)) {
+                break;
+            }
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = h;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] values) {
+        int k = 0;
+        int h = heap[0];
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child], heap[child + 1], values)) {
+                child++;
+            }
+            if (!before(h, heap[child], values)) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = h;
+    }
+
+    //Мощность дома после последнего шага (Вт)
+    public double getHomePower(int home) {
+        return homePower[home];
+    }
+
+    //Энергия дома после последнего шага (кВт*ч)
+    public double getHomeEnergy(int home) {
+        return homeEnergy[home];
+    }
+
+    //Движок дома (менять его можно только между запусками, из вызывающего потока)
+    public SimulationEngine getHome(int home) {
+        return homes[home];
+    }
+
+    public int getHomeCount() {
+        return homes.length;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    //Останавливает рабочие потоки
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        phaser.arriveAndDeregister();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -1,72 +1,170 @@
 package org.kp.chirkova;
 
-//Сценарий - группа устройств, которые работают вместе
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+//Сценарий - группа устройств, которые работают вместе.
+//Хранится в скомпилированном виде (см. ScenarioDefinition): списки устройств для включения
+//и выключения и группы устройств одного вида с одним целевым значением. Активация - массовая
+//запись по этим спискам, причем устройства, уже находящиеся в нужном состоянии, не затрагиваются
 
 public class Scenario {
+    // Известные сценарии в ресурсах приложения (разбираются один раз)
+    private static final String[] KNOWN_SCENARIO_FILES = {"night.scenario", "day.scenario"};
+    private static ScenarioDefinition[] knownDefinitions;
+
     private String name;
-    private SmartDevice[] devices;
-    
-    // Общее энергопотребление устройств сценария (накопленное)
-    private double totalEnergyConsumed;
-    
-    // Параметры сценария
-    private double thermostatTarget;
-    private double lightTarget;
-    
-    public Scenario(String name, double thermostatTarget, double lightTarget, SmartDevice[] devices) {
+
+    // Хранилище устройств и индексы устройств сценария в нем
+    private DeviceStore store;
+    private int[] members;
+
+    // Журнал энергии, в котором ведутся итоги сценария, и номер сценария в нем
+    private EnergyLedger ledger;
+    private int ledgerId;
+
+    // Скомпилированные действия: кого включить, кого выключить, группы целей и их значения
+    // (доступны снимку (SnapshotFile) напрямую)
+    final int[] switchOn;
+    final int[] switchOff;
+    final int[][] targetGroups;
+    final double[] targetValues;
+
+    //Сценарий, который включает все устройства members и задает цели термостатам и свету
+    public Scenario(String name, double thermostatTarget, double lightTarget, DeviceStore store, int[] members) {
+        this(name, store, members, members, new int[0],
+            new int[][] {ofKind(store, members, DeviceStore.KIND_THERMOSTAT), ofKind(store, members, DeviceStore.KIND_LIGHT)},
+            new double[] {thermostatTarget, lightTarget});
+    }
+
+    Scenario(String name, DeviceStore store, int[] members, int[] switchOn, int[] switchOff,
+             int[][] targetGroups, double[] targetValues) {
         this.name = name;
-        this.devices = devices;
-        this.totalEnergyConsumed = 0.0;
-        this.thermostatTarget = thermostatTarget;
-        this.lightTarget = lightTarget;
+        this.store = store;
+        this.members = members;
+        this.switchOn = switchOn;
+        this.switchOff = switchOff;
+        this.targetGroups = targetGroups;
+        this.targetValues = targetValues;
     }
 
-     //Активирует сценарий - применяет настройки ко всем устройствам
-    public void activate() {
-        // Включаем устройства сценария и устанавливаем целевые значения
-        for (SmartDevice device : devices) {
-            device.setOn(true);
-            if (device instanceof Thermostat) {
-                device.setTargetValue(thermostatTarget);
-            } else if (device instanceof Light) {
-                device.setTargetValue(lightTarget);
-            }
+     //Активирует сценарий - применяет к устройствам только отличия от текущего состояния.
+     //Возвращает число изменений (включений, выключений и новых целей)
+    public int activate() {
+        int changed = store.setOnAll(switchOff, false);
+        changed += store.setOnAll(switchOn, true);
+        for (int g = 0; g < targetGroups.length; g++) {
+            changed += store.setTargetValueAll(targetGroups[g], targetValues[g]);
         }
+        return changed;
     }
-    
-    //Рассчитывает и обновляет общее энергопотребление устройств сценария
-    public void updateEnergyConsumption() {
-        for (SmartDevice device : devices) {
-            if (device.getPowerConsumption() > 0) {
-                // Обновляем общее энергопотребление (конвертируем в кВт*ч за секунду)
-                totalEnergyConsumed += device.getPowerConsumption() / 3600.0;
+
+    //Проверяет, находятся ли все устройства сценария в заданном им состоянии
+    public boolean isApplied() {
+        for (int i : switchOn) {
+            if (!store.on[i]) {
+                return false;
+            }
+        }
+        for (int i : switchOff) {
+            if (store.on[i]) {
+                return false;
+            }
+        }
+        for (int g = 0; g < targetGroups.length; g++) {
+            for (int i : targetGroups[g]) {
+                if (store.targetValue[i] != targetValues[g]) {
+                    return false;
+                }
             }
         }
+        return true;
+    }
+
+    //Тот же сценарий над копией состояния хранилища (та же расстановка, см. DeviceStore.copyState)
+    Scenario copyFor(DeviceStore copy) {
+        return new Scenario(name, copy, members, switchOn, switchOff, targetGroups, targetValues);
+    }
+
+    //Привязывает сценарий к журналу энергии (вызывается при регистрации сценариев)
+    void attach(EnergyLedger ledger, int id) {
+        this.ledger = ledger;
+        this.ledgerId = id;
     }
 
      //Возвращает общее энергопотребление устройств сценария
     public double getTotalEnergyConsumed() {
-        return totalEnergyConsumed;
+        return ledger != null ? ledger.getScenarioEnergy(ledgerId) : 0.0;
     }
 
     //Возвращает текущую суммарную мощность устройств сценария
     public double getCurrentPower() {
+        if (ledger != null) {
+            return ledger.getScenarioPower(ledgerId);
+        }
+        double[] power = store.powerConsumption;
         double currentPower = 0.0;
-        for (SmartDevice device : devices) {
-            currentPower += device.getPowerConsumption();
+        for (int i : members) {
+            currentPower += power[i];
         }
         return currentPower;
     }
-    
+
     public String getName() {
         return name;
     }
 
-    //Создает и возвращает массив известных сценариев с предустановленными параметрами
-    public static Scenario[] createKnownScenarios(SmartDevice[] allDevices) {
-        return new Scenario[] {
-            new Scenario("Ночь", 19.0, 25.0, allDevices),
-            new Scenario("День", 22.0, 75.0, allDevices)
-        };
+    //Возвращает индексы устройств сценария в хранилище
+    public int[] getMembers() {
+        return members;
+    }
+
+    //Создает и возвращает массив известных сценариев ("Ночь", "День") из файлов в ресурсах приложения
+    public static Scenario[] createKnownScenarios(DeviceStore store) {
+        ScenarioDefinition[] definitions = knownDefinitions();
+        Scenario[] scenarios = new Scenario[definitions.length];
+        for (int s = 0; s < definitions.length; s++) {
+            scenarios[s] = definitions[s].compile(store);
+        }
+        return scenarios;
+    }
+
+    private static synchronized ScenarioDefinition[] knownDefinitions() {
+        if (knownDefinitions == null) {
+            ScenarioDefinition[] definitions = new ScenarioDefinition[KNOWN_SCENARIO_FILES.length];
+            for (int s = 0; s < definitions.length; s++) {
+                String file = KNOWN_SCENARIO_FILES[s];
+                try (InputStream input = Scenario.class.getResourceAsStream(file)) {
+                    if (input == null) {
+                        throw new IOException("Нет файла сценария в ресурсах: " + file);
+                    }
+                    definitions[s] = ScenarioDefinition.parse(new InputStreamReader(input, StandardCharsets.UTF_8), file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Не удалось загрузить известный сценарий " + file, e);
+                }
+            }
+            knownDefinitions = definitions;
+        }
+        return knownDefinitions;
+    }
+
+    private static int[] ofKind(DeviceStore store, int[] devices, byte kind) {
+        int count = 0;
+        for (int i : devices) {
+            if (store.kind[i] == kind) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int i : devices) {
+            if (store.kind[i] == kind) {
+                result[count++] = i;
+            }
+        }
+        return result;
     }
 }
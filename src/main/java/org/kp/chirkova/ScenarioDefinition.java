@@ -0,0 +1,342 @@
+package org.kp.chirkova;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Описание сценария из текстового файла. Строки файла:
+//  name Ночь                              - имя сценария
+//  room Спальня 200 250 600 450           - комната: прямоугольник плана (лево, верх, право, низ)
+//  <выбор>: <действия>                    - правило
+//Выбор: all | <вид> | room <комната> [вид] | device <имя устройства>, где вид - имя DeviceKind
+//(thermostat, light, camera или подключенного вида).
+//Действия: on, off, target <значение> в любом сочетании. Правила применяются по порядку,
+//более позднее переопределяет более раннее. Пустые строки и строки с # пропускаются.
+//Описание не привязано к дому: compile() переводит его в списки индексов конкретного хранилища
+
+public class ScenarioDefinition {
+    private static final byte ANY_KIND = -1;
+
+    // Выбор устройств правилом
+    private static final int SELECT_ALL = 0;
+    private static final int SELECT_KIND = 1;
+    private static final int SELECT_ROOM = 2;
+    private static final int SELECT_DEVICE = 3;
+
+    // Желаемое включение устройства (по индексу при компиляции)
+    private static final byte KEEP = 0;
+    private static final byte ON = 1;
+    private static final byte OFF = 2;
+
+    private final String name;
+
+    // Комнаты: имя -> прямоугольник {лево, верх, право, низ}
+    private final Map<String, double[]> rooms;
+
+    // Правила по порядку (колонки по номеру правила)
+    private final int[] selectors;
+    private final byte[] kinds;
+    private final String[] arguments;
+    private final byte[] switches;
+    private final double[] targets;
+
+    private ScenarioDefinition(String name, Map<String, double[]> rooms, int[] selectors, byte[] kinds,
+                               String[] arguments, byte[] switches, double[] targets) {
+        this.name = name;
+        this.rooms = rooms;
+        this.selectors = selectors;
+        this.kinds = kinds;
+        this.arguments = arguments;
+        this.switches = switches;
+        this.targets = targets;
+    }
+
+    //Читает описание сценария из файла (UTF-8)
+    public static ScenarioDefinition load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader, path.toString());
+        }
+    }
+
+    //Разбирает описание сценария; source - название источника для сообщений об ошибках
+    public static ScenarioDefinition parse(Reader input, String source) throws IOException {
+        BufferedReader reader = input instanceof BufferedReader buffered ? buffered : new BufferedReader(input);
+        String name = null;
+        Map<String, double[]> rooms = new LinkedHashMap<>();
+        List<int[]> ruleSelectors = new ArrayList<>();
+        List<String> ruleArguments = new ArrayList<>();
+        List<double[]> ruleActions = new ArrayList<>();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                String[] words = line.split("\\s+");
+                if (words[0].equals("name") && words.length > 1) {
+                    name = line.substring(4).strip();
+                } else if (words[0].equals("room") && words.length == 6) {
+                    double[] rect = new double[4];
+                    for (int k = 0; k < 4; k++) {
+                        rect[k] = number(words[k + 2], source, lineNumber);
+                    }
+                    rooms.put(words[1], rect);
+                } else {
+                    throw error(source, lineNumber, "ожидается name, room или правило с ':'");
+                }
+                continue;
+            }
+
+            // Выбор устройств
+            String[] selector = line.substring(0, colon).strip().split("\\s+", 2);
+            int select;
+            byte kind = ANY_KIND;
+            String argument = null;
+            switch (selector[0]) {
+                case "all" -> select = SELECT_ALL;
+                case "device" -> {
+                    if (selector.length < 2) {
+                        throw error(source, lineNumber, "не указано имя устройства");
+                    }
+                    select = SELECT_DEVICE;
+                    argument = selector[1].strip();
+                }
+                case "room" -> {
+                    String[] roomWords = selector.length < 2 ? new String[0] : selector[1].split("\\s+");
+                    if (roomWords.length == 0 || roomWords.length > 2) {
+                        throw error(source, lineNumber, "ожидается room <комната> [вид]");
+                    }
+                    if (!rooms.containsKey(roomWords[0])) {
+                        throw error(source, lineNumber, "комната " + roomWords[0] + " не описана выше");
+                    }
+                    select = SELECT_ROOM;
+                    argument = roomWords[0];
+                    if (roomWords.length == 2) {
+                        kind = kind(roomWords[1], source, lineNumber);
+                    }
+                }
+                default -> {
+                    if (selector.length > 1) {
+                        throw error(source, lineNumber, "неизвестный выбор устройств: " + line.substring(0, colon));
+                    }
+                    select = SELECT_KIND;
+                    kind = kind(selector[0], source, lineNumber);
+                }
+            }
+
+            // Действия: {включение, цель (NaN - не меняется)}
+            String[] words = line.substring(colon + 1).strip().split("\\s+");
+            byte onOff = KEEP;
+            double target = Double.NaN;
+            for (int w = 0; w < words.length; w++) {
+                switch (words[w]) {
+                    case "on" -> onOff = ON;
+                    case "off" -> onOff = OFF;
+                    case "target" -> {
+                        if (++w == words.length) {
+                            throw error(source, lineNumber, "после target нет значения");
+                        }
+                        target = number(words[w], source, lineNumber);
+                    }
+                    default -> throw error(source, lineNumber, "неизвестное действие: " + words[w]);
+                }
+            }
+            if (onOff == KEEP && Double.isNaN(target)) {
+                throw error(source, lineNumber, "правило без действий");
+            }
+            ruleSelectors.add(new int[] {select, kind});
+            ruleArguments.add(argument);
+            ruleActions.add(new double[] {onOff, target});
+        }
+        if (name == null) {
+            throw new IOException("В сценарии " + source + " не задано имя (строка name)");
+        }
+
+        int rules = ruleSelectors.size();
+        int[] selectors = new int[rules];
+        byte[] kinds = new byte[rules];
+        byte[] switches = new byte[rules];
+        double[] targets = new double[rules];
+        for (int r = 0; r < rules; r++) {
+            selectors[r] = ruleSelectors.get(r)[0];
+            kinds[r] = (byte) ruleSelectors.get(r)[1];
+            switches[r] = (byte) ruleActions.get(r)[0];
+            targets[r] = ruleActions.get(r)[1];
+        }
+        return new ScenarioDefinition(name, rooms, selectors, kinds, ruleArguments.toArray(new String[0]),
+                switches, targets);
+    }
+
+    //Переводит правила в сценарий над хранилищем: для каждого устройства вычисляется итоговое действие,
+    //а затем устройства собираются в списки для массовой записи (цели - по видам и значениям)
+    public Scenario compile(DeviceStore store) {
+        int n = store.size();
+        byte[] desiredOn = new byte[n];
+        double[] desiredTarget = new double[n];
+        Arrays.fill(desiredTarget, Double.NaN);
+        int[] selected = new int[n];
+        Map<String, int[]> byName = null;
+
+        for (int r = 0; r < selectors.length; r++) {
+            int count;
+            switch (selectors[r]) {
+                case SELECT_ALL -> {
+                    for (int i = 0; i < n; i++) {
+                        selected[i] = i;
+                    }
+                    count = n;
+                }
+                case SELECT_KIND -> {
+                    count = store.getKindCount(kinds[r]);
+                    for (int k = 0; k < count; k++) {
+                        selected[k] = store.getKindMember(kinds[r], k);
+                    }
+                }
+                case SELECT_ROOM -> {
+                    double[] rect = rooms.get(arguments[r]);
+                    count = store.getSpatialIndex().collect(rect[0], rect[1], rect[2], rect[3], selected);
+                    if (kinds[r] != ANY_KIND) {
+                        int kept = 0;
+                        for (int k = 0; k < count; k++) {
+                            if (store.kind[selected[k]] == kinds[r]) {
+                                selected[kept++] = selected[k];
+                            }
+                        }
+                        count = kept;
+                    }
+                }
+                default -> {
+                    if (byName == null) {
+                        byName = indexNames(store);
+                    }
+                    int[] named = byName.getOrDefault(arguments[r], new int[0]);
+                    System.arraycopy(named, 0, selected, 0, named.length);
+                    count = named.length;
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                int i = selected[k];
+                if (switches[r] != KEEP) {
+                    desiredOn[i] = switches[r];
+                }
+                if (!Double.isNaN(targets[r])) {
+                    desiredTarget[i] = targets[r];
+                }
+            }
+        }
+
+        // Списки включения и выключения, участники сценария - все устройства хоть с одним действием
+        int onCount = 0;
+        int offCount = 0;
+        int memberCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (desiredOn[i] == ON) {
+                onCount++;
+            } else if (desiredOn[i] == OFF) {
+                offCount++;
+            }
+            if (desiredOn[i] != KEEP || !Double.isNaN(desiredTarget[i])) {
+                memberCount++;
+            }
+        }
+        int[] on = new int[onCount];
+        int[] off = new int[offCount];
+        int[] members = new int[memberCount];
+        onCount = 0;
+        offCount = 0;
+        memberCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (desiredOn[i] == ON) {
+                on[onCount++] = i;
+            } else if (desiredOn[i] == OFF) {
+                off[offCount++] = i;
+            }
+            if (desiredOn[i] != KEEP || !Double.isNaN(desiredTarget[i])) {
+                members[memberCount++] = i;
+            }
+        }
+
+        // Цели: группы устройств одного вида с одинаковым значением
+        List<int[]> targetGroups = new ArrayList<>();
+        List<Double> targetValues = new ArrayList<>();
+        for (byte kind = 0; kind < DeviceStore.KIND_COUNT; kind++) {
+            Map<Double, int[]> sizes = new LinkedHashMap<>();
+            for (int k = 0, count = store.getKindCount(kind); k < count; k++) {
+                double target = desiredTarget[store.getKindMember(kind, k)];
+                if (!Double.isNaN(target)) {
+                    sizes.computeIfAbsent(target, t -> new int[1])[0]++;
+                }
+            }
+            // Второй проход: счетчики размеров становятся позициями заполнения групп
+            Map<Double, int[]> groups = new HashMap<>();
+            for (Map.Entry<Double, int[]> entry : sizes.entrySet()) {
+                int[] group = new int[entry.getValue()[0]];
+                groups.put(entry.getKey(), group);
+                targetGroups.add(group);
+                targetValues.add(entry.getKey());
+                entry.getValue()[0] = 0;
+            }
+            for (int k = 0, count = store.getKindCount(kind); k < count; k++) {
+                int i = store.getKindMember(kind, k);
+                double target = desiredTarget[i];
+                if (!Double.isNaN(target)) {
+                    groups.get(target)[sizes.get(target)[0]++] = i;
+                }
+            }
+        }
+        double[] values = new double[targetValues.size()];
+        for (int g = 0; g < values.length; g++) {
+            values[g] = targetValues.get(g);
+        }
+        return new Scenario(name, store, members, on, off, targetGroups.toArray(new int[0][]), values);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private static Map<String, int[]> indexNames(DeviceStore store) {
+        Map<String, int[]> byName = new HashMap<>();
+        for (int i = 0, n = store.size(); i < n; i++) {
+            int[] previous = byName.get(store.getName(i));
+            int[] named = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+            named[named.length - 1] = i;
+            byName.put(store.getName(i), named);
+        }
+        return byName;
+    }
+
+    private static byte kind(String word, String source, int lineNumber) throws IOException {
+        byte kind = DeviceKinds.idOf(word);
+        if (kind < 0) {
+            throw error(source, lineNumber, "неизвестный вид устройств: " + word);
+        }
+        return kind;
+    }
+
+    private static double number(String word, String source, int lineNumber) throws IOException {
+        try {
+            return Double.parseDouble(word.replace(',', '.'));
+        } catch (NumberFormatException e) {
+            throw error(source, lineNumber, "неверное число: " + word);
+        }
+    }
+
+    private static IOException error(String source, int lineNumber, String message) {
+        return new IOException("Ошибка в сценарии " + source + ", строка " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,281 @@
+package org.kp.chirkova;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+//Прогноз "что если": сколько будет стоить сценарий за сутки. capture() в потоке движка копирует
+//состояние дома (DeviceStore.copyState: колонки состояния копируются, расстановка общая), а run()
+//из любого потока прогоняет каждого кандидата на horizonTicks тиков вперед в нескольких вариантах
+//с возмущенными входами: начальная температура термостатов (и помещений тепловой модели) и частота
+//движения у камер. Варианты считаются параллельно в ForkJoinPool, у каждого своя копия базового
+//состояния. Вариант с номером s возмущается одинаково для всех кандидатов, поэтому разница между ними -
+//эффект самого сценария. Зоны камер переносятся из дома; правила автоматизации и настоящие устройства
+//в прогоне не участвуют
+
+public class ScenarioForecast {
+    // Сутки в тиках (0.1 часа за тик)
+    public static final long DAY_TICKS = Math.round(24 / SimulationEngine.TIME_STEP_HOURS);
+
+    private final DeviceStore base;
+    private final double timeOfDay;
+    // Зоны камер дома на момент снимка
+    private final MotionZones zones;
+    // Точки движения: координаты камер дома
+    private final double[] cameraX;
+    private final double[] cameraY;
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int samples = 16;
+    private long horizonTicks = DAY_TICKS;
+    private double temperatureSpread = 1.0;
+    private double motionRate = 2.0;
+    private double motionRateSpread = 0.5;
+    private long seed = 1;
+
+    private ScenarioForecast(DeviceStore base, double timeOfDay, MotionZones source) {
+        this.base = base;
+        this.timeOfDay = timeOfDay;
+        this.zones = new MotionZones(base);
+        zones.copySettings(source, 0);
+        int cameras = base.getKindCount(DeviceStore.KIND_CAMERA);
+        cameraX = new double[cameras];
+        cameraY = new double[cameras];
+        for (int k = 0; k < cameras; k++) {
+            int camera = base.getKindMember(DeviceStore.KIND_CAMERA, k);
+            cameraX[k] = base.x[camera];
+            cameraY[k] = base.y[camera];
+        }
+    }
+
+    //Запоминает текущее состояние дома (только в потоке движка; копируются колонки состояния, без глубоких копий)
+    public static ScenarioForecast capture(SimulationEngine engine) {
+        return new ScenarioForecast(engine.getStore().copyState(), engine.getGlobalTimeOfDay(), engine.getMotionZones());
+    }
+
+    //Прогоняет кандидатов (сценарии этого дома; null - оставить все как есть) и возвращает итоги по каждому
+    public Outcome[] run(Scenario... candidates) {
+        List<Callable<double[]>> tasks = new ArrayList<>(candidates.length * samples);
+        for (Scenario candidate : candidates) {
+            for (int s = 0; s < samples; s++) {
+                int sample = s;
+                tasks.add(() -> simulate(candidate, sample));
+            }
+        }
+        List<Future<double[]>> results = pool.invokeAll(tasks);
+
+        Outcome[] outcomes = new Outcome[candidates.length];
+        for (int c = 0; c < candidates.length; c++) {
+            double[] energy = new double[samples];
+            double[] peak = new double[samples];
+            for (int s = 0; s < samples; s++) {
+                double[] result = get(results.get(c * samples + s));
+                energy[s] = result[0];
+                peak[s] = result[1];
+            }
+            outcomes[c] = new Outcome(candidates[c] != null ? candidates[c].getName() : null, energy, peak);
+        }
+        return outcomes;
+    }
+
+    private static double[] get(Future<double[]> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Прогноз не выполнен", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прогноз прерван", e);
+        }
+    }
+
+    //Один вариант: копия базового состояния, возмущения варианта sample, кандидат и horizonTicks тиков.
+    //Возвращает {энергия за прогон, пиковая мощность}
+    private double[] simulate(Scenario candidate, int sample) {
+        DeviceStore store = base.copyState();
+        Scenario scenario = candidate != null ? candidate.copyFor(store) : null;
+        SimulationEngine engine = new SimulationEngine(store, scenario != null ? new Scenario[] {scenario} : new Scenario[0]);
+        engine.setGlobalTimeOfDay(timeOfDay);
+        engine.getMotionZones().copySettings(zones, 0);
+
+        Random random = new Random(seed * 1_000_003L + sample);
+        if (temperatureSpread > 0) {
+            // Термостат в помещении тепловой модели показывает температуру помещения - возмущается она
+            ThermalModel thermal = store.thermal;
+            for (int z = 0, n = thermal.getZoneCount(); z < n; z++) {
+                thermal.setTemperature(z, thermal.getTemperature(z) + random.nextGaussian() * temperatureSpread);
+            }
+            for (int k = 0, n = store.getKindCount(DeviceStore.KIND_THERMOSTAT); k < n; k++) {
+                int i = store.getKindMember(DeviceStore.KIND_THERMOSTAT, k);
+                if (thermal.zoneOf(i) == ThermalModel.NONE) {
+                    store.currentValue[i] += random.nextGaussian() * temperatureSpread;
+                    store.wake(i);
+                }
+            }
+        }
+        // Движение - поток Пуассона с частотой motionRate в час, у каждого варианта своя частота
+        double rate = motionRate * Math.max(0, 1 + (2 * random.nextDouble() - 1) * motionRateSpread);
+        double perTick = rate * SimulationEngine.TIME_STEP_HOURS;
+        long nextMotion = nextEvent(random, perTick, 0);
+
+        if (scenario != null) {
+            engine.activateScenario(scenario);
+        }
+        engine.getStore().ledger.resetPeakPower();
+        // Варианты уже идут параллельно, поэтому тик каждого - в одном потоке. Пик мощности ведет журнал
+        // энергии, так что между событиями движения тики идут подряд, без опроса дома после каждого
+        try (TickScheduler scheduler = new TickScheduler(1, TickScheduler.DEFAULT_CHUNK_SIZE)) {
+            engine.setScheduler(scheduler);
+            long t = 0;
+            while (t < horizonTicks) {
+                long until = cameraX.length > 0 ? Math.min(nextMotion, horizonTicks) : horizonTicks;
+                engine.runTicks(until - t);
+                t = until;
+                if (t == nextMotion && t < horizonTicks) {
+                    int camera = random.nextInt(cameraX.length);
+                    engine.reportMotion(cameraX[camera], cameraY[camera]);
+                    nextMotion = nextEvent(random, perTick, t);
+                }
+            }
+        }
+        return new double[] {engine.getTotalEnergy(), engine.getPeakPower()};
+    }
+
+    //Тик следующего события потока Пуассона с вероятностью perTick за тик (Long.MAX_VALUE - событий нет)
+    private static long nextEvent(Random random, double perTick, long now) {
+        if (perTick <= 0) {
+            return Long.MAX_VALUE;
+        }
+        double gap = -Math.log(1 - random.nextDouble()) / perTick;
+        return gap >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + 1 + (long) gap;
+    }
+
+    //Число вариантов на кандидата
+    public ScenarioForecast setSamples(int samples) {
+        if (samples <= 0) {
+            throw new IllegalArgumentException("Число вариантов должно быть положительным: " + samples);
+        }
+        this.samples = samples;
+        return this;
+    }
+
+    //Длина прогона в тиках (по умолчанию сутки)
+    public ScenarioForecast setHorizonTicks(long ticks) {
+        if (ticks <= 0) {
+            throw new IllegalArgumentException("Длина прогона должна быть положительной: " + ticks);
+        }
+        this.horizonTicks = ticks;
+        return this;
+    }
+
+    //Разброс начальной температуры термостатов (стандартное отклонение, °C)
+    public ScenarioForecast setTemperatureSpread(double spread) {
+        if (!(spread >= 0)) {
+            throw new IllegalArgumentException("Разброс температуры не может быть отрицательным: " + spread);
+        }
+        this.temperatureSpread = spread;
+        return this;
+    }
+
+    //Средняя частота движения у камер (событий в час) и ее разброс между вариантами (доля, 0.5 - ±50%)
+    public ScenarioForecast setMotionRate(double eventsPerHour, double spread) {
+        if (!(eventsPerHour >= 0) || !(spread >= 0 && spread <= 1)) {
+            throw new IllegalArgumentException("Неверная частота движения: " + eventsPerHour + " ± " + spread);
+        }
+        this.motionRate = eventsPerHour;
+        this.motionRateSpread = spread;
+        return this;
+    }
+
+    //Начальное значение генератора возмущений (одинаковое - одинаковые варианты)
+    public ScenarioForecast setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    //Пул, в котором считаются варианты (по умолчанию общий)
+    public ScenarioForecast setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    //Итоги кандидата: распределение энергии за прогон и пиковой мощности по вариантам
+    public static final class Outcome {
+        private final String scenarioName;
+        private final double[] energy;
+        private final double[] peakPower;
+
+        Outcome(String scenarioName, double[] energy, double[] peakPower) {
+            this.scenarioName = scenarioName;
+            this.energy = energy.clone();
+            this.peakPower = peakPower.clone();
+            Arrays.sort(this.energy);
+            Arrays.sort(this.peakPower);
+        }
+
+        //Имя сценария (null - без смены сценария)
+        public String getScenarioName() {
+            return scenarioName;
+        }
+
+        public int getSamples() {
+            return energy.length;
+        }
+
+        //Средняя энергия за прогон (кВт*ч)
+        public double getMeanEnergy() {
+            return mean(energy);
+        }
+
+        //Энергия, не больше которой percentile процентов вариантов (ближайший ранг)
+        public double getEnergyPercentile(double percentile) {
+            return percentile(energy, percentile);
+        }
+
+        public double getMinEnergy() {
+            return energy[0];
+        }
+
+        public double getMaxEnergy() {
+            return energy[energy.length - 1];
+        }
+
+        //Наибольшая мощность за прогон по всем вариантам (Вт)
+        public double getPeakPower() {
+            return peakPower[peakPower.length - 1];
+        }
+
+        //Пиковая мощность, не больше которой percentile процентов вариантов (Вт)
+        public double getPeakPowerPercentile(double percentile) {
+            return percentile(peakPower, percentile);
+        }
+
+        public double getMeanPeakPower() {
+            return mean(peakPower);
+        }
+
+        private static double mean(double[] values) {
+            double sum = 0;
+            for (double value : values) {
+                sum += value;
+            }
+            return sum / values.length;
+        }
+
+        private static double percentile(double[] sorted, double percentile) {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("Процентиль должен быть от 0 до 100: " + percentile);
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
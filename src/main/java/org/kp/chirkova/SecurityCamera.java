@@ -2,57 +2,101 @@ package org.kp.chirkova;
 
 //Камера безопасности - отслеживает движение и записывает видео
 public class SecurityCamera extends SmartDevice {
-    // Флаг движения мыши в зоне этой камеры (устанавливается из Controller)
-    private boolean mouseMovingInZone = false;
+    // Значение в режиме записи (0 = ожидание)
+    static final double RECORDING = 100.0;
 
-    public SecurityCamera(String name, double x, double y, double targetSensitivity) {
-        super(name, x, y, targetSensitivity);
-        setCurrentValue(0.0); // 0 = ожидание, 100 = запись
-    }
-
-    @Override
-    protected void adjustValue() {
-        // Камера работает только в двух состояниях (0 или 100), переключение в updateCurrentValue()
-        // Метод пустой, так как логика переключения в updateCurrentValue()
-    }
+    // Вид устройства (реестр DeviceKinds)
+    static final DeviceKind KIND = new Kind();
 
-    @Override
-    protected double getThreshold() {
-        return targetValue; // Порог чувствительности
+    SecurityCamera(DeviceStore store, int index) {
+        super(store, index);
     }
 
-    @Override
-    protected double getMaxPower() {
-        return getCurrentValue() == 100.0 ? 50.0 : 10.0; // 50 Вт при записи, 10 Вт в ожидании
+    //Провайдер вида для ServiceLoader (provides DeviceKind with SecurityCamera в module-info)
+    public static DeviceKind provider() {
+        return KIND;
     }
 
-    @Override
-    protected void updateCurrentValue() {
+    //Переключает камеру i между записью и ожиданием по флагу движения
+    static void updateCurrentValue(DeviceStore s, int i) {
         // Если устройство выключено, сбрасываем значение в 0
-        if (!isOn) {
-            setCurrentValue(0.0);
+        if (!s.on[i]) {
+            s.currentValue[i] = 0.0;
             return;
         }
         // Если мышь двигается в зоне этой камеры - записываем, если нет - останавливаем запись
-        if (mouseMovingInZone) {
-            setCurrentValue(100.0); // Режим записи
-        } else {
-            setCurrentValue(0.0); // Режим ожидания
-        }
+        s.currentValue[i] = s.motion[i] ? RECORDING : 0.0;
     }
-    
-    @Override
-    public void analyzeAndAdjust() {
-        if (!isOn) {
-            powerConsumption = 0.0;
+
+    //Учитывает энергопотребление включенной камеры i
+    static void analyzeAndAdjust(DeviceStore s, int i) {
+        if (!s.on[i]) {
+            s.powerConsumption[i] = 0.0;
             return;
         }
-        // Учитываем энергопотребление включенной камеры
-        powerConsumption = getMaxPower();
+        s.powerConsumption[i] = maxPower(s.currentValue[i]);
+    }
+
+    //50 Вт при записи, 10 Вт в ожидании
+    static double maxPower(double value) {
+        return value == RECORDING ? 50.0 : 10.0;
     }
-    //Устанавливает флаг движения мыши в зоне этой камеры (вызывается из Controller)
+
+    //Устанавливает флаг движения мыши в зоне этой камеры (в потоке движка; из других потоков -
+    //DeviceCommands.setMotion)
     public void setMouseMovingInZone(boolean moving) {
-        mouseMovingInZone = moving;
+        store.setMotion(index, moving);
+    }
+
+    //Камера включается без диалога
+    private static final class Kind implements DeviceKind {
+        @Override
+        public String name() {
+            return "camera";
+        }
+
+        @Override
+        public String title() {
+            return "Камера";
+        }
+
+        @Override
+        public double initialValue() {
+            return 0.0;
+        }
+
+        @Override
+        public SmartDevice view(DeviceStore store, int i) {
+            return new SecurityCamera(store, i);
+        }
+
+        @Override
+        public void tick(DeviceStore store, int[] devices, int from, int to) {
+            for (int k = from; k < to; k++) {
+                int i = devices[k];
+                SecurityCamera.updateCurrentValue(store, i);
+                SecurityCamera.analyzeAndAdjust(store, i);
+            }
+        }
+
+        @Override
+        public void updateCurrentValue(DeviceStore store, int i) {
+            SecurityCamera.updateCurrentValue(store, i);
+        }
+
+        @Override
+        public void analyzeAndAdjust(DeviceStore store, int i) {
+            SecurityCamera.analyzeAndAdjust(store, i);
+        }
+
+        @Override
+        public String valueFormat() {
+            return "%.0f%%";
+        }
+
+        @Override
+        public DeviceIcon icon() {
+            return new HouseRenderer.CameraIcon();
+        }
     }
-    
 }
@@ -0,0 +1,410 @@
+package org.kp.chirkova;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+//Движок симуляции умного дома: владеет хранилищем устройств, сценариями и часами.
+//Не зависит от JavaFX, поэтому может работать без дисплея и быстрее реального времени.
+//Движок и его хранилище меняет один поток; другие потоки управляют устройствами через getCommands()
+
+public class SimulationEngine {
+    // Шаг времени суток за один тик (0.1 часа)
+    public static final double TIME_STEP_HOURS = 0.1;
+
+    // Период тика в реальном времени при работе с интерфейсом (500мс)
+    public static final long TICK_INTERVAL_NANOS = 500_000_000L;
+
+    // Раскладка стандартного дома в ресурсах (читается один раз)
+    private static final String DEFAULT_LAYOUT = "default.layout";
+    private static byte[] defaultLayout;
+
+    private final DeviceStore store;
+    private final Scenario[] scenarios;
+
+    // Планировщик, выполняющий тик устройств (параллельно для больших домов)
+    private TickScheduler scheduler = new TickScheduler();
+
+    // Дискретно-событийный симулятор для перемотки (создается при первом использовании)
+    private EventSimulator eventSimulator;
+
+    // Шлюз к настоящим устройствам (null - все устройства только моделируются)
+    private DeviceGateway gateway;
+
+    // Прием двоичных кадров показаний и его канал (null - кадры не принимаются)
+    private TelemetryIngest ingest;
+    private ReadableByteChannel ingestChannel;
+
+    // История показаний устройств (null - не записывается)
+    private TelemetryStore telemetry;
+
+    // Метрики тика (null - не собираются)
+    private EngineMetrics metrics;
+
+    // Файл периодических снимков состояния (null - снимки не пишутся) и их период в тиках
+    private SnapshotFile checkpoint;
+    private long checkpointInterval;
+
+    // Представления устройств для интерфейса (создаются при первом обращении)
+    private SmartDevice[] devices;
+
+    // Текущий активный сценарий (null - нет активного сценария)
+    private Scenario activeScenario;
+
+    // Глобальное время суток
+    private double globalTimeOfDay = 0.0;
+
+    // Количество выполненных тиков
+    private long tickCount = 0;
+
+    // Тик, на котором последний раз было движение в зоне камер (-1 - движения не было)
+    private long lastMotionTick = -1;
+
+    // Зоны обнаружения движения камер и таймеры окончания движения
+    private final MotionZones motionZones;
+
+    // Правила автоматизации по времени суток
+    private final AutomationRules automation;
+
+    // Команды устройствам из других потоков (применяются в начале тика)
+    private final DeviceCommands commands = new DeviceCommands();
+
+    public SimulationEngine(DeviceStore store, Scenario[] scenarios) {
+        this.store = store;
+        this.scenarios = scenarios;
+        this.motionZones = new MotionZones(store);
+        this.automation = new AutomationRules(this, store, tickCount);
+        store.ledger.registerScenarios(scenarios);
+    }
+
+    //Создает движок со стандартным набором устройств дома (раскладка default.layout) и известными сценариями
+    public static SimulationEngine createDefaultHouse() {
+        try {
+            return LayoutFile.load(Channels.newChannel(new ByteArrayInputStream(defaultLayout())), DEFAULT_LAYOUT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось загрузить стандартный дом " + DEFAULT_LAYOUT, e);
+        }
+    }
+
+    private static synchronized byte[] defaultLayout() throws IOException {
+        if (defaultLayout == null) {
+            try (InputStream input = SimulationEngine.class.getResourceAsStream(DEFAULT_LAYOUT)) {
+                if (input == null) {
+                    throw new IOException("Нет раскладки в ресурсах: " + DEFAULT_LAYOUT);
+                }
+                defaultLayout = input.readAllBytes();
+            }
+        }
+        return defaultLayout;
+    }
+
+    //Выполняет один шаг симуляции
+    public void tick() {
+        long start = metrics != null ? System.nanoTime() : 0;
+        tickCount++;
+
+        // Обновляем глобальное время суток
+        globalTimeOfDay = nextTimeOfDay(globalTimeOfDay);
+
+        // Команды, отправленные другими потоками с прошлого тика
+        commands.drain(store);
+
+        // Движение с прошлого тика проверяется по зонам один раз; истекшие удержания снимаются
+        if (motionZones.tick(tickCount)) {
+            lastMotionTick = tickCount;
+        }
+
+        // Правила автоматизации, срок которых наступил на этом тике
+        automation.tick(tickCount, globalTimeOfDay);
+
+        // Температуры помещений за прошедший тик (нагрев - мощности термостатов с прошлого тика)
+        store.thermal.step(globalTimeOfDay);
+
+        // Передаем глобальное время в устройства света и обновляем устройства.
+        // Изменения мощности попадают в журнал энергии, остальное учитывается одним advance()
+        store.setTimeOfDay(globalTimeOfDay);
+        scheduler.tick(store, metrics);
+        // Показания настоящих устройств заменяют модельные
+        if (gateway != null) {
+            gateway.applyReadings();
+        }
+        ingestFrames();
+        store.ledger.advance();
+        if (telemetry != null) {
+            telemetry.record(tickCount);
+        }
+        checkpointIfDue(tickCount - 1);
+        if (metrics != null) {
+            metrics.recordTick(tickCount, System.nanoTime() - start, scheduler.getLastProcessed());
+        }
+    }
+
+    //Время суток после одного тика (0.1 часа, после 24 - снова 0)
+    static double nextTimeOfDay(double timeOfDay) {
+        timeOfDay += TIME_STEP_HOURS; // 0.1 часа за обновление
+        if (timeOfDay > 24.0) timeOfDay = 0.0;
+        return timeOfDay;
+    }
+
+    //Выполняет заданное число тиков подряд, без привязки к реальному времени
+    public void runTicks(long ticks) {
+        for (long i = 0; i < ticks; i++) {
+            tick();
+        }
+    }
+
+    //Перематывает симуляцию на ticks тиков в дискретно-событийном режиме (см. EventSimulator).
+    //Конечное состояние совпадает с runTicks(ticks), энергия - с точностью до округления сумм
+    public void fastForward(long ticks) {
+        applyCommands();
+        long endTick = tickCount + ticks;
+        while (tickCount < endTick) {
+            // Движение и его истечение обрабатываем обычными тиками, как и дом с тепловой моделью:
+            // температуры помещений связаны и в замкнутой форме между событиями не считаются
+            if (!motionZones.isIdle() || store.thermal.getZoneCount() > 0) {
+                tick();
+                continue;
+            }
+            // Перематываем до тика ближайшего правила автоматизации, сам этот тик - обычный
+            long due = automation.nextDueTick();
+            long forwardTo = Math.min(endTick, due - 1);
+            if (forwardTo > tickCount) {
+                forwardEvents(forwardTo - tickCount);
+            }
+            if (tickCount < endTick && tickCount == due - 1) {
+                tick();
+            }
+        }
+    }
+
+    private void forwardEvents(long ticks) {
+        if (eventSimulator == null) {
+            eventSimulator = new EventSimulator(store);
+        }
+        long startTick = tickCount;
+        // Энергия до перемотки фиксируется по мощностям, которые перемотка изменит
+        store.ledger.settleAll();
+        globalTimeOfDay = eventSimulator.run(globalTimeOfDay, ticks);
+        tickCount += ticks;
+        store.ledger.fastForwarded(eventSimulator.getDeviceEnergy(), ticks, eventSimulator.getPeakPower());
+        // Промежуточные тики перемотки в истории не сохраняются - там остается пропуск
+        if (telemetry != null) {
+            telemetry.record(tickCount);
+        }
+        checkpointIfDue(startTick);
+    }
+
+    //Применяет кадры показаний, пришедшие в канал приема с прошлого тика; закончившийся канал отключается
+    private void ingestFrames() {
+        if (ingestChannel == null) {
+            return;
+        }
+        try {
+            if (ingest.ingest(ingestChannel) < 0) {
+                ingestChannel = null;
+            }
+        } catch (IOException e) {
+            ingestChannel = null;
+            throw new UncheckedIOException("Не удалось принять показания", e);
+        }
+    }
+
+    //Сохраняет снимок, если с тика previousTick пройдена граница периода снимков
+    private void checkpointIfDue(long previousTick) {
+        if (checkpoint != null && tickCount / checkpointInterval != previousTick / checkpointInterval) {
+            try {
+                checkpoint.save(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось сохранить снимок " + checkpoint.getPath(), e);
+            }
+        }
+    }
+
+    //Сообщает о движении в точке плана: камеры, в зону которых она попала, начнут запись на следующем тике.
+    //Отчеты между тиками объединяются, проверяется только последняя точка
+    public void reportMotion(double x, double y) {
+        motionZones.report(x, y);
+    }
+
+    //Сбрасывает движение во всех зонах (например, курсор покинул план дома)
+    public void clearMotion() {
+        motionZones.clear();
+    }
+
+    //Тепловая модель дома: помещения, стены и привязка термостатов (менять только в потоке движка)
+    public ThermalModel getThermalModel() {
+        return store.thermal;
+    }
+
+    //Очередь команд устройствам: безопасна для вызова из любого потока
+    public DeviceCommands getCommands() {
+        return commands;
+    }
+
+    //Применяет накопленные команды сразу, не дожидаясь тика (только в потоке движка).
+    //Возвращает число примененных команд
+    public int applyCommands() {
+        return commands.drain(store);
+    }
+
+    public MotionZones getMotionZones() {
+        return motionZones;
+    }
+
+    public AutomationRules getAutomation() {
+        return automation;
+    }
+
+    //Активирует сценарий и делает его текущим
+    public void activateScenario(Scenario scenario) {
+        activeScenario = scenario;
+        scenario.activate();
+    }
+
+    //Выключает все устройства и сбрасывает активный сценарий
+    public void reset() {
+        for (int i = 0; i < store.size(); i++) {
+            store.setOn(i, false);
+        }
+        activeScenario = null;
+    }
+
+    //Восстанавливает часы и активный сценарий из снимка
+    void restoreState(double timeOfDay, long ticks, long motionTick, Scenario active) {
+        globalTimeOfDay = timeOfDay;
+        tickCount = ticks;
+        lastMotionTick = motionTick;
+        activeScenario = active;
+        motionZones.restored(motionTick);
+        automation.clockReset(ticks);
+    }
+
+    long getLastMotionTick() {
+        return lastMotionTick;
+    }
+
+    //Заменяет планировщик тика (например, на пул с заданным числом потоков)
+    public void setScheduler(TickScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
+
+    //Включает периодические снимки состояния каждые intervalTicks тиков (null - выключает)
+    public void setCheckpoint(SnapshotFile checkpoint, long intervalTicks) {
+        if (checkpoint != null && intervalTicks <= 0) {
+            throw new IllegalArgumentException("Период снимков должен быть положительным: " + intervalTicks);
+        }
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = intervalTicks;
+    }
+
+    public SnapshotFile getCheckpoint() {
+        return checkpoint;
+    }
+
+    //Включает сбор метрик тика (null - выключает)
+    public void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    //Включает запись истории показаний после каждого тика (null - выключает)
+    public void setTelemetry(TelemetryStore telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public TelemetryStore getTelemetry() {
+        return telemetry;
+    }
+
+    //Принимает двоичные кадры показаний (TelemetryIngest) из канала на каждом тике; канал должен быть
+    //неблокирующим (например, SocketChannel в неблокирующем режиме), чтобы тик не ждал данных. null - отключает
+    public void setTelemetrySource(ReadableByteChannel channel) {
+        if (channel != null && ingest == null) {
+            ingest = new TelemetryIngest(store);
+        }
+        ingestChannel = channel;
+    }
+
+    public TelemetryIngest getIngest() {
+        return ingest;
+    }
+
+    //Подключает шлюз к настоящим устройствам: их показания переносятся в хранилище каждый тик (null - отключает)
+    public void setGateway(DeviceGateway gateway) {
+        this.gateway = gateway;
+    }
+
+    public DeviceGateway getGateway() {
+        return gateway;
+    }
+
+    public DeviceStore getStore() {
+        return store;
+    }
+
+    //Возвращает представления всех устройств (для отрисовки и диалогов)
+    public SmartDevice[] getDevices() {
+        if (devices == null || devices.length != store.size()) {
+            devices = new SmartDevice[store.size()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = store.view(i);
+            }
+        }
+        return devices;
+    }
+
+    public Scenario[] getScenarios() {
+        return scenarios;
+    }
+
+    public Scenario getActiveScenario() {
+        return activeScenario;
+    }
+
+    public void setActiveScenario(Scenario activeScenario) {
+        this.activeScenario = activeScenario;
+    }
+
+    //Переводит часы дома на время суток hours (например, смещение часов домов квартала);
+    //правила автоматизации пересчитывают сроки от нового времени
+    public void setGlobalTimeOfDay(double hours) {
+        if (!(hours >= 0 && hours <= 24)) {
+            throw new IllegalArgumentException("Время суток должно быть от 0 до 24 часов: " + hours);
+        }
+        globalTimeOfDay = hours;
+        automation.clockReset(tickCount);
+    }
+
+    public double getGlobalTimeOfDay() {
+        return globalTimeOfDay;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    //Возвращает накопленную энергию дома (каждое устройство учтено один раз)
+    public double getTotalEnergy() {
+        return store.ledger.getTotalEnergy();
+    }
+
+    //Возвращает текущую мощность дома (Вт), каждое устройство учтено один раз
+    public double getCurrentPower() {
+        return store.ledger.getTotalPower();
+    }
+
+    //Возвращает наибольшую мощность дома после тиков (Вт), в том числе внутри перемотки fastForward
+    public double getPeakPower() {
+        return store.ledger.getPeakPower();
+    }
+}
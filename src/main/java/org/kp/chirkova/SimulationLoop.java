@@ -0,0 +1,203 @@
+package org.kp.chirkova;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+//Движок в собственном потоке: тики идут в темпе speed (1 - реальное время, тик в 500мс; 10 000 - тик
+//в 50мкс) независимо от частоты кадров интерфейса. Наружу состояние уходит только кадрами FramePublisher
+//(не чаще его интервала), а изменения приходят задачами execute() и командами DeviceCommands - поток
+//применяет их между тиками. Если движок не успевает за темпом, отставание не копится больше секунды:
+//симуляция просто идет медленнее заданного (isBehind())
+
+public class SimulationLoop implements AutoCloseable {
+    // Тики идут подряд не дольше этого времени, затем проверяются задачи, команды и кадр
+    private static final long SLICE_NANOS = 2_000_000;
+    // Отставание от темпа больше этого времени не догоняется
+    private static final long MAX_LAG_NANOS = 1_000_000_000;
+
+    private final SimulationEngine engine;
+    private final FramePublisher frames;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    private volatile double speed;
+    private volatile Consumer<RuntimeException> failureHandler;
+    private volatile boolean closed;
+    private volatile boolean behind;
+    private volatile RuntimeException failure;
+
+    //Цикл движка engine с темпом speed, публикующий кадры в frames (поток запускает start())
+    public SimulationLoop(SimulationEngine engine, FramePublisher frames, double speed) {
+        this.engine = engine;
+        this.frames = frames;
+        this.speed = checkSpeed(speed);
+        this.thread = Thread.ofPlatform().name("simulation").daemon().unstarted(this::run);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    //Выполняет задачу в потоке движка перед следующим тиком (например, действие пользователя)
+    public void execute(Runnable task) {
+        tasks.add(task);
+        LockSupport.unpark(thread);
+    }
+
+    //Меняет темп: во сколько раз симуляция быстрее реального времени
+    public void setSpeed(double speed) {
+        this.speed = checkSpeed(speed);
+        LockSupport.unpark(thread);
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    //Задает обработчик исключений тика и задач; он вызывается в потоке движка. Если обработчик
+    //завершился нормально, цикл продолжается, если бросил исключение (или обработчика нет) - цикл
+    //останавливается и исключение доступно в getFailure()
+    public void setFailureHandler(Consumer<RuntimeException> handler) {
+        this.failureHandler = handler;
+    }
+
+    //Исключение, остановившее цикл (null - цикл работает или закрыт обычным образом)
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    //Отстает ли движок от заданного темпа больше, чем на секунду
+    public boolean isBehind() {
+        return behind;
+    }
+
+    //Останавливает цикл и дожидается завершения потока
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        if (thread.isAlive() && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        double pace = speed;
+        long period = period(pace);
+        long start = System.nanoTime();
+        // Тиков выполнено с начала отсчета темпа
+        long done = 0;
+        // Изменилось ли состояние с прошлого кадра
+        boolean dirty = true;
+        while (!closed) {
+            if (runTasks()) {
+                dirty = true;
+            }
+            if (closed) {
+                break;
+            }
+            if (engine.applyCommands() > 0) {
+                dirty = true;
+            }
+            long now = System.nanoTime();
+            if (speed != pace) {
+                pace = speed;
+                period = period(pace);
+                start = now;
+                done = 0;
+            }
+            long due = (now - start) / period;
+            long maxLag = Math.max(1, MAX_LAG_NANOS / period);
+            behind = due - done > maxLag;
+            if (behind) {
+                EngineMetrics metrics = engine.getMetrics();
+                if (metrics != null) {
+                    metrics.recordMissedTicks(due - maxLag - done);
+                }
+                done = due - maxLag;
+            }
+
+            long sliceEnd = now + SLICE_NANOS;
+            while (done < due && !closed) {
+                if (!tick()) {
+                    break;
+                }
+                done++;
+                dirty = true;
+                if (System.nanoTime() - sliceEnd >= 0) {
+                    break;
+                }
+            }
+            if (dirty && frames.publishIfDue(engine)) {
+                dirty = false;
+            }
+            if (done >= due && !closed) {
+                // Ждем следующего тика, но не дольше кадра: задачи, команды и отложенный кадр
+                // проверяются хотя бы с частотой кадров
+                long wait = start + (done + 1) * period - System.nanoTime();
+                LockSupport.parkNanos(this, Math.max(0, Math.min(wait, Math.max(1, frames.getIntervalNanos()))));
+            }
+        }
+        if (failure == null) {
+            // Последнее состояние остается видимым после остановки
+            frames.publish(engine);
+        }
+    }
+
+    //Выполняет накопившиеся задачи; возвращает, были ли задачи
+    private boolean runTasks() {
+        boolean any = false;
+        for (Runnable task; (task = tasks.poll()) != null && !closed; ) {
+            any = true;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+        return any;
+    }
+
+    private boolean tick() {
+        try {
+            engine.tick();
+            return true;
+        } catch (RuntimeException e) {
+            return fail(e);
+        }
+    }
+
+    //Передает исключение обработчику; возвращает, продолжается ли цикл
+    private boolean fail(RuntimeException e) {
+        Consumer<RuntimeException> handler = failureHandler;
+        if (handler != null) {
+            try {
+                handler.accept(e);
+                return true;
+            } catch (RuntimeException fatal) {
+                e = fatal;
+            }
+        }
+        failure = e;
+        closed = true;
+        return false;
+    }
+
+    private static double checkSpeed(double speed) {
+        if (!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Скорость симуляции должна быть положительной: " + speed);
+        }
+        return speed;
+    }
+
+    //Период тика в реальном времени при темпе speed, нс
+    private static long period(double speed) {
+        return Math.max(1, Math.round(SimulationEngine.TICK_INTERVAL_NANOS / speed));
+    }
+}
@@ -0,0 +1,837 @@
+package org.kp.chirkova;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//Снимок полного состояния симуляции в двоичном файле (версионированный формат).
+//Файл отображается в память (MappedByteBuffer) и повторяет колоночное устройство DeviceStore:
+//заголовок на первой странице, дальше каждая колонка с начала своей страницы (4 КБ, little-endian).
+//Восстановление - массовое копирование колонок из отображения, без разбора отдельных полей.
+//Колонка видов хранит номера видов этого процесса, а рядом - таблицу их имен: при восстановлении
+//номера переводятся по именам, так что установка или удаление подключаемых видов их не путает.
+//Сценарии хранятся целиком (имена, участники и скомпилированные действия), поэтому дом из раскладки
+//со своими сценариями восстанавливается таким же, каким был сохранен. Тепловая модель (помещения,
+//стены в порядке добавления, привязки термостатов и наружная температура) хранится своим разделом.
+//Снимок пишется поочередно в два поколения - сам файл и файл с суффиксом ".1", поэтому прерванная
+//запись портит только одно из них, а восстановление берет самое новое завершенное поколение.
+//Повторное сохранение в поколение инкрементальное: переписываются только изменившиеся страницы,
+//на время записи в заголовке стоит признак незавершенного снимка
+
+public class SnapshotFile implements AutoCloseable {
+    static final int MAGIC = 0x43485331; // "CHS1"
+    static final int VERSION = 4;
+    static final int PAGE_SIZE = 4096;
+
+    // Состояние снимка в заголовке
+    private static final int STATE_COMPLETE = 0;
+    private static final int STATE_WRITING = 1;
+
+    // Поля заголовка (смещения в байтах)
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_STATE = 8;
+    private static final int HEADER_SIZE = 12;
+    private static final int HEADER_SEQUENCE = 16;
+    private static final int HEADER_GLOBAL_TIME = 24;
+    private static final int HEADER_TICK_COUNT = 32;
+    private static final int HEADER_MOTION_TICK = 40;
+    private static final int HEADER_STORE_TIME = 48;
+    private static final int HEADER_LEDGER_NOW = 56;
+    private static final int HEADER_ACTIVE_SCENARIO = 64;
+    private static final int HEADER_SCENARIOS = 68;
+    private static final int HEADER_KINDS = 72;
+    private static final int HEADER_SECTIONS = 80;
+
+    // Разделы файла: колонки хранилища и журнала энергии, имена устройств, имена видов, сценарии
+    // и тепловая модель
+    private static final int SECTION_KIND = 0;
+    private static final int SECTION_ON = 1;
+    private static final int SECTION_CURRENT = 2;
+    private static final int SECTION_TARGET = 3;
+    private static final int SECTION_POWER = 4;
+    private static final int SECTION_X = 5;
+    private static final int SECTION_Y = 6;
+    private static final int SECTION_MOTION = 7;
+    private static final int SECTION_ENERGY = 8;
+    private static final int SECTION_SETTLED = 9;
+    private static final int SECTION_NAMES = 10;
+    private static final int SECTION_KIND_NAMES = 11;
+    private static final int SECTION_SCENARIOS = 12;
+    private static final int SECTION_THERMAL = 13;
+    private static final int SECTIONS = 14;
+
+    // Итоги журнала энергии (дом и сценарии) идут в заголовке после таблицы разделов
+    private static final int HEADER_TOTALS = HEADER_SECTIONS + SECTIONS * 2 * Long.BYTES;
+    private static final int TOTAL_FIELDS = 5;
+
+    // Заголовок раздела тепловой модели: число помещений и стен, среднее и размах наружной температуры
+    private static final int THERMAL_HEADER = 2 * Integer.BYTES + 2 * Double.BYTES;
+
+    private final Path path;
+
+    // Поколения снимка (открываются при первом сохранении) и индекс самого нового завершенного (-1 - нет)
+    private Generation[] generations;
+    private int newest = -1;
+
+    // Статистика последнего сохранения
+    private int lastPagesWritten;
+    private int totalPages;
+    private long sequence;
+
+    //Поколение снимка: открытый файл, его отображение и раскладка разделов
+    private static final class Generation {
+        final Path path;
+        FileChannel channel;
+        MappedByteBuffer map;
+        final long[] sectionOffset = new long[SECTIONS];
+        final long[] sectionLength = new long[SECTIONS];
+        DoubleBuffer[] doubleViews;
+        LongBuffer settledView;
+
+        // Раскладка текущего отображения: число устройств и сценарии
+        int mappedSize = -1;
+        Scenario[] mappedScenarios;
+
+        Generation(Path path) {
+            this.path = path;
+        }
+
+        ByteBuffer section(int section) {
+            return map.slice((int) sectionOffset[section], (int) sectionLength[section]).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public SnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    //Проверяет, есть ли на диске хотя бы одно поколение снимка
+    public static boolean exists(Path path) {
+        return Files.exists(path) || Files.exists(secondGeneration(path));
+    }
+
+    private static Path secondGeneration(Path path) {
+        return path.resolveSibling(path.getFileName() + ".1");
+    }
+
+    //Сохраняет состояние движка. Если раскладка файла не изменилась (то же число устройств,
+    //те же сценарии и тот же размер тепловой модели), переписываются только страницы с изменившимися данными
+    public void save(SimulationEngine engine) throws IOException {
+        if (generations == null) {
+            // Номера снимков продолжают те, что уже лежат на диске; первым переписывается старшее поколение
+            generations = new Generation[] {new Generation(path), new Generation(secondGeneration(path))};
+            long first = readSequence(generations[0].path);
+            long second = readSequence(generations[1].path);
+            sequence = Math.max(0, Math.max(first, second));
+            newest = first < 0 && second < 0 ? -1 : first >= second ? 0 : 1;
+        }
+        int target = newest == 0 ? 1 : 0;
+        Generation generation = generations[target];
+        DeviceStore store = engine.getStore();
+        Scenario[] scenarios = engine.getScenarios();
+        byte[] thermal = encodeThermal(store.thermal, store.size());
+        if (generation.map == null || generation.mappedSize != store.size()
+                || generation.mappedScenarios != scenarios || generation.sectionLength[SECTION_THERMAL] != thermal.length) {
+            saveFull(generation, engine, thermal);
+        } else {
+            saveChanges(generation, engine, thermal);
+        }
+        newest = target;
+    }
+
+    private void saveFull(Generation generation, SimulationEngine engine, byte[] thermal) throws IOException {
+        DeviceStore store = engine.getStore();
+        EnergyLedger ledger = store.ledger;
+        int n = store.size();
+        Scenario[] scenarios = engine.getScenarios();
+        byte[] names = encodeNames(store.names, n);
+        String[] kindNames = new String[DeviceKinds.count()];
+        for (int k = 0; k < kindNames.length; k++) {
+            kindNames[k] = DeviceKinds.get(k).name();
+        }
+        byte[] kinds = encodeNames(kindNames, kindNames.length);
+        byte[] scenarioBytes = encodeScenarios(scenarios);
+
+        // Раскладка: заголовок, затем разделы с начала страниц
+        long offset = pageAlign(HEADER_TOTALS + (long) (scenarios.length + 1) * TOTAL_FIELDS * Double.BYTES);
+        long[] lengths = sectionLengths(n, kindNames.length);
+        lengths[SECTION_NAMES] = names.length;
+        lengths[SECTION_KIND_NAMES] = kinds.length;
+        lengths[SECTION_SCENARIOS] = scenarioBytes.length;
+        lengths[SECTION_THERMAL] = thermal.length;
+        long[] sectionOffset = generation.sectionOffset;
+        long[] sectionLength = generation.sectionLength;
+        for (int section = 0; section < SECTIONS; section++) {
+            sectionOffset[section] = offset;
+            sectionLength[section] = lengths[section];
+            offset = pageAlign(offset + lengths[section]);
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Снимок слишком большой для отображения в память: " + offset + " байт");
+        }
+
+        if (generation.channel == null) {
+            generation.channel = FileChannel.open(generation.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        }
+        FileChannel channel = generation.channel;
+        // Признак незавершенной записи попадает на диск раньше, чем файл меняет размер
+        if (channel.size() >= HEADER_STATE + Integer.BYTES) {
+            ByteBuffer state = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0, STATE_WRITING);
+            channel.write(state, HEADER_STATE);
+            channel.force(false);
+        }
+        channel.truncate(offset);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        generation.map = map;
+        generation.mappedSize = n;
+        generation.mappedScenarios = scenarios;
+        totalPages = (int) (offset / PAGE_SIZE);
+
+        map.putInt(HEADER_STATE, STATE_WRITING);
+        for (int section = 0; section < SECTIONS; section++) {
+            map.putLong(HEADER_SECTIONS + section * 2 * Long.BYTES, sectionOffset[section]);
+            map.putLong(HEADER_SECTIONS + section * 2 * Long.BYTES + Long.BYTES, sectionLength[section]);
+        }
+        DoubleBuffer[] doubleViews = new DoubleBuffer[SECTIONS];
+        for (int section : new int[] {SECTION_CURRENT, SECTION_TARGET, SECTION_POWER, SECTION_X, SECTION_Y,
+                SECTION_ENERGY}) {
+            doubleViews[section] = generation.section(section).asDoubleBuffer();
+        }
+        generation.doubleViews = doubleViews;
+        generation.settledView = generation.section(SECTION_SETTLED).asLongBuffer();
+
+        generation.section(SECTION_KIND).put(0, store.kind, 0, n);
+        putFlags(generation.section(SECTION_ON), store.on, n);
+        putFlags(generation.section(SECTION_MOTION), store.motion, n);
+        doubleViews[SECTION_CURRENT].put(0, store.currentValue, 0, n);
+        doubleViews[SECTION_TARGET].put(0, store.targetValue, 0, n);
+        doubleViews[SECTION_POWER].put(0, store.powerConsumption, 0, n);
+        doubleViews[SECTION_X].put(0, store.x, 0, n);
+        doubleViews[SECTION_Y].put(0, store.y, 0, n);
+        doubleViews[SECTION_ENERGY].put(0, ledger.deviceEnergy, 0, n);
+        generation.settledView.put(0, ledger.settledThrough, 0, n);
+        generation.section(SECTION_NAMES).put(0, names);
+        generation.section(SECTION_KIND_NAMES).put(0, kinds);
+        generation.section(SECTION_SCENARIOS).put(0, scenarioBytes);
+        generation.section(SECTION_THERMAL).put(0, thermal);
+
+        writeHeader(map, engine);
+        lastPagesWritten = totalPages;
+    }
+
+    //Переписывает страницы поколения, отличающиеся от состояния движка. Поколение хранит снимок
+    //позапрошлого сохранения, поэтому сравнение идет с файлом, а не с прошлым состоянием движка
+    private void saveChanges(Generation generation, SimulationEngine engine, byte[] thermal) throws IOException {
+        DeviceStore store = engine.getStore();
+        EnergyLedger ledger = store.ledger;
+        int n = store.size();
+        MappedByteBuffer map = generation.map;
+        DoubleBuffer[] doubleViews = generation.doubleViews;
+
+        // Признак незавершенной записи попадает на диск раньше страниц данных
+        map.putInt(HEADER_STATE, STATE_WRITING);
+        map.force(0, PAGE_SIZE);
+
+        int pages = 1; // Заголовок переписывается всегда
+        pages += syncBytes(generation.section(SECTION_KIND), store.kind, n);
+        pages += syncFlags(generation.section(SECTION_ON), store.on, n);
+        pages += syncFlags(generation.section(SECTION_MOTION), store.motion, n);
+        pages += syncDoubles(doubleViews[SECTION_CURRENT], store.currentValue, n);
+        pages += syncDoubles(doubleViews[SECTION_TARGET], store.targetValue, n);
+        pages += syncDoubles(doubleViews[SECTION_POWER], store.powerConsumption, n);
+        pages += syncDoubles(doubleViews[SECTION_X], store.x, n);
+        pages += syncDoubles(doubleViews[SECTION_Y], store.y, n);
+        pages += syncDoubles(doubleViews[SECTION_ENERGY], ledger.deviceEnergy, n);
+        pages += syncLongs(generation.settledView, ledger.settledThrough, n);
+        pages += syncBytes(generation.section(SECTION_THERMAL), thermal, thermal.length);
+        // Имена задаются только при добавлении устройства, а оно меняет раскладку; виды процесса
+        // и сценарии движка не меняются
+
+        writeHeader(map, engine);
+        lastPagesWritten = pages;
+        totalPages = map.capacity() / PAGE_SIZE;
+    }
+
+    //Длины разделов для n устройств и kinds видов (для имен и сценариев - наименьшие)
+    private static long[] sectionLengths(int n, int kinds) {
+        long[] lengths = new long[SECTIONS];
+        lengths[SECTION_KIND] = n;
+        lengths[SECTION_ON] = n;
+        lengths[SECTION_CURRENT] = (long) n * Double.BYTES;
+        lengths[SECTION_TARGET] = (long) n * Double.BYTES;
+        lengths[SECTION_POWER] = (long) n * Double.BYTES;
+        lengths[SECTION_X] = (long) n * Double.BYTES;
+        lengths[SECTION_Y] = (long) n * Double.BYTES;
+        lengths[SECTION_MOTION] = n;
+        lengths[SECTION_ENERGY] = (long) n * Double.BYTES;
+        lengths[SECTION_SETTLED] = (long) n * Long.BYTES;
+        lengths[SECTION_NAMES] = (long) n * Integer.BYTES;
+        lengths[SECTION_KIND_NAMES] = (long) kinds * Integer.BYTES;
+        lengths[SECTION_SCENARIOS] = 0;
+        lengths[SECTION_THERMAL] = THERMAL_HEADER + (long) n * Integer.BYTES;
+        return lengths;
+    }
+
+    //Записывает скаляры и итоги в заголовок, отмечает снимок завершенным и сбрасывает страницы на диск
+    private void writeHeader(MappedByteBuffer map, SimulationEngine engine) {
+        DeviceStore store = engine.getStore();
+        EnergyLedger ledger = store.ledger;
+        Scenario[] scenarios = engine.getScenarios();
+        int active = -1;
+        for (int s = 0; s < scenarios.length; s++) {
+            if (scenarios[s] == engine.getActiveScenario()) {
+                active = s;
+            }
+        }
+        map.putInt(HEADER_MAGIC, MAGIC);
+        map.putInt(HEADER_VERSION, VERSION);
+        map.putInt(HEADER_SIZE, store.size());
+        map.putLong(HEADER_SEQUENCE, ++sequence);
+        map.putDouble(HEADER_GLOBAL_TIME, engine.getGlobalTimeOfDay());
+        map.putLong(HEADER_TICK_COUNT, engine.getTickCount());
+        map.putLong(HEADER_MOTION_TICK, engine.getLastMotionTick());
+        map.putDouble(HEADER_STORE_TIME, store.timeOfDay);
+        map.putLong(HEADER_LEDGER_NOW, ledger.now);
+        map.putInt(HEADER_ACTIVE_SCENARIO, active);
+        map.putInt(HEADER_SCENARIOS, scenarios.length);
+        map.putInt(HEADER_KINDS, DeviceKinds.count());
+        int position = HEADER_TOTALS;
+        for (int t = 0; t <= scenarios.length; t++) {
+            map.putDouble(position, ledger.power[t]);
+            map.putDouble(position + 8, ledger.powerCompensation[t]);
+            map.putDouble(position + 16, ledger.energy[t]);
+            map.putDouble(position + 24, ledger.energyCompensation[t]);
+            map.putLong(position + 32, ledger.totalSettledThrough[t]);
+            position += TOTAL_FIELDS * Double.BYTES;
+        }
+        map.force();
+        map.putInt(HEADER_STATE, STATE_COMPLETE);
+        map.force(0, PAGE_SIZE);
+    }
+
+    //Восстанавливает движок из самого нового завершенного поколения снимка, а если оно повреждено -
+    //из другого. Сценарии восстанавливаются из снимка вместе с их накопленной энергией
+    public static SimulationEngine restore(Path path) throws IOException {
+        Path second = secondGeneration(path);
+        boolean secondNewer = readSequence(second) > readSequence(path);
+        Path newer = secondNewer ? second : path;
+        Path older = secondNewer ? path : second;
+        try {
+            return restoreGeneration(newer);
+        } catch (IOException e) {
+            if (!Files.exists(older)) {
+                throw e;
+            }
+            try {
+                return restoreGeneration(older);
+            } catch (IOException other) {
+                e.addSuppressed(other);
+                throw e;
+            }
+        }
+    }
+
+    //Возвращает номер завершенного снимка в файле (-1 - файла нет или снимок не завершен)
+    private static long readSequence(Path path) {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() < PAGE_SIZE) {
+                return -1;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SEQUENCE + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            file.read(header, 0);
+            if (header.hasRemaining() || header.getInt(HEADER_MAGIC) != MAGIC
+                    || header.getInt(HEADER_VERSION) != VERSION || header.getInt(HEADER_STATE) != STATE_COMPLETE) {
+                return -1;
+            }
+            return header.getLong(HEADER_SEQUENCE);
+        } catch (IOException e) {
+            // Отсутствующее или нечитаемое поколение не выбирается первым; ошибку покажет восстановление
+            return -1;
+        }
+    }
+
+    private static SimulationEngine restoreGeneration(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = file.size();
+            if (fileSize < PAGE_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Файл не является снимком: " + path);
+            }
+            ByteBuffer map = file.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(HEADER_MAGIC) != MAGIC) {
+                throw new IOException("Файл не является снимком: " + path);
+            }
+            if (map.getInt(HEADER_VERSION) != VERSION) {
+                throw new IOException("Неподдерживаемая версия снимка: " + map.getInt(HEADER_VERSION));
+            }
+            if (map.getInt(HEADER_STATE) != STATE_COMPLETE) {
+                throw new IOException("Снимок записан не полностью: " + path);
+            }
+
+            // Число устройств сверяется с длинами разделов: поврежденный заголовок не должен
+            // приводить к чтению за пределами раздела
+            int n = map.getInt(HEADER_SIZE);
+            int scenarioCount = map.getInt(HEADER_SCENARIOS);
+            int kindCount = map.getInt(HEADER_KINDS);
+            if (n < 0 || scenarioCount < 0 || kindCount < 0 || kindCount > Byte.MAX_VALUE
+                    || HEADER_TOTALS + (long) (scenarioCount + 1) * TOTAL_FIELDS * Double.BYTES > fileSize) {
+                throw new IOException("Файл снимка поврежден: " + path);
+            }
+            long[] expected = sectionLengths(n, kindCount);
+            ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+            for (int section = 0; section < SECTIONS; section++) {
+                long offset = map.getLong(HEADER_SECTIONS + section * 2 * Long.BYTES);
+                long length = map.getLong(HEADER_SECTIONS + section * 2 * Long.BYTES + Long.BYTES);
+                boolean lengthValid = section == SECTION_NAMES || section == SECTION_KIND_NAMES
+                    || section == SECTION_SCENARIOS || section == SECTION_THERMAL
+                    ? length >= expected[section] : length == expected[section];
+                if (offset < 0 || length < 0 || offset + length > fileSize || !lengthValid) {
+                    throw new IOException("Файл снимка поврежден: " + path);
+                }
+                sections[section] = map.slice((int) offset, (int) length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            // Номера видов в файле переводятся по именам в номера этого процесса
+            String[] kindNames = new String[kindCount];
+            if (!decodeNames(sections[SECTION_KIND_NAMES], kindNames, kindCount)) {
+                throw new IOException("Файл снимка поврежден: " + path);
+            }
+            byte[] kindIds = new byte[kindCount];
+            for (int k = 0; k < kindCount; k++) {
+                kindIds[k] = kindNames[k] == null ? -1 : DeviceKinds.idOf(kindNames[k]);
+            }
+
+            DeviceStore store = new DeviceStore(n);
+            sections[SECTION_KIND].get(0, store.kind, 0, n);
+            for (int i = 0; i < n; i++) {
+                int kind = store.kind[i];
+                if (kind < 0 || kind >= kindCount) {
+                    throw new IOException("Файл снимка поврежден: " + path + " (вид " + kind + ")");
+                }
+                if (kindIds[kind] < 0) {
+                    throw new IOException("Снимок содержит неизвестный вид устройства " + kindNames[kind]
+                        + ": " + path);
+                }
+                store.kind[i] = kindIds[kind];
+            }
+            getFlags(sections[SECTION_ON], store.on, n);
+            getFlags(sections[SECTION_MOTION], store.motion, n);
+            sections[SECTION_CURRENT].asDoubleBuffer().get(0, store.currentValue, 0, n);
+            sections[SECTION_TARGET].asDoubleBuffer().get(0, store.targetValue, 0, n);
+            sections[SECTION_POWER].asDoubleBuffer().get(0, store.powerConsumption, 0, n);
+            sections[SECTION_X].asDoubleBuffer().get(0, store.x, 0, n);
+            sections[SECTION_Y].asDoubleBuffer().get(0, store.y, 0, n);
+            if (!decodeNames(sections[SECTION_NAMES], store.names, n)) {
+                throw new IOException("Файл снимка поврежден: " + path);
+            }
+            store.timeOfDay = map.getDouble(HEADER_STORE_TIME);
+            store.restored(n);
+            if (!decodeThermal(sections[SECTION_THERMAL], store)) {
+                throw new IOException("Файл снимка поврежден: " + path + " (тепловая модель)");
+            }
+
+            Scenario[] scenarios = decodeScenarios(sections[SECTION_SCENARIOS], scenarioCount, store);
+            if (scenarios == null) {
+                throw new IOException("Файл снимка поврежден: " + path + " (сценарии)");
+            }
+            SimulationEngine engine = new SimulationEngine(store, scenarios);
+
+            // Журнал энергии: колонки устройств и итоги дома и сценариев
+            EnergyLedger ledger = store.ledger;
+            sections[SECTION_ENERGY].asDoubleBuffer().get(0, ledger.deviceEnergy, 0, n);
+            sections[SECTION_SETTLED].asLongBuffer().get(0, ledger.settledThrough, 0, n);
+            ledger.now = map.getLong(HEADER_LEDGER_NOW);
+            int position = HEADER_TOTALS;
+            for (int t = 0; t <= scenarios.length; t++) {
+                ledger.power[t] = map.getDouble(position);
+                ledger.powerCompensation[t] = map.getDouble(position + 8);
+                ledger.energy[t] = map.getDouble(position + 16);
+                ledger.energyCompensation[t] = map.getDouble(position + 24);
+                ledger.totalSettledThrough[t] = map.getLong(position + 32);
+                position += TOTAL_FIELDS * Double.BYTES;
+            }
+
+            int active = map.getInt(HEADER_ACTIVE_SCENARIO);
+            if (active < -1 || active >= scenarios.length) {
+                throw new IOException("Файл снимка поврежден: " + path);
+            }
+            engine.restoreState(map.getDouble(HEADER_GLOBAL_TIME), map.getLong(HEADER_TICK_COUNT),
+                map.getLong(HEADER_MOTION_TICK), active >= 0 ? scenarios[active] : null);
+            return engine;
+        }
+    }
+
+    //Возвращает число страниц, переписанных последним сохранением
+    public int getLastPagesWritten() {
+        return lastPagesWritten;
+    }
+
+    //Возвращает число страниц в файле снимка
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (generations == null) {
+            return;
+        }
+        IOException failure = null;
+        for (Generation generation : generations) {
+            generation.map = null;
+            generation.mappedSize = -1;
+            generation.mappedScenarios = null;
+            if (generation.channel != null) {
+                try {
+                    generation.channel.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+                generation.channel = null;
+            }
+        }
+        generations = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static long pageAlign(long offset) {
+        return (offset + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    // Сравнение колонок с файлом по страницам: страница переписывается целиком при первом отличии
+
+    private static int syncDoubles(DoubleBuffer file, double[] column, int n) {
+        int perPage = PAGE_SIZE / Double.BYTES;
+        int pages = 0;
+        for (int from = 0; from < n; from += perPage) {
+            int to = Math.min(n, from + perPage);
+            for (int i = from; i < to; i++) {
+                if (Double.doubleToRawLongBits(file.get(i)) != Double.doubleToRawLongBits(column[i])) {
+                    file.put(from, column, from, to - from);
+                    pages++;
+                    break;
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static int syncLongs(LongBuffer file, long[] column, int n) {
+        int perPage = PAGE_SIZE / Long.BYTES;
+        int pages = 0;
+        for (int from = 0; from < n; from += perPage) {
+            int to = Math.min(n, from + perPage);
+            for (int i = from; i < to; i++) {
+                if (file.get(i) != column[i]) {
+                    file.put(from, column, from, to - from);
+                    pages++;
+                    break;
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static int syncBytes(ByteBuffer file, byte[] column, int n) {
+        int pages = 0;
+        for (int from = 0; from < n; from += PAGE_SIZE) {
+            int to = Math.min(n, from + PAGE_SIZE);
+            for (int i = from; i < to; i++) {
+                if (file.get(i) != column[i]) {
+                    file.put(from, column, from, to - from);
+                    pages++;
+                    break;
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static int syncFlags(ByteBuffer file, boolean[] column, int n) {
+        int pages = 0;
+        for (int from = 0; from < n; from += PAGE_SIZE) {
+            int to = Math.min(n, from + PAGE_SIZE);
+            for (int i = from; i < to; i++) {
+                if ((file.get(i) != 0) != column[i]) {
+                    for (int j = from; j < to; j++) {
+                        file.put(j, column[j] ? (byte) 1 : (byte) 0);
+                    }
+                    pages++;
+                    break;
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static void putFlags(ByteBuffer file, boolean[] column, int n) {
+        for (int i = 0; i < n; i++) {
+            file.put(i, column[i] ? (byte) 1 : (byte) 0);
+        }
+    }
+
+    private static void getFlags(ByteBuffer file, boolean[] column, int n) {
+        for (int i = 0; i < n; i++) {
+            column[i] = file.get(i) != 0;
+        }
+    }
+
+    //Имена: длина в байтах UTF-8 для каждого устройства (-1 - имя не задано), затем байты имен подряд
+    private static byte[] encodeNames(String[] names, int n) {
+        byte[][] encoded = new byte[n][];
+        int length = n * Integer.BYTES;
+        for (int i = 0; i < n; i++) {
+            if (names[i] != null) {
+                encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+                length += encoded[i].length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < n; i++) {
+            buffer.putInt(encoded[i] == null ? -1 : encoded[i].length);
+        }
+        for (int i = 0; i < n; i++) {
+            if (encoded[i] != null) {
+                buffer.put(encoded[i]);
+            }
+        }
+        return buffer.array();
+    }
+
+    //Возвращает false, если длины имен выходят за раздел
+    private static boolean decodeNames(ByteBuffer section, String[] names, int n) {
+        int position = n * Integer.BYTES;
+        for (int i = 0; i < n; i++) {
+            int length = section.getInt(i * Integer.BYTES);
+            if (length > section.limit() - position) {
+                return false;
+            }
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                section.get(position, bytes);
+                names[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += length;
+            }
+        }
+        return true;
+    }
+
+    //Сценарии: для каждого имя (длина UTF-8 и байты, -1 - имя не задано), участники, кого включить, кого выключить,
+    //число групп целей и для каждой группы устройства и значение. Списки - длина и индексы
+    private static byte[] encodeScenarios(Scenario[] scenarios) {
+        byte[][] names = new byte[scenarios.length][];
+        long length = 0;
+        for (int s = 0; s < scenarios.length; s++) {
+            Scenario scenario = scenarios[s];
+            names[s] = scenario.getName() == null ? new byte[0] : scenario.getName().getBytes(StandardCharsets.UTF_8);
+            length += Integer.BYTES + names[s].length;
+            length += Integer.BYTES * (3L + scenario.getMembers().length + scenario.switchOn.length
+                + scenario.switchOff.length);
+            length += Integer.BYTES;
+            for (int[] group : scenario.targetGroups) {
+                length += Integer.BYTES * (1L + group.length) + Double.BYTES;
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Сценарии слишком велики для снимка: " + length + " байт");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int s = 0; s < scenarios.length; s++) {
+            Scenario scenario = scenarios[s];
+            buffer.putInt(scenario.getName() == null ? -1 : names[s].length).put(names[s]);
+            putIndices(buffer, scenario.getMembers());
+            putIndices(buffer, scenario.switchOn);
+            putIndices(buffer, scenario.switchOff);
+            buffer.putInt(scenario.targetGroups.length);
+            for (int g = 0; g < scenario.targetGroups.length; g++) {
+                putIndices(buffer, scenario.targetGroups[g]);
+                buffer.putDouble(scenario.targetValues[g]);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void putIndices(ByteBuffer buffer, int[] indices) {
+        buffer.putInt(indices.length);
+        for (int i : indices) {
+            buffer.putInt(i);
+        }
+    }
+
+    //Возвращает null, если раздел поврежден (длины за пределами раздела, индексы вне хранилища)
+    private static Scenario[] decodeScenarios(ByteBuffer section, int count, DeviceStore store) {
+        ByteBuffer buffer = section.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int n = store.size();
+        Scenario[] scenarios = new Scenario[count];
+        try {
+            for (int s = 0; s < count; s++) {
+                int nameLength = buffer.getInt();
+                if (nameLength < -1 || nameLength > buffer.remaining()) {
+                    return null;
+                }
+                String name = null;
+                if (nameLength >= 0) {
+                    byte[] bytes = new byte[nameLength];
+                    buffer.get(bytes);
+                    name = new String(bytes, StandardCharsets.UTF_8);
+                }
+                int[] members = getIndices(buffer, n);
+                int[] switchOn = getIndices(buffer, n);
+                int[] switchOff = getIndices(buffer, n);
+                int groups = buffer.getInt();
+                if (members == null || switchOn == null || switchOff == null
+                        || groups < 0 || groups > buffer.remaining() / (Integer.BYTES + Double.BYTES)) {
+                    return null;
+                }
+                int[][] targetGroups = new int[groups][];
+                double[] targetValues = new double[groups];
+                for (int g = 0; g < groups; g++) {
+                    targetGroups[g] = getIndices(buffer, n);
+                    if (targetGroups[g] == null) {
+                        return null;
+                    }
+                    targetValues[g] = buffer.getDouble();
+                }
+                scenarios[s] = new Scenario(name, store, members, switchOn, switchOff, targetGroups, targetValues);
+            }
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+        return scenarios;
+    }
+
+    private static int[] getIndices(ByteBuffer buffer, int n) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / Integer.BYTES) {
+            return null;
+        }
+        int[] indices = new int[length];
+        for (int k = 0; k < length; k++) {
+            indices[k] = buffer.getInt();
+            if (indices[k] < 0 || indices[k] >= n) {
+                return null;
+            }
+        }
+        return indices;
+    }
+
+    //Тепловая модель: заголовок (THERMAL_HEADER), помещение каждого из n устройств, колонки помещений
+    //(температура, температура тиком раньше, теплоемкость, проводимость наружу) и стены в порядке
+    //добавления (помещения и проводимость). Сборка CSR из стен при восстановлении дает те же строки
+    private static byte[] encodeThermal(ThermalModel thermal, int n) {
+        int zones = thermal.zoneCount;
+        int walls = thermal.wallCount;
+        long length = THERMAL_HEADER + (long) n * Integer.BYTES + (long) zones * 4 * Double.BYTES
+            + (long) walls * (2 * Integer.BYTES + Double.BYTES);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Тепловая модель слишком велика для снимка: " + length + " байт");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(zones).putInt(walls).putDouble(thermal.outdoorMean).putDouble(thermal.outdoorAmplitude);
+        for (int i = 0; i < n; i++) {
+            buffer.putInt(thermal.zoneOf(i));
+        }
+        for (double[] column : new double[][] {thermal.temperature, thermal.previous, thermal.capacity,
+                thermal.outdoorConductance}) {
+            buffer.asDoubleBuffer().put(column, 0, zones);
+            buffer.position(buffer.position() + zones * Double.BYTES);
+        }
+        for (int w = 0; w < walls; w++) {
+            buffer.putInt(thermal.wallFrom[w]);
+        }
+        for (int w = 0; w < walls; w++) {
+            buffer.putInt(thermal.wallTo[w]);
+        }
+        buffer.asDoubleBuffer().put(thermal.wallConductance, 0, walls);
+        return buffer.array();
+    }
+
+    //Восстанавливает тепловую модель хранилища (виды устройств уже восстановлены).
+    //Возвращает false, если раздел поврежден
+    private static boolean decodeThermal(ByteBuffer section, DeviceStore store) {
+        ByteBuffer buffer = section.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int n = store.size();
+        int zones = buffer.getInt();
+        int walls = buffer.getInt();
+        double mean = buffer.getDouble();
+        double amplitude = buffer.getDouble();
+        if (zones < 0 || walls < 0 || !Double.isFinite(mean) || !(amplitude >= 0) || Double.isInfinite(amplitude)
+                || buffer.limit() != THERMAL_HEADER + (long) n * Integer.BYTES + (long) zones * 4 * Double.BYTES
+                    + (long) walls * (2 * Integer.BYTES + Double.BYTES)) {
+            return false;
+        }
+        int[] deviceZone = new int[n];
+        for (int i = 0; i < n; i++) {
+            deviceZone[i] = buffer.getInt();
+            if (deviceZone[i] != ThermalModel.NONE
+                    && (deviceZone[i] < 0 || deviceZone[i] >= zones || store.kind[i] != DeviceStore.KIND_THERMOSTAT)) {
+                return false;
+            }
+        }
+        // Колонки помещений не короче 4, как у новой модели: addZone удваивает длину
+        int capacity = Math.max(4, zones);
+        double[][] columns = new double[4][capacity];
+        for (double[] column : columns) {
+            buffer.asDoubleBuffer().get(column, 0, zones);
+            buffer.position(buffer.position() + zones * Double.BYTES);
+            for (int z = 0; z < zones; z++) {
+                if (!Double.isFinite(column[z])) {
+                    return false;
+                }
+            }
+        }
+        for (int z = 0; z < zones; z++) {
+            if (!(columns[2][z] > 0) || columns[3][z] < 0) {
+                return false;
+            }
+        }
+        int wallCapacity = Math.max(4, walls);
+        int[] wallFrom = new int[wallCapacity];
+        int[] wallTo = new int[wallCapacity];
+        double[] wallConductance = new double[wallCapacity];
+        buffer.asIntBuffer().get(wallFrom, 0, walls);
+        buffer.position(buffer.position() + walls * Integer.BYTES);
+        buffer.asIntBuffer().get(wallTo, 0, walls);
+        buffer.position(buffer.position() + walls * Integer.BYTES);
+        buffer.asDoubleBuffer().get(wallConductance, 0, walls);
+        for (int w = 0; w < walls; w++) {
+            if (wallFrom[w] < 0 || wallFrom[w] >= zones || wallTo[w] < 0 || wallTo[w] >= zones
+                    || wallFrom[w] == wallTo[w] || !(wallConductance[w] >= 0) || Double.isInfinite(wallConductance[w])) {
+                return false;
+            }
+        }
+
+        ThermalModel thermal = store.thermal;
+        thermal.zoneCount = zones;
+        thermal.temperature = columns[0];
+        thermal.previous = columns[1];
+        thermal.capacity = columns[2];
+        thermal.outdoorConductance = columns[3];
+        thermal.wallCount = walls;
+        thermal.wallFrom = wallFrom;
+        thermal.wallTo = wallTo;
+        thermal.wallConductance = wallConductance;
+        thermal.deviceZone = deviceZone;
+        thermal.outdoorMean = mean;
+        thermal.outdoorAmplitude = amplitude;
+        return true;
+    }
+}
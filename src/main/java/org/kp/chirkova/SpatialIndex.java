@@ -0,0 +1,234 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Пространственный индекс устройств: равномерная сетка ячеек CELL_SIZE x CELL_SIZE по координатам плана.
+//Занятые ячейки хранятся в хеш-таблице с открытой адресацией (план не ограничен по размеру),
+//устройства ячейки - в двусвязном списке на массивах, поэтому добавление и перенос устройства - O(1).
+//Поиск у точки просматривает несколько соседних ячеек, а не все устройства
+
+public class SpatialIndex {
+    // Сторона ячейки: порядка размера устройства на плане, так что поиск у точки смотрит 1-4 ячейки
+    public static final double CELL_SIZE = 150;
+
+    // Координаты ячеек ограничены, чтобы ключ не совпадал с EMPTY при любых координатах устройств
+    private static final int MAX_CELL = 1 << 30;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int NONE = -1;
+
+    private final DeviceStore store;
+
+    // Ключ ячейки устройства и соседи в списке его ячейки
+    private long[] cellOf;
+    private int[] next;
+    private int[] prev;
+
+    // Хеш-таблица ячеек: ключ -> первое устройство (NONE - ячейка опустела, ключ остается)
+    private long[] keys;
+    private int[] heads;
+    private int cellCount;
+
+    SpatialIndex(DeviceStore store, int capacity) {
+        this.store = store;
+        cellOf = new long[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        keys = new long[16];
+        heads = new int[16];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    void grow(int capacity) {
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    //Добавляет устройство i в ячейку по его текущим координатам
+    void deviceAdded(int i) {
+        insert(i, key(cell(store.x[i]), cell(store.y[i])));
+    }
+
+    //Переносит устройство i в ячейку по новым координатам (если она изменилась)
+    void deviceMoved(int i) {
+        long key = key(cell(store.x[i]), cell(store.y[i]));
+        if (key != cellOf[i]) {
+            remove(i);
+            insert(i, key);
+        }
+    }
+
+    //Строит индекс заново для count устройств (после загрузки колонок из снимка)
+    void rebuild(int count) {
+        Arrays.fill(keys, EMPTY);
+        cellCount = 0;
+        for (int i = 0; i < count; i++) {
+            deviceAdded(i);
+        }
+    }
+
+    //Возвращает ближайшее к точке устройство на расстоянии меньше radius, иначе -1.
+    //При равных расстояниях - устройство с меньшим индексом (как при обходе по порядку)
+    public int nearest(double px, double py, double radius) {
+        int found = NONE;
+        double best = radius * radius;
+        int left = cell(px - radius);
+        int right = cell(px + radius);
+        int top = cell(py - radius);
+        int bottom = cell(py + radius);
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                int slot = find(key(cx, cy));
+                if (slot < 0) {
+                    continue;
+                }
+                for (int i = heads[slot]; i != NONE; i = next[i]) {
+                    double dx = px - store.x[i];
+                    double dy = py - store.y[i];
+                    double distance = dx * dx + dy * dy;
+                    if (distance < best || (distance == best && found != NONE && i < found)) {
+                        best = distance;
+                        found = i;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    //Записывает в out индексы устройств, координаты которых лежат в прямоугольнике (границы включены),
+    //и возвращает их количество. Порядок индексов не определен; out должен вмещать size() устройств
+    public int collect(double left, double top, double right, double bottom, int[] out) {
+        int cellLeft = cell(left);
+        int cellRight = cell(right);
+        int cellTop = cell(top);
+        int cellBottom = cell(bottom);
+        int count = 0;
+        long rangeCells = ((long) cellRight - cellLeft + 1) * ((long) cellBottom - cellTop + 1);
+        if (rangeCells > cellCount) {
+            // Прямоугольник больше занятой части плана: дешевле пройти по занятым ячейкам
+            for (int slot = 0; slot < keys.length; slot++) {
+                long key = keys[slot];
+                if (key == EMPTY) {
+                    continue;
+                }
+                int cx = (int) (key >> 32);
+                int cy = (int) key;
+                if (cx >= cellLeft && cx <= cellRight && cy >= cellTop && cy <= cellBottom) {
+                    count = collectCell(heads[slot], left, top, right, bottom, out, count);
+                }
+            }
+            return count;
+        }
+        for (int cy = cellTop; cy <= cellBottom; cy++) {
+            for (int cx = cellLeft; cx <= cellRight; cx++) {
+                int slot = find(key(cx, cy));
+                if (slot >= 0) {
+                    count = collectCell(heads[slot], left, top, right, bottom, out, count);
+                }
+            }
+        }
+        return count;
+    }
+
+    private int collectCell(int head, double left, double top, double right, double bottom, int[] out, int count) {
+        for (int i = head; i != NONE; i = next[i]) {
+            double x = store.x[i];
+            double y = store.y[i];
+            if (x >= left && x <= right && y >= top && y <= bottom) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    private void insert(int i, long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            slot = add(key);
+        }
+        int head = heads[slot];
+        cellOf[i] = key;
+        prev[i] = NONE;
+        next[i] = head;
+        if (head != NONE) {
+            prev[head] = i;
+        }
+        heads[slot] = i;
+    }
+
+    private void remove(int i) {
+        if (prev[i] != NONE) {
+            next[prev[i]] = next[i];
+        } else {
+            heads[find(cellOf[i])] = next[i];
+        }
+        if (next[i] != NONE) {
+            prev[next[i]] = prev[i];
+        }
+    }
+
+    //Индекс ячейки в хеш-таблице или -1
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = keys[slot];
+            if (k == key) {
+                return slot;
+            }
+            if (k == EMPTY) {
+                return NONE;
+            }
+        }
+    }
+
+    private int add(long key) {
+        if (2 * (cellCount + 1) > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        heads[slot] = NONE;
+        cellCount++;
+        return slot;
+    }
+
+    private void rehash(int length) {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new long[length];
+        heads = new int[length];
+        Arrays.fill(keys, EMPTY);
+        int mask = length - 1;
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldKeys[s] == EMPTY) {
+                continue;
+            }
+            int slot = hash(oldKeys[s]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[s];
+            heads[slot] = oldHeads[s];
+        }
+    }
+
+    private static int cell(double coordinate) {
+        double c = Math.floor(coordinate / CELL_SIZE);
+        // NaN и бесконечности тоже попадают в допустимый диапазон
+        return (int) Math.max(-MAX_CELL, Math.min(MAX_CELL, c));
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,186 @@
+package org.kp.chirkova;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Локальный стенд вместо настоящих контроллеров: эмулирует устройства по протоколу DeviceGateway.
+//Устройства - обычный дом в SimulationEngine, который тикает сам раз в tickInterval; каждое соединение
+//обслуживает свой виртуальный поток. Задержка ответа (setResponseDelay) проверяет тайм-ауты шлюза
+
+public class StandInDeviceServer implements AutoCloseable {
+    // Очередь входящих подключений: при старте шлюз подключает все устройства разом
+    private static final int BACKLOG = 4096;
+
+    private final SimulationEngine engine;
+    // Дом стенда меняют тик и запросы соединений. ReentrantLock, а не synchronized: виртуальный поток,
+    // ждущий монитор, занимает поток-носитель, а ждущий ReentrantLock - нет
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ServerSocket serverSocket;
+    private final ExecutorService threads = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("stand-in-", 0).factory());
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final long tickNanos;
+    private volatile long responseDelayNanos;
+    private volatile boolean closed;
+
+    //Запускает стенд с устройствами дома engine на свободном порту локального адреса
+    public StandInDeviceServer(SimulationEngine engine, Duration tickInterval) throws IOException {
+        if (tickInterval.isNegative() || tickInterval.isZero()) {
+            throw new IllegalArgumentException("Период тика должен быть положительным: " + tickInterval);
+        }
+        this.engine = engine;
+        this.tickNanos = tickInterval.toNanos();
+        this.serverSocket = new ServerSocket(0, BACKLOG, InetAddress.getLoopbackAddress());
+        threads.execute(this::acceptLoop);
+        threads.execute(this::tickLoop);
+    }
+
+    //Стенд с count устройствами: термостаты, свет и камеры по очереди, в ряд по плану
+    public static StandInDeviceServer start(int count, Duration tickInterval) throws IOException {
+        DeviceStore store = new DeviceStore(count);
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0 -> store.addThermostat(null, i * 150.0, 0, 21.0);
+                case 1 -> store.addLight(null, i * 150.0, 0, 60.0);
+                default -> store.addCamera(null, i * 150.0, 0, 100.0);
+            }
+        }
+        return new StandInDeviceServer(new SimulationEngine(store, new Scenario[0]), tickInterval);
+    }
+
+    //Адрес, по которому шлюз подключается к стенду
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    public SimulationEngine getEngine() {
+        return engine;
+    }
+
+    //Задерживает каждый ответ стенда (ноль - без задержки)
+    public void setResponseDelay(Duration delay) {
+        responseDelayNanos = delay.toNanos();
+    }
+
+    //Число открытых соединений
+    public int getConnectionCount() {
+        return sockets.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        threads.shutdownNow();
+        threads.close();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                threads.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void tickLoop() {
+        try {
+            while (!closed) {
+                TimeUnit.NANOSECONDS.sleep(tickNanos);
+                lock.lock();
+                try {
+                    engine.tick();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Стенд закрывается
+        }
+    }
+
+    //Обслуживает одно соединение: сначала выбор устройства, затем запросы к нему
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DeviceGateway.Lines lines = new DeviceGateway.Lines(socket.getInputStream(), socket.getOutputStream());
+            int device = -1;
+            for (String line; (line = lines.read()) != null; ) {
+                long delay = responseDelayNanos;
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                String response;
+                if (device < 0) {
+                    device = select(line);
+                    response = device < 0
+                        ? DeviceGateway.ERR + " нет устройства: " + line
+                        : DeviceGateway.OK + " " + engine.getStore().getDeviceKind(device).name();
+                } else {
+                    response = handle(device, line);
+                }
+                lines.write(response);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Соединение закрыто шлюзом или стенд закрывается
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private int select(String line) {
+        String[] words = line.split(" ");
+        if (words.length != 2 || !words[0].equals(DeviceGateway.HELLO)) {
+            return -1;
+        }
+        try {
+            int device = Integer.parseInt(words[1]);
+            return device >= 0 && device < engine.getStore().size() ? device : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String handle(int i, String line) {
+        DeviceStore store = engine.getStore();
+        lock.lock();
+        try {
+            if (line.equals(DeviceGateway.GET)) {
+                return DeviceGateway.STATE + " " + (store.on[i] ? 1 : 0) + " " + store.currentValue[i]
+                    + " " + store.targetValue[i] + " " + store.powerConsumption[i];
+            } else if (line.equals(DeviceGateway.ON) || line.equals(DeviceGateway.OFF)) {
+                store.setOn(i, line.equals(DeviceGateway.ON));
+                return DeviceGateway.OK;
+            } else if (line.startsWith(DeviceGateway.TARGET + " ")) {
+                try {
+                    store.setTargetValue(i, Double.parseDouble(line.substring(DeviceGateway.TARGET.length() + 1)));
+                    return DeviceGateway.OK;
+                } catch (NumberFormatException e) {
+                    return DeviceGateway.ERR + " неверное число: " + line;
+                }
+            }
+            return DeviceGateway.ERR + " неизвестная команда: " + line;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
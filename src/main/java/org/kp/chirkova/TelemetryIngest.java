@@ -0,0 +1,167 @@
+package org.kp.chirkova;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+//Прием показаний устройств в двоичном виде. Кадр - 32 байта фиксированной раскладки, little-endian:
+//  0  int    номер устройства в хранилище
+//  4  int    флаги (FLAG_ON - включено, FLAG_MOTION - движение в зоне камеры)
+//  8  long   отметка времени показания (монотонная у источника, например миллисекунды)
+//  16 double текущее значение
+//  24 double мощность, Вт
+//Кадры читаются пачками из канала (сокет, файл, pipe) в прямой буфер и разбираются абсолютными
+//чтениями прямо в колонки DeviceStore - без объектов на кадр. Кадр со старой отметкой времени
+//(пришел позже более нового) и кадр с неизвестным устройством отбрасываются.
+//Разбор меняет хранилище, поэтому ingest() вызывается в потоке движка (как DeviceGateway.applyReadings)
+
+public class TelemetryIngest {
+    public static final int FRAME_BYTES = 32;
+
+    public static final int FLAG_ON = 1;
+    public static final int FLAG_MOTION = 2;
+
+    static final int OFFSET_DEVICE = 0;
+    static final int OFFSET_FLAGS = 4;
+    static final int OFFSET_TIMESTAMP = 8;
+    static final int OFFSET_CURRENT = 16;
+    static final int OFFSET_POWER = 24;
+
+    // Буфер по умолчанию - 2048 кадров (64 КБ)
+    public static final int DEFAULT_BATCH_FRAMES = 2048;
+
+    private final DeviceStore store;
+    private final ByteBuffer buffer;
+
+    // Отметка времени последнего принятого кадра по устройству (Long.MIN_VALUE - кадров не было)
+    private long[] lastTimestamp = new long[0];
+
+    private long frameCount;
+    private long staleFrames;
+    private long rejectedFrames;
+
+    public TelemetryIngest(DeviceStore store) {
+        this(store, DEFAULT_BATCH_FRAMES);
+    }
+
+    public TelemetryIngest(DeviceStore store, int batchFrames) {
+        if (batchFrames <= 0) {
+            throw new IllegalArgumentException("Размер пачки должен быть положительным: " + batchFrames);
+        }
+        this.store = store;
+        this.buffer = ByteBuffer.allocateDirect(batchFrames * FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    //Читает из канала все доступные сейчас кадры и применяет их: чтение повторяется, пока канал
+    //заполняет буфер целиком. Возвращает число прочитанных кадров или -1, если канал закончился
+    //и целых кадров больше нет (хвост неполного кадра отбрасывается)
+    public int ingest(ReadableByteChannel channel) throws IOException {
+        ensureCapacity();
+        int frames = 0;
+        while (true) {
+            int read = channel.read(buffer);
+            boolean full = !buffer.hasRemaining();
+            int complete = buffer.position() / FRAME_BYTES;
+            if (complete > 0) {
+                decode(complete);
+                frames += complete;
+                // Неполный кадр в конце переезжает в начало буфера
+                buffer.limit(buffer.position());
+                buffer.position(complete * FRAME_BYTES);
+                buffer.compact();
+            }
+            if (read < 0) {
+                buffer.clear();
+                return frames > 0 ? frames : -1;
+            }
+            if (!full) {
+                // Канал отдал меньше пачки - больше данных сейчас нет
+                return frames;
+            }
+        }
+    }
+
+    //Читает канал до конца и возвращает число прочитанных кадров
+    public long ingestAll(ReadableByteChannel channel) throws IOException {
+        long total = 0;
+        for (int frames; (frames = ingest(channel)) >= 0; ) {
+            total += frames;
+        }
+        return total;
+    }
+
+    //Разбирает первые count кадров буфера прямо в колонки хранилища
+    private void decode(int count) {
+        ByteBuffer b = buffer;
+        DeviceStore s = store;
+        int n = s.size;
+        long[] last = lastTimestamp;
+        boolean[] on = s.on;
+        boolean[] motion = s.motion;
+        double[] current = s.currentValue;
+        double[] power = s.powerConsumption;
+        EnergyLedger ledger = s.ledger;
+        for (int f = 0, p = 0; f < count; f++, p += FRAME_BYTES) {
+            int i = b.getInt(p + OFFSET_DEVICE);
+            if (i < 0 || i >= n) {
+                rejectedFrames++;
+                continue;
+            }
+            long timestamp = b.getLong(p + OFFSET_TIMESTAMP);
+            if (timestamp < last[i]) {
+                staleFrames++;
+                continue;
+            }
+            last[i] = timestamp;
+            int flags = b.getInt(p + OFFSET_FLAGS);
+            double value = b.getDouble(p + OFFSET_CURRENT);
+            double watts = b.getDouble(p + OFFSET_POWER);
+            on[i] = (flags & FLAG_ON) != 0;
+            motion[i] = (flags & FLAG_MOTION) != 0;
+            current[i] = value;
+            if (power[i] != watts) {
+                ledger.powerChanged(i, power[i], watts);
+                power[i] = watts;
+            }
+            s.wake(i);
+        }
+        frameCount += count;
+    }
+
+    //Записывает кадр в буфер с позиции position (для источников и генераторов кадров)
+    public static void encode(ByteBuffer target, int position, int device, int flags, long timestamp,
+                              double currentValue, double power) {
+        target.putInt(position + OFFSET_DEVICE, device);
+        target.putInt(position + OFFSET_FLAGS, flags);
+        target.putLong(position + OFFSET_TIMESTAMP, timestamp);
+        target.putDouble(position + OFFSET_CURRENT, currentValue);
+        target.putDouble(position + OFFSET_POWER, power);
+    }
+
+    //Число прочитанных кадров (включая отброшенные)
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    //Число кадров, отброшенных из-за отметки времени старше уже принятой
+    public long getStaleFrames() {
+        return staleFrames;
+    }
+
+    //Число кадров с неизвестным номером устройства
+    public long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    //Колонка отметок времени растет вместе с хранилищем
+    private void ensureCapacity() {
+        int n = store.size();
+        if (lastTimestamp.length < n) {
+            int old = lastTimestamp.length;
+            lastTimestamp = Arrays.copyOf(lastTimestamp, Math.max(n, old * 2));
+            Arrays.fill(lastTimestamp, old, lastTimestamp.length, Long.MIN_VALUE);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.kp.chirkova;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+//Локальный генератор кадров TelemetryIngest: канал, из которого читаются показания дома-источника.
+//Источник тикает сам; после каждого тика в канал попадает по кадру на каждое устройство (в порядке
+//индексов, отметка времени - время тика в миллисекундах). Кадры пишутся прямо в буфер читателя,
+//поэтому генератор не создает объектов на кадр и подходит для замеров пропускной способности приема
+
+public class TelemetryReplay implements ReadableByteChannel {
+    private static final long TICK_MILLIS = SimulationEngine.TICK_INTERVAL_NANOS / 1_000_000;
+
+    private final SimulationEngine source;
+    private final long ticks;
+
+    // Сколько тиков источника уже выдано и какое устройство текущего тика следующее
+    private long emittedTicks;
+    private int nextDevice;
+    private boolean open = true;
+
+    //Канал с показаниями ticks тиков дома source (тики выполняются по мере чтения)
+    public TelemetryReplay(SimulationEngine source, long ticks) {
+        if (ticks < 0) {
+            throw new IllegalArgumentException("Число тиков не может быть отрицательным: " + ticks);
+        }
+        this.source = source;
+        this.ticks = ticks;
+        this.nextDevice = source.getStore().size();
+    }
+
+    //Записывает в dst столько целых кадров, сколько помещается. Возвращает число байт или -1 в конце
+    @Override
+    public int read(ByteBuffer dst) {
+        DeviceStore store = source.getStore();
+        int n = store.size();
+        if (nextDevice >= n && emittedTicks == ticks || n == 0) {
+            return -1;
+        }
+        ByteBuffer out = dst.order() == ByteOrder.LITTLE_ENDIAN ? dst : dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = dst.position();
+        int position = start;
+        int end = dst.limit() - TelemetryIngest.FRAME_BYTES;
+        while (position <= end) {
+            if (nextDevice >= n) {
+                if (emittedTicks == ticks) {
+                    break;
+                }
+                source.tick();
+                emittedTicks++;
+                nextDevice = 0;
+            }
+            long timestamp = source.getTickCount() * TICK_MILLIS;
+            int last = Math.min(n, nextDevice + (end - position) / TelemetryIngest.FRAME_BYTES + 1);
+            for (int i = nextDevice; i < last; i++, position += TelemetryIngest.FRAME_BYTES) {
+                int flags = (store.on[i] ? TelemetryIngest.FLAG_ON : 0) | (store.motion[i] ? TelemetryIngest.FLAG_MOTION : 0);
+                TelemetryIngest.encode(out, position, i, flags, timestamp, store.currentValue[i], store.powerConsumption[i]);
+            }
+            nextDevice = last;
+        }
+        dst.position(position);
+        return position - start;
+    }
+
+    //Число тиков источника, показания которых уже выданы полностью или частично
+    public long getEmittedTicks() {
+        return emittedTicks;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
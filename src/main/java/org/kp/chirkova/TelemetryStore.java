@@ -0,0 +1,524 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Хранилище истории показаний устройств (телеметрия).
+//После тика записывает currentValue, targetValue и powerConsumption всех устройств хранилища.
+//Данные лежат в кольцевых буферах блоков на примитивных массивах, без упаковки отсчетов в Double:
+// - все ряды пишутся синхронно, поэтому время отсчета задается его номером в блоке и не хранится
+//   (дельты меток времени внутри блока всегда нулевые);
+// - значения ряда в закрытом блоке сжимаются XOR с предыдущим значением (как в Gorilla):
+//   неизменившееся показание занимает один бит;
+// - старые данные прореживаются автоматически: тик -> минута (120 тиков) -> час (7200 тиков)
+//   при тике 500мс; для минуты и часа хранится среднее значение и число усредненных тиков.
+//Запрос по диапазону для каждого участка берет самый подробный уровень, который его еще хранит.
+//Память ограничена числом блоков каждого уровня и не растет со временем работы
+
+public class TelemetryStore {
+    // Каналы телеметрии устройства
+    public static final int CURRENT_VALUE = 0;
+    public static final int TARGET_VALUE = 1;
+    public static final int POWER = 2;
+    static final int CHANNELS = 3;
+
+    // Количество отсчетов в одном блоке
+    static final int BLOCK_SAMPLES = 64;
+
+    // Рядов в одной полосе при сжатии блока и наибольшая длина сжатого отсчета в битах
+    private static final int TILE_SERIES = 64;
+    private static final int MAX_SAMPLE_BITS = 2 + 6 + 6 + 64;
+
+    // Длительность отсчета уровней прореживания в тиках
+    static final long MINUTE_TICKS = 120;
+    static final long HOUR_TICKS = 7200;
+
+    // Число блоков по умолчанию: ~17 минут по тику, ~2.8 суток по минутам, ~170 суток по часам
+    static final int DEFAULT_RAW_BLOCKS = 32;
+    static final int DEFAULT_MINUTE_BLOCKS = 64;
+    static final int DEFAULT_HOUR_BLOCKS = 64;
+
+    //Получатель отсчетов: tick - первый тик отсчета, ticks - число усредненных в нем тиков
+    public interface SampleConsumer {
+        void accept(long tick, int ticks, double value);
+    }
+
+    private final DeviceStore store;
+
+    // Уровни: 0 - каждый тик, 1 - минуты, 2 - часы
+    private final Tier[] tiers;
+
+    // Отсчет текущего тика по рядам (ряд = устройство * CHANNELS + канал)
+    private double[] sample = new double[0];
+
+    // Последний записанный тик (-1 - записей не было)
+    private long lastTick = -1;
+
+    public TelemetryStore(DeviceStore store) {
+        this(store, DEFAULT_RAW_BLOCKS, DEFAULT_MINUTE_BLOCKS, DEFAULT_HOUR_BLOCKS);
+    }
+
+    public TelemetryStore(DeviceStore store, int rawBlocks, int minuteBlocks, int hourBlocks) {
+        // Подробный уровень должен хранить больше одного интервала следующего уровня,
+        // иначе между уровнями появится дыра
+        if (rawBlocks < requiredBlocks(MINUTE_TICKS) || minuteBlocks < requiredBlocks(HOUR_TICKS / MINUTE_TICKS)
+                || hourBlocks < 1) {
+            throw new IllegalArgumentException("Слишком мало блоков телеметрии: "
+                + rawBlocks + ", " + minuteBlocks + ", " + hourBlocks);
+        }
+        this.store = store;
+        tiers = new Tier[] {
+            new Tier(1, rawBlocks),
+            new Tier(MINUTE_TICKS, minuteBlocks),
+            new Tier(HOUR_TICKS, hourBlocks)
+        };
+    }
+
+    private static int requiredBlocks(long samplesPerCoarse) {
+        return (int) ((samplesPerCoarse + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES) + 1;
+    }
+
+    //Записывает показания всех устройств на тике tick (тики должны возрастать; пропуски допустимы)
+    public void record(long tick) {
+        if (tick <= lastTick) {
+            throw new IllegalArgumentException("Тик телеметрии должен возрастать: " + tick + " после " + lastTick);
+        }
+        int n = store.size();
+        int series = n * CHANNELS;
+        if (sample.length < series) {
+            sample = new double[Math.max(series, sample.length * 2)];
+        }
+        double[] current = store.currentValue;
+        double[] target = store.targetValue;
+        double[] power = store.powerConsumption;
+        for (int i = 0, s = 0; i < n; i++, s += CHANNELS) {
+            sample[s + CURRENT_VALUE] = current[i];
+            sample[s + TARGET_VALUE] = target[i];
+            sample[s + POWER] = power[i];
+        }
+        push(0, tick, sample, series, 1);
+        lastTick = tick;
+    }
+
+    //Добавляет отсчет в уровень level и копит его для следующего уровня
+    private void push(int level, long bucket, double[] values, int series, int weight) {
+        Tier tier = tiers[level];
+        tier.append(bucket, values, series, weight);
+        if (level + 1 == tiers.length) {
+            return;
+        }
+        Tier coarser = tiers[level + 1];
+        long coarseBucket = Math.floorDiv(bucket * tier.bucketTicks, coarser.bucketTicks);
+        if (coarser.accWeight > 0 && coarser.accBucket != coarseBucket) {
+            // Интервал следующего уровня закончился - прореживаем его в один отсчет
+            long finished = coarser.accBucket;
+            int finishedWeight = coarser.accWeight;
+            int finishedSeries = coarser.accSeries;
+            push(level + 1, finished, coarser.takeMeans(), finishedSeries, finishedWeight);
+        }
+        coarser.accumulate(coarseBucket, values, series, weight);
+    }
+
+    //Передает получателю отсчеты канала channel устройства device с тиками из [fromTick, toTick]
+    //в порядке времени. Каждый участок берется с самого подробного уровня, который его хранит
+    public void forEach(int device, int channel, long fromTick, long toTick, SampleConsumer consumer) {
+        int series = device * CHANNELS + channel;
+        long end = toTick == Long.MAX_VALUE ? toTick : toTick + 1;
+
+        // Границы уровней: уровень level отвечает за [coverFrom[level], coverTo[level])
+        long[] coverFrom = new long[tiers.length];
+        long[] coverTo = new long[tiers.length];
+        coverTo[0] = Long.MAX_VALUE;
+        coverFrom[0] = tiers[0].oldestTick();
+        for (int level = 1; level < tiers.length; level++) {
+            Tier tier = tiers[level];
+            long finer = coverFrom[level - 1];
+            long aligned = finer == Long.MAX_VALUE ? finer : Math.ceilDiv(finer, tier.bucketTicks) * tier.bucketTicks;
+            // Граница выравнивается по интервалу уровня, если он уже прорежен до нее
+            long boundary = tier.emittedEnd() >= aligned ? aligned : finer;
+            coverFrom[level - 1] = Math.max(coverFrom[level - 1], boundary);
+            coverTo[level] = boundary;
+            coverFrom[level] = Math.min(tier.oldestTick(), boundary);
+        }
+        for (int level = tiers.length - 1; level >= 0; level--) {
+            long from = Math.max(fromTick, coverFrom[level]);
+            long to = Math.min(end, coverTo[level]);
+            if (from < to) {
+                tiers[level].forEach(series, from, to, consumer);
+            }
+        }
+    }
+
+    //Возвращает сводку по каналу channel устройства device за тики [fromTick, toTick].
+    //На прореженных участках минимум и максимум берутся по средним значениям интервалов
+    public Summary summarize(int device, int channel, long fromTick, long toTick) {
+        Summary summary = new Summary();
+        forEach(device, channel, fromTick, toTick, summary::add);
+        return summary;
+    }
+
+    //Возвращает энергию устройства за тики [fromTick, toTick] в тех же единицах, что EnergyLedger
+    public double getEnergy(int device, long fromTick, long toTick) {
+        return summarize(device, POWER, fromTick, toTick).getSum() / EnergyLedger.ENERGY_UNIT;
+    }
+
+    //Возвращает самый ранний тик, который еще хранится (Long.MAX_VALUE - записей нет)
+    public long getOldestTick() {
+        long oldest = Long.MAX_VALUE;
+        for (Tier tier : tiers) {
+            oldest = Math.min(oldest, tier.oldestTick());
+        }
+        return oldest;
+    }
+
+    public long getLastTick() {
+        return lastTick;
+    }
+
+    //Возвращает объем памяти, занятой данными телеметрии (в байтах, приблизительно)
+    public long getRetainedBytes() {
+        long bytes = (long) sample.length * Double.BYTES;
+        for (Tier tier : tiers) {
+            bytes += tier.retainedBytes();
+        }
+        return bytes;
+    }
+
+    //Сводка по отсчетам: число тиков, сумма (значение * тики), минимум, максимум и среднее
+    public static final class Summary {
+        private long ticks;
+        private double sum;
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+
+        private void add(long tick, int sampleTicks, double value) {
+            if (ticks == 0 || value < min) min = value;
+            if (ticks == 0 || value > max) max = value;
+            ticks += sampleTicks;
+            sum += value * sampleTicks;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return ticks == 0 ? Double.NaN : sum / ticks;
+        }
+    }
+
+    //Уровень телеметрии: открытый блок без сжатия и кольцо закрытых сжатых блоков.
+    //Отсчет k блока относится к интервалу start + k, интервал длится bucketTicks тиков
+    private static final class Tier {
+        final long bucketTicks;
+        final int slots;
+
+        // Открытый блок: несжатые отсчеты [k * capacity + ряд] и число усредненных тиков отсчета
+        private int capacity;
+        private double[] staging = new double[0];
+        private final int[] stagingWeight = new int[BLOCK_SAMPLES];
+        private long stagingStart;
+        private int stagingCount;
+        private int stagingSeries;
+
+        // Закрытые блоки: начальный интервал, число отсчетов и рядов, веса отсчетов,
+        // сжатые ряды подряд в одном битовом потоке и смещения рядов в нем
+        private final long[] slotStart;
+        private final int[] slotCount;
+        private final int[] slotSeries;
+        private final int[][] slotWeight;
+        private final long[][] slotBits;
+        private final long[][] slotOffset;
+        private int head;
+        private int filled;
+
+        // Накопление отсчетов более подробного уровня для текущего интервала
+        double[] accSum = new double[0];
+        int[] accTicks = new int[0];
+        double[] accMean = new double[0];
+        long accBucket;
+        int accWeight;
+        int accSeries;
+
+        // Полоса рядов блока, переставленная по рядам, и битовый поток сжимаемого блока
+        private final double[] tile = new double[TILE_SERIES * BLOCK_SAMPLES];
+        private long[] out;
+        private long outPos;
+
+        Tier(long bucketTicks, int slots) {
+            this.bucketTicks = bucketTicks;
+            this.slots = slots;
+            slotStart = new long[slots];
+            slotCount = new int[slots];
+            slotSeries = new int[slots];
+            slotWeight = new int[slots][BLOCK_SAMPLES];
+            slotBits = new long[slots][0];
+            slotOffset = new long[slots][0];
+        }
+
+        void append(long bucket, double[] values, int series, int weight) {
+            if (stagingCount > 0 && (stagingCount == BLOCK_SAMPLES || bucket != stagingStart + stagingCount)) {
+                closeBlock();
+            }
+            if (series > capacity) {
+                growStaging(series);
+            }
+            if (stagingCount == 0) {
+                stagingStart = bucket;
+                stagingSeries = 0;
+            }
+            int k = stagingCount;
+            if (series > stagingSeries) {
+                // У новых устройств нет данных за начало блока
+                for (int j = 0; j < k; j++) {
+                    Arrays.fill(staging, j * capacity + stagingSeries, j * capacity + series, Double.NaN);
+                }
+                stagingSeries = series;
+            }
+            System.arraycopy(values, 0, staging, k * capacity, series);
+            stagingWeight[k] = weight;
+            stagingCount++;
+        }
+
+        private void growStaging(int series) {
+            int newCapacity = Math.max(series, capacity * 2);
+            double[] grown = new double[BLOCK_SAMPLES * newCapacity];
+            for (int j = 0; j < stagingCount; j++) {
+                System.arraycopy(staging, j * capacity, grown, j * newCapacity, stagingSeries);
+            }
+            staging = grown;
+            capacity = newCapacity;
+        }
+
+        //Сжимает открытый блок в очередной слот кольца (самый старый блок вытесняется)
+        private void closeBlock() {
+            int slot = head;
+            head = (head + 1) % slots;
+            if (filled < slots) {
+                filled++;
+            }
+            int count = stagingCount;
+            int series = stagingSeries;
+            slotStart[slot] = stagingStart;
+            slotCount[slot] = count;
+            slotSeries[slot] = series;
+            System.arraycopy(stagingWeight, 0, slotWeight[slot], 0, count);
+            if (slotOffset[slot].length < series + 1) {
+                slotOffset[slot] = new long[series + 1];
+            }
+            long[] offsets = slotOffset[slot];
+
+            out = slotBits[slot];
+            Arrays.fill(out, 0L);
+            outPos = 0;
+            // Блок пишется по строкам (тикам), а сжимается по рядам: переставляем полосами по TILE_SERIES рядов
+            for (int from = 0; from < series; from += TILE_SERIES) {
+                int width = Math.min(TILE_SERIES, series - from);
+                for (int k = 0; k < count; k++) {
+                    for (int j = 0, p = k * capacity + from; j < width; j++, p++) {
+                        tile[j * BLOCK_SAMPLES + k] = staging[p];
+                    }
+                }
+                for (int j = 0; j < width; j++) {
+                    offsets[from + j] = outPos;
+                    encode(j * BLOCK_SAMPLES, count);
+                }
+            }
+            offsets[series] = outPos;
+            slotBits[slot] = out;
+            out = null;
+            stagingCount = 0;
+        }
+
+        //XOR-сжатие ряда из tile[base .. base + count): первое значение целиком, дальше XOR с предыдущим:
+        //0 - значение не изменилось; 10 - значащие биты в прежнем окне; 11 - новое окно (6 + 6 бит)
+        private void encode(int base, int count) {
+            // Поток заранее обнулен и расширен под худший случай, поэтому нулевой бит - просто сдвиг позиции
+            int words = (int) ((outPos + (long) count * MAX_SAMPLE_BITS) >>> 6) + 2;
+            if (words > out.length) {
+                out = Arrays.copyOf(out, Math.max(words, out.length * 2));
+            }
+            long[] bitsOut = out;
+            double[] values = tile;
+            long position = outPos;
+            long previous = Double.doubleToRawLongBits(values[base]);
+            writeBits(bitsOut, position, previous, 64);
+            position += 64;
+            int leading = -1;
+            int trailing = 0;
+            for (int k = 1; k < count; k++) {
+                long bits = Double.doubleToRawLongBits(values[base + k]);
+                long xor = bits ^ previous;
+                if (xor == 0) {
+                    position++;
+                } else {
+                    int lz = Long.numberOfLeadingZeros(xor);
+                    int tz = Long.numberOfTrailingZeros(xor);
+                    if (leading >= 0 && lz >= leading && tz >= trailing) {
+                        writeBits(bitsOut, position, 0b10, 2);
+                        writeBits(bitsOut, position + 2, xor >>> trailing, 64 - leading - trailing);
+                        position += 2 + 64 - leading - trailing;
+                    } else {
+                        int meaningful = 64 - lz - tz;
+                        writeBits(bitsOut, position, (0b11L << 12) | ((long) lz << 6) | (meaningful - 1), 14);
+                        writeBits(bitsOut, position + 14, xor >>> tz, meaningful);
+                        position += 14 + meaningful;
+                        leading = lz;
+                        trailing = tz;
+                    }
+                }
+                previous = bits;
+            }
+            outPos = position;
+        }
+
+        //Записывает n младших бит value в обнуленный поток с позиции position
+        private static void writeBits(long[] bits, long position, long value, int n) {
+            int word = (int) (position >>> 6);
+            if (n < 64) {
+                value &= (1L << n) - 1;
+            }
+            int free = 64 - (int) (position & 63);
+            if (n <= free) {
+                bits[word] |= value << (free - n);
+            } else {
+                bits[word] |= value >>> (n - free);
+                bits[word + 1] |= value << (64 - (n - free));
+            }
+        }
+
+        private static long readBits(long[] bits, long position, int n) {
+            int word = (int) (position >>> 6);
+            int free = 64 - (int) (position & 63);
+            long result;
+            if (n <= free) {
+                result = bits[word] >>> (free - n);
+            } else {
+                result = (bits[word] << (n - free)) | (bits[word + 1] >>> (64 - (n - free)));
+            }
+            return n < 64 ? result & ((1L << n) - 1) : result;
+        }
+
+        //Добавляет отсчет подробного уровня в текущий интервал
+        void accumulate(long bucket, double[] values, int series, int weight) {
+            if (accSum.length < series) {
+                int length = Math.max(series, accSum.length * 2);
+                accSum = Arrays.copyOf(accSum, length);
+                accTicks = Arrays.copyOf(accTicks, length);
+                accMean = new double[length];
+            }
+            for (int s = 0; s < series; s++) {
+                accSum[s] += values[s] * weight;
+                accTicks[s] += weight;
+            }
+            accBucket = bucket;
+            accWeight += weight;
+            accSeries = Math.max(accSeries, series);
+        }
+
+        //Возвращает средние за текущий интервал и начинает новый
+        double[] takeMeans() {
+            for (int s = 0; s < accSeries; s++) {
+                accMean[s] = accTicks[s] == 0 ? Double.NaN : accSum[s] / accTicks[s];
+            }
+            Arrays.fill(accSum, 0, accSeries, 0.0);
+            Arrays.fill(accTicks, 0, accSeries, 0);
+            accWeight = 0;
+            accSeries = 0;
+            return accMean;
+        }
+
+        //Первый хранимый тик уровня (Long.MAX_VALUE - данных нет)
+        long oldestTick() {
+            if (filled > 0) {
+                return slotStart[(head - filled + slots) % slots] * bucketTicks;
+            }
+            return stagingCount > 0 ? stagingStart * bucketTicks : Long.MAX_VALUE;
+        }
+
+        //Тик, до которого (не включительно) в уровень уже записаны отсчеты
+        long emittedEnd() {
+            if (stagingCount > 0) {
+                return (stagingStart + stagingCount) * bucketTicks;
+            }
+            if (filled > 0) {
+                int last = (head - 1 + slots) % slots;
+                return (slotStart[last] + slotCount[last]) * bucketTicks;
+            }
+            return Long.MIN_VALUE;
+        }
+
+        //Передает отсчеты ряда series с тиками из [from, to) в порядке времени
+        void forEach(int series, long from, long to, SampleConsumer consumer) {
+            for (int j = 0; j < filled; j++) {
+                int slot = (head - filled + j + slots) % slots;
+                long first = slotStart[slot] * bucketTicks;
+                long last = (slotStart[slot] + slotCount[slot]) * bucketTicks;
+                if (series < slotSeries[slot] && first < to && last > from) {
+                    decode(slot, series, from, to, consumer);
+                }
+            }
+            if (series < stagingSeries) {
+                for (int k = 0; k < stagingCount; k++) {
+                    long tick = (stagingStart + k) * bucketTicks;
+                    double value = staging[k * capacity + series];
+                    if (tick >= from && tick < to && !Double.isNaN(value)) {
+                        consumer.accept(tick, stagingWeight[k], value);
+                    }
+                }
+            }
+        }
+
+        private void decode(int slot, int series, long from, long to, SampleConsumer consumer) {
+            long[] bits = slotBits[slot];
+            int[] weight = slotWeight[slot];
+            long position = slotOffset[slot][series];
+            long value = readBits(bits, position, 64);
+            position += 64;
+            int leading = 0;
+            int trailing = 0;
+            for (int k = 0, count = slotCount[slot]; k < count; k++) {
+                if (k > 0 && readBits(bits, position++, 1) != 0) {
+                    if (readBits(bits, position++, 1) != 0) {
+                        leading = (int) readBits(bits, position, 6);
+                        int meaningful = (int) readBits(bits, position + 6, 6) + 1;
+                        position += 12;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    int meaningful = 64 - leading - trailing;
+                    value ^= readBits(bits, position, meaningful) << trailing;
+                    position += meaningful;
+                }
+                long tick = (slotStart[slot] + k) * bucketTicks;
+                if (tick >= to) {
+                    return;
+                }
+                double v = Double.longBitsToDouble(value);
+                if (tick >= from && !Double.isNaN(v)) {
+                    consumer.accept(tick, weight[k], v);
+                }
+            }
+        }
+
+        long retainedBytes() {
+            long bytes = (long) staging.length * Double.BYTES
+                + (long) (accSum.length + accMean.length) * Double.BYTES + (long) accTicks.length * Integer.BYTES;
+            for (int slot = 0; slot < slots; slot++) {
+                bytes += (long) slotBits[slot].length * Long.BYTES + (long) slotOffset[slot].length * Long.BYTES
+                    + BLOCK_SAMPLES * Integer.BYTES;
+            }
+            return bytes;
+        }
+    }
+}
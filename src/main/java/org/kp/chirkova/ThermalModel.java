@@ -0,0 +1,358 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Тепловая модель дома: помещения - узлы с теплоемкостью, стены - теплопроводности между ними и наружу,
+//наружная температура идет по часам симуляции. Термостат, привязанный к помещению (assign), показывает
+//его температуру, а мощность его нагрева греет помещение; непривязанные термостаты живут по-старому
+//(сами стремятся к 17°C). Пока помещений нет, тик модель не трогает.
+//Шаг - неявная схема Эйлера, устойчивая при любых проводимостях и теплоемкостях:
+//(C/dt + g наружу + сумма g) T' - сумма g * T' соседа = C/dt * T + нагрев + g наружу * T наружи.
+//Система решается методом Гаусса-Зейделя, начиная с продолжения двух прошлых тиков (температуры
+//меняются плавно). У матрицы строгое диагональное преобладание (C/dt обычно в десятки раз больше суммы
+//проводимостей), поэтому хватает двух-трех проходов. Стены хранятся по помещениям в CSR, как сценарии
+//в EnergyLedger. Шаг не выделяет памяти: массивы пересобираются только после изменения помещений,
+//стен или привязок
+
+public class ThermalModel {
+    // Нет помещения (термостат не привязан)
+    public static final int NONE = -1;
+
+    // Помещение по умолчанию: теплоемкость воздуха и обстановки (Вт*ч/°C), проводимость наружных стен
+    // и окон (Вт/°C); нагрев 500 Вт держит в нем около 25°C сверх наружной температуры
+    public static final double DEFAULT_CAPACITY = 300.0;
+    public static final double DEFAULT_OUTDOOR_CONDUCTANCE = 20.0;
+    // Внутренняя стена между соседними помещениями (Вт/°C)
+    public static final double DEFAULT_WALL_CONDUCTANCE = 15.0;
+
+    // Наружная температура: среднее за сутки и размах колебаний (°C), теплее всего в 15:00
+    private static final double DEFAULT_OUTDOOR_MEAN = 5.0;
+    private static final double DEFAULT_OUTDOOR_AMPLITUDE = 5.0;
+    private static final double WARMEST_HOUR = 15.0;
+
+    // Решение считается сошедшимся, когда проход меняет температуры меньше, чем на сетку термостата
+    private static final double TOLERANCE = 1.0 / Thermostat.GRID;
+    private static final int MAX_SWEEPS = 50;
+
+    private final DeviceStore store;
+
+    // Состояние модели (помещения, стены, привязки и наружная температура) доступно снимку
+    // (SnapshotFile) напрямую
+
+    // Колонки по номеру помещения: температура (°C) сейчас и тиком раньше, теплоемкость (Вт*ч/°C),
+    // проводимость наружу (Вт/°C)
+    int zoneCount;
+    double[] temperature = new double[4];
+    double[] previous = new double[4];
+    double[] capacity = new double[4];
+    double[] outdoorConductance = new double[4];
+
+    // Стены в порядке добавления: помещения и проводимость (Вт/°C)
+    int wallCount;
+    int[] wallFrom = new int[4];
+    int[] wallTo = new int[4];
+    double[] wallConductance = new double[4];
+
+    // Помещение термостата по индексу устройства (NONE - не привязан)
+    int[] deviceZone = new int[0];
+
+    // Собранная система: соседи помещения z - neighbor[rowStart[z] .. rowStart[z + 1]), обратная диагональ,
+    // правая часть и список привязанных термостатов. Пересобирается при изменениях (compiled = false)
+    private boolean compiled;
+    private int[] rowStart = new int[1];
+    private int[] neighbor = new int[0];
+    private double[] neighborConductance = new double[0];
+    private double[] inverseDiagonal = new double[0];
+    private double[] rhs = new double[0];
+    private int[] heaters = new int[0];
+    private int heaterCount;
+
+    double outdoorMean = DEFAULT_OUTDOOR_MEAN;
+    double outdoorAmplitude = DEFAULT_OUTDOOR_AMPLITUDE;
+    private int lastSweeps;
+
+    ThermalModel(DeviceStore store) {
+        this.store = store;
+    }
+
+    //Копия для копии состояния хранилища (DeviceStore.copyState): свои температуры, те же стены и привязки
+    ThermalModel copyFor(DeviceStore copy) {
+        ThermalModel model = new ThermalModel(copy);
+        model.zoneCount = zoneCount;
+        model.temperature = temperature.clone();
+        model.previous = previous.clone();
+        model.capacity = capacity.clone();
+        model.outdoorConductance = outdoorConductance.clone();
+        model.wallCount = wallCount;
+        model.wallFrom = wallFrom.clone();
+        model.wallTo = wallTo.clone();
+        model.wallConductance = wallConductance.clone();
+        model.deviceZone = deviceZone.clone();
+        model.outdoorMean = outdoorMean;
+        model.outdoorAmplitude = outdoorAmplitude;
+        return model;
+    }
+
+    //Добавляет помещение с теплоемкостью heatCapacity (Вт*ч/°C), проводимостью наружу outdoor (Вт/°C)
+    //и начальной температурой; возвращает номер помещения
+    public int addZone(double heatCapacity, double outdoor, double initialTemperature) {
+        if (!(heatCapacity > 0) || Double.isInfinite(heatCapacity)) {
+            throw new IllegalArgumentException("Теплоемкость помещения должна быть положительной: " + heatCapacity);
+        }
+        checkConductance(outdoor);
+        if (!Double.isFinite(initialTemperature)) {
+            throw new IllegalArgumentException("Неверная температура помещения: " + initialTemperature);
+        }
+        if (zoneCount == temperature.length) {
+            int grown = zoneCount * 2;
+            temperature = Arrays.copyOf(temperature, grown);
+            previous = Arrays.copyOf(previous, grown);
+            capacity = Arrays.copyOf(capacity, grown);
+            outdoorConductance = Arrays.copyOf(outdoorConductance, grown);
+        }
+        int zone = zoneCount++;
+        temperature[zone] = initialTemperature;
+        previous[zone] = initialTemperature;
+        capacity[zone] = heatCapacity;
+        outdoorConductance[zone] = outdoor;
+        compiled = false;
+        return zone;
+    }
+
+    //Добавляет стену с проводимостью conductance (Вт/°C) между помещениями a и b
+    //(повторная стена между теми же помещениями складывается с прежней)
+    public void connect(int a, int b, double conductance) {
+        checkZone(a);
+        checkZone(b);
+        if (a == b) {
+            throw new IllegalArgumentException("Стена должна соединять разные помещения: " + a);
+        }
+        checkConductance(conductance);
+        if (wallCount == wallFrom.length) {
+            int grown = wallCount * 2;
+            wallFrom = Arrays.copyOf(wallFrom, grown);
+            wallTo = Arrays.copyOf(wallTo, grown);
+            wallConductance = Arrays.copyOf(wallConductance, grown);
+        }
+        wallFrom[wallCount] = a;
+        wallTo[wallCount] = b;
+        wallConductance[wallCount] = conductance;
+        wallCount++;
+        compiled = false;
+    }
+
+    //Привязывает термостат к помещению (NONE - отвязывает, термостат возвращается к старой модели)
+    public void assign(int thermostat, int zone) {
+        if (thermostat < 0 || thermostat >= store.size() || store.kind[thermostat] != DeviceStore.KIND_THERMOSTAT) {
+            throw new IllegalArgumentException("Устройство " + thermostat + " не является термостатом");
+        }
+        if (zone != NONE) {
+            checkZone(zone);
+        }
+        ensureCapacity();
+        deviceZone[thermostat] = zone;
+        compiled = false;
+        store.wake(thermostat);
+    }
+
+    //Создает по помещению на каждый непривязанный термостат (с его текущей температурой и параметрами
+    //по умолчанию) и ставит внутренние стены между помещениями, термостаты которых ближе wallDistance
+    //по каждой оси (соседи по сетке плана). Возвращает число новых помещений
+    public int addRoomsForThermostats(double wallDistance) {
+        ensureCapacity();
+        int thermostats = store.getKindCount(DeviceStore.KIND_THERMOSTAT);
+        int added = 0;
+        for (int k = 0; k < thermostats; k++) {
+            int i = store.getKindMember(DeviceStore.KIND_THERMOSTAT, k);
+            if (deviceZone[i] == NONE) {
+                assign(i, addZone(DEFAULT_CAPACITY, DEFAULT_OUTDOOR_CONDUCTANCE, store.currentValue[i]));
+                added++;
+            }
+        }
+        int[] found = new int[store.size()];
+        for (int k = 0; k < thermostats; k++) {
+            int i = store.getKindMember(DeviceStore.KIND_THERMOSTAT, k);
+            int count = store.spatialIndex.collect(store.x[i] - wallDistance, store.y[i] - wallDistance,
+                store.x[i] + wallDistance, store.y[i] + wallDistance, found);
+            for (int f = 0; f < count; f++) {
+                int j = found[f];
+                // Каждая пара один раз; новые помещения соединяются только между собой
+                if (j > i && store.kind[j] == DeviceStore.KIND_THERMOSTAT && deviceZone[j] >= zoneCount - added
+                        && deviceZone[i] >= zoneCount - added) {
+                    connect(deviceZone[i], deviceZone[j], DEFAULT_WALL_CONDUCTANCE);
+                }
+            }
+        }
+        return added;
+    }
+
+    //Продвигает температуры помещений на один тик (в потоке движка, до шага устройств): нагрев -
+    //мощности привязанных термостатов за прошедший тик. Будит привязанные термостаты, чтобы они
+    //прочитали новые температуры
+    void step(double timeOfDay) {
+        if (zoneCount == 0) {
+            return;
+        }
+        if (!compiled) {
+            compile();
+        }
+        double outdoor = getOutdoorTemperature(timeOfDay);
+        double dt = SimulationEngine.TIME_STEP_HOURS;
+        for (int z = 0; z < zoneCount; z++) {
+            double current = temperature[z];
+            rhs[z] = capacity[z] / dt * current + outdoorConductance[z] * outdoor;
+            // Начальное приближение - продолжение изменения за прошлый тик
+            temperature[z] = current + (current - previous[z]);
+            previous[z] = current;
+        }
+        double[] power = store.powerConsumption;
+        for (int k = 0; k < heaterCount; k++) {
+            int i = heaters[k];
+            rhs[deviceZone[i]] += power[i];
+        }
+
+        // Гаусс-Зейдель на месте: обновленные соседи сразу идут в следующие строки. Деление заменено
+        // умножением на обратную диагональ - оно стоит в цепочке зависимостей между строками
+        int sweeps = 0;
+        double change;
+        do {
+            change = 0.0;
+            for (int z = 0; z < zoneCount; z++) {
+                double sum = rhs[z];
+                for (int e = rowStart[z], end = rowStart[z + 1]; e < end; e++) {
+                    sum += neighborConductance[e] * temperature[neighbor[e]];
+                }
+                double next = sum * inverseDiagonal[z];
+                change = Math.max(change, Math.abs(next - temperature[z]));
+                temperature[z] = next;
+            }
+            sweeps++;
+        } while (change > TOLERANCE && sweeps < MAX_SWEEPS);
+        lastSweeps = sweeps;
+
+        for (int k = 0; k < heaterCount; k++) {
+            store.wake(heaters[k]);
+        }
+    }
+
+    //Собирает стены в CSR (каждая стена - в строках обоих помещений), диагональ и список термостатов
+    private void compile() {
+        int[] start = new int[zoneCount + 1];
+        for (int w = 0; w < wallCount; w++) {
+            start[wallFrom[w] + 1]++;
+            start[wallTo[w] + 1]++;
+        }
+        for (int z = 0; z < zoneCount; z++) {
+            start[z + 1] += start[z];
+        }
+        int[] fill = Arrays.copyOf(start, zoneCount);
+        neighbor = new int[2 * wallCount];
+        neighborConductance = new double[2 * wallCount];
+        double[] diagonal = new double[zoneCount];
+        for (int z = 0; z < zoneCount; z++) {
+            diagonal[z] = capacity[z] / SimulationEngine.TIME_STEP_HOURS + outdoorConductance[z];
+        }
+        for (int w = 0; w < wallCount; w++) {
+            int a = wallFrom[w];
+            int b = wallTo[w];
+            double g = wallConductance[w];
+            neighbor[fill[a]] = b;
+            neighborConductance[fill[a]++] = g;
+            neighbor[fill[b]] = a;
+            neighborConductance[fill[b]++] = g;
+            diagonal[a] += g;
+            diagonal[b] += g;
+        }
+        for (int z = 0; z < zoneCount; z++) {
+            diagonal[z] = 1.0 / diagonal[z];
+        }
+        inverseDiagonal = diagonal;
+        rowStart = start;
+        rhs = new double[zoneCount];
+
+        heaterCount = 0;
+        heaters = new int[Math.min(deviceZone.length, store.size())];
+        for (int i = 0; i < heaters.length; i++) {
+            if (deviceZone[i] != NONE) {
+                heaters[heaterCount++] = i;
+            }
+        }
+        compiled = true;
+    }
+
+    //Помещение устройства i (NONE - не привязано)
+    int zoneOf(int i) {
+        return i < deviceZone.length ? deviceZone[i] : NONE;
+    }
+
+    //Помещение термостата (NONE - не привязан)
+    public int getZone(int device) {
+        return zoneOf(device);
+    }
+
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    public int getWallCount() {
+        return wallCount;
+    }
+
+    //Температура помещения (°C)
+    public double getTemperature(int zone) {
+        checkZone(zone);
+        return temperature[zone];
+    }
+
+    //Задает температуру помещения (например, проветрили)
+    public void setTemperature(int zone, double value) {
+        checkZone(zone);
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Неверная температура помещения: " + value);
+        }
+        temperature[zone] = value;
+        previous[zone] = value;
+    }
+
+    //Наружная температура в момент суток hours (°C)
+    public double getOutdoorTemperature(double hours) {
+        return outdoorMean + outdoorAmplitude * Math.cos(2 * Math.PI * (hours - WARMEST_HOUR) / 24.0);
+    }
+
+    //Задает наружную температуру: среднее за сутки и размах (днем mean + amplitude, ночью mean - amplitude)
+    public void setOutdoorTemperature(double mean, double amplitude) {
+        if (!Double.isFinite(mean) || !(amplitude >= 0) || Double.isInfinite(amplitude)) {
+            throw new IllegalArgumentException("Неверная наружная температура: " + mean + " ± " + amplitude);
+        }
+        outdoorMean = mean;
+        outdoorAmplitude = amplitude;
+    }
+
+    //Число проходов Гаусса-Зейделя на последнем шаге
+    public int getLastSweeps() {
+        return lastSweeps;
+    }
+
+    private void checkZone(int zone) {
+        if (zone < 0 || zone >= zoneCount) {
+            throw new IllegalArgumentException("Нет помещения " + zone);
+        }
+    }
+
+    private static void checkConductance(double conductance) {
+        if (!(conductance >= 0) || Double.isInfinite(conductance)) {
+            throw new IllegalArgumentException("Проводимость не может быть отрицательной: " + conductance);
+        }
+    }
+
+    //Колонка помещений по устройствам растет вместе с хранилищем (новые устройства не привязаны)
+    private void ensureCapacity() {
+        int n = store.size();
+        if (deviceZone.length >= n) {
+            return;
+        }
+        int old = deviceZone.length;
+        deviceZone = Arrays.copyOf(deviceZone, Math.max(n, old * 2));
+        Arrays.fill(deviceZone, old, deviceZone.length, NONE);
+    }
+}
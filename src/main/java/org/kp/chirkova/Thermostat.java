@@ -3,54 +3,185 @@ package org.kp.chirkova;
 //Термостат управляет температурой в помещении
 public class Thermostat extends SmartDevice {
     // Скорость изменения температуры (градусов в секунду)
-    private static final double TEMPERATURE_CHANGE_RATE = 0.05;
-    
+    static final double TEMPERATURE_CHANGE_RATE = 0.05;
+
     // Естественное охлаждение/нагрев (имитация внешних факторов)
-    private static final double NATURAL_CHANGE_RATE = 0.01;
-    
+    static final double NATURAL_CHANGE_RATE = 0.01;
+
     // Базовая температура (к которой стремится без управления)
-    private double baseTemperature;
+    static final double BASE_TEMPERATURE = 17.0;
+
+    // Порог 0.5 градуса (термостат включается только если упало на 0,5°C)
+    static final double THRESHOLD = 0.5;
+
+    // Максимальная мощность 500 Вт
+    static final double MAX_POWER = 500.0;
+
+    // Температура хранится на сетке 1e-6 °C (делений на градус), чтобы траекторию между событиями
+    // можно было считать в замкнутой форме без расхождения с пошаговым тиком
+    static final double GRID = 1e6;
+
+    // Вид устройства (реестр DeviceKinds)
+    static final DeviceKind KIND = new Kind();
 
-    public Thermostat(String name, double x, double y, double targetTemperature) {
-        super(name, x, y, targetTemperature);
-        setCurrentValue(17.0);
-        this.baseTemperature = 17.0;
+    Thermostat(DeviceStore store, int index) {
+        super(store, index);
     }
 
-    @Override
-    protected void adjustValue() {
-        // Направляем температуру к целевому значению (вызывается только когда isOn=true)
-        if (getCurrentValue() < targetValue) {
-            setCurrentValue(getCurrentValue() + TEMPERATURE_CHANGE_RATE);
-        } else if (getCurrentValue() > targetValue) {
-            setCurrentValue(getCurrentValue() - TEMPERATURE_CHANGE_RATE);
+    //Провайдер вида для ServiceLoader (provides DeviceKind with Thermostat в module-info)
+    public static DeviceKind provider() {
+        return KIND;
+    }
+
+    //Анализирует температуру устройства i и включает/выключает нагрев
+    static void analyzeAndAdjust(DeviceStore s, int i) {
+        boolean on = s.on[i];
+        double current = s.currentValue[i];
+        double target = s.targetValue[i];
+        double power = s.powerConsumption[i];
+        // В помещении тепловой модели нагрев идет через модель, показание здесь не меняется
+        if (s.thermal.zoneOf(i) == ThermalModel.NONE) {
+            s.currentValue[i] = analyzedValue(on, current, target, power);
         }
+        s.powerConsumption[i] = analyzedPower(on, current, target, power);
     }
 
-    @Override
-    protected double getThreshold() {
-        return 0.5; // Порог 0.5 градуса (термостат включается только если упало на 0,5°C)
+    //Обновляет температуру устройства i: температура помещения в тепловой модели,
+    //иначе естественное охлаждение/нагрев
+    static void updateCurrentValue(DeviceStore s, int i) {
+        int zone = s.thermal.zoneOf(i);
+        s.currentValue[i] = zone != ThermalModel.NONE
+            ? s.thermal.temperature[zone]
+            : updatedValue(s.on[i], s.currentValue[i], s.targetValue[i]);
     }
 
-    @Override
-    protected double getMaxPower() {
-        return 500.0; // Максимальная мощность 500 Вт
+    //Мощность после анализа показаний
+    static double analyzedPower(boolean on, double current, double target, double power) {
+        // Если устройство не включено (isOn=false), не работает
+        if (!on) {
+            return 0.0; // Статус работы: выключено
+        }
+        double difference = current - target;
+        // Включаем только если температура упала на 0.5 градуса ниже целевой
+        if (difference <= -THRESHOLD) {
+            return MAX_POWER; // Работает (нагревает)
+        } else if (difference > 0) {
+            // Если температура выше целевой, выключаем нагрев (охлаждается естественно)
+            return 0.0;
+        } else if (Math.abs(difference) < 0.01) {
+            // Если температура точно равна целевой, выключаем
+            return 0.0;
+        }
+        // Температура между целевой и целевой-0.5: продолжаем работу если уже работали
+        return power > 0 ? MAX_POWER : power;
     }
 
-    @Override
-    protected void updateCurrentValue() {
-        if (!isOn) {
+    //Температура после анализа: нагрев или снижение к целевой
+    static double analyzedValue(boolean on, double current, double target, double power) {
+        if (!on) {
+            return current;
+        }
+        double difference = current - target;
+        // Нагреваем ниже порога, снижаем выше целевой, в полосе - продолжаем, если уже грели
+        if (difference <= -THRESHOLD || difference > 0 || (Math.abs(difference) >= 0.01 && power > 0)) {
+            return adjustedValue(current, target);
+        }
+        return current;
+    }
+
+    //Направляет температуру к целевому значению (вызывается только когда isOn=true)
+    private static double adjustedValue(double current, double target) {
+        if (current < target) {
+            return quantize(current + TEMPERATURE_CHANGE_RATE);
+        } else if (current > target) {
+            return quantize(current - TEMPERATURE_CHANGE_RATE);
+        }
+        return current;
+    }
+
+    //Температура после естественного изменения за тик
+    static double updatedValue(boolean on, double current, double target) {
+        if (!on) {
             // Температура стремится к базовой 17°C
-            if (getCurrentValue() > baseTemperature) {
-                setCurrentValue(getCurrentValue() - NATURAL_CHANGE_RATE);
-            } else if (getCurrentValue() < baseTemperature) {
-                setCurrentValue(getCurrentValue() + NATURAL_CHANGE_RATE);
+            if (Math.abs(current - BASE_TEMPERATURE) < NATURAL_CHANGE_RATE) {
+                // Ближе одного шага - считаем, что установилась (иначе колебалась бы вокруг базовой)
+                return BASE_TEMPERATURE;
+            } else if (current > BASE_TEMPERATURE) {
+                return quantize(current - NATURAL_CHANGE_RATE);
+            } else if (current < BASE_TEMPERATURE) {
+                return quantize(current + NATURAL_CHANGE_RATE);
             }
-        } else {
-            // Если температура выше чем (цель - 0.5), то охлаждаем
-            if (getCurrentValue() > targetValue - getThreshold()) {
-                setCurrentValue(getCurrentValue() - NATURAL_CHANGE_RATE);
+            return current;
+        }
+        // Если температура выше чем (цель - 0.5), то охлаждаем
+        if (current > target - THRESHOLD) {
+            return quantize(current - NATURAL_CHANGE_RATE);
+        }
+        return current;
+    }
+
+    //Округляет температуру до сетки GRID: n шагов подряд дают то же значение, что и n * шаг сразу
+    static double quantize(double value) {
+        return Math.rint(value * GRID) / GRID;
+    }
+
+    private static final class Kind implements DeviceKind {
+        private static final ValueInput INPUT = new ValueInput("Настройка температуры",
+            "Введите желаемую температуру", "Температура (макс. 30°C):", 30.0,
+            "%.1f", "Ошибка: неверный формат температуры");
+
+        @Override
+        public String name() {
+            return "thermostat";
+        }
+
+        @Override
+        public String title() {
+            return "Термостат";
+        }
+
+        @Override
+        public double initialValue() {
+            return BASE_TEMPERATURE;
+        }
+
+        @Override
+        public SmartDevice view(DeviceStore store, int i) {
+            return new Thermostat(store, i);
+        }
+
+        @Override
+        public void tick(DeviceStore store, int[] devices, int from, int to) {
+            for (int k = from; k < to; k++) {
+                int i = devices[k];
+                Thermostat.updateCurrentValue(store, i);
+                Thermostat.analyzeAndAdjust(store, i);
             }
         }
+
+        @Override
+        public void updateCurrentValue(DeviceStore store, int i) {
+            Thermostat.updateCurrentValue(store, i);
+        }
+
+        @Override
+        public void analyzeAndAdjust(DeviceStore store, int i) {
+            Thermostat.analyzeAndAdjust(store, i);
+        }
+
+        @Override
+        public String valueFormat() {
+            return "%.1f°C";
+        }
+
+        @Override
+        public DeviceIcon icon() {
+            return new HouseRenderer.ThermostatIcon();
+        }
+
+        @Override
+        public ValueInput valueInput() {
+            return INPUT;
+        }
     }
 }
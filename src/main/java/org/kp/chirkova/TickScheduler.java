@@ -0,0 +1,225 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//Планировщик тика: делит активное множество устройств на блоки и обрабатывает их параллельно в ForkJoinPool.
+//Устройства внутри тика независимы, поэтому блоки не синхронизируются между собой.
+//Границы блоков зависят только от chunkSize, а частичные результаты сливаются в порядке блоков,
+//поэтому итоговая мощность и порядок активного списка не зависят от числа потоков.
+//Устройство, у которого тик не изменил ни показания, ни мощность, выпадает из активного множества.
+//Изменения мощности собираются по блокам и после барьера передаются в EnergyLedger в порядке блоков.
+//Внутри блока устройства раскладываются по видам, и шаг вызывается один раз на группу вида
+//(DeviceKind.tick), поэтому цикл по устройствам не разветвляется по виду на каждом устройстве
+
+public class TickScheduler implements AutoCloseable {
+    // Размер блока по умолчанию (устройств на задачу)
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final int chunkSize;
+
+    // Число оставшихся активными устройств и устройств с изменившейся мощностью по блокам
+    private int[] chunkKept = new int[0];
+    private int[] chunkChanged = new int[0];
+
+    // Блок c пишет в эти массивы начиная с позиции c * chunkSize:
+    // оставшиеся активными устройства и устройства с изменившейся мощностью (и их прежняя мощность)
+    private int[] nextActive = new int[0];
+    private int[] changedDevices = new int[0];
+    private double[] changedOldPower = new double[0];
+
+    // Блок c раскладывает свои устройства по видам в grouped (тоже с позиции c * chunkSize),
+    // а показания и мощность до шага запоминает по позиции в активном списке
+    private int[] grouped = new int[0];
+    private double[] oldValues = new double[0];
+    private double[] oldPowers = new double[0];
+    // Начала групп видов блока c: kindStart[c * (KIND_COUNT + 1) + вид]
+    private int[] kindStart = new int[0];
+
+    // Количество устройств, обработанных последним тиком
+    private int lastProcessed;
+    // Метрики текущего тика: стоимость шага по видам (null - не собираются)
+    private EngineMetrics metrics;
+
+    //Планировщик на общем пуле ForkJoinPool
+    public TickScheduler() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, false);
+    }
+
+    //Планировщик с собственным пулом на parallelism потоков
+    public TickScheduler(int parallelism, int chunkSize) {
+        this(new ForkJoinPool(parallelism), chunkSize, true);
+    }
+
+    private TickScheduler(ForkJoinPool pool, int chunkSize, boolean ownsPool) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Размер блока должен быть положительным: " + chunkSize);
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.ownsPool = ownsPool;
+    }
+
+    //Выполняет тик для активных устройств хранилища и возвращает суммарную мощность всех устройств.
+    //Возврат из метода - барьер: к этому моменту все блоки обработаны
+    public double tick(DeviceStore store) {
+        return tick(store, null);
+    }
+
+    //Выполняет тик, добавляя в metrics время шага групп по видам устройств
+    public double tick(DeviceStore store, EngineMetrics metrics) {
+        this.metrics = metrics;
+        int count = store.activeCount;
+        int chunks = (count + chunkSize - 1) / chunkSize;
+        if (chunkKept.length < chunks) {
+            chunkKept = new int[chunks];
+            chunkChanged = new int[chunks];
+            kindStart = new int[chunks * (DeviceStore.KIND_COUNT + 1)];
+        }
+        if (nextActive.length < count) {
+            nextActive = new int[store.activeList.length];
+            changedDevices = new int[store.activeList.length];
+            changedOldPower = new double[store.activeList.length];
+            grouped = new int[store.activeList.length];
+            oldValues = new double[store.activeList.length];
+            oldPowers = new double[store.activeList.length];
+        }
+
+        if (chunks <= 1 || pool.getParallelism() == 1) {
+            // Мелкие дома не стоят переключения потоков
+            for (int c = 0; c < chunks; c++) {
+                runChunk(store, c);
+            }
+        } else {
+            pool.invoke(new ChunkTask(store, 0, chunks));
+        }
+
+        // Детерминированное слияние: всегда в порядке блоков
+        EnergyLedger ledger = store.ledger;
+        double[] power = store.powerConsumption;
+        int kept = 0;
+        for (int c = 0; c < chunks; c++) {
+            int from = c * chunkSize;
+            for (int k = from, end = from + chunkChanged[c]; k < end; k++) {
+                int i = changedDevices[k];
+                ledger.powerChanged(i, changedOldPower[k], power[i]);
+            }
+            System.arraycopy(nextActive, from, store.activeList, kept, chunkKept[c]);
+            kept += chunkKept[c];
+        }
+        store.activeCount = kept;
+        lastProcessed = count;
+        return ledger.getTotalPower();
+    }
+
+    private void runChunk(DeviceStore store, int chunk) {
+        int from = chunk * chunkSize;
+        int to = Math.min(store.activeCount, from + chunkSize);
+        int[] list = store.activeList;
+        byte[] kinds = store.kind;
+        double[] current = store.currentValue;
+        double[] power = store.powerConsumption;
+
+        // Раскладка по видам подсчетом: сначала размеры групп, потом позиции
+        int bounds = chunk * (DeviceStore.KIND_COUNT + 1);
+        Arrays.fill(kindStart, bounds, bounds + DeviceStore.KIND_COUNT + 1, 0);
+        for (int k = from; k < to; k++) {
+            int i = list[k];
+            oldValues[k] = current[i];
+            oldPowers[k] = power[i];
+            kindStart[bounds + kinds[i] + 1]++;
+        }
+        kindStart[bounds] = from;
+        for (int kind = 1; kind <= DeviceStore.KIND_COUNT; kind++) {
+            kindStart[bounds + kind] += kindStart[bounds + kind - 1];
+        }
+        for (int k = from; k < to; k++) {
+            int i = list[k];
+            grouped[kindStart[bounds + kinds[i]]++] = i;
+        }
+        // После раскладки kindStart[вид] указывает на конец группы вида (начало следующей)
+        int start = from;
+        for (int kind = 0; kind < DeviceStore.KIND_COUNT; kind++) {
+            int end = kindStart[bounds + kind];
+            if (start < end) {
+                if (metrics != null) {
+                    long started = System.nanoTime();
+                    DeviceKinds.get(kind).tick(store, grouped, start, end);
+                    metrics.recordKind(kind, System.nanoTime() - started, end - start);
+                } else {
+                    DeviceKinds.get(kind).tick(store, grouped, start, end);
+                }
+            }
+            start = end;
+        }
+
+        // Итоги собираются в порядке активного списка, как при пошаговом обходе
+        int kept = from;
+        int changed = from;
+        for (int k = from; k < to; k++) {
+            int i = list[k];
+            double oldValue = oldValues[k];
+            double oldPower = oldPowers[k];
+            if (power[i] != oldPower) {
+                changedDevices[changed] = i;
+                changedOldPower[changed++] = oldPower;
+            }
+            if (current[i] == oldValue && power[i] == oldPower) {
+                // Тик ничего не изменил - устройство в устойчивом состоянии
+                store.active[i] = false;
+            } else {
+                nextActive[kept++] = i;
+            }
+        }
+        chunkKept[chunk] = kept - from;
+        chunkChanged[chunk] = changed - from;
+    }
+
+    //Возвращает количество устройств, обработанных последним тиком
+    public int getLastProcessed() {
+        return lastProcessed;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    //Задача над диапазоном блоков [fromChunk, toChunk): делится пополам до одного блока
+    //(задачи не сериализуются, хотя RecursiveAction - Serializable)
+    @SuppressWarnings("serial")
+    private final class ChunkTask extends RecursiveAction {
+        private final DeviceStore store;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(DeviceStore store, int fromChunk, int toChunk) {
+            this.store = store;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk == 1) {
+                runChunk(store, fromChunk);
+                return;
+            }
+            int middle = (fromChunk + toChunk) >>> 1;
+            invokeAll(new ChunkTask(store, fromChunk, middle), new ChunkTask(store, middle, toChunk));
+        }
+    }
+}
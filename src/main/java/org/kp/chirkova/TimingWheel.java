@@ -0,0 +1,202 @@
+package org.kp.chirkova;
+
+import java.util.Arrays;
+
+//Иерархическое колесо таймеров по тикам симуляции. Таймер - целый номер (например, номер правила)
+//со сроком в тиках. Уровень 0 - 64 слота по одному тику, каждый следующий уровень - 64 слота по 64
+//слота предыдущего; таймер кладется на уровень, где его срок впервые отличается от текущего тика.
+//При переходе через границу блока слот верхнего уровня раскладывается на нижние, поэтому каждый тик
+//обрабатывает только наступившие таймеры, сколько бы их ни было всего. Сроки дальше горизонта
+//колеса ждут в отдельном списке
+
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final int NONE = -1;
+    // Место таймера: уровень * SLOTS + слот, список за горизонтом или вне колеса
+    private static final int OVERFLOW = LEVELS * SLOTS;
+    private static final int IDLE = -1;
+
+    // Последний обработанный тик
+    private long now;
+
+    // Первые таймеры слотов (и списка за горизонтом - последний элемент)
+    private final int[] heads = new int[OVERFLOW + 1];
+
+    // По номеру таймера: срок, место и соседи в двусвязном списке места
+    private long[] deadline = new long[16];
+    private int[] where = new int[16];
+    private int[] next = new int[16];
+    private int[] prev = new int[16];
+    private int size;
+
+    // Наступившие таймеры последнего advance()
+    private int[] due = new int[16];
+
+    public TimingWheel(long startTick) {
+        now = startTick;
+        Arrays.fill(heads, NONE);
+        Arrays.fill(where, IDLE);
+    }
+
+    //Ставит (или переносит) таймер id на тик tick; срок не раньше следующего тика
+    public void schedule(int id, long tick) {
+        if (id >= where.length) {
+            grow(Math.max(id + 1, where.length * 2));
+        }
+        if (where[id] != IDLE) {
+            unlink(id);
+        } else {
+            size++;
+        }
+        deadline[id] = Math.max(tick, now + 1);
+        place(id);
+    }
+
+    //Снимает таймер id (если он стоит)
+    public void cancel(int id) {
+        if (id < where.length && where[id] != IDLE) {
+            unlink(id);
+            where[id] = IDLE;
+            size--;
+        }
+    }
+
+    public boolean isScheduled(int id) {
+        return id < where.length && where[id] != IDLE;
+    }
+
+    public long getDeadline(int id) {
+        return deadline[id];
+    }
+
+    //Продвигает колесо до тика tick включительно. Возвращает число наступивших таймеров; их номера -
+    //первые элементы getDue() в порядке сроков. Наступившие таймеры снимаются с колеса
+    public int advance(long tick) {
+        int count = 0;
+        if (size == 0) {
+            now = Math.max(now, tick);
+            return 0;
+        }
+        while (now < tick) {
+            now++;
+            // Начался новый блок уровня: его слот раскладывается на нижние уровни (сверху вниз)
+            if ((now & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+                cascade(OVERFLOW);
+            }
+            for (int level = LEVELS - 1; level >= 1; level--) {
+                if ((now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level * SLOTS + slot(now, level));
+                }
+            }
+            int slot = slot(now, 0);
+            for (int id = heads[slot]; id != NONE; ) {
+                int following = next[id];
+                where[id] = IDLE;
+                size--;
+                if (count == due.length) {
+                    due = Arrays.copyOf(due, count * 2);
+                }
+                due[count++] = id;
+                id = following;
+            }
+            heads[slot] = NONE;
+            if (size == 0) {
+                now = tick;
+            }
+        }
+        return count;
+    }
+
+    public int[] getDue() {
+        return due;
+    }
+
+    //Возвращает ближайший срок среди стоящих таймеров (Long.MAX_VALUE - таймеров нет)
+    public long nextDeadline() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        // Первый непустой слот после текущего на самом нижнем уровне содержит ближайший срок
+        for (int level = 0; level < LEVELS; level++) {
+            for (int s = slot(now, level) + 1; s < SLOTS; s++) {
+                int head = heads[level * SLOTS + s];
+                if (head != NONE) {
+                    return minDeadline(head);
+                }
+            }
+        }
+        return minDeadline(heads[OVERFLOW]);
+    }
+
+    public long getNow() {
+        return now;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private long minDeadline(int head) {
+        long min = Long.MAX_VALUE;
+        for (int id = head; id != NONE; id = next[id]) {
+            min = Math.min(min, deadline[id]);
+        }
+        return min;
+    }
+
+    //Кладет таймер на уровень, где его срок впервые совпадает с текущим тиком во всех старших разрядах
+    private void place(int id) {
+        long tick = deadline[id];
+        int position = OVERFLOW;
+        for (int level = 0; level < LEVELS; level++) {
+            if ((tick >>> (SLOT_BITS * (level + 1))) == (now >>> (SLOT_BITS * (level + 1)))) {
+                position = level * SLOTS + slot(tick, level);
+                break;
+            }
+        }
+        where[id] = position;
+        prev[id] = NONE;
+        next[id] = heads[position];
+        if (heads[position] != NONE) {
+            prev[heads[position]] = id;
+        }
+        heads[position] = id;
+    }
+
+    //Раскладывает таймеры места position заново относительно текущего тика
+    private void cascade(int position) {
+        int id = heads[position];
+        heads[position] = NONE;
+        while (id != NONE) {
+            int following = next[id];
+            place(id);
+            id = following;
+        }
+    }
+
+    private void unlink(int id) {
+        if (prev[id] != NONE) {
+            next[prev[id]] = next[id];
+        } else {
+            heads[where[id]] = next[id];
+        }
+        if (next[id] != NONE) {
+            prev[next[id]] = prev[id];
+        }
+    }
+
+    private static int slot(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    }
+
+    private void grow(int capacity) {
+        int old = where.length;
+        deadline = Arrays.copyOf(deadline, capacity);
+        where = Arrays.copyOf(where, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        Arrays.fill(where, old, capacity, IDLE);
+    }
+}
@@ -0,0 +1,97 @@
+package org.kp.chirkova;
+
+//Область просмотра плана дома: перенос и масштаб между координатами плана и экрана.
+//Экранная точка = (точка плана - origin) * scale. Не зависит от JavaFX
+
+public class Viewport {
+    // Допустимый масштаб (1.0 - план в натуральную величину)
+    public static final double MIN_SCALE = 0.005;
+    public static final double MAX_SCALE = 8.0;
+
+    // Поля вокруг плана при показе его целиком (в пикселях экрана)
+    private static final double FIT_MARGIN = 20.0;
+
+    // Точка плана в левом верхнем углу экрана и масштаб
+    private double originX;
+    private double originY;
+    private double scale = 1.0;
+
+    // Счетчик изменений: по нему отрисовка понимает, что кадр нужно перерисовать целиком
+    private long version;
+
+    //Сдвигает план на dx, dy пикселей экрана (перетаскивание)
+    public void pan(double dx, double dy) {
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        originX -= dx / scale;
+        originY -= dy / scale;
+        version++;
+    }
+
+    //Меняет масштаб в factor раз, оставляя точку экрана (screenX, screenY) на месте
+    public void zoomAt(double factor, double screenX, double screenY) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        if (newScale == scale) {
+            return;
+        }
+        double worldX = toWorldX(screenX);
+        double worldY = toWorldY(screenY);
+        scale = newScale;
+        originX = worldX - screenX / scale;
+        originY = worldY - screenY / scale;
+        version++;
+    }
+
+    //Показывает прямоугольник плана целиком на экране размером width x height
+    public void fit(double left, double top, double right, double bottom, double width, double height) {
+        double contentWidth = Math.max(right - left, 1.0);
+        double contentHeight = Math.max(bottom - top, 1.0);
+        double fitScale = Math.min((width - 2 * FIT_MARGIN) / contentWidth, (height - 2 * FIT_MARGIN) / contentHeight);
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, fitScale));
+        // Центрируем содержимое
+        originX = (left + right) / 2 - width / 2 / scale;
+        originY = (top + bottom) / 2 - height / 2 / scale;
+        version++;
+    }
+
+    //Возвращает исходный вид: план в натуральную величину от точки (0, 0)
+    public void reset() {
+        originX = 0;
+        originY = 0;
+        scale = 1.0;
+        version++;
+    }
+
+    public double toScreenX(double worldX) {
+        return (worldX - originX) * scale;
+    }
+
+    public double toScreenY(double worldY) {
+        return (worldY - originY) * scale;
+    }
+
+    public double toWorldX(double screenX) {
+        return originX + screenX / scale;
+    }
+
+    public double toWorldY(double screenY) {
+        return originY + screenY / scale;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,185 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceCommandsTest {
+
+    private static final int DEVICES = 3000;
+    private static final int PRODUCERS = 4;
+    private static final int COMMANDS_PER_PRODUCER = 20_000;
+    private static final int REJECTED_PER_PRODUCER = 7;
+
+    // Последние значения полей по устройству (KEEP - команд не было)
+    private static final byte KEEP = 0;
+    private static final byte OFF = 1;
+    private static final byte ON = 2;
+
+    //Термостаты, свет и камеры по очереди; нечетные включены
+    private static DeviceStore house(int count) {
+        DeviceStore store = new DeviceStore(count);
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0 -> store.addThermostat(null, i, 0, 20.0);
+                case 1 -> store.addLight(null, i, 0, 50.0);
+                default -> store.addCamera(null, i, 0, 100.0);
+            }
+            store.setOn(i, i % 2 == 1);
+        }
+        return store;
+    }
+
+    @Test
+    void producersThenOneDrain() throws InterruptedException {
+        DeviceStore store = house(DEVICES);
+        boolean[] initialOn = Arrays.copyOf(store.on, DEVICES);
+        double[] initialTarget = Arrays.copyOf(store.targetValue, DEVICES);
+        boolean[] initialMotion = Arrays.copyOf(store.motion, DEVICES);
+
+        // Каждый производитель командует своими устройствами (i % PRODUCERS), поэтому последняя команда
+        // по устройству и полю известна заранее, как бы ни перемешались потоки
+        byte[] lastOn = new byte[DEVICES];
+        byte[] lastMotion = new byte[DEVICES];
+        double[] lastTarget = new double[DEVICES];
+        Arrays.fill(lastTarget, Double.NaN);
+
+        DeviceCommands commands = new DeviceCommands();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int t = 0; t < PRODUCERS; t++) {
+            int producer = t;
+            producers[t] = new Thread(() -> {
+                Random random = new Random(19 + producer);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int k = 0; k < COMMANDS_PER_PRODUCER; k++) {
+                    int device = random.nextInt(DEVICES / PRODUCERS) * PRODUCERS + producer;
+                    switch (random.nextInt(3)) {
+                        case 0 -> {
+                            boolean on = random.nextBoolean();
+                            commands.setOn(device, on);
+                            lastOn[device] = on ? ON : OFF;
+                        }
+                        case 1 -> {
+                            // Часть целей совпадает с текущей и не должна менять хранилище
+                            double target = random.nextBoolean() ? initialTarget[device] : random.nextInt(40);
+                            commands.setTargetValue(device, target);
+                            lastTarget[device] = target;
+                        }
+                        default -> {
+                            boolean motion = random.nextBoolean();
+                            commands.setMotion(device, motion);
+                            lastMotion[device] = motion ? ON : OFF;
+                        }
+                    }
+                }
+                for (int k = 0; k < REJECTED_PER_PRODUCER; k++) {
+                    commands.setOn(DEVICES + producer * 100 + k, true);
+                }
+            });
+            producers[t].start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        long total = (long) PRODUCERS * (COMMANDS_PER_PRODUCER + REJECTED_PER_PRODUCER);
+        assertEquals(total, commands.getSubmittedCount());
+        assertFalse(commands.isEmpty());
+        assertEquals(total, commands.drain(store));
+        assertTrue(commands.isEmpty());
+        assertEquals(commands.getSubmittedCount(), commands.getDrainedCount());
+        assertEquals(PRODUCERS * REJECTED_PER_PRODUCER, commands.getRejectedCount());
+
+        boolean[] expectedOn = initialOn.clone();
+        double[] expectedTarget = initialTarget.clone();
+        boolean[] expectedMotion = initialMotion.clone();
+        long expectedChanges = 0;
+        for (int i = 0; i < DEVICES; i++) {
+            if (lastOn[i] != KEEP && initialOn[i] != (lastOn[i] == ON)) {
+                expectedOn[i] = lastOn[i] == ON;
+                expectedChanges++;
+            }
+            if (!Double.isNaN(lastTarget[i]) && initialTarget[i] != lastTarget[i]) {
+                expectedTarget[i] = lastTarget[i];
+                expectedChanges++;
+            }
+            if (lastMotion[i] != KEEP && initialMotion[i] != (lastMotion[i] == ON)) {
+                expectedMotion[i] = lastMotion[i] == ON;
+                expectedChanges++;
+            }
+        }
+        assertArrayEquals(expectedOn, Arrays.copyOf(store.on, DEVICES));
+        assertArrayEquals(expectedTarget, Arrays.copyOf(store.targetValue, DEVICES));
+        assertArrayEquals(expectedMotion, Arrays.copyOf(store.motion, DEVICES));
+        assertEquals(expectedChanges, commands.getChangeCount());
+        // Команд намного больше, чем изменений: остальные объединены или повторяли состояние
+        assertTrue(expectedChanges < 3L * DEVICES);
+
+        // Повтор того же состояния ничего не меняет
+        for (int i = 0; i < DEVICES; i++) {
+            commands.setOn(i, store.on[i]);
+            commands.setTargetValue(i, store.targetValue[i]);
+        }
+        assertEquals(2L * DEVICES, commands.drain(store));
+        assertEquals(expectedChanges, commands.getChangeCount());
+        assertEquals(commands.getSubmittedCount(), commands.getDrainedCount());
+        assertEquals(0, commands.drain(store));
+    }
+
+    @Test
+    void lastWriteWinsPerFieldAndBuffersGrowWithStore() {
+        DeviceStore store = house(3);
+        DeviceCommands commands = new DeviceCommands();
+        commands.setTargetValue(0, 25.0);
+        commands.setOn(0, true);
+        commands.setTargetValue(0, 23.0);
+        commands.setOn(0, false);
+        commands.setOn(0, true);
+        commands.setOn(50, true);
+        assertEquals(6, commands.drain(store));
+        assertEquals(23.0, store.targetValue[0]);
+        assertTrue(store.on[0]);
+        assertEquals(2, commands.getChangeCount());
+        assertEquals(1, commands.getRejectedCount());
+
+        // Пачка без цели не повторяет цель прошлой пачки
+        store.setTargetValue(0, 19.0);
+        commands.setOn(0, false);
+        commands.drain(store);
+        assertEquals(19.0, store.targetValue[0]);
+        assertFalse(store.on[0]);
+        assertEquals(3, commands.getChangeCount());
+
+        // Хранилище выросло: буферы пачки растут вместе с ним, новые устройства без команд не меняются
+        for (int i = 3; i < 200; i++) {
+            store.addThermostat(null, i, 0, 21.0);
+        }
+        commands.setOn(50, true);
+        commands.setTargetValue(150, 24.0);
+        commands.setOn(199, true);
+        commands.setOn(199, false);
+        assertEquals(4, commands.drain(store));
+        assertTrue(store.on[50]);
+        assertEquals(21.0, store.targetValue[50]);
+        assertEquals(24.0, store.targetValue[150]);
+        assertFalse(store.on[150]);
+        assertFalse(store.on[199]);
+        assertEquals(5, commands.getChangeCount());
+        assertEquals(1, commands.getRejectedCount());
+        assertEquals(commands.getSubmittedCount(), commands.getDrainedCount());
+    }
+}
@@ -0,0 +1,88 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceGatewayTest {
+
+    //Поток, отдающий байты маленькими порциями, как медленный сокет
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+    }
+
+    @Test
+    void linesSplitAcrossReadsAndLongerThanBuffer() throws IOException {
+        String longLine = "ERR " + "неизвестная команда ".repeat(40);
+        byte[] input = ("OK Термостат\r\n" + longLine + "\nSTATE 1 20.5 21.0 1500.0\n\nпоследняя")
+            .getBytes(StandardCharsets.UTF_8);
+        assertTrue(longLine.getBytes(StandardCharsets.UTF_8).length > DeviceGateway.Lines.BUFFER_SIZE);
+
+        DeviceGateway.Lines lines = new DeviceGateway.Lines(trickle(input), new ByteArrayOutputStream());
+        assertEquals("OK Термостат", lines.read());
+        assertEquals(longLine, lines.read());
+        assertEquals("STATE 1 20.5 21.0 1500.0", lines.read());
+        assertEquals("", lines.read());
+        assertEquals("последняя", lines.read());
+        assertNull(lines.read());
+    }
+
+    @Test
+    void linesAreWrittenWholeAndLimitedInLength() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeviceGateway.Lines lines = new DeviceGateway.Lines(new ByteArrayInputStream(new byte[0]), out);
+        lines.write("TARGET 22.5");
+        lines.write("DEVICE 7");
+        assertArrayEquals("TARGET 22.5\nDEVICE 7\n".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+        byte[] endless = new byte[DeviceGateway.Lines.MAX_LINE + 1];
+        DeviceGateway.Lines flood = new DeviceGateway.Lines(new ByteArrayInputStream(endless), out);
+        assertThrows(IOException.class, flood::read);
+    }
+
+    @Test
+    void gatewayPollsAndCommandsStandInDevices() throws Exception {
+        int count = 6;
+        try (StandInDeviceServer server = StandInDeviceServer.start(count, Duration.ofMillis(10))) {
+            DeviceStore store = new DeviceStore(count);
+            for (int i = 0; i < count; i++) {
+                store.addThermostat(null, i * 150.0, 0, 18.0);
+            }
+            try (DeviceGateway gateway = new DeviceGateway(store, Duration.ofSeconds(5), Duration.ofMillis(20))) {
+                for (int i = 0; i < count; i++) {
+                    gateway.attach(i, server.getAddress(), i);
+                }
+                // Устройство 0 стенда - термостат: команда доходит и видна в следующих опросах
+                gateway.setTargetValue(0, 24.5).get(10, TimeUnit.SECONDS);
+                gateway.setOn(0, true).get(10, TimeUnit.SECONDS);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while ((store.targetValue[0] != 24.5 || !store.on[0] || gateway.getConnectedCount() < count)
+                        && System.nanoTime() < deadline) {
+                    gateway.applyReadings();
+                    Thread.sleep(10);
+                }
+                assertEquals(24.5, store.targetValue[0]);
+                assertTrue(store.on[0]);
+                assertEquals(count, gateway.getConnectedCount());
+                assertEquals(0, gateway.getFailureCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScenarioDefinitionTest {
+
+    // Правила пересекаются: каждое следующее переопределяет часть предыдущих
+    private static final String DEFINITION = """
+        # все выключить, затем включить свет, затем уточнить по комнате, устройству и виду
+        name Вечер
+        room Спальня 0 0 300 300
+
+        all: off target 10
+        light: on target 40
+        room Спальня: target 22
+        room Спальня light: off
+        device Лампа у окна: on target 80
+        thermostat: target 19,5
+        """;
+
+    //Сетка 3x3 с шагом 200: термостат, свет и камера по очереди, все включены.
+    //В комнату Спальня попадают устройства 0, 1, 3 и 4; устройство 7 - "Лампа у окна"
+    private static DeviceStore house() {
+        DeviceStore store = new DeviceStore(9);
+        for (int i = 0; i < 9; i++) {
+            double x = i % 3 * 200 + 50;
+            double y = i / 3 * 200 + 50;
+            String name = i == 7 ? "Лампа у окна" : "Устройство " + i;
+            switch (i % 3) {
+                case 0 -> store.addThermostat(name, x, y, 21.0);
+                case 1 -> store.addLight(name, x, y, 60.0);
+                default -> store.addCamera(name, x, y, 100.0);
+            }
+            store.setOn(i, true);
+        }
+        return store;
+    }
+
+    @Test
+    void laterRulesOverrideEarlierOnes() throws IOException {
+        DeviceStore store = house();
+        ScenarioDefinition definition = ScenarioDefinition.parse(new StringReader(DEFINITION), "тест");
+        assertEquals("Вечер", definition.getName());
+        Scenario scenario = definition.compile(store);
+        assertEquals(9, scenario.getMembers().length);
+        assertFalse(scenario.isApplied());
+
+        // Выключены все, кроме лампы из правила device; цели всех 9 устройств другие
+        assertEquals(8 + 9, scenario.activate());
+        assertTrue(scenario.isApplied());
+        assertArrayEquals(new boolean[] {false, false, false, false, false, false, false, true, false},
+            Arrays.copyOf(store.on, 9));
+        // 0, 3, 6 - термостаты (правило вида последнее, и в комнате тоже); 1, 4 - свет в комнате;
+        // 7 - устройство по имени; камеры и остальной свет - из all и light
+        assertArrayEquals(new double[] {19.5, 22, 10, 19.5, 22, 10, 19.5, 80, 10},
+            Arrays.copyOf(store.targetValue, 9));
+
+        // Повторная активация ничего не меняет
+        assertEquals(0, scenario.activate());
+        assertTrue(scenario.isApplied());
+
+        // После ручных изменений активируются только отличия
+        store.setOn(2, true);
+        store.setTargetValue(0, 25.0);
+        store.setTargetValue(5, 10.0);
+        assertFalse(scenario.isApplied());
+        assertEquals(2, scenario.activate());
+        assertEquals(0, scenario.activate());
+    }
+
+    @Test
+    void sameDefinitionCompilesForAnotherHouse() throws IOException {
+        ScenarioDefinition definition = ScenarioDefinition.parse(new StringReader(DEFINITION), "тест");
+        DeviceStore first = house();
+        DeviceStore second = house();
+        second.addLight("Ночник", 100, 100, 5.0);
+        definition.compile(first).activate();
+        Scenario scenario = definition.compile(second);
+        assertEquals(10, scenario.getMembers().length);
+        scenario.activate();
+        assertArrayEquals(Arrays.copyOf(first.targetValue, 9), Arrays.copyOf(second.targetValue, 9));
+        // Ночник попал в комнату: цель комнаты и выключение света комнаты
+        assertEquals(22.0, second.targetValue[9]);
+        assertFalse(second.on[9]);
+    }
+
+    @Test
+    void malformedDefinitionsAreRejected() {
+        String[] broken = {
+            "all: on",
+            "name Х\nroom Кухня: on",
+            "name Х\nheater: on",
+            "name Х\nall: target",
+            "name Х\nall:",
+            "name Х\nall: target abc",
+        };
+        for (String text : broken) {
+            assertThrows(IOException.class, () -> ScenarioDefinition.parse(new StringReader(text), "тест"), text);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulationEngineTest {
+
+    private static final long[] TICKS = {1, 7, 59, 240, 1013, 2400 + 37};
+
+    //Дом из count устройств по сетке: термостаты, свет и камеры по очереди, 80% включены
+    private static SimulationEngine mixedHouse(int count, long seed) {
+        Random random = new Random(seed);
+        DeviceStore store = new DeviceStore(count);
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        for (int i = 0; i < count; i++) {
+            double x = (i % columns + 0.5) * 150;
+            double y = (i / columns + 0.5) * 150;
+            switch (i % 3) {
+                case 0 -> store.addThermostat(null, x, y, 18.0 + random.nextInt(80) / 10.0);
+                case 1 -> store.addLight(null, x, y, random.nextInt(101));
+                default -> store.addCamera(null, x, y, 100.0);
+            }
+            if (random.nextInt(5) != 0) {
+                store.setOn(i, true);
+            }
+        }
+        return new SimulationEngine(store, Scenario.createKnownScenarios(store));
+    }
+
+    //Дом с активным сценарием
+    private static SimulationEngine houseWithScenario() {
+        SimulationEngine engine = mixedHouse(3000, 5);
+        engine.activateScenario(engine.getScenarios()[1]);
+        return engine;
+    }
+
+    //Дом с правилами автоматизации всех видов; сроки правил попадают внутрь перематываемых отрезков
+    private static SimulationEngine houseWithRules() {
+        SimulationEngine engine = mixedHouse(3000, 9);
+        engine.setGlobalTimeOfDay(2.0);
+        int[] thermostats = new int[40];
+        int[] lights = new int[40];
+        for (int i = 0; i < thermostats.length; i++) {
+            thermostats[i] = i * 3;
+            lights[i] = i * 3 + 1;
+        }
+        AutomationRules automation = engine.getAutomation();
+        automation.activateAt(2.5, engine.getScenarios()[0]);
+        automation.setTargetAt(9.3, lights, 35.0);
+        automation.setTargetWhen(3.0, 21.0, 17, thermostats, true, 20.0, 23.5);
+        automation.setTargetWhen(6.0, 23.0, 40, lights, false, 50.0, 10.0);
+        return engine;
+    }
+
+    //Сравнивает runTicks(n) и fastForward(n) на двух одинаковых домах: результаты совпадают точно
+    private static void assertSameAfter(Supplier<SimulationEngine> house, long ticks) {
+        SimulationEngine stepped = house.get();
+        SimulationEngine forwarded = house.get();
+        stepped.runTicks(ticks);
+        forwarded.fastForward(ticks);
+        String message = ticks + " тиков";
+        DeviceStore expected = stepped.getStore();
+        DeviceStore actual = forwarded.getStore();
+        int n = expected.size();
+        assertEquals(n, actual.size(), message);
+        assertEquals(stepped.getTickCount(), forwarded.getTickCount(), message);
+        assertEquals(stepped.getGlobalTimeOfDay(), forwarded.getGlobalTimeOfDay(), message);
+        assertArrayEquals(Arrays.copyOf(expected.on, n), Arrays.copyOf(actual.on, n), message);
+        assertArrayEquals(Arrays.copyOf(expected.targetValue, n), Arrays.copyOf(actual.targetValue, n), message);
+        assertArrayEquals(Arrays.copyOf(expected.currentValue, n), Arrays.copyOf(actual.currentValue, n), message);
+        assertArrayEquals(Arrays.copyOf(expected.powerConsumption, n), Arrays.copyOf(actual.powerConsumption, n),
+            message);
+        assertEquals(stepped.getCurrentPower(), forwarded.getCurrentPower(), message);
+        assertEquals(stepped.getTotalEnergy(), forwarded.getTotalEnergy(), message);
+        assertEquals(stepped.getPeakPower(), forwarded.getPeakPower(), message);
+    }
+
+    @Test
+    void fastForwardMatchesTicksOnDefaultHouse() {
+        for (long ticks : TICKS) {
+            assertSameAfter(SimulationEngine::createDefaultHouse, ticks);
+        }
+    }
+
+    @Test
+    void fastForwardMatchesTicksOnMixedHouse() {
+        for (long ticks : TICKS) {
+            assertSameAfter(() -> mixedHouse(3000, 3), ticks);
+        }
+    }
+
+    @Test
+    void fastForwardMatchesTicksWithActiveScenario() {
+        for (long ticks : TICKS) {
+            assertSameAfter(SimulationEngineTest::houseWithScenario, ticks);
+        }
+    }
+
+    @Test
+    void fastForwardMatchesTicksWithAutomationRules() {
+        for (long ticks : TICKS) {
+            assertSameAfter(SimulationEngineTest::houseWithRules, ticks);
+        }
+        SimulationEngine engine = houseWithRules();
+        engine.fastForward(2400);
+        assertTrue(engine.getAutomation().getFiredCount() > 0, "правила срабатывали внутри перемотки");
+    }
+}
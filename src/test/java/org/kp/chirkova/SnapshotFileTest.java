@@ -0,0 +1,292 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotFileTest {
+
+    // Поля заголовка, которые портят тесты
+    private static final int HEADER_STATE = 8;
+    private static final int HEADER_SIZE = 12;
+    private static final int HEADER_KINDS = 72;
+    private static final int HEADER_SECTIONS = 80;
+    private static final int SECTION_KIND = 0;
+    private static final int SECTION_KIND_NAMES = 11;
+
+    @TempDir
+    Path directory;
+
+    private static SimulationEngine runningHouse() {
+        SimulationEngine engine = SimulationEngine.createDefaultHouse();
+        engine.activateScenario(engine.getScenarios()[1]);
+        engine.runTicks(300);
+        return engine;
+    }
+
+    private static void assertSameState(SimulationEngine expected, SimulationEngine actual) {
+        DeviceStore a = expected.getStore();
+        DeviceStore b = actual.getStore();
+        int n = a.size();
+        assertEquals(n, b.size());
+        assertArrayEquals(Arrays.copyOf(a.kind, n), Arrays.copyOf(b.kind, n));
+        assertArrayEquals(Arrays.copyOf(a.on, n), Arrays.copyOf(b.on, n));
+        assertArrayEquals(Arrays.copyOf(a.currentValue, n), Arrays.copyOf(b.currentValue, n));
+        assertArrayEquals(Arrays.copyOf(a.targetValue, n), Arrays.copyOf(b.targetValue, n));
+        assertArrayEquals(Arrays.copyOf(a.x, n), Arrays.copyOf(b.x, n));
+        assertArrayEquals(Arrays.copyOf(a.names, n), Arrays.copyOf(b.names, n));
+        assertEquals(expected.getTickCount(), actual.getTickCount());
+        assertEquals(expected.getGlobalTimeOfDay(), actual.getGlobalTimeOfDay());
+        assertEquals(expected.getTotalEnergy(), actual.getTotalEnergy());
+        assertEquals(expected.getActiveScenario().getName(), actual.getActiveScenario().getName());
+    }
+
+    private static void putInt(Path file, int offset, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value), offset);
+        }
+    }
+
+    private static int getInt(Path file, int offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, offset);
+            return buffer.getInt(0);
+        }
+    }
+
+    private static long getLong(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, offset);
+            return buffer.getLong(0);
+        }
+    }
+
+    //Переписывает таблицу имен видов снимка в обратном порядке и переводит номера видов устройств,
+    //как если бы файл записал процесс с другим набором подключенных видов
+    private static void reverseKindTable(Path file, String replaced, String replacement) throws IOException {
+        int kinds = getInt(file, HEADER_KINDS);
+        long namesOffset = getLong(file, HEADER_SECTIONS + SECTION_KIND_NAMES * 2 * Long.BYTES);
+        long kindOffset = getLong(file, HEADER_SECTIONS + SECTION_KIND * 2 * Long.BYTES);
+        int n = getInt(file, HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer table = ByteBuffer.allocate(
+                (int) getLong(file, HEADER_SECTIONS + SECTION_KIND_NAMES * 2 * Long.BYTES + Long.BYTES));
+            channel.read(table.order(ByteOrder.LITTLE_ENDIAN), namesOffset);
+            String[] names = new String[kinds];
+            int position = kinds * Integer.BYTES;
+            for (int k = 0; k < kinds; k++) {
+                byte[] bytes = new byte[table.getInt(k * Integer.BYTES)];
+                table.get(position, bytes);
+                names[k] = new String(bytes, StandardCharsets.UTF_8);
+                position += bytes.length;
+            }
+            ByteBuffer reversed = ByteBuffer.allocate(table.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+            for (int k = kinds - 1; k >= 0; k--) {
+                reversed.putInt(names[k].getBytes(StandardCharsets.UTF_8).length);
+            }
+            for (int k = kinds - 1; k >= 0; k--) {
+                String name = names[k].equals(replaced) ? replacement : names[k];
+                reversed.put(name.getBytes(StandardCharsets.UTF_8));
+            }
+            channel.write(reversed.clear(), namesOffset);
+
+            ByteBuffer kind = ByteBuffer.allocate(n);
+            channel.read(kind, kindOffset);
+            for (int i = 0; i < n; i++) {
+                kind.put(i, (byte) (kinds - 1 - kind.get(i)));
+            }
+            channel.write(kind.clear(), kindOffset);
+        }
+    }
+
+    @Test
+    void incrementalSavesRoundTrip() throws IOException {
+        Path path = directory.resolve("house.snapshot");
+        SimulationEngine engine = runningHouse();
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            // Два полных сохранения (по одному в каждое поколение), затем инкрементальные
+            for (int save = 0; save < 5; save++) {
+                snapshot.save(engine);
+                engine.runTicks(37);
+            }
+            engine.getCommands().setTargetValue(0, 25.0);
+            engine.runTicks(1);
+            snapshot.save(engine);
+            assertTrue(snapshot.getLastPagesWritten() < snapshot.getTotalPages(), "сохранение инкрементальное");
+        }
+        assertTrue(Files.exists(path) && Files.exists(path.resolveSibling("house.snapshot.1")));
+        assertSameState(engine, SnapshotFile.restore(path));
+    }
+
+    @Test
+    void interruptedSaveFallsBackToOlderGeneration() throws IOException {
+        Path path = directory.resolve("house.snapshot");
+        SimulationEngine engine = runningHouse();
+        SimulationEngine older;
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            snapshot.save(engine);
+            older = SnapshotFile.restore(path);
+            engine.runTicks(50);
+            snapshot.save(engine);
+        }
+        Path newer = path.resolveSibling("house.snapshot.1");
+        assertEquals(engine.getTickCount(), SnapshotFile.restore(path).getTickCount());
+
+        // Запись во второе поколение прервана: признак незавершенного снимка остался в заголовке
+        putInt(newer, HEADER_STATE, 1);
+        assertSameState(older, SnapshotFile.restore(path));
+
+        // Следующий запуск продолжает номера и пишет поверх поврежденного поколения
+        engine.runTicks(50);
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            snapshot.save(engine);
+        }
+        assertEquals(0, getInt(newer, HEADER_STATE));
+        assertSameState(engine, SnapshotFile.restore(path));
+    }
+
+    @Test
+    void corruptDeviceCountIsReportedAsIOException() throws IOException {
+        Path path = directory.resolve("house.snapshot");
+        SimulationEngine engine = runningHouse();
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            snapshot.save(engine);
+        }
+        int n = getInt(path, HEADER_SIZE);
+        for (int corrupt : new int[] {n + 1, n - 1, -1, Integer.MAX_VALUE}) {
+            putInt(path, HEADER_SIZE, corrupt);
+            assertThrows(IOException.class, () -> SnapshotFile.restore(path), "число устройств " + corrupt);
+        }
+        putInt(path, HEADER_SIZE, n);
+        assertSameState(engine, SnapshotFile.restore(path));
+    }
+
+    @Test
+    void kindsAreMatchedByName() throws IOException {
+        Path path = directory.resolve("house.snapshot");
+        SimulationEngine engine = runningHouse();
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            snapshot.save(engine);
+        }
+        reverseKindTable(path, null, null);
+        assertSameState(engine, SnapshotFile.restore(path));
+
+        // Вид, которого нет в этом процессе (имя той же длины, чтобы таблица не сдвинулась)
+        String light = Light.KIND.name();
+        reverseKindTable(path, light, "x".repeat(light.getBytes(StandardCharsets.UTF_8).length));
+        IOException error = assertThrows(IOException.class, () -> SnapshotFile.restore(path));
+        assertTrue(error.getMessage().contains("неизвестный вид"), error.getMessage());
+    }
+
+    @Test
+    void layoutScenariosSurviveRestore() throws IOException {
+        // Дом из раскладки с одним сценарием вместо двух известных
+        Path layout = directory.resolve("house.layout");
+        try (LayoutFile.Writer writer = LayoutFile.create(layout, LayoutFile.Format.TEXT)) {
+            writer.scenario("Гости", 23.0, 80.0);
+            writer.device(DeviceStore.KIND_THERMOSTAT, 0, 0, 20.0, 1L, "Термостат");
+            writer.device(DeviceStore.KIND_LIGHT, 200, 0, 40.0, 0L, "Свет коридора");
+            writer.device(DeviceStore.KIND_LIGHT, 400, 0, 40.0, 1L, "Свет гостиной");
+        }
+        SimulationEngine engine = LayoutFile.load(layout);
+        engine.activateScenario(engine.getScenarios()[0]);
+        engine.runTicks(100);
+
+        Path path = directory.resolve("house.snapshot");
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            snapshot.save(engine);
+        }
+        SimulationEngine restored = SnapshotFile.restore(path);
+        assertSameState(engine, restored);
+        Scenario[] scenarios = restored.getScenarios();
+        assertEquals(1, scenarios.length);
+        assertEquals("Гости", scenarios[0].getName());
+        assertArrayEquals(new int[] {0, 2}, scenarios[0].getMembers());
+        assertEquals(engine.getScenarios()[0].getTotalEnergyConsumed(), scenarios[0].getTotalEnergyConsumed());
+
+        // Восстановленный сценарий действует так же, как исходный
+        restored.reset();
+        assertFalse(scenarios[0].isApplied());
+        restored.activateScenario(scenarios[0]);
+        assertTrue(scenarios[0].isApplied());
+        assertEquals(23.0, restored.getStore().targetValue[0]);
+        assertEquals(80.0, restored.getStore().targetValue[2]);
+        assertEquals(40.0, restored.getStore().targetValue[1]);
+    }
+
+    @Test
+    void thermalModelSurvivesRestore() throws IOException {
+        SimulationEngine engine = runningHouse();
+        ThermalModel thermal = engine.getThermalModel();
+        assertTrue(thermal.addRoomsForThermostats(200) > 1);
+        thermal.setOutdoorTemperature(-2.0, 4.0);
+        int extra = thermal.addZone(500.0, 10.0, 12.0);
+        thermal.connect(0, extra, 5.0);
+        engine.runTicks(40);
+
+        Path path = directory.resolve("house.snapshot");
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            // Оба поколения полные, затем инкрементальное сохранение с новыми температурами помещений
+            for (int save = 0; save < 3; save++) {
+                snapshot.save(engine);
+                engine.runTicks(15);
+            }
+            snapshot.save(engine);
+        }
+        SimulationEngine restored = SnapshotFile.restore(path);
+        assertSameState(engine, restored);
+        ThermalModel copy = restored.getThermalModel();
+        assertEquals(thermal.getZoneCount(), copy.getZoneCount());
+        assertEquals(thermal.getWallCount(), copy.getWallCount());
+        for (int z = 0; z < thermal.getZoneCount(); z++) {
+            assertEquals(thermal.getTemperature(z), copy.getTemperature(z));
+        }
+        for (int i = 0; i < engine.getStore().size(); i++) {
+            assertEquals(thermal.getZone(i), copy.getZone(i));
+        }
+        assertEquals(thermal.getOutdoorTemperature(3.0), copy.getOutdoorTemperature(3.0));
+
+        // Дальше оба дома идут одинаково: помещения греются и остывают так же, как в исходном
+        engine.runTicks(100);
+        restored.runTicks(100);
+        assertSameState(engine, restored);
+        for (int z = 0; z < thermal.getZoneCount(); z++) {
+            assertEquals(thermal.getTemperature(z), copy.getTemperature(z));
+        }
+    }
+
+    @Test
+    void corruptNewestGenerationFallsBackToOlder() throws IOException {
+        Path path = directory.resolve("house.snapshot");
+        SimulationEngine engine = runningHouse();
+        try (SnapshotFile snapshot = new SnapshotFile(path)) {
+            snapshot.save(engine);
+            engine.runTicks(10);
+            snapshot.save(engine);
+        }
+        Path newer = path.resolveSibling("house.snapshot.1");
+        putInt(newer, HEADER_SIZE, getInt(newer, HEADER_SIZE) + 1000);
+        assertEquals(engine.getTickCount() - 10, SnapshotFile.restore(path).getTickCount());
+
+        // Оба поколения повреждены - ошибка, а не дом по умолчанию
+        putInt(path, HEADER_SIZE, -5);
+        assertThrows(IOException.class, () -> SnapshotFile.restore(path));
+    }
+}
@@ -0,0 +1,166 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TelemetryStoreTest {
+
+    //Отсчет, переданный получателю
+    private record Sample(long tick, int ticks, double value) {
+    }
+
+    private static List<Sample> collect(TelemetryStore telemetry, int device, int channel, long from, long to) {
+        List<Sample> samples = new ArrayList<>();
+        telemetry.forEach(device, channel, from, to, (tick, ticks, value) -> samples.add(new Sample(tick, ticks, value)));
+        return samples;
+    }
+
+    private static DeviceStore store(int devices) {
+        DeviceStore store = new DeviceStore(devices);
+        for (int i = 0; i < devices; i++) {
+            store.addThermostat("Термостат " + i, i * 10, 0, 20);
+        }
+        return store;
+    }
+
+    //Показания подобраны под все ветви XOR-сжатия: повторы, изменения в прежнем окне, новые окна,
+    //значения, чьи значащие биты переходят через границу слова потока, знаки, нули и бесконечности
+    private static double value(int device, long tick, long[] noise) {
+        return switch (device) {
+            case 0 -> 21.5;
+            case 1 -> 20.0 + (tick / 7) * 0.25;
+            case 2 -> Math.sin(tick * 0.1) * 1000;
+            case 3 -> tick % 5 == 0 ? 0.0 : -tick;
+            case 4 -> tick % 11 == 0 ? Double.POSITIVE_INFINITY : Double.longBitsToDouble(noise[(int) tick]);
+            default -> tick * 1e-300;
+        };
+    }
+
+    @Test
+    void rawTierRoundTripsEveryBit() {
+        int devices = 6;
+        int ticks = 300;
+        Random random = new Random(7);
+        long[] noise = new long[ticks];
+        for (int t = 0; t < ticks; t++) {
+            // Случайные биты без NaN (NaN в потоке означает "нет данных")
+            do {
+                noise[t] = random.nextLong();
+            } while (Double.isNaN(Double.longBitsToDouble(noise[t])));
+        }
+        DeviceStore store = store(devices);
+        TelemetryStore telemetry = new TelemetryStore(store);
+        for (long tick = 0; tick < ticks; tick++) {
+            for (int i = 0; i < devices; i++) {
+                store.currentValue[i] = value(i, tick, noise);
+                store.targetValue[i] = i;
+                store.powerConsumption[i] = tick % 2 == 0 ? 500 : 0;
+            }
+            telemetry.record(tick);
+        }
+
+        for (int i = 0; i < devices; i++) {
+            List<Sample> samples = collect(telemetry, i, TelemetryStore.CURRENT_VALUE, 0, ticks - 1);
+            assertEquals(ticks, samples.size());
+            for (int t = 0; t < ticks; t++) {
+                Sample sample = samples.get(t);
+                assertEquals(t, sample.tick());
+                assertEquals(1, sample.ticks());
+                assertEquals(Double.doubleToRawLongBits(value(i, t, noise)), Double.doubleToRawLongBits(sample.value()),
+                    "устройство " + i + ", тик " + t);
+            }
+            TelemetryStore.Summary target = telemetry.summarize(i, TelemetryStore.TARGET_VALUE, 0, ticks - 1);
+            assertEquals(i, target.getMin());
+            assertEquals(i, target.getMax());
+            assertEquals(ticks * 250.0 / EnergyLedger.ENERGY_UNIT, telemetry.getEnergy(i, 0, ticks - 1), 1e-9);
+        }
+
+        // Часть диапазона внутри закрытых блоков и открытого блока
+        List<Sample> middle = collect(telemetry, 2, TelemetryStore.CURRENT_VALUE, 60, 260);
+        assertEquals(201, middle.size());
+        assertEquals(60, middle.get(0).tick());
+        assertEquals(260, middle.get(200).tick());
+    }
+
+    @Test
+    void devicesAddedMidBlockHaveNoEarlierSamples() {
+        DeviceStore store = store(1);
+        TelemetryStore telemetry = new TelemetryStore(store);
+        for (long tick = 0; tick < 100; tick++) {
+            if (tick == 40) {
+                store.addLight("Свет", 5, 5, 50);
+            }
+            store.currentValue[0] = tick;
+            if (tick >= 40) {
+                store.currentValue[1] = -tick;
+            }
+            telemetry.record(tick);
+        }
+        List<Sample> late = collect(telemetry, 1, TelemetryStore.CURRENT_VALUE, 0, 99);
+        assertEquals(60, late.size());
+        assertEquals(40, late.get(0).tick());
+        assertEquals(-99, late.get(59).value());
+        assertEquals(100, collect(telemetry, 0, TelemetryStore.CURRENT_VALUE, 0, 99).size());
+    }
+
+    @Test
+    void rangeQueriesSpanAllTiersWithoutGapsOrOverlaps() {
+        DeviceStore store = store(2);
+        // Наименьшие допустимые кольца: подробные уровни быстро вытесняются в минуты и часы
+        TelemetryStore telemetry = new TelemetryStore(store, 3, 2, 4);
+        long ticks = 40_000;
+        for (long tick = 0; tick < ticks; tick++) {
+            store.currentValue[0] = tick;
+            store.currentValue[1] = 21.0;
+            store.powerConsumption[1] = 100;
+            telemetry.record(tick);
+        }
+        // Часовой уровень еще хранит все с начала, подробные - только последние интервалы
+        long oldest = telemetry.getOldestTick();
+        assertEquals(0, oldest);
+
+        List<Sample> samples = collect(telemetry, 0, TelemetryStore.CURRENT_VALUE, 0, Long.MAX_VALUE);
+        // Отсчеты идут подряд: каждый начинается там, где закончился предыдущий
+        assertEquals(oldest, samples.get(0).tick());
+        long expected = oldest;
+        boolean hours = false;
+        boolean minutes = false;
+        for (Sample sample : samples) {
+            assertEquals(expected, sample.tick());
+            // Значение - среднее тиков интервала (показание равно номеру тика)
+            assertEquals(sample.tick() + (sample.ticks() - 1) / 2.0, sample.value(), 1e-6);
+            hours |= sample.ticks() == TelemetryStore.HOUR_TICKS;
+            minutes |= sample.ticks() == TelemetryStore.MINUTE_TICKS;
+            expected += sample.ticks();
+        }
+        assertEquals(ticks, expected);
+        assertTrue(hours && minutes, "запрос прошел все уровни");
+
+        // Произвольные окна: отсчеты внутри окна, по порядку и без перекрытий
+        Random random = new Random(3);
+        for (int q = 0; q < 200; q++) {
+            long from = oldest + random.nextLong(ticks - oldest);
+            long to = from + random.nextLong(ticks - from);
+            long covered = 0;
+            long previousEnd = -1;
+            for (Sample sample : collect(telemetry, 0, TelemetryStore.CURRENT_VALUE, from, to)) {
+                assertTrue(sample.tick() >= from && sample.tick() <= to);
+                assertTrue(sample.tick() >= previousEnd, "отсчеты не перекрываются");
+                previousEnd = sample.tick() + sample.ticks();
+                covered += sample.ticks();
+            }
+            assertTrue(covered <= to - from + TelemetryStore.HOUR_TICKS);
+        }
+
+        TelemetryStore.Summary power = telemetry.summarize(1, TelemetryStore.POWER, 0, Long.MAX_VALUE);
+        assertEquals(ticks - oldest, power.getTicks());
+        assertEquals(100.0, power.getMean(), 1e-9);
+        assertEquals(21.0, telemetry.summarize(1, TelemetryStore.CURRENT_VALUE, 0, Long.MAX_VALUE).getMax());
+    }
+}
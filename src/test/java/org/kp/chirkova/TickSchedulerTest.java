@@ -0,0 +1,78 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickSchedulerTest {
+
+    private static final int DEVICES = 30_000;
+    private static final int CHUNK = 1024;
+
+    //Дом из count устройств по сетке: термостаты, свет и камеры по очереди, 80% включены
+    private static SimulationEngine mixedHouse(int count, long seed) {
+        Random random = new Random(seed);
+        DeviceStore store = new DeviceStore(count);
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        for (int i = 0; i < count; i++) {
+            double x = (i % columns + 0.5) * 150;
+            double y = (i / columns + 0.5) * 150;
+            switch (i % 3) {
+                case 0 -> store.addThermostat(null, x, y, 18.0 + random.nextInt(80) / 10.0);
+                case 1 -> store.addLight(null, x, y, random.nextInt(101));
+                default -> store.addCamera(null, x, y, 100.0);
+            }
+            if (random.nextInt(5) != 0) {
+                store.setOn(i, true);
+            }
+        }
+        return new SimulationEngine(store, Scenario.createKnownScenarios(store));
+    }
+
+    //Тики дома на планировщике с parallelism потоками, с командами, сценарием и движением по ходу
+    private static SimulationEngine run(int parallelism) {
+        SimulationEngine engine = mixedHouse(DEVICES, 11);
+        try (TickScheduler scheduler = new TickScheduler(parallelism, CHUNK)) {
+            engine.setScheduler(scheduler);
+            engine.runTicks(60);
+            engine.activateScenario(engine.getScenarios()[0]);
+            engine.runTicks(60);
+            for (int i = 0; i < DEVICES; i += 97) {
+                engine.getCommands().setTargetValue(i, 15.0 + i % 13);
+            }
+            engine.reportMotion(3000, 3000);
+            engine.runTicks(120);
+            assertEquals(parallelism, scheduler.getParallelism());
+            assertTrue(scheduler.getLastProcessed() > CHUNK, "тик шел несколькими блоками");
+        }
+        return engine;
+    }
+
+    @Test
+    void resultDoesNotDependOnThreadCount() {
+        SimulationEngine serial = run(1);
+        DeviceStore expected = serial.getStore();
+        for (int parallelism : new int[] {3, 8}) {
+            SimulationEngine parallel = run(parallelism);
+            DeviceStore actual = parallel.getStore();
+            String threads = parallelism + " потоков";
+            assertEquals(Double.doubleToRawLongBits(serial.getTotalEnergy()),
+                Double.doubleToRawLongBits(parallel.getTotalEnergy()), threads);
+            assertEquals(Double.doubleToRawLongBits(serial.getCurrentPower()),
+                Double.doubleToRawLongBits(parallel.getCurrentPower()), threads);
+            assertEquals(serial.getPeakPower(), parallel.getPeakPower(), threads);
+            assertArrayEquals(Arrays.copyOf(expected.currentValue, DEVICES), Arrays.copyOf(actual.currentValue, DEVICES),
+                threads);
+            assertArrayEquals(Arrays.copyOf(expected.powerConsumption, DEVICES),
+                Arrays.copyOf(actual.powerConsumption, DEVICES), threads);
+            assertArrayEquals(Arrays.copyOf(expected.on, DEVICES), Arrays.copyOf(actual.on, DEVICES), threads);
+            assertArrayEquals(Arrays.copyOf(expected.ledger.deviceEnergy, DEVICES),
+                Arrays.copyOf(actual.ledger.deviceEnergy, DEVICES), threads);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.kp.chirkova;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    // Горизонт колеса: 4 уровня по 64 слота
+    private static final long HORIZON = 1L << 24;
+    private static final int TIMERS = 3000;
+    private static final long IDLE = -1;
+
+    //Срок через случайное число тиков в пределах уровня level (4 - за горизонтом), иногда ровно на границе блока
+    private static long randomDeadline(Random random, long now, int level) {
+        long span = 1L << (6 * (level + 1));
+        if (random.nextInt(4) == 0) {
+            // Граница блока уровня и соседние с ней тики
+            long block = 1L << (6 * Math.min(level, 3));
+            long boundary = (now / block + 1 + random.nextInt(3)) * block;
+            return Math.max(now + 1, boundary + random.nextInt(3) - 1);
+        }
+        return now + 1 + random.nextLong(level < 4 ? span : 3 * HORIZON);
+    }
+
+    //Ближайший срок по полному перебору
+    private static long nearest(long[] expected) {
+        long min = Long.MAX_VALUE;
+        for (long deadline : expected) {
+            if (deadline != IDLE) {
+                min = Math.min(min, deadline);
+            }
+        }
+        return min;
+    }
+
+    @Test
+    void matchesSortedListAcrossLevelsAndOverflow() {
+        Random random = new Random(15);
+        // Старт незадолго до границы всех уровней, чтобы сразу пройти каскады
+        long start = 5 * HORIZON - 3 * (1L << 18) - 17;
+        TimingWheel wheel = new TimingWheel(start);
+        long[] expected = new long[TIMERS];
+        Arrays.fill(expected, IDLE);
+        for (int id = 0; id < TIMERS; id++) {
+            expected[id] = randomDeadline(random, start, id % 5);
+            wheel.schedule(id, expected[id]);
+        }
+        assertEquals(TIMERS, wheel.size());
+
+        long fired = 0;
+        int steps = 0;
+        while (wheel.size() > 0) {
+            long next = nearest(expected);
+            assertEquals(next, wheel.nextDeadline(), "шаг " + steps);
+            long now = wheel.getNow();
+            long target = switch (random.nextInt(4)) {
+                case 0 -> next;
+                case 1 -> next - 1;
+                case 2 -> now + random.nextInt(200);
+                default -> Math.max(now, next + random.nextLong(1L << 13));
+            };
+            target = Math.max(target, now);
+
+            int count = wheel.advance(target);
+            assertEquals(target, wheel.getNow());
+            long[] dueDeadlines = new long[count];
+            for (int i = 0; i < count; i++) {
+                int id = wheel.getDue()[i];
+                assertTrue(expected[id] != IDLE && expected[id] <= target, "таймер " + id + " не должен наступить");
+                assertFalse(wheel.isScheduled(id));
+                dueDeadlines[i] = expected[id];
+                expected[id] = IDLE;
+            }
+            // Наступившие таймеры идут в порядке сроков
+            long[] sorted = dueDeadlines.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(sorted, dueDeadlines, "шаг " + steps);
+            assertTrue(nearest(expected) > target, "шаг " + steps + ": наступивший таймер остался на колесе");
+            fired += count;
+
+            // Переносы, снятия и новые таймеры по ходу, пока шагов немного
+            if (steps < 400) {
+                for (int k = 0; k < 5; k++) {
+                    int id = random.nextInt(TIMERS);
+                    if (random.nextInt(3) == 0) {
+                        wheel.cancel(id);
+                        expected[id] = IDLE;
+                    } else {
+                        expected[id] = randomDeadline(random, target, random.nextInt(5));
+                        wheel.schedule(id, expected[id]);
+                    }
+                }
+            }
+            assertEquals(Arrays.stream(expected).filter(d -> d != IDLE).count(), wheel.size());
+            steps++;
+        }
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+        assertTrue(fired >= TIMERS);
+        assertTrue(wheel.getNow() > start + HORIZON, "колесо прошло за исходный горизонт");
+    }
+
+    @Test
+    void pastDeadlineFiresOnNextTick() {
+        TimingWheel wheel = new TimingWheel(100);
+        wheel.schedule(3, 40);
+        assertEquals(101, wheel.getDeadline(3));
+        assertEquals(101, wheel.nextDeadline());
+        wheel.schedule(3, 500);
+        assertEquals(0, wheel.advance(499));
+        assertEquals(1, wheel.advance(500));
+        assertEquals(3, wheel.getDue()[0]);
+        assertEquals(0, wheel.size());
+    }
+}